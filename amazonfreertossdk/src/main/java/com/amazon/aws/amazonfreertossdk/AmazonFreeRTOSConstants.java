@@ -23,6 +23,16 @@ public class AmazonFreeRTOSConstants {
     public static final int MQTT_PROXY_CONTROL_OFF = 0;
     public static final int MQTT_PROXY_CONTROL_ON = 1;
 
+    /**
+     * Optional MQTT proxy features, exchanged as a bit mask in MqttProxyControl and Connect.
+     */
+    public static final int MQTT_PROXY_CAPABILITY_DEFLATE = 0x1;
+
+    /**
+     * MQTT PUBLISH payload encoding.
+     */
+    public static final int MQTT_PAYLOAD_ENCODING_DEFLATE = 1;
+
     /**
      * MQTT message type.
      */
@@ -41,6 +51,11 @@ public class AmazonFreeRTOSConstants {
     public static final int MQTT_MSG_PINGRESP = 13;
     public static final int MQTT_MSG_DISCONNECT = 14;
 
+    /**
+     * MQTT SUBACK return code for a topic that could not be subscribed to.
+     */
+    public static final int MQTT_SUBACK_FAILURE = 0x80;
+
     /**
      * Bluetooth connection state. This is matching with BluetoothProfile in the Android SDK.
      */
@@ -51,6 +66,19 @@ public class AmazonFreeRTOSConstants {
         BLE_DISCONNECTING // = 3
     }
 
+    /**
+     * The state of the device managed by AmazonFreeRTOSManager, which decides what happens to BLE
+     * commands. While the device is DISCONNECTED, commands are rejected at once. While it is
+     * CONNECTING or DISCOVERING, commands wait in the queue. Once the device is READY, commands are
+     * sent, and commands for services the device does not have are rejected at once.
+     */
+    public enum DeviceState {
+        DISCONNECTED,
+        CONNECTING,
+        DISCOVERING,
+        READY
+    }
+
     /**
      * The MQTT connection state.
      * Do not change the order of this enum. This is a contract between device library and our sdk.
@@ -70,12 +98,209 @@ public class AmazonFreeRTOSConstants {
      */
     public static final long SCAN_PERIOD = 20000; //ms
 
+    /**
+     * The number of items buffered for each subscriber of a publisher of the SDK. When a
+     * subscriber does not request items fast enough, the oldest buffered items are dropped.
+     */
+    public static final int PUBLISHER_BUFFER_SIZE = 256;
+
     /**
      * After sending BLE commands to device, the SDK will wait for this amount of time, after which
      * it will time out and continue to process the next BLE command.
      */
     public static final int BLE_COMMAND_TIMEOUT = 3000; //ms
 
+    /**
+     * The timers of the SDK expire on a timing wheel with ticks of EVENT_LOOP_TIMER_TICK, so they
+     * run up to one tick late. One turn of the wheel has EVENT_LOOP_TIMER_WHEEL_SIZE ticks.
+     */
+    public static final long EVENT_LOOP_TIMER_TICK = 10; //ms
+    public static final int EVENT_LOOP_TIMER_WHEEL_SIZE = 512;
+
+    /**
+     * The largest mtu allowed by the Bluetooth specification.
+     */
+    public static final int BLE_MAX_MTU = 517;
+
+    /**
+     * The ConnectionPriorityGovernor raises the connection priority when this many BLE commands are
+     * queued, and drops it back after the link has been idle for GOVERNOR_IDLE_TIMEOUT.
+     */
+    public static final int GOVERNOR_QUEUE_DEPTH_THRESHOLD = 4;
+    public static final long GOVERNOR_IDLE_TIMEOUT = 2000; //ms
+
+    /**
+     * A NetworkListSession ends when the device has not sent a network for this amount of time.
+     */
+    public static final long NETWORK_LIST_IDLE_TIMEOUT = 2000; //ms
+
+    /**
+     * The defaults of FleetProvisioner: the number of devices provisioned at the same time, the
+     * number of attempts per device, how long one attempt may take, and how long to scan for
+     * devices that have not been found.
+     */
+    public static final int FLEET_PROVISIONING_CONCURRENCY = 4;
+    public static final int FLEET_PROVISIONING_MAX_ATTEMPTS = 3;
+    public static final long FLEET_PROVISIONING_ATTEMPT_TIMEOUT = 60000; //ms
+    public static final long FLEET_PROVISIONING_DISCOVERY_TIMEOUT = 120000; //ms
+
+    /**
+     * The default time AmazonFreeRTOSManager#provisionNetwork may take, from saving the network
+     * until the device reports it as connected and the broker endpoint is verified.
+     */
+    public static final long PROVISION_NETWORK_TIMEOUT = 30000; //ms
+
+    /**
+     * While waiting for a device to connect to a saved network, the SDK lists the networks of the
+     * device every PROVISION_VERIFY_INTERVAL. The device scans for PROVISION_VERIFY_SCAN_TIMEOUT
+     * before it reports up to PROVISION_VERIFY_MAX_NETWORKS networks.
+     */
+    public static final long PROVISION_VERIFY_INTERVAL = 2000; //ms
+    public static final int PROVISION_VERIFY_SCAN_TIMEOUT = 1; //s
+    public static final int PROVISION_VERIFY_MAX_NETWORKS = 8;
+
+    /**
+     * The default delays of ReconnectPolicy before the first reconnect attempt, and the largest
+     * delay between attempts.
+     */
+    public static final long RECONNECT_INITIAL_DELAY = 500; //ms
+    public static final long RECONNECT_MAX_DELAY = 30000; //ms
+
+    /**
+     * The default maximum number of bytes of MQTT messages from AWS IoT that the SDK buffers for a
+     * device while the BLE connection or the MQTT proxy is not ready.
+     */
+    public static final int DOWNLINK_BUFFER_MAX_BYTES = 64 * 1024; //bytes
+
+    /**
+     * The default maximum number of QoS 1 MQTT messages sent to the device that can wait for a
+     * PUBACK at the same time.
+     */
+    public static final int MQTT_QOS1_INFLIGHT_WINDOW = 8;
+
+    /**
+     * If the device does not send PUBACK for a QoS 1 MQTT message within this amount of time, the
+     * SDK sends the message again, up to MQTT_QOS1_MAX_RETRANSMITS times. A message still not
+     * acknowledged then is dropped and counted by AmazonFreeRTOSManager#getExpiredQos1Messages.
+     */
+    public static final int MQTT_QOS1_RETRANSMIT_TIMEOUT = 10000; //ms
+    public static final int MQTT_QOS1_MAX_RETRANSMITS = 3;
+
+    /**
+     * The number of times the SDK writes an RXLARGE packet again after the write failed, before it
+     * ends the large object with an empty packet so that the device drops it.
+     */
+    public static final int MQTT_RXLARGE_MAX_RETRIES = 3;
+
+    /**
+     * The number of recent QoS 1 MQTT messages from the device that the SDK remembers to detect
+     * retransmissions.
+     */
+    public static final int MQTT_UPLINK_DUPLICATE_CACHE_SIZE = 64;
+
+    /**
+     * MQTT message payloads smaller than this are not compressed, as compression would not save
+     * enough to be worth it.
+     */
+    public static final int MQTT_PAYLOAD_COMPRESSION_THRESHOLD = 256; //bytes
+
+    /**
+     * The largest MQTT message payload a compressed payload from the device may inflate to, which
+     * is the largest payload AWS IoT accepts.
+     */
+    public static final int MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE = 128 * 1024; //bytes
+
+    /**
+     * The number of recently used MQTT topics whose Base64 encoded and decoded forms are cached.
+     */
+    public static final int MQTT_TOPIC_CACHE_SIZE = 64;
+
+    /**
+     * The message types of the OTA service. START, QUERY, FINISH and ABORT are written by the SDK
+     * to the control characteristic, ACK and RESULT are notified by the device on it.
+     */
+    public static final int OTA_MSG_START = 1;
+    public static final int OTA_MSG_QUERY = 2;
+    public static final int OTA_MSG_FINISH = 3;
+    public static final int OTA_MSG_ABORT = 4;
+    public static final int OTA_MSG_ACK = 5;
+    public static final int OTA_MSG_RESULT = 6;
+
+    /**
+     * The status in an OTA RESULT message.
+     */
+    public static final int OTA_STATUS_OK = 0;
+    public static final int OTA_STATUS_REJECTED = 1;
+    public static final int OTA_STATUS_CHECKSUM_MISMATCH = 2;
+
+    /**
+     * The number of OTA image blocks that can be sent to the device before it acknowledges them.
+     */
+    public static final int OTA_WINDOW_SIZE = 16;
+
+    /**
+     * If the device does not answer an OTA message for this amount of time, the SDK asks again,
+     * up to OTA_MAX_RETRIES times before the transfer fails.
+     */
+    public static final long OTA_ACK_TIMEOUT = 5000; //ms
+    public static final int OTA_MAX_RETRIES = 3;
+
+    /**
+     * OTA image blocks are sized so that a block message fits into one packet at the negotiated
+     * mtu. OTA_BLOCK_HEADER_LEN is the length of a block message without its Base64 data. Blocks
+     * are OTA_DEFAULT_BLOCK_SIZE if the mtu is not known, and never smaller than
+     * OTA_MIN_BLOCK_SIZE.
+     */
+    public static final int OTA_BLOCK_HEADER_LEN = 48; //bytes
+    public static final int OTA_DEFAULT_BLOCK_SIZE = 128; //bytes
+    public static final int OTA_MIN_BLOCK_SIZE = 48; //bytes
+
+    /**
+     * The message types of the bulk upload service. REQUEST, ACK, RESEND, DONE and CANCEL are
+     * written by the SDK to the control characteristic, INFO is notified by the device on it.
+     */
+    public static final int BULK_MSG_REQUEST = 1;
+    public static final int BULK_MSG_ACK = 2;
+    public static final int BULK_MSG_RESEND = 3;
+    public static final int BULK_MSG_DONE = 4;
+    public static final int BULK_MSG_CANCEL = 5;
+    public static final int BULK_MSG_INFO = 6;
+
+    /**
+     * The status in a bulk upload INFO or DONE message.
+     */
+    public static final int BULK_STATUS_OK = 0;
+    public static final int BULK_STATUS_NOT_FOUND = 1;
+    public static final int BULK_STATUS_CHECKSUM_MISMATCH = 2;
+
+    /**
+     * The number of bytes of an object the device may send beyond the last offset acknowledged by
+     * the SDK. The SDK acknowledges every half window.
+     */
+    public static final int BULK_UPLOAD_WINDOW = 8 * 1024; //bytes
+
+    /**
+     * If no data arrives for this amount of time during a bulk upload, the SDK asks the device to
+     * send again, up to BULK_UPLOAD_MAX_RETRIES times before the upload fails.
+     */
+    public static final long BULK_UPLOAD_IDLE_TIMEOUT = 5000; //ms
+    public static final int BULK_UPLOAD_MAX_RETRIES = 3;
+
+    /**
+     * Bulk upload chunks are sized so that a chunk message fits into one packet at the negotiated
+     * mtu. BULK_CHUNK_HEADER_LEN is the length of a chunk message without its Base64 data.
+     */
+    public static final int BULK_CHUNK_HEADER_LEN = 40; //bytes
+    public static final int BULK_DEFAULT_CHUNK_SIZE = 128; //bytes
+    public static final int BULK_MIN_CHUNK_SIZE = 48; //bytes
+
+    /**
+     * The default size of the parts a bulk upload is forwarded to the cloud in, and the number of
+     * parts that may wait for delivery before the SDK stops acknowledging data from the device.
+     */
+    public static final int BULK_UPLOAD_PART_SIZE = 32 * 1024; //bytes
+    public static final int BULK_UPLOAD_MAX_PARTS_IN_FLIGHT = 2;
+
     public static final String UUID_AmazonFreeRTOS = "8a7f1168-48af-4efb-83b5-e679f932ff00";
     public static final String UUID_NETWORK_SERVICE = "3113a187-4b9f-4f9a-aa83-c614e11bff00";
     public static final String UUID_LIST_NETWORK_CHARACTERISTIC = "3113a187-4b9f-4f9a-aa83-c614e11bff01";
@@ -95,6 +320,14 @@ public class AmazonFreeRTOSConstants {
     public static final String UUID_IOT_ENDPOINT_CHARACTERISTIC = "8a7f1168-48af-4efb-83b5-e679f932ff02";
     public static final String UUID_DEVICE_MTU_CHARACTERISTIC = "8a7f1168-48af-4efb-83b5-e679f932ff03";
 
+    public static final String UUID_OTA_SERVICE = "5e1d0c8b-7a4f-4b2e-9d63-0f8c2b7aff00";
+    public static final String UUID_OTA_CONTROL_CHARACTERISTIC = "5e1d0c8b-7a4f-4b2e-9d63-0f8c2b7aff01";
+    public static final String UUID_OTA_DATA_CHARACTERISTIC = "5e1d0c8b-7a4f-4b2e-9d63-0f8c2b7aff02";
+
+    public static final String UUID_BULK_UPLOAD_SERVICE = "9b3e7f20-6c1d-4a58-b2e4-71d05f3cff00";
+    public static final String UUID_BULK_UPLOAD_CONTROL_CHARACTERISTIC = "9b3e7f20-6c1d-4a58-b2e4-71d05f3cff01";
+    public static final String UUID_BULK_UPLOAD_DATA_CHARACTERISTIC = "9b3e7f20-6c1d-4a58-b2e4-71d05f3cff02";
+
     public static final Map<String, String> uuidToName = new HashMap<String, String>() {
         {
             put(UUID_LIST_NETWORK_CHARACTERISTIC, "LIST_NETWORK");
@@ -3,10 +3,6 @@ package com.amazon.aws.amazonfreertossdk;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
@@ -28,6 +24,7 @@ import com.amazon.aws.amazonfreertossdk.mqttproxy.Connack;
 import com.amazon.aws.amazonfreertossdk.mqttproxy.Connect;
 import com.amazon.aws.amazonfreertossdk.mqttproxy.MqttProxyControl;
 import com.amazon.aws.amazonfreertossdk.mqttproxy.MqttProxyMessage;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Pingresp;
 import com.amazon.aws.amazonfreertossdk.mqttproxy.Puback;
 import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
 import com.amazon.aws.amazonfreertossdk.mqttproxy.Suback;
@@ -43,41 +40,70 @@ import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
 import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkReq;
 import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkResp;
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.mobileconnectors.iot.AWSIotMqttClientStatusCallback;
-import com.amazonaws.mobileconnectors.iot.AWSIotMqttManager;
-import com.amazonaws.mobileconnectors.iot.AWSIotMqttMessageDeliveryCallback;
-import com.amazonaws.mobileconnectors.iot.AWSIotMqttNewMessageCallback;
-import com.amazonaws.mobileconnectors.iot.AWSIotMqttQos;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import org.reactivestreams.Publisher;
+
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
 import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
 import static com.amazon.aws.amazonfreertossdk.BleCommand.CommandType.READ_CHARACTERISTIC;
 
 /**
  * This class manages MQTT proxy over BLE between the AmazonFreeRTOS Android SDK and AmazonFreeRTOS
- * device.
+ * device. Its methods can be called from any thread. Callbacks to the app, other than the scan
+ * result callback, are called in order on the executor passed in with the callback, or on a
+ * background thread of the SDK, never on the BLE or event loop threads.
  */
 public class AmazonFreeRTOSManager {
 
     private static final String TAG = "AmazonFreeRTOSManager";
+    /*
+      Callbacks run on this pool unless the app passes its own executor. Each manager serializes
+      its callbacks, so a slow callback of one device does not hold up other devices.
+     */
+    static final Executor DEFAULT_CALLBACK_EXECUTOR =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AmazonFreeRTOSCallback");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     private Context mContext;
 
-    private Handler mHandler, mScanHandler;
-    private HandlerThread mHandlerThread, mScanHandlerThread;
+    private Handler mScanHandler;
+    private HandlerThread mScanHandlerThread;
+    /*
+      All BLE, MQTT proxy and AWS IoT state below is only touched on this event loop, so it needs
+      no locking. Callbacks to the app are handed off to their executors, so a slow callback does
+      not hold up the event loop.
+     */
+    private EventLoop mEventLoop;
+    private final CharacteristicRegistry mCharacteristics = new CharacteristicRegistry();
+    private final List<ServiceHandler> mServiceHandlers = new ArrayList<>();
 
     private BleConnectionState mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
+    private DeviceState mDeviceState = DeviceState.DISCONNECTED;
     private boolean mScanning = false;
 
-    private BluetoothGatt mBluetoothGatt;
+    private GattLink mGattLink;
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothLeScanner mBluetoothLeScanner;
 
@@ -85,24 +111,73 @@ public class AmazonFreeRTOSManager {
     private BleConnectionStatusCallback mBleConnectionStatusCallback;
     private NetworkConfigCallback mNetworkConfigCallback;
     private DeviceInfoCallback mDeviceInfoCallback;
+    private Map<Executor, SerialExecutor> mCallbackExecutors = new IdentityHashMap<>();
+    private Executor mBleConnectionStatusExecutor;
+    private Executor mNetworkConfigExecutor;
+    private NetworkListSession mNetworkListSession;
+    private ProvisionNetworkTransaction mProvisionNetworkTransaction;
+    private Executor mDeviceInfoExecutor;
 
-    private AWSIotMqttManager mIotMqttManager;
-
-    private AWSCredentialsProvider mCredentialProvider;
+    private CloudClient mCloudClient;
 
     private MqttConnectionState mMqttConnectionState = MqttConnectionState.MQTT_Disconnected;
 
-    private Queue<BleCommand> mBleCommandQueue = new LinkedList<>();
+    private final BleCommandQueue mBleCommandQueue = new BleCommandQueue();
+    // Copy of the queue size that can be read from any thread.
+    private volatile int mBleCommandQueueDepth = 0;
     private boolean mBleOperationInProgress = false;
-
-    private int mMessageId = 0;
+    private BleCommand mBleCommandInProgress;
+
+    //For QoS 1 mqtt messages
+    private InFlightWindow mInFlightWindow =
+            new InFlightWindow(new InFlightWindow.RetransmitHandler() {
+                @Override
+                public void onRetransmitTimeout(InFlightWindow.Entry entry) {
+                    retransmitQos1Publish(entry);
+                }
+            });
+    private UplinkDuplicateFilter mUplinkDuplicateFilter = new UplinkDuplicateFilter();
+    //For optional mqtt proxy features negotiated with device
+    private PayloadCompressor mPayloadCompressor;
+    private int mDeviceCapabilities = 0;
+    private TopicAliasTable mTopicAliasTable = new TopicAliasTable();
+    private int mTopicAliasMaximum = 0;
     private int mMaxPayloadLen = 0;
     //For large object transfers
     private int mMtu = 0;
     private StringBuilder mTxLargeObject = new StringBuilder();
-    private StringBuilder mRxLargeObject = new StringBuilder();
-    private int mTotalPackets = 0;
-    private int mPacketCount = 1;
+    private LargeObjectTransfer mRxLargeObjectTransfer;
+    private Queue<LargeObjectTransfer> mPendingRxLargeObjectTransfers = new LinkedList<>();
+    private int mNextTransferId = 1;
+    //For messages from AWS IoT that cannot be delivered to device yet
+    private DownlinkBuffer mDownlinkBuffer = new DownlinkBuffer();
+    private KeepAliveStats mKeepAliveStats = new KeepAliveStats();
+    //For link optimization after service discovery
+    private LinkProfile mLinkProfile;
+    private LinkParameters mLinkParameters = new LinkParameters();
+    private ConnectionPriorityGovernor mConnectionPriorityGovernor;
+    private String mDeviceAddress;
+    //For automatic reconnect and session resumption
+    private GattLink.Connector mGattConnector;
+    private ReconnectPolicy mReconnectPolicy;
+    private Random mRandom = new Random();
+    private int mReconnectAttempts = 0;
+    private boolean mResumingSession = false;
+    private int mResumeMtu = 0;
+    private boolean mMqttProxyEnabled = false;
+    private boolean mServicesDiscovered = false;
+    private String mIotClientId;
+    //For reactive streams of SDK events
+    private BoundedPublisher<ScanResult> mScanResultPublisher =
+            new BoundedPublisher<>(PUBLISHER_BUFFER_SIZE, DEFAULT_CALLBACK_EXECUTOR);
+    private BoundedPublisher<BleConnectionState> mConnectionStatePublisher =
+            new BoundedPublisher<>(PUBLISHER_BUFFER_SIZE, DEFAULT_CALLBACK_EXECUTOR);
+    private BoundedPublisher<ProxiedMqttMessage> mUplinkMessagePublisher =
+            new BoundedPublisher<>(PUBLISHER_BUFFER_SIZE, DEFAULT_CALLBACK_EXECUTOR);
+    private BoundedPublisher<ProxiedMqttMessage> mDownlinkMessagePublisher =
+            new BoundedPublisher<>(PUBLISHER_BUFFER_SIZE, DEFAULT_CALLBACK_EXECUTOR);
+    private BoundedPublisher<ListNetworkResp> mNetworkListPublisher =
+            new BoundedPublisher<>(PUBLISHER_BUFFER_SIZE, DEFAULT_CALLBACK_EXECUTOR);
     /**
      * Construct an AmazonFreeRTOSManager instance.
      * @param context The app context. Should be passed in by the app that creates a new instance
@@ -110,16 +185,32 @@ public class AmazonFreeRTOSManager {
      * @param bluetoothAdapter BluetoothAdaptor passed in by the app.
      * @param credentialsProvider AWS credential for connection to AWS IoT. If null is passed in,
      *                            then it will not be able to do MQTT proxy over BLE as it cannot
-     *                            connect to AWS IoT.
+     *                            connect to AWS IoT, unless a CloudClient is set.
      */
     public AmazonFreeRTOSManager(Context context, BluetoothAdapter bluetoothAdapter,
                                  AWSCredentialsProvider credentialsProvider) {
         mContext = context;
         mBluetoothAdapter = bluetoothAdapter;
-        mCredentialProvider = credentialsProvider;
-        mHandlerThread = new HandlerThread("BleCommandHandler");
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        if (credentialsProvider != null) {
+            mCloudClient = new AwsCloudClient(credentialsProvider);
+        }
+        mEventLoop = new EventLoop("BleCommandHandler");
+        registerCharacteristicHandlers();
+    }
+
+    /**
+     * Set the MQTT backend that the MQTT proxy connects the device to, instead of AWS IoT with the
+     * credentials passed to the constructor, e.g. an InProcessCloudClient for tests and
+     * benchmarks. Must be called before the device sends MQTT CONNECT.
+     * @param cloudClient the cloud client.
+     */
+    public void setCloudClient(final CloudClient cloudClient) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCloudClient = cloudClient;
+            }
+        });
     }
 
     /**
@@ -137,6 +228,19 @@ public class AmazonFreeRTOSManager {
             throw new IllegalArgumentException("BleScanResultCallback is null");
         }
         mBleScanResultCallback = scanResultCallback;
+        startScan();
+    }
+
+    /**
+     * Start scanning of nearby BLE devices without a callback. The scan results are only delivered
+     * to the subscribers of getScanResults.
+     */
+    public void startScanBleDevices() {
+        mBleScanResultCallback = null;
+        startScan();
+    }
+
+    private void startScan() {
         if (mBluetoothAdapter != null) {
             mBluetoothLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
             if ( mScanHandlerThread == null ) {
@@ -193,6 +297,7 @@ public class AmazonFreeRTOSManager {
             if (mBleScanResultCallback != null) {
                 mBleScanResultCallback.onBleScanResult(result);
             }
+            mScanResultPublisher.publish(result);
         }
 
         @Override
@@ -210,16 +315,68 @@ public class AmazonFreeRTOSManager {
      */
     public void connectToDevice(final BluetoothDevice bluetoothDevice,
                                 final BleConnectionStatusCallback connectionStatusCallback) {
+        connectToDevice(bluetoothDevice, connectionStatusCallback, null);
+    }
+
+    /**
+     * Connect to the BLE device, and notify the connection state via BleConnectionStatusCallback
+     * on the given executor.
+     * @param bluetoothDevice The BLE device from the scan result of startScanBleDevice.
+     * @param connectionStatusCallback The callback to notify app whether the BLE connection is
+     *                                 successful. Must not be null.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void connectToDevice(final BluetoothDevice bluetoothDevice,
+                                final BleConnectionStatusCallback connectionStatusCallback,
+                                final Executor executor) {
         if (connectionStatusCallback == null) {
             throw new IllegalArgumentException("BleConnectionState callback is null.");
         }
-        if (bluetoothDevice != null) {
-            mBleConnectionStatusCallback = connectionStatusCallback;
-            mBluetoothGatt = bluetoothDevice.connectGatt(mContext, false,
-                    mGattCallback, TRANSPORT_LE);
-        } else {
+        if (bluetoothDevice == null) {
             Log.e(TAG, "Please do a scan for BLE device first.");
+            return;
         }
+        connectToDevice(bluetoothDevice.getAddress(),
+                AndroidGattLink.connector(mContext, bluetoothDevice), connectionStatusCallback,
+                executor);
+    }
+
+    /**
+     * Connect to a device through the given connector, e.g. a simulated device.
+     * @param deviceAddress The address of the device.
+     * @param connector The connector that opens GATT links to the device.
+     * @param connectionStatusCallback The callback to notify the BLE connection state.
+     * @param executor The executor to call the callback on, or null.
+     */
+    void connectToDevice(final String deviceAddress, final GattLink.Connector connector,
+                         final BleConnectionStatusCallback connectionStatusCallback,
+                         final Executor executor) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mBleConnectionStatusCallback = connectionStatusCallback;
+                mBleConnectionStatusExecutor = callbackExecutor(executor);
+                if (mDeviceAddress != null && !mDeviceAddress.equals(deviceAddress)) {
+                    Log.i(TAG, "Connecting to a different device, discarding "
+                            + mDownlinkBuffer.getBufferedMessages() + " buffered mqtt messages.");
+                    mDownlinkBuffer.clear();
+                    mKeepAliveStats.reset();
+                }
+                mDeviceAddress = deviceAddress;
+                mGattConnector = connector;
+                // A connection requested by the app replaces any pending reconnect.
+                mEventLoop.cancel(reconnect);
+                mResumingSession = false;
+                mReconnectAttempts = 0;
+                if (mGattLink != null) {
+                    resetBleSession(DeviceState.CONNECTING);
+                } else {
+                    setDeviceState(DeviceState.CONNECTING);
+                }
+                mGattLink = connector.connect(mGattLinkCallback);
+            }
+        });
     }
 
     /**
@@ -227,11 +384,80 @@ public class AmazonFreeRTOSManager {
      * after BLE connection is established, and before sending any BLE command to the device.
      */
     public void discoverServices() {
-        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED && mBluetoothGatt != null) {
-            mBluetoothGatt.discoverServices();
-        } else {
-            Log.w(TAG, "Bluetooth connection state is not connected.");
-        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mServicesDiscovered || mResumingSession) {
+                    Log.i(TAG, "Services are already discovered.");
+                } else if (mBleConnectionState == BleConnectionState.BLE_CONNECTED
+                        && mGattLink != null) {
+                    mGattLink.discoverServices();
+                } else {
+                    Log.w(TAG, "Bluetooth connection state is not connected.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Set the profile used to optimize the BLE link after services are discovered. With a profile,
+     * the SDK requests the largest mtu, LE 2M PHY when supported and the connection priority
+     * before any other BLE command, and reports the effective link parameters through
+     * BleConnectionStatusCallback#onLinkParametersChanged. Must be called before discoverServices.
+     * @param linkProfile the link profile, or null to leave the link parameters to the app.
+     */
+    public void setLinkProfile(final LinkProfile linkProfile) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mLinkProfile = linkProfile;
+            }
+        });
+    }
+
+    /**
+     * Let the SDK reconnect to the device when the BLE connection is lost, and resume the session
+     * once the link returns. While reconnecting, the connection to AWS IoT and its topic
+     * subscriptions are kept, and messages from AWS IoT are buffered. After reconnecting, the SDK
+     * discovers services, restores the mtu and notifications, enables MQTT proxy again if it was
+     * enabled, and delivers the buffered messages. BleConnectionStatusCallback reports
+     * BLE_CONNECTING while the SDK is reconnecting. The app does not need to call
+     * discoverServices after such a reconnect.
+     * @param reconnectPolicy the reconnect policy, or null to close the session when the BLE
+     *                        connection is lost.
+     */
+    public void setReconnectPolicy(final ReconnectPolicy reconnectPolicy) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mReconnectPolicy = reconnectPolicy;
+            }
+        });
+    }
+
+    /**
+     * Let a governor manage the connection priority from the load on the link. The governor raises
+     * the priority while BLE commands pile up or large objects are transferred, and drops it back
+     * when the link is idle. While a governor is set, the connection priority of the link profile
+     * is not requested.
+     * @param governor the governor, or null to stop managing the connection priority.
+     */
+    public void setConnectionPriorityGovernor(final ConnectionPriorityGovernor governor) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEventLoop.cancel(lowerConnectionPriority);
+                mConnectionPriorityGovernor = governor;
+            }
+        });
+    }
+
+    /**
+     * Get the effective parameters of the BLE link.
+     * @return the link parameters.
+     */
+    public LinkParameters getLinkParameters() {
+        return mLinkParameters;
     }
 
     /**
@@ -241,13 +467,241 @@ public class AmazonFreeRTOSManager {
      * confirm the actual mtu that is set between the device and the Android phone.
      * @param mtu
      */
-    public void setMtu(int mtu) {
-        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED && mBluetoothGatt != null) {
-            Log.d(TAG, "Setting mtu to: " + mtu);
-            mBluetoothGatt.requestMtu(mtu);
-        } else {
-            Log.w(TAG, "Bluetooth connection state is not connected.");
+    public void setMtu(final int mtu) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mBleConnectionState == BleConnectionState.BLE_CONNECTED
+                        && mGattLink != null) {
+                    Log.d(TAG, "Setting mtu to: " + mtu);
+                    sendBleCommand(new BleCommand(CommandType.REQUEST_MTU, mtu));
+                } else {
+                    Log.w(TAG, "Bluetooth connection state is not connected.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the number of BLE commands waiting in the queue, not counting the command in progress.
+     * Can be called from any thread, e.g. by load tests that sample the queue depth.
+     * @return the number of queued BLE commands.
+     */
+    int getBleCommandQueueDepth() {
+        return mBleCommandQueueDepth;
+    }
+
+    /**
+     * Register a handler of a custom GATT service of the device. Its characteristics are added
+     * before this returns, and it becomes ready after the next service discovery, or right away if
+     * services have already been discovered.
+     * @param handler the service handler.
+     * @throws IllegalStateException if the handler is already registered.
+     * @throws IllegalArgumentException if a characteristic of the handler is already registered.
+     */
+    public void registerServiceHandler(final ServiceHandler handler) {
+        handler.register(this, mCharacteristics);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mServiceHandlers.add(handler);
+                if (mServicesDiscovered && mGattLink != null) {
+                    mGattLink.resolve(mCharacteristics.getHandles());
+                    startServiceHandler(handler);
+                }
+            }
+        });
+    }
+
+    /**
+     * Unregister a service handler. Its pending commands still complete, but it gets no more
+     * callbacks other than onDisconnected if it was ready. The handler can be registered again
+     * as soon as this returns.
+     * @param handler the service handler.
+     */
+    public void unregisterServiceHandler(final ServiceHandler handler) {
+        if (!handler.unregister(this)) {
+            return;
+        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mServiceHandlers.remove(handler);
+                handler.setReady(false);
+            }
+        });
+    }
+
+    /**
+     * @return the event loop that owns the state of this manager.
+     */
+    EventLoop getEventLoop() {
+        return mEventLoop;
+    }
+
+    /**
+     * Queue a command of a service handler. Can be called from any thread.
+     */
+    void sendServiceCommand(final BleCommand command) {
+        if (mEventLoop.inEventLoop()) {
+            sendBleCommand(command);
+            return;
+        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendBleCommand(command);
+            }
+        });
+    }
+
+    /**
+     * Enable the notifications of a service handler and tell it that it is ready, if the device
+     * has all of its characteristics.
+     */
+    private void startServiceHandler(ServiceHandler handler) {
+        if (!handler.isRegisteredWith(this)) {
+            // Unregistered, and its removal from mServiceHandlers is still queued.
+            return;
         }
+        for (CharacteristicHandle characteristic : handler.getCharacteristics()) {
+            if (!mGattLink.hasCharacteristic(characteristic)) {
+                Log.w(TAG, "Device has no characteristic " + characteristic + " of service "
+                        + handler.getServiceUuid() + ", its handler is not started.");
+                return;
+            }
+        }
+        for (CharacteristicHandle characteristic : handler.getNotifyingCharacteristics()) {
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR, characteristic)
+                    .setPriority(CommandPriority.HIGH));
+        }
+        handler.setReady(true);
+    }
+
+    /**
+     * Get the buffer that holds MQTT messages from AWS IoT while they cannot be delivered to the
+     * device. App can use it to configure the byte cap and overflow policies, and to read buffered
+     * bytes and drop counts.
+     * @return the downlink buffer of the current device.
+     */
+    public DownlinkBuffer getDownlinkBuffer() {
+        return mDownlinkBuffer;
+    }
+
+    /**
+     * Get the keep-alive statistics of the current device, including the round trip of MQTT
+     * PINGREQ messages answered by the SDK and the liveness of the connection to AWS IoT.
+     * @return the keep-alive statistics.
+     */
+    public KeepAliveStats getKeepAliveStats() {
+        return mKeepAliveStats;
+    }
+
+    /**
+     * Get the stream of BLE scan results. Subscribers receive the results of scans started after
+     * they subscribe, whether or not a BleScanResultCallback is passed to startScanBleDevices.
+     * Like the other publishers of the manager, it spans connections and completes only on
+     * shutdown.
+     * @return the publisher of scan results.
+     */
+    public Publisher<ScanResult> getScanResults() {
+        return mScanResultPublisher;
+    }
+
+    /**
+     * Get the stream of BLE connection state changes of the device managed by this instance.
+     * @return the publisher of connection states.
+     */
+    public Publisher<BleConnectionState> getConnectionStates() {
+        return mConnectionStatePublisher;
+    }
+
+    /**
+     * Get the stream of MQTT messages the device publishes to AWS IoT through the proxy.
+     * @return the publisher of uplink messages.
+     */
+    public Publisher<ProxiedMqttMessage> getUplinkMessages() {
+        return mUplinkMessagePublisher;
+    }
+
+    /**
+     * Get the stream of MQTT messages from AWS IoT that are proxied to the device.
+     * @return the publisher of downlink messages.
+     */
+    public Publisher<ProxiedMqttMessage> getDownlinkMessages() {
+        return mDownlinkMessagePublisher;
+    }
+
+    /**
+     * Get the stream of networks returned by the device in response to listNetworks.
+     * @return the publisher of network list results.
+     */
+    public Publisher<ListNetworkResp> getNetworkListResults() {
+        return mNetworkListPublisher;
+    }
+
+    /**
+     * Get the number of QoS 1 MQTT messages from AWS IoT that the device never acknowledged. The
+     * SDK sends a QoS 1 message to the device at most MQTT_QOS1_MAX_RETRANSMITS + 1 times, then
+     * drops it, so delivery is only guaranteed while the device acknowledges messages in time.
+     * Messages not acknowledged when the BLE connection is lost are not dropped, they are sent
+     * again after reconnecting.
+     * @return the total number of QoS 1 messages dropped without a PUBACK.
+     */
+    public long getExpiredQos1Messages() {
+        return mInFlightWindow.getExpiredMessages();
+    }
+
+    /**
+     * Set the maximum number of QoS 1 MQTT messages sent to the device that can wait for PUBACK
+     * at the same time. Further QoS 1 messages are held back until PUBACK is received for an
+     * earlier message. Default is AmazonFreeRTOSConstants.class#MQTT_QOS1_INFLIGHT_WINDOW.
+     * @param windowSize the size of the in flight window, at least 1.
+     */
+    public void setQos1InFlightWindow(final int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("In flight window size must be at least 1.");
+        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInFlightWindow.setWindowSize(windowSize);
+            }
+        });
+    }
+
+    /**
+     * Enable compression of MQTT message payloads exchanged with the device. The SDK announces
+     * the capability to the device when enabling MQTT proxy, and compresses payloads sent to the
+     * device only if the device announces the same capability in its MQTT CONNECT message. Must be
+     * called before enableMqttProxy.
+     * @param compressor the compressor with the size threshold and preset dictionary shared with
+     *                   the device, or null to disable compression.
+     */
+    public void setPayloadCompressor(final PayloadCompressor compressor) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPayloadCompressor = compressor;
+            }
+        });
+    }
+
+    /**
+     * Set the number of topic aliases the SDK accepts from the device. Topic aliases let MQTT
+     * messages carry a small integer instead of the full topic after the first message on a topic.
+     * Messages sent to the device use topic aliases if the device reports its own maximum in its
+     * MQTT CONNECT message. Must be called before enableMqttProxy.
+     * @param topicAliasMaximum the number of topic aliases, 0 to disable topic aliases from the
+     *                          device.
+     */
+    public void setTopicAliasMaximum(final int topicAliasMaximum) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mTopicAliasMaximum = topicAliasMaximum;
+            }
+        });
     }
 
     /**
@@ -256,19 +710,40 @@ public class AmazonFreeRTOSManager {
      * through DeviceInfoCallback.
      * @param callback The callback to notify app of current mtu value.
      */
-    public void getMtu(DeviceInfoCallback callback) {
-        mDeviceInfoCallback = callback;
-        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED && mBluetoothGatt != null) {
-            Log.d(TAG, "Getting current MTU.");
-            sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
-                    UUID_DEVICE_MTU_CHARACTERISTIC, UUID_DEVICE_INFORMATION_SERVICE));
-        } else {
-            Log.w(TAG, "Bluetooth connection state is not connected.");
-        }
+    public void getMtu(final DeviceInfoCallback callback) {
+        getMtu(callback, null);
+    }
+
+    /**
+     * Same as getMtu(DeviceInfoCallback), with the callback called on the given executor.
+     * @param callback The callback to notify app of current mtu value.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void getMtu(final DeviceInfoCallback callback, final Executor executor) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceInfoCallback = callback;
+                mDeviceInfoExecutor = callbackExecutor(executor);
+                if (mBleConnectionState == BleConnectionState.BLE_CONNECTED
+                        && mGattLink != null) {
+                    Log.d(TAG, "Getting current MTU.");
+                    sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
+                            CharacteristicHandle.DEVICE_MTU));
+                } else {
+                    Log.w(TAG, "Bluetooth connection state is not connected.");
+                }
+            }
+        });
     }
 
+    /**
+     * Read the mtu from the device without replacing the DeviceInfoCallback of the app.
+     */
     private void getMtu() {
-        getMtu(null);
+        sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
+                CharacteristicHandle.DEVICE_MTU));
     }
 
     /**
@@ -278,15 +753,32 @@ public class AmazonFreeRTOSManager {
      * through DeviceInfoCallback.
      * @param callback The callback to notify app of current broker endpoint on device.
      */
-    public void getBrokerEndpoint(DeviceInfoCallback callback) {
-        mDeviceInfoCallback = callback;
-        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED && mBluetoothGatt != null) {
-            Log.d(TAG, "Getting broker endpoint.");
-            sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
-                    UUID_IOT_ENDPOINT_CHARACTERISTIC, UUID_DEVICE_INFORMATION_SERVICE));
-        } else {
-            Log.w(TAG, "Bluetooth connection state is not connected.");
-        }
+    public void getBrokerEndpoint(final DeviceInfoCallback callback) {
+        getBrokerEndpoint(callback, null);
+    }
+
+    /**
+     * Same as getBrokerEndpoint(DeviceInfoCallback), with the callback called on the given executor.
+     * @param callback The callback to notify app of current broker endpoint on device.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void getBrokerEndpoint(final DeviceInfoCallback callback, final Executor executor) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceInfoCallback = callback;
+                mDeviceInfoExecutor = callbackExecutor(executor);
+                if (mBleConnectionState == BleConnectionState.BLE_CONNECTED
+                        && mGattLink != null) {
+                    Log.d(TAG, "Getting broker endpoint.");
+                    sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
+                            CharacteristicHandle.IOT_ENDPOINT));
+                } else {
+                    Log.w(TAG, "Bluetooth connection state is not connected.");
+                }
+            }
+        });
     }
 
     /**
@@ -295,15 +787,32 @@ public class AmazonFreeRTOSManager {
      * delivered through DeviceInfoCallback.
      * @param callback The callback to notify app of current software version.
      */
-    public void getDeviceVersion(DeviceInfoCallback callback) {
-        mDeviceInfoCallback = callback;
-        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED && mBluetoothGatt != null) {
-            Log.d(TAG, "Getting ble software version on device.");
-            sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
-                    UUID_DEVICE_VERSION_CHARACTERISTIC, UUID_DEVICE_INFORMATION_SERVICE));
-        } else {
-            Log.w(TAG, "Bluetooth connection state is not connected.");
-        }
+    public void getDeviceVersion(final DeviceInfoCallback callback) {
+        getDeviceVersion(callback, null);
+    }
+
+    /**
+     * Same as getDeviceVersion(DeviceInfoCallback), with the callback called on the given executor.
+     * @param callback The callback to notify app of current software version.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void getDeviceVersion(final DeviceInfoCallback callback, final Executor executor) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceInfoCallback = callback;
+                mDeviceInfoExecutor = callbackExecutor(executor);
+                if (mBleConnectionState == BleConnectionState.BLE_CONNECTED
+                        && mGattLink != null) {
+                    Log.d(TAG, "Getting ble software version on device.");
+                    sendBleCommand(new BleCommand(CommandType.READ_CHARACTERISTIC,
+                            CharacteristicHandle.DEVICE_VERSION));
+                } else {
+                    Log.w(TAG, "Bluetooth connection state is not connected.");
+                }
+            }
+        });
     }
 
     /**
@@ -314,222 +823,456 @@ public class AmazonFreeRTOSManager {
      * @param enable A boolean to inidate whether to enable or disable MQTT proxy.
      */
     public void enableMqttProxy(final boolean enable) {
-        if (mCredentialProvider == null) {
-            Log.e(TAG, "Cannot enable/disable mqtt proxy because Iot credential is not set.");
-            return;
-        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCloudClient == null) {
+                    Log.e(TAG, "Cannot enable/disable mqtt proxy because Iot credential is not set.");
+                    return;
+                }
+                mMqttProxyEnabled = enable;
+                sendMqttProxyControl(enable);
+                if (!enable) {
+                    disconnectFromIotOnEventLoop();
+                }
+            }
+        });
+    }
+
+    private void sendMqttProxyControl(final boolean enable) {
         Log.i(TAG, (enable ? "Enabling" : "Disabling") + " MQTT Proxy");
 
         MqttProxyControl mqttProxyControl = new MqttProxyControl();
         mqttProxyControl.proxyState = enable ? MQTT_PROXY_CONTROL_ON : MQTT_PROXY_CONTROL_OFF;
+        if (mPayloadCompressor != null) {
+            mqttProxyControl.capabilities = MQTT_PROXY_CAPABILITY_DEFLATE;
+        }
+        if (mTopicAliasMaximum > 0) {
+            mqttProxyControl.topicAliasMaximum = mTopicAliasMaximum;
+        }
         Gson gson = new Gson();
         final String mqttProxyControlStr = gson.toJson(mqttProxyControl);
         sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_MQTT_PROXY_CONTROL_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE,
+                CharacteristicHandle.MQTT_CONTROL,
                 mqttProxyControlStr));
-        if (!enable) {
-            disconnectFromIot();
-        }
     }
 
     /**
      * This is the callback for all BLE commands sent from SDK to device. The response of BLE
      * command is included in the callback, together with the status code.
      */
-    private final BluetoothGattCallback mGattCallback =
-        new BluetoothGattCallback() {
+    private final GattLink.Callback mGattLinkCallback =
+        new GattLink.Callback() {
+            /*
+              GATT callbacks run on Binder threads, they hand over to the event loop.
+             */
             @Override
-            public void onConnectionStateChange(BluetoothGatt gatt, int status,
-                                                int newState) {
-                Log.i(TAG, "BLE connection state changed: " + status + "; new state: "
-                        + BleConnectionState.values()[newState]);
-                String intentAction;
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    //intentAction = ACTION_GATT_CONNECTED;
-                    mBleConnectionState = BleConnectionState.BLE_CONNECTED;
-                    //broadcastUpdate(intentAction);
-                    Log.i(TAG, "Connected to GATT server.");
-                    mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    //intentAction = ACTION_GATT_DISCONNECTED;
-                    mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
-                    close();
-                    Log.i(TAG, "Disconnected from GATT server.");
-                    mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
-                    //broadcastUpdate(intentAction);
-                }
+            public void onConnectionStateChange(final int status, final int newState) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnectionStateChange(status, newState);
+                    }
+                });
             }
 
             @Override
-            // New services discovered
-            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    //broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-                    Log.i(TAG, "Discovered Ble gatt services successfully.");
-                    List<BluetoothGattService> gattServices;
-                    gattServices = mBluetoothGatt.getServices();
-                    describeGattServices(gattServices);
-                    sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
-                            UUID_MQTT_PROXY_TX_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE));
-                    sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
-                            UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE));
-                    sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
-                            UUID_LIST_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE));
-                    sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
-                            UUID_SAVE_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE));
-                    sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
-                            UUID_DELETE_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE));
-                    sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
-                            UUID_EDIT_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE));
-                    getMtu();
-                } else {
-                    Log.e(TAG, "onServicesDiscovered received: " + status);
-                }
+            public void onServicesDiscovered(final int status) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleServicesDiscovered(status);
+                    }
+                });
             }
 
             @Override
-            public void onCharacteristicChanged(BluetoothGatt gatt,
-                                                BluetoothGattCharacteristic characteristic) {
-                String responseStr = characteristic.getStringValue(0);
-                Log.d(TAG, "->->-> Characteristic changed for: "
-                        + uuidToName.get(characteristic.getUuid().toString())
-                        + " with data: " + responseStr);
-
-                Gson gson = new Gson();
-                switch (characteristic.getUuid().toString()) {
-                    case UUID_LIST_NETWORK_CHARACTERISTIC:
-                        ListNetworkResp listNetworkResp = gson.fromJson(responseStr, ListNetworkResp.class);
-                        if (mNetworkConfigCallback != null) {
-                            mNetworkConfigCallback.onListNetworkResponse(listNetworkResp);
-                        }
-                        break;
-                    case UUID_SAVE_NETWORK_CHARACTERISTIC:
-                        SaveNetworkResp saveNetworkResp = gson.fromJson(responseStr, SaveNetworkResp.class);
-                        if (mNetworkConfigCallback != null) {
-                            mNetworkConfigCallback.onSaveNetworkResponse(saveNetworkResp);
-                        }
-                        break;
-                    case UUID_EDIT_NETWORK_CHARACTERISTIC:
-                        EditNetworkResp editNetworkResp = gson.fromJson(responseStr, EditNetworkResp.class);
-                        if (mNetworkConfigCallback != null) {
-                            mNetworkConfigCallback.onEditNetworkResponse(editNetworkResp);
-                        }
-                        break;
-                    case UUID_DELETE_NETWORK_CHARACTERISTIC:
-                        DeleteNetworkResp deleteNetworkResp = gson.fromJson(responseStr, DeleteNetworkResp.class);
-                        if (mNetworkConfigCallback != null) {
-                            mNetworkConfigCallback.onDeleteNetworkResponse(deleteNetworkResp);
-                        }
-                        break;
-                    case UUID_MQTT_PROXY_CONTROL_CHARACTERISTIC:
-                        Log.i(TAG, "MQTT proxy control characteristic "
-                                + characteristic.getStringValue(0));
-                        break;
-                    case UUID_MQTT_PROXY_TX_CHARACTERISTIC:
-                        handleMqttTxMessage(responseStr);
-                        break;
-                    case UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC:
-                        mTxLargeObject = mTxLargeObject.append(responseStr);
-                        sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
-                                UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE));
-                        break;
-                    default:
-                        Log.e(TAG, "Unknown characteristic " + characteristic.getUuid());
-                }
+            public void onCharacteristicChanged(final CharacteristicHandle handle,
+                                                final String value) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleCharacteristicChanged(handle, value);
+                    }
+                });
+            }
 
+            @Override
+            public void onDescriptorWrite(final CharacteristicHandle handle, final int status) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleDescriptorWrite(handle, status);
+                    }
+                });
             }
 
             @Override
-            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
-                                          int status) {
-                Log.d(TAG, "onDescriptorWrite for characteristic: "
-                        + uuidToName.get(descriptor.getCharacteristic().getUuid().toString())
-                        + "; Status: " + (status == 0 ? "Success" : status));
-                processNextBleCommand();
+            public void onMtuChanged(final int mtu, final int status)  {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleMtuChanged(mtu, status);
+                    }
+                });
             }
 
             @Override
-            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status)  {
-                Log.i(TAG, "onMTUChanged : " + mtu + " status: " + (status == 0 ? "Success" : status));
-                mMtu = mtu;
-                mMaxPayloadLen = mMtu - 3;
-                mMaxPayloadLen = mMaxPayloadLen > 0 ? mMaxPayloadLen : 0;
-                processNextBleCommand();
+            public void onPhyUpdate(final int txPhy, final int rxPhy, final int status) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handlePhyUpdate(txPhy, rxPhy, status);
+                    }
+                });
             }
 
             @Override
-            // Result of a characteristic read operation
-            public void onCharacteristicRead(BluetoothGatt gatt,
-                                             BluetoothGattCharacteristic characteristic,
-                                             int status) {
-                Log.d(TAG, "->->-> onCharacteristicRead status: " + (status == 0 ? "Success" : status));
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    String responseStr = characteristic.getStringValue(0);
-                    Log.d(TAG, "    with data: " + responseStr);
-                    Gson gson = new Gson();
-                    switch (characteristic.getUuid().toString()) {
-                        case UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC:
-                            mTxLargeObject = mTxLargeObject.append(responseStr);
-                            if (responseStr.length() < mMaxPayloadLen) {
-                                Log.d(TAG, "This is the last packet in this large object transfer.");
-                                handleMqttTxMessage(mTxLargeObject.toString());
-                                mTxLargeObject.setLength(0); //reset the string.
-                            } else {
-                                sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
-                                    UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE));
-                            }
-                            //broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
-                            break;
-                        case UUID_DEVICE_MTU_CHARACTERISTIC:
-                            Mtu currentMtu = gson.fromJson(responseStr, Mtu.class);
-                            Log.i(TAG, "Current MTU is set to: " + currentMtu.mtu);
-                            mMtu = currentMtu.mtu;
-                            if (mDeviceInfoCallback != null) {
-                                mDeviceInfoCallback.onObtainMtu(mMtu);
-                            }
-                            break;
-                        case UUID_IOT_ENDPOINT_CHARACTERISTIC:
-                            BrokerEndpoint currentEndpoint = gson.fromJson(responseStr, BrokerEndpoint.class);
-                            Log.i(TAG, "Current broker endpoint is set to: "
-                                    + currentEndpoint.brokerEndpoint);
-                            if (mDeviceInfoCallback != null) {
-                                mDeviceInfoCallback.onObtainBrokerEndpoint(currentEndpoint.brokerEndpoint);
-                            }
-                            break;
-                        case UUID_DEVICE_VERSION_CHARACTERISTIC:
-                            Version currentVersion = gson.fromJson(responseStr, Version.class);
-                            Log.i(TAG, "Ble software version on device is: " + currentVersion.version);
-                            if (mDeviceInfoCallback != null) {
-                                mDeviceInfoCallback.onObtainDeviceSoftwareVersion(currentVersion.version);
-                            }
-                            break;
-                        default:
-                            Log.w(TAG, "Unknown characteristic read. ");
+            public void onCharacteristicRead(final CharacteristicHandle handle, final String value,
+                                             final int status) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleCharacteristicRead(handle, value, status);
                     }
-                }
-                processNextBleCommand();
+                });
             }
 
             @Override
-            public void onCharacteristicWrite(BluetoothGatt gatt,
-                                              BluetoothGattCharacteristic characteristic,
-                                              int status) {
-                Log.d(TAG, "onCharacteristicWrite for: "
-                        + uuidToName.get(characteristic.getUuid().toString())
-                        + "; status: " + (status == 0 ? "Success" : status));
-                if (status == BluetoothGatt.GATT_SUCCESS
-                    && UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC.equals(characteristic.getUuid().toString())
-                    && mRxLargeObject.length() > 0) {
-                    String packet = mRxLargeObject.substring(0, Math.min(mRxLargeObject.length(), mMaxPayloadLen));
-                    Log.d(TAG, "Packet #" + (++mPacketCount) + ": " + packet);
-                    sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                            UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE, packet));
-                    mRxLargeObject.delete(0, Math.min(mRxLargeObject.length(), mMaxPayloadLen));
-                }
-                processNextBleCommand();
+            public void onCharacteristicWrite(final CharacteristicHandle handle, final int status) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleCharacteristicWrite(handle, status);
+                    }
+                });
             }
         };
 
+    private void handleConnectionStateChange(int status, int newState) {
+        Log.i(TAG, "BLE connection state changed: " + status + "; new state: "
+                + BleConnectionState.values()[newState]);
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+            mBleConnectionState = BleConnectionState.BLE_CONNECTED;
+            Log.i(TAG, "Connected to GATT server.");
+            notifyBleConnectionStatusChanged();
+            setDeviceState(DeviceState.DISCOVERING);
+            if (mResumingSession && mGattLink != null) {
+                Log.i(TAG, "Reconnected after " + mReconnectAttempts + " attempts, resuming session.");
+                mReconnectAttempts = 0;
+                mGattLink.discoverServices();
+            }
+        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            if (mReconnectPolicy != null && mGattConnector != null) {
+                suspendSession();
+                return;
+            }
+            mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
+            closeOnEventLoop();
+            Log.i(TAG, "Disconnected from GATT server.");
+            notifyBleConnectionStatusChanged();
+        }
+    }
+
+    private void handleServicesDiscovered(int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS && mGattLink != null) {
+            Log.i(TAG, "Discovered Ble gatt services successfully.");
+            mServicesDiscovered = true;
+            mGattLink.resolve(mCharacteristics.getHandles());
+            // Commands parked before discovery go after the commands that set up the device.
+            List<BleCommand> parkedCommands = mBleCommandQueue.clear();
+            setDeviceState(DeviceState.READY);
+            if (mLinkProfile != null) {
+                optimizeLink(mLinkProfile);
+            }
+            if (mResumingSession && mResumeMtu > 0
+                    && (mLinkProfile == null || !mLinkProfile.requestMaxMtu)) {
+                sendBleCommand(new BleCommand(CommandType.REQUEST_MTU, mResumeMtu)
+                        .setPriority(CommandPriority.HIGH));
+            }
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
+                    CharacteristicHandle.MQTT_TX));
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
+                    CharacteristicHandle.MQTT_TXLARGE));
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
+                    CharacteristicHandle.LIST_NETWORK));
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
+                    CharacteristicHandle.SAVE_NETWORK));
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
+                    CharacteristicHandle.DELETE_NETWORK));
+            sendBleCommand(new BleCommand(CommandType.WRITE_DESCRIPTOR,
+                    CharacteristicHandle.EDIT_NETWORK));
+            for (ServiceHandler handler : mServiceHandlers) {
+                startServiceHandler(handler);
+            }
+            for (BleCommand command : parkedCommands) {
+                sendBleCommand(command);
+            }
+            getMtu();
+            if (mResumingSession) {
+                mResumingSession = false;
+                if (mMqttProxyEnabled) {
+                    sendMqttProxyControl(true);
+                }
+            }
+        } else {
+            Log.e(TAG, "onServicesDiscovered received: " + status);
+        }
+    }
+
+    /**
+     * Set the handlers of the characteristics built into the SDK.
+     */
+    private void registerCharacteristicHandlers() {
+        mCharacteristics.setHandler(CharacteristicHandle.LIST_NETWORK,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        final ListNetworkResp listNetworkResp =
+                                new Gson().fromJson(value, ListNetworkResp.class);
+                        mNetworkListPublisher.publish(listNetworkResp);
+                        if (mNetworkListSession != null) {
+                            mNetworkListSession.onResponse(listNetworkResp);
+                        }
+                        final NetworkConfigCallback networkConfigCallback = mNetworkConfigCallback;
+                        if (networkConfigCallback != null) {
+                            mNetworkConfigExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    networkConfigCallback.onListNetworkResponse(listNetworkResp);
+                                }
+                            });
+                        }
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.SAVE_NETWORK,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        final SaveNetworkResp saveNetworkResp =
+                                new Gson().fromJson(value, SaveNetworkResp.class);
+                        final NetworkConfigCallback networkConfigCallback = mNetworkConfigCallback;
+                        if (networkConfigCallback != null) {
+                            mNetworkConfigExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    networkConfigCallback.onSaveNetworkResponse(saveNetworkResp);
+                                }
+                            });
+                        }
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.EDIT_NETWORK,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        final EditNetworkResp editNetworkResp =
+                                new Gson().fromJson(value, EditNetworkResp.class);
+                        final NetworkConfigCallback networkConfigCallback = mNetworkConfigCallback;
+                        if (networkConfigCallback != null) {
+                            mNetworkConfigExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    networkConfigCallback.onEditNetworkResponse(editNetworkResp);
+                                }
+                            });
+                        }
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.DELETE_NETWORK,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        final DeleteNetworkResp deleteNetworkResp =
+                                new Gson().fromJson(value, DeleteNetworkResp.class);
+                        final NetworkConfigCallback networkConfigCallback = mNetworkConfigCallback;
+                        if (networkConfigCallback != null) {
+                            mNetworkConfigExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    networkConfigCallback.onDeleteNetworkResponse(
+                                            deleteNetworkResp);
+                                }
+                            });
+                        }
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.MQTT_CONTROL,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        Log.i(TAG, "MQTT proxy control characteristic " + value);
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.MQTT_TX,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        handleMqttTxMessage(value);
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.MQTT_TXLARGE,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onChanged(String value) {
+                        mTxLargeObject = mTxLargeObject.append(value);
+                        sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
+                                CharacteristicHandle.MQTT_TXLARGE));
+                    }
+
+                    @Override
+                    void onRead(String value) {
+                        mTxLargeObject = mTxLargeObject.append(value);
+                        if (value.length() < mMaxPayloadLen) {
+                            Log.d(TAG, "This is the last packet in this large object transfer.");
+                            handleMqttTxMessage(mTxLargeObject.toString());
+                            mTxLargeObject.setLength(0); //reset the string.
+                        } else {
+                            sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
+                                    CharacteristicHandle.MQTT_TXLARGE));
+                        }
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.DEVICE_MTU,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onRead(String value) {
+                        Mtu currentMtu = new Gson().fromJson(value, Mtu.class);
+                        Log.i(TAG, "Current MTU is set to: " + currentMtu.mtu);
+                        mMtu = currentMtu.mtu;
+                        if (mMaxPayloadLen == 0 && mMtu > 3) {
+                            mMaxPayloadLen = mMtu - 3;
+                        }
+                        final DeviceInfoCallback deviceInfoCallback = mDeviceInfoCallback;
+                        if (deviceInfoCallback != null) {
+                            final int mtu = mMtu;
+                            mDeviceInfoExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    deviceInfoCallback.onObtainMtu(mtu);
+                                }
+                            });
+                        }
+                        flushDownlinkBuffer();
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.IOT_ENDPOINT,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onRead(String value) {
+                        final BrokerEndpoint currentEndpoint =
+                                new Gson().fromJson(value, BrokerEndpoint.class);
+                        Log.i(TAG, "Current broker endpoint is set to: "
+                                + currentEndpoint.brokerEndpoint);
+                        final DeviceInfoCallback deviceInfoCallback = mDeviceInfoCallback;
+                        if (deviceInfoCallback != null) {
+                            mDeviceInfoExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    deviceInfoCallback.onObtainBrokerEndpoint(
+                                            currentEndpoint.brokerEndpoint);
+                                }
+                            });
+                        }
+                    }
+                });
+        mCharacteristics.setHandler(CharacteristicHandle.DEVICE_VERSION,
+                new CharacteristicRegistry.Handler() {
+                    @Override
+                    void onRead(String value) {
+                        final Version currentVersion = new Gson().fromJson(value, Version.class);
+                        Log.i(TAG, "Ble software version on device is: " + currentVersion.version);
+                        final DeviceInfoCallback deviceInfoCallback = mDeviceInfoCallback;
+                        if (deviceInfoCallback != null) {
+                            mDeviceInfoExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    deviceInfoCallback.onObtainDeviceSoftwareVersion(
+                                            currentVersion.version);
+                                }
+                            });
+                        }
+                    }
+                });
+    }
+
+    private void handleCharacteristicChanged(CharacteristicHandle handle, String responseStr) {
+        Log.d(TAG, "->->-> Characteristic changed for: " + handle + " with data: " + responseStr);
+        CharacteristicRegistry.Handler handler = mCharacteristics.getHandler(handle);
+        if (handler == null) {
+            Log.e(TAG, "Unknown characteristic " + handle);
+            return;
+        }
+        handler.onChanged(responseStr);
+    }
+
+    private void handleDescriptorWrite(CharacteristicHandle handle, int status) {
+        Log.d(TAG, "onDescriptorWrite for characteristic: " + handle
+                + "; Status: " + (status == 0 ? "Success" : status));
+        if (!isBleCommandInProgress(CommandType.WRITE_DESCRIPTOR, handle)) {
+            Log.w(TAG, "Ignoring descriptor write of " + handle + " after its command ended.");
+            return;
+        }
+        completeBleCommand(status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    private void handleMtuChanged(int mtu, int status) {
+        Log.i(TAG, "onMTUChanged : " + mtu + " status: " + (status == 0 ? "Success" : status));
+        mMtu = mtu;
+        mMaxPayloadLen = mMtu - 3;
+        mMaxPayloadLen = mMaxPayloadLen > 0 ? mMaxPayloadLen : 0;
+        mLinkParameters.mtu = mtu;
+        notifyLinkParametersChanged();
+        if (isBleCommandInProgress(CommandType.REQUEST_MTU)) {
+            completeBleCommand(status == BluetoothGatt.GATT_SUCCESS);
+        }
+        flushDownlinkBuffer();
+    }
+
+    private void handlePhyUpdate(int txPhy, int rxPhy, int status) {
+        Log.i(TAG, "onPhyUpdate tx: " + txPhy + " rx: " + rxPhy
+                + " status: " + (status == 0 ? "Success" : status));
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mLinkParameters.txPhy = txPhy;
+            mLinkParameters.rxPhy = rxPhy;
+            notifyLinkParametersChanged();
+        }
+        if (isBleCommandInProgress(CommandType.SET_PREFERRED_PHY)) {
+            completeBleCommand(status == BluetoothGatt.GATT_SUCCESS);
+        }
+    }
+
+    private void handleCharacteristicRead(CharacteristicHandle handle, String responseStr,
+                                          int status) {
+        Log.d(TAG, "->->-> onCharacteristicRead status: " + (status == 0 ? "Success" : status));
+        // A read that completes after its command timed out must not complete the next command.
+        if (!isBleCommandInProgress(CommandType.READ_CHARACTERISTIC, handle)) {
+            Log.w(TAG, "Ignoring characteristic read of " + handle + " after its command ended.");
+            return;
+        }
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            Log.d(TAG, "    with data: " + responseStr);
+            CharacteristicRegistry.Handler handler = mCharacteristics.getHandler(handle);
+            if (handler != null) {
+                handler.onRead(responseStr);
+            } else {
+                Log.w(TAG, "Unknown characteristic read. ");
+            }
+        }
+        completeBleCommand(status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    private void handleCharacteristicWrite(CharacteristicHandle handle, int status) {
+        Log.d(TAG, "onCharacteristicWrite for: " + handle
+                + "; status: " + (status == 0 ? "Success" : status));
+        // A write that completes after its command timed out must not complete the next command.
+        if (!isBleCommandInProgress(CommandType.WRITE_CHARACTERISTIC, handle)) {
+            Log.w(TAG, "Ignoring characteristic write of " + handle + " after its command ended.");
+            return;
+        }
+        completeBleCommand(status == BluetoothGatt.GATT_SUCCESS);
+    }
+
     /**
      * Handle MQTT related messages received from device.
      * @param message message received from device.
@@ -541,139 +1284,293 @@ public class AmazonFreeRTOSManager {
         switch (mqttProxyMessage.type) {
             case MQTT_MSG_CONNECT:
                 final Connect connect = gson.fromJson(message, Connect.class);
+                mUplinkDuplicateFilter.clear();
+                mDeviceCapabilities = connect.capabilities;
+                mTopicAliasTable.reset(connect.topicAliasMaximum, mTopicAliasMaximum);
                 connectToIoT(connect);
                 break;
             case MQTT_MSG_SUBSCRIBE:
                 final Subscribe subscribe = gson.fromJson(message, Subscribe.class);
                 Log.d(TAG, subscribe.toString());
+                // Suback is sent once subscriptions to all topics have completed.
                 subscribeToIoT(subscribe);
-                /*
-                  Currently, because the IoT part of aws mobile sdk for Android
-                  does not provide suback callback when subscribe is successful,
-                  we create a fake suback message and send to device as a workaround.
-                  Wait for 1 sec so that the subscribe is complete. Potential bug:
-                  Message is received from the subscribed topic before suback
-                  is sent to device.
-                 */
-                mHandler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        sendSubAck(subscribe);
-                    }
-                }, 1000);
                 break;
             case MQTT_MSG_UNSUBSCRIBE:
                 final Unsubscribe unsubscribe = gson.fromJson(message, Unsubscribe.class);
+                // Unsuback is sent once unsubscriptions from all topics have completed.
                 unsubscribeToIoT(unsubscribe);
-                /*
-                  TODO: add unsuback support in Aws Mobile sdk
-                 */
-                sendUnsubAck(unsubscribe);
                 break;
             case MQTT_MSG_PUBLISH:
-                final Publish publish = gson.fromJson(message, Publish.class);
-                mMessageId = publish.getMsgID();
+                final Publish publish = resolveTopicAlias(gson.fromJson(message, Publish.class));
+                if (publish == null) {
+                    break;
+                }
+                if (publish.getQos() > 0) {
+                    UplinkDuplicateFilter.Result result = mUplinkDuplicateFilter.check(publish);
+                    if (result == UplinkDuplicateFilter.Result.DUPLICATE_PENDING) {
+                        Log.w(TAG, "Ignoring retransmitted mqtt message " + publish.getMsgID()
+                                + ", it is already being published to IoT.");
+                        break;
+                    } else if (result == UplinkDuplicateFilter.Result.DUPLICATE_ACKED) {
+                        Log.w(TAG, "Mqtt message " + publish.getMsgID()
+                                + " is already published to IoT, acknowledging again.");
+                        sendPubAck(publish);
+                        break;
+                    }
+                }
                 publishToIoT(publish);
                 break;
             case MQTT_MSG_DISCONNECT:
                 disconnectFromIot();
                 break;
+            case MQTT_MSG_PINGREQ:
+                // Answered locally, so the device keep-alive does not wait on AWS IoT latency.
+                sendPingResp();
+                break;
             case MQTT_MSG_PUBACK:
                 /*
                  AWS Iot SDK currently sends pub ack back to cloud without waiting
-                 for pub ack from device.
+                 for pub ack from device, so pub ack from device only completes the
+                 delivery between the SDK and the device.
                  */
-                Log.w(TAG, "Received mqtt pub ack from device. ");
+                final Puback puback = gson.fromJson(message, Puback.class);
+                handlePubAck(puback);
                 break;
             default:
                 Log.e(TAG, "Unknown mqtt message type: " + mqttProxyMessage.type);
         }
     }
 
+    /**
+     * Fill in the topic of a message from the device that only carries a topic alias.
+     * @param publish the message from the device.
+     * @return the message with its topic, or null if the topic alias is unknown.
+     */
+    private Publish resolveTopicAlias(final Publish publish) {
+        if (publish.getTopicAlias() == null) {
+            return publish;
+        }
+        String topic = mTopicAliasTable.resolveUplinkTopic(publish.getTopic(), publish.getTopicAlias());
+        if (topic == null) {
+            Log.e(TAG, "Dropping mqtt message with unknown topic alias: " + publish.getTopicAlias());
+            return null;
+        }
+        return new Publish(MQTT_MSG_PUBLISH, topic, publish.getMsgID(), publish.getQos(),
+                publish.getPayload(), publish.getEncoding());
+    }
+
     private void connectToIoT(final Connect connect) {
+        if (mMqttConnectionState == MqttConnectionState.MQTT_Connected
+                && connect.clientID != null && connect.clientID.equals(mIotClientId)) {
+            // The device connects again after a BLE reconnect, the connection to IoT is still up.
+            Log.i(TAG, "Resuming mqtt session of " + mIotClientId);
+            sendConnAck();
+            return;
+        }
         if (mMqttConnectionState != MqttConnectionState.MQTT_Disconnected) {
             Log.w(TAG, "Previous connection is active, please retry or disconnect mqtt first.");
             return;
         }
+        if (mCloudClient == null) {
+            Log.e(TAG, "Cannot connect to IoT because Iot credential is not set.");
+            return;
+        }
         Log.i(TAG, "Connecting to IoT: " + connect.brokerEndpoint);
-        mIotMqttManager = new AWSIotMqttManager(connect.clientID, connect.brokerEndpoint);
+        mIotClientId = connect.clientID;
 
-        mIotMqttManager.connect(mCredentialProvider, new AWSIotMqttClientStatusCallback() {
+        mCloudClient.connect(connect.clientID, connect.brokerEndpoint,
+                new CloudClient.ConnectionCallback() {
             @Override
-            public void onStatusChanged(final AWSIotMqttClientStatus status, Throwable throwable) {
-                Log.i(TAG, "mqtt connection status changed to: " + String.valueOf(status));
-                switch (status) {
-                    case Connected:
-                        mMqttConnectionState = MqttConnectionState.MQTT_Connected;
-                        //sending connack
-                        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED) {
-                            Gson gson = new Gson();
-                            Connack connack = new Connack();
-                            connack.type = MQTT_MSG_CONNACK;
-                            connack.status = MqttConnectionState.MQTT_Connected.ordinal();
-                            final String connackStr = gson.toJson(connack);
-                            sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                                    UUID_MQTT_PROXY_RX_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE,
-                                    connackStr));
-                        } else {
-                            Log.e(TAG, "Cannot send CONACK because BLE connection is: " + mBleConnectionState);
+            public void onConnectionStatusChanged(final CloudClient.ConnectionStatus status,
+                                                  Throwable throwable) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.i(TAG, "mqtt connection status changed to: " + String.valueOf(status));
+                        switch (status) {
+                            case CONNECTED:
+                                mMqttConnectionState = MqttConnectionState.MQTT_Connected;
+                                mKeepAliveStats.onCloudConnected();
+                                sendConnAck();
+                                break;
+                            case CONNECTING:
+                                mMqttConnectionState = MqttConnectionState.MQTT_Connecting;
+                                break;
+                            case CONNECTION_LOST:
+                                mMqttConnectionState = MqttConnectionState.MQTT_Disconnected;
+                                mKeepAliveStats.onCloudDisconnected(true);
+                                break;
+                            case RECONNECTING:
+                                mMqttConnectionState = MqttConnectionState.MQTT_Connecting;
+                                mKeepAliveStats.onCloudDisconnected(true);
+                                break;
+                            default:
+                                Log.e(TAG, "Unknown mqtt connection state: " + status);
                         }
-                        break;
-                    case Connecting:
-                        mMqttConnectionState = MqttConnectionState.MQTT_Connecting;
-                        break;
-                    case ConnectionLost:
-                        mMqttConnectionState = MqttConnectionState.MQTT_Disconnected;
-                        break;
-                    case Reconnecting:
-                        mMqttConnectionState = MqttConnectionState.MQTT_Connecting;
-                        break;
-                    default:
-                        Log.e(TAG, "Unknown mqtt connection state: " + status);
-                }
+                    }
+                });
             }
         });
     }
 
+    private void sendConnAck() {
+        if (mBleConnectionState == BleConnectionState.BLE_CONNECTED) {
+            Gson gson = new Gson();
+            Connack connack = new Connack();
+            connack.type = MQTT_MSG_CONNACK;
+            connack.status = MqttConnectionState.MQTT_Connected.ordinal();
+            final String connackStr = gson.toJson(connack);
+            sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
+                    CharacteristicHandle.MQTT_RX,
+                    connackStr).setCompletionListener(mqttRxWriteListener));
+        } else {
+            Log.e(TAG, "Cannot send CONACK because BLE connection is: " + mBleConnectionState);
+        }
+    }
+
     private void subscribeToIoT(final Subscribe subscribe) {
+        final int[] statuses = new int[subscribe.topics.length];
+        Arrays.fill(statuses, MQTT_SUBACK_FAILURE);
+        final int[] topicAliases = assignTopicAliases(subscribe);
         if (mMqttConnectionState != MqttConnectionState.MQTT_Connected) {
             Log.e(TAG, "Cannot subscribe because mqtt state is not connected.");
+            sendSubAck(subscribe, statuses, topicAliases);
+            return;
+        }
+        if (subscribe.topics.length == 0) {
+            sendSubAck(subscribe, statuses, topicAliases);
             return;
         }
 
+        // All topics are subscribed to in parallel, the last one to complete sends the suback.
+        final AtomicInteger pendingTopics = new AtomicInteger(subscribe.topics.length);
+        final long startTime = System.currentTimeMillis();
         for (int i = 0; i < subscribe.topics.length; i++) {
+            final int topicIndex = i;
             try {
-                byte[] data = Base64.getDecoder().decode(subscribe.topics[i]);
-                String topic = new String(data);
+                final String topic = mTopicAliasTable.decode(subscribe.topics[i]);
                 Log.i(TAG, "Subscribing to IoT on topic : " + topic);
                 final int QoS = subscribe.qoSs[i];
-                AWSIotMqttQos qos = (QoS == 0 ? AWSIotMqttQos.QOS0 : AWSIotMqttQos.QOS1);
-                mIotMqttManager.subscribeToTopic(topic, qos, new AWSIotMqttNewMessageCallback() {
+                CloudClient.SubscriptionCallback subscriptionCallback =
+                        new CloudClient.SubscriptionCallback() {
                     @Override
-                    public void onMessageArrived(final String topic, final byte[] data) {
-                        try {
-                            String message = new String(data, "UTF-8");
-                            Log.i(TAG, " Message arrived on topic: " + topic + ";  message: " + message);
-                            Publish publish = new Publish(
-                                    MQTT_MSG_PUBLISH,
-                                    Base64.getEncoder().encodeToString(topic.getBytes()),
-                                    mMessageId,
-                                    QoS,
-                                    Base64.getEncoder().encodeToString(data)
-                            );
-                            publishToDevice(publish);
-                        } catch (UnsupportedEncodingException e) {
-                            Log.e(TAG, "Message encoding error.", e);
+                    public void onSuccess() {
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                Log.d(TAG, "Subscribed to IoT on topic : " + topic);
+                                statuses[topicIndex] = QoS;
+                                onTopicSubscribeComplete();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable exception) {
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                Log.e(TAG, "Failed to subscribe to IoT on topic : " + topic, exception);
+                                onTopicSubscribeComplete();
+                            }
+                        });
+                    }
+
+                    private void onTopicSubscribeComplete() {
+                        if (pendingTopics.decrementAndGet() == 0) {
+                            Log.d(TAG, "Subscribe " + subscribe.msgID + " completed in "
+                                    + (System.currentTimeMillis() - startTime) + "ms");
+                            sendSubAck(subscribe, statuses, topicAliases);
                         }
                     }
+                };
+                mCloudClient.subscribe(topic, QoS, subscriptionCallback,
+                        new CloudClient.MessageCallback() {
+                    @Override
+                    public void onMessageArrived(final String topic, final byte[] data) {
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onIotMessageArrived(topic, data, QoS);
+                            }
+                        });
+                    }
                 });
             } catch (Exception e) {
                 Log.e(TAG, "Subscription error.", e);
+                if (pendingTopics.decrementAndGet() == 0) {
+                    sendSubAck(subscribe, statuses, topicAliases);
+                }
+            }
+        }
+    }
+
+    private void onIotMessageArrived(final String topic, final byte[] data, final int qos) {
+        mKeepAliveStats.onCloudActivity();
+        try {
+            String message = new String(data, "UTF-8");
+            Log.i(TAG, " Message arrived on topic: " + topic + ";  message: " + message);
+            if (mDownlinkMessagePublisher.getSubscriberCount() > 0) {
+                mDownlinkMessagePublisher.publish(new ProxiedMqttMessage(topic, data, qos));
+            }
+            // Message ID is allocated when the message is sent to device.
+            byte[] payload = data;
+            Integer encoding = null;
+            if (mPayloadCompressor != null
+                    && (mDeviceCapabilities & MQTT_PROXY_CAPABILITY_DEFLATE) != 0) {
+                byte[] compressed = mPayloadCompressor.compress(data);
+                if (compressed != null) {
+                    Log.d(TAG, "Compressed message from " + data.length
+                            + " to " + compressed.length + " bytes.");
+                    payload = compressed;
+                    encoding = MQTT_PAYLOAD_ENCODING_DEFLATE;
+                }
+            }
+            Publish publish = new Publish(
+                    MQTT_MSG_PUBLISH,
+                    mTopicAliasTable.encode(topic),
+                    0,
+                    qos,
+                    Base64.getEncoder().encodeToString(payload),
+                    encoding
+            );
+            publishToDevice(publish);
+        } catch (UnsupportedEncodingException e) {
+            Log.e(TAG, "Message encoding error.", e);
+        }
+    }
+
+    /**
+     * Assign topic aliases to the topics of a SUBSCRIBE message that have no wildcards. The device
+     * learns them from the SUBACK, and messages on the topics carry the full topic until the SUBACK
+     * has been written.
+     * @param subscribe the SUBSCRIBE message from the device.
+     * @return the topic aliases for each topic, or null if the device does not support aliases.
+     */
+    private int[] assignTopicAliases(final Subscribe subscribe) {
+        if (mBleConnectionState != BleConnectionState.BLE_CONNECTED) {
+            return null;
+        }
+        int[] topicAliases = null;
+        for (int i = 0; i < subscribe.topics.length; i++) {
+            String topic = mTopicAliasTable.decode(subscribe.topics[i]);
+            if (topic.contains("+") || topic.contains("#")) {
+                continue;
+            }
+            int alias = mTopicAliasTable.assignDownlinkAlias(subscribe.topics[i]);
+            if (alias == 0) {
+                continue;
             }
+            if (topicAliases == null) {
+                topicAliases = new int[subscribe.topics.length];
+            }
+            topicAliases[i] = alias;
         }
+        return topicAliases;
     }
 
-    private void sendSubAck(final Subscribe subscribe) {
+    private void sendSubAck(final Subscribe subscribe, final int[] statuses,
+                            final int[] topicAliases) {
         if (mBleConnectionState != BleConnectionState.BLE_CONNECTED) {
             Log.e(TAG, "Cannot send SUB ACK to BLE device because BLE connection state" +
                     " is not connected");
@@ -684,26 +1581,79 @@ public class AmazonFreeRTOSManager {
         Suback suback = new Suback();
         suback.type = MQTT_MSG_SUBACK;
         suback.msgID = subscribe.msgID;
-        suback.status = subscribe.qoSs[0];
+        suback.status = statuses.length > 0 ? statuses[0] : MQTT_SUBACK_FAILURE;
+        suback.statuses = statuses;
+        suback.topicAliases = topicAliases;
         final String subackStr = gson.toJson(suback);
         sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_MQTT_PROXY_RX_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE, subackStr));
+                CharacteristicHandle.MQTT_RX, subackStr)
+                .setCompletionListener(new BleCommand.CompletionListener() {
+                    @Override
+                    public void onCompleted(BleCommand command, boolean success) {
+                        if (!success) {
+                            mTopicAliasTable.forgetAnnounced();
+                        } else if (topicAliases != null) {
+                            mTopicAliasTable.markAnnounced(topicAliases);
+                        }
+                    }
+                }));
     }
 
     private void unsubscribeToIoT(final Unsubscribe unsubscribe) {
         if (mMqttConnectionState != MqttConnectionState.MQTT_Connected) {
             Log.e(TAG, "Cannot unsubscribe because mqtt state is not connected.");
+            sendUnsubAck(unsubscribe);
+            return;
+        }
+        if (unsubscribe.topics.length == 0) {
+            sendUnsubAck(unsubscribe);
             return;
         }
 
+        // All topics are unsubscribed from in parallel, the last one to complete sends the unsuback.
+        final AtomicInteger pendingTopics = new AtomicInteger(unsubscribe.topics.length);
+        final long startTime = System.currentTimeMillis();
         for (int i = 0; i < unsubscribe.topics.length; i++) {
             try {
-                byte[] data = Base64.getDecoder().decode(unsubscribe.topics[i]);
-                String topic = new String(data);
+                final String topic = mTopicAliasTable.decode(unsubscribe.topics[i]);
                 Log.i(TAG, "UnSubscribing to IoT on topic : " + topic);
-                mIotMqttManager.unsubscribeTopic(topic);
-            } catch(Exception e){
+                mCloudClient.unsubscribe(topic, new CloudClient.SubscriptionCallback() {
+                    @Override
+                    public void onSuccess() {
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                Log.d(TAG, "Unsubscribed from IoT on topic : " + topic);
+                                onTopicUnsubscribeComplete();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable exception) {
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                Log.e(TAG, "Failed to unsubscribe from IoT on topic : " + topic,
+                                        exception);
+                                onTopicUnsubscribeComplete();
+                            }
+                        });
+                    }
+
+                    private void onTopicUnsubscribeComplete() {
+                        if (pendingTopics.decrementAndGet() == 0) {
+                            Log.d(TAG, "Unsubscribe " + unsubscribe.msgID + " completed in "
+                                    + (System.currentTimeMillis() - startTime) + "ms");
+                            sendUnsubAck(unsubscribe);
+                        }
+                    }
+                });
+            } catch (Exception e) {
                 Log.e(TAG, "Unsubscribe error.", e);
+                if (pendingTopics.decrementAndGet() == 0) {
+                    sendUnsubAck(unsubscribe);
+                }
             }
         }
     }
@@ -721,33 +1671,81 @@ public class AmazonFreeRTOSManager {
         unsuback.msgID = unsubscribe.msgID;
         final String unsubackStr = gson.toJson(unsuback);
         sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_MQTT_PROXY_RX_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE, unsubackStr));
+                CharacteristicHandle.MQTT_RX, unsubackStr)
+                .setCompletionListener(mqttRxWriteListener));
     }
 
     private void publishToIoT(final Publish publish) {
         if (mMqttConnectionState != MqttConnectionState.MQTT_Connected) {
             Log.e(TAG, "Cannot publish message to IoT because mqtt connection state is not connected.");
+            mUplinkDuplicateFilter.forget(publish);
             return;
         }
-        AWSIotMqttMessageDeliveryCallback deliveryCallback = new AWSIotMqttMessageDeliveryCallback() {
+        CloudClient.DeliveryCallback deliveryCallback = new CloudClient.DeliveryCallback() {
             @Override
-            public void statusChanged(MessageDeliveryStatus messageDeliveryStatus, Object o) {
-                Log.d(TAG, "Publish msg delivery status: " + messageDeliveryStatus.toString());
-                if (messageDeliveryStatus == MessageDeliveryStatus.Success && publish.getQos() == 1) {
-                    sendPubAck(publish);
-                }
+            public void onDeliveryComplete(final boolean success) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.d(TAG, "Publish msg delivery status: " + (success ? "Success" : "Fail"));
+                        if (success) {
+                            mKeepAliveStats.onCloudActivity();
+                        }
+                        if (success && publish.getQos() == 1) {
+                            mUplinkDuplicateFilter.acknowledge(publish);
+                            sendPubAck(publish);
+                        } else if (publish.getQos() == 1) {
+                            // Let the device retransmission go through to IoT again.
+                            mUplinkDuplicateFilter.forget(publish);
+                        }
+                    }
+                });
             }
         };
         try {
-            byte[] data = Base64.getDecoder().decode(publish.getTopic());
-            String topic = new String(data);
-            data = Base64.getDecoder().decode(publish.getPayload());
+            String topic = mTopicAliasTable.decode(publish.getTopic());
+            byte[] data = Base64.getDecoder().decode(publish.getPayload());
+            if (publish.getEncoding() != null) {
+                if (publish.getEncoding() != MQTT_PAYLOAD_ENCODING_DEFLATE || mPayloadCompressor == null) {
+                    throw new IllegalArgumentException("Unsupported payload encoding: "
+                            + publish.getEncoding());
+                }
+                data = mPayloadCompressor.decompress(data);
+            }
             Log.i(TAG, "Sending mqtt message to IoT on topic: " + topic + " message: " + new String(data));
-            mIotMqttManager.publishData(data, topic, AWSIotMqttQos.values()[publish.getQos()],
-                    deliveryCallback, null);
+            if (mUplinkMessagePublisher.getSubscriberCount() > 0) {
+                mUplinkMessagePublisher.publish(new ProxiedMqttMessage(topic, data, publish.getQos()));
+            }
+            mCloudClient.publish(topic, data, publish.getQos(), deliveryCallback);
         } catch (Exception e) {
             Log.e(TAG, "Publish error.", e);
+            mUplinkDuplicateFilter.forget(publish);
+        }
+    }
+
+    private void sendPingResp() {
+        if (mBleConnectionState != BleConnectionState.BLE_CONNECTED) {
+            Log.e(TAG, "Cannot send PINGRESP to BLE device because BLE connection state" +
+                    " is not connected");
+            return;
         }
+        final long requestTime = mKeepAliveStats.onPingRequest();
+        Gson gson = new Gson();
+        Pingresp pingresp = new Pingresp();
+        pingresp.type = MQTT_MSG_PINGRESP;
+        final String pingrespStr = gson.toJson(pingresp);
+        // The device declares the connection dead if the PINGRESP is late, so it goes ahead of
+        // queued publishes and transfers.
+        sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
+                CharacteristicHandle.MQTT_RX, pingrespStr)
+                .setPriority(CommandPriority.HIGH)
+                .setCompletionListener(new BleCommand.CompletionListener() {
+                    @Override
+                    public void onCompleted(BleCommand command, boolean success) {
+                        mqttRxWriteListener.onCompleted(command, success);
+                        mKeepAliveStats.onPingResponseSent(requestTime, success);
+                    }
+                }));
     }
 
     private void sendPubAck(final Publish publish) {
@@ -763,193 +1761,674 @@ public class AmazonFreeRTOSManager {
         puback.msgID = publish.getMsgID();
         final String pubackStr = gson.toJson(puback);
         sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_MQTT_PROXY_RX_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE, pubackStr));
+                CharacteristicHandle.MQTT_RX, pubackStr)
+                .setCompletionListener(mqttRxWriteListener));
     }
 
+    /*
+      A failed write on RX may have been a SUBACK that announced topic aliases, or the device may
+      have lost state with it, so messages to the device carry the full topic from then on.
+     */
+    private final BleCommand.CompletionListener mqttRxWriteListener =
+            new BleCommand.CompletionListener() {
+        @Override
+        public void onCompleted(BleCommand command, boolean success) {
+            if (!success) {
+                mTopicAliasTable.forgetAnnounced();
+            }
+        }
+    };
+
     private void publishToDevice(final Publish publish) {
-        if (mBleConnectionState != BleConnectionState.BLE_CONNECTED) {
-            Log.e(TAG, "Cannot deliver mqtt message to BLE device because BLE connection state" +
-                    " is not connected");
+        if (!isMqttProxyReady()) {
+            if (mDownlinkBuffer.offer(publish)) {
+                Log.w(TAG, "BLE connection to device is not ready, buffering mqtt message. "
+                        + mDownlinkBuffer.getBufferedBytes() + " bytes buffered.");
+            } else {
+                Log.e(TAG, "Downlink buffer is full, dropping mqtt message. "
+                        + mDownlinkBuffer.getDroppedMessages() + " messages dropped so far.");
+            }
             return;
         }
-        Log.d(TAG, "Sending received mqtt message back to device, topic: " + publish.getTopic()
+        if (publish.getQos() > 0) {
+            InFlightWindow.Entry entry = mInFlightWindow.track(publish);
+            if (entry == null) {
+                Log.d(TAG, "QoS 1 in flight window is full, " + mInFlightWindow.size()
+                        + " messages are waiting for PUB ACK from device.");
+                return;
+            }
+            sendQos1PublishToDevice(entry);
+        } else {
+            sendPublishToDevice(publish, true);
+        }
+    }
+
+    private void sendQos1PublishToDevice(InFlightWindow.Entry entry) {
+        mEventLoop.schedule(entry, MQTT_QOS1_RETRANSMIT_TIMEOUT);
+        sendPublishToDevice(entry.publish, true);
+    }
+
+    private void retransmitQos1Publish(InFlightWindow.Entry entry) {
+        int msgId = entry.publish.getMsgID();
+        if (mInFlightWindow.get(msgId) != entry) {
+            return;
+        }
+        if (isMqttProxyReady()) {
+            if (!mInFlightWindow.retransmit(entry)) {
+                Log.e(TAG, "Device did not acknowledge mqtt message " + msgId + " after "
+                        + entry.retransmits + " retransmissions, dropping it.");
+                publishWaitingToDevice();
+                return;
+            }
+            Log.w(TAG, "No PUB ACK from device for mqtt message " + msgId
+                    + ", retransmitting. Attempt: " + entry.retransmits);
+            // The device may not know the alias, so the retransmission has the topic.
+            sendPublishToDevice(entry.publish, false);
+        }
+        mEventLoop.schedule(entry, MQTT_QOS1_RETRANSMIT_TIMEOUT);
+    }
+
+    private void handlePubAck(final Puback puback) {
+        InFlightWindow.Entry entry = mInFlightWindow.remove(puback.msgID);
+        if (entry == null) {
+            Log.w(TAG, "Received PUB ACK from device for unknown mqtt message " + puback.msgID);
+            return;
+        }
+        Log.d(TAG, "Received PUB ACK from device for mqtt message " + puback.msgID);
+        mEventLoop.cancel(entry);
+        publishWaitingToDevice();
+    }
+
+    /**
+     * Send the QoS 1 messages that were held back because the in flight window was full.
+     */
+    private void publishWaitingToDevice() {
+        if (!isMqttProxyReady()) {
+            return;
+        }
+        InFlightWindow.Entry entry;
+        while ((entry = mInFlightWindow.trackNextWaiting()) != null) {
+            sendQos1PublishToDevice(entry);
+        }
+    }
+
+    private void sendPublishToDevice(final Publish publish, boolean useAlias) {
+        Log.d(TAG, "Sending received mqtt message back to device, topic: " + publish.getTopic()
                 + " message: " + publish.getPayload());
         Gson gson = new GsonBuilder().disableHtmlEscaping().create();
-        final String publishStr = gson.toJson(publish);
+        final String publishStr = gson.toJson(useAlias ? applyTopicAlias(publish) : publish);
         if (publishStr.length() < mMaxPayloadLen) {
             sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                    UUID_MQTT_PROXY_RX_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE, publishStr));
+                    CharacteristicHandle.MQTT_RX, publishStr)
+                    .setCompletionListener(mqttRxWriteListener));
         } else {
-            mTotalPackets = publishStr.length()/ mMaxPayloadLen + 1;
+            LargeObjectTransfer transfer = new LargeObjectTransfer(mNextTransferId++, publishStr);
             Log.i(TAG, "This message is larger than max payload size: " + mMaxPayloadLen
-                    + ". Breaking down to " + mTotalPackets + " packets.");
-            mRxLargeObject.setLength(0); //clear the string
-            mPacketCount = 1; //reset packet count
-            mRxLargeObject.append(publishStr);
-            String packet = mRxLargeObject.substring(0, mMaxPayloadLen);
-            Log.d(TAG, "Packet #" + mPacketCount + ": " + packet);
-            sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                    UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC, UUID_MQTT_PROXY_SERVICE, packet));
-            mRxLargeObject.delete(0, mMaxPayloadLen);
+                    + ". Breaking down to " + (publishStr.length() / mMaxPayloadLen + 1)
+                    + " packets in transfer #" + transfer.transferId);
+            if (mRxLargeObjectTransfer == null) {
+                mRxLargeObjectTransfer = transfer;
+                sendNextRxLargeObjectPacket();
+            } else {
+                Log.d(TAG, "Transfer #" + mRxLargeObjectTransfer.transferId
+                        + " is in progress, queueing transfer #" + transfer.transferId);
+                mPendingRxLargeObjectTransfers.add(transfer);
+            }
+        }
+    }
+
+    /**
+     * Replace the topic of a message to the device with its alias, once the device knows the alias.
+     * @param publish the message to the device.
+     * @return the message as it should be sent to the device.
+     */
+    private Publish applyTopicAlias(final Publish publish) {
+        int alias = mTopicAliasTable.getAnnouncedAlias(publish.getTopic());
+        if (alias == 0) {
+            return publish;
         }
+        return new Publish(MQTT_MSG_PUBLISH, null, publish.getMsgID(), publish.getQos(),
+                publish.getPayload(), publish.getEncoding(), alias);
     }
 
-    private void writeDescriptor(final String serviceUuid, final String characteristicUuid) {
-        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUuid, characteristicUuid);
-        if (characteristic != null) {
-            mBluetoothGatt.setCharacteristicNotification(characteristic, true);
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    convertFromInteger(0x2902));
-            if (descriptor != null) {
-                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                mBluetoothGatt.writeDescriptor(descriptor);
+    /*
+      The device reassembles a large object by appending RXLARGE packets until it receives a
+      packet shorter than the max payload size, so packets of different large objects cannot be
+      interleaved on the RXLARGE characteristic. Large objects are sent one after another in
+      arrival order. The next packet is only queued after the previous one is written, so the
+      small messages on the RX characteristic, such as acks, are sent in between.
+     */
+    private void sendNextRxLargeObjectPacket() {
+        String packet = mRxLargeObjectTransfer.nextPacket(mMaxPayloadLen);
+        Log.d(TAG, "Transfer #" + mRxLargeObjectTransfer.transferId + " packet #"
+                + mRxLargeObjectTransfer.getPacketCount() + ": " + packet);
+        writeRxLargeObjectPacket(packet);
+    }
+
+    private void writeRxLargeObjectPacket(String packet) {
+        sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
+                CharacteristicHandle.MQTT_RXLARGE, packet)
+                .setCompletionListener(rxLargeObjectPacketListener));
+    }
+
+    private BleCommand.CompletionListener rxLargeObjectPacketListener =
+            new BleCommand.CompletionListener() {
+        @Override
+        public void onCompleted(BleCommand command, boolean success) {
+            onRxLargeObjectPacketWritten(success);
+        }
+    };
+
+    /*
+      A failed packet is written again. If it keeps failing, the transfer is aborted, but the device
+      has to see a short packet before the next object starts, or it would append the packets of
+      the next object to this one. So an aborted transfer ends with an empty packet first.
+     */
+    private void onRxLargeObjectPacketWritten(boolean success) {
+        LargeObjectTransfer transfer = mRxLargeObjectTransfer;
+        if (transfer == null) {
+            return;
+        }
+        if (!success && !transfer.isAborted()) {
+            if (transfer.getRetries() < MQTT_RXLARGE_MAX_RETRIES) {
+                Log.w(TAG, "Failed to write packet #" + transfer.getPacketCount()
+                        + " of transfer #" + transfer.transferId + ", retrying.");
+                writeRxLargeObjectPacket(transfer.retryPacket());
             } else {
-                Log.w(TAG, "There's no such descriptor on characteristic: " + characteristicUuid);
+                Log.e(TAG, "Failed to write packet, aborting transfer #" + transfer.transferId);
+                // The transfer may have announced topic aliases the device never received.
+                mTopicAliasTable.forgetAnnounced();
+                writeRxLargeObjectPacket(transfer.abort());
             }
+            return;
+        }
+        if (!success) {
+            Log.e(TAG, "Failed to end aborted transfer #" + transfer.transferId);
+        } else if (!transfer.isComplete()) {
+            sendNextRxLargeObjectPacket();
+            return;
+        } else if (transfer.isAborted()) {
+            Log.d(TAG, "Ended aborted transfer #" + transfer.transferId);
+        } else {
+            Log.d(TAG, "Transfer #" + transfer.transferId + " completed in "
+                    + transfer.getPacketCount() + " packets.");
         }
+        mRxLargeObjectTransfer = mPendingRxLargeObjectTransfers.poll();
+        if (mRxLargeObjectTransfer != null) {
+            sendNextRxLargeObjectPacket();
+        }
+    }
+
+    /**
+     * The MQTT proxy is ready for messages to the device once BLE is connected and the mtu is known,
+     * which is after all characteristic notifications are enabled following service discovery.
+     */
+    private boolean isMqttProxyReady() {
+        return mBleConnectionState == BleConnectionState.BLE_CONNECTED && mMaxPayloadLen > 0;
     }
 
-    private void writeCharacteristic(final String serviceUuid, final String characteristicUuid, final String value) {
-        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUuid, characteristicUuid);
-        if (characteristic != null) {
-            Log.d(TAG, "<-<-<- Writing to characteristic: " + uuidToName.get(characteristicUuid)
-                    + "  with data: " + value);
-            characteristic.setValue(value);
-            mBluetoothGatt.writeCharacteristic(characteristic);
+    /**
+     * Deliver the messages buffered while the MQTT proxy was not ready, QoS 1 messages first.
+     */
+    private void flushDownlinkBuffer() {
+        if (!isMqttProxyReady() || mDownlinkBuffer.isEmpty()) {
+            return;
+        }
+        List<Publish> bufferedMessages = mDownlinkBuffer.drain();
+        Log.i(TAG, "Flushing " + bufferedMessages.size() + " buffered mqtt messages to device.");
+        for (Publish publish : bufferedMessages) {
+            publishToDevice(publish);
         }
     }
 
-    private BluetoothGattCharacteristic getCharacteristic(final String serviceUuid,
-                                                          final String characteristicUuid) {
-        BluetoothGattService service = mBluetoothGatt.getService(UUID.fromString(serviceUuid));
-        if (service == null) {
-            Log.w(TAG, "There's no such service found with uuid: " + serviceUuid);
-            return null;
+    /**
+     * Queue the commands that apply the link profile. They are queued with high priority, ahead of
+     * the commands that enable notifications, so that the rest of the setup already runs on the
+     * optimized link.
+     */
+    private void optimizeLink(final LinkProfile linkProfile) {
+        if (linkProfile.requestMaxMtu) {
+            sendBleCommand(new BleCommand(CommandType.REQUEST_MTU, BLE_MAX_MTU)
+                    .setPriority(CommandPriority.HIGH));
         }
-        BluetoothGattCharacteristic characteristic =
-                service.getCharacteristic(UUID.fromString(characteristicUuid));
-        if (characteristic == null) {
-            Log.w(TAG, "There's no such characteristic with uuid: " + characteristicUuid);
-            return null;
+        if (linkProfile.preferLe2MPhy && mBluetoothAdapter != null
+                && mBluetoothAdapter.isLe2MPhySupported()) {
+            sendBleCommand(new BleCommand(CommandType.SET_PREFERRED_PHY,
+                    BluetoothDevice.PHY_LE_2M_MASK).setPriority(CommandPriority.HIGH));
+        }
+        if (mConnectionPriorityGovernor == null) {
+            sendBleCommand(new BleCommand(CommandType.REQUEST_CONNECTION_PRIORITY,
+                    linkProfile.connectionPriority).setPriority(CommandPriority.HIGH));
         }
-        return characteristic;
     }
 
-    private void readCharacteristic(final String serviceUuid, final String characteristicUuid) {
-        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUuid, characteristicUuid);
-        if (characteristic != null) {
-            Log.d(TAG, "<-<-<- Reading from characteristic: " + uuidToName.get(characteristicUuid));
-            mBluetoothGatt.readCharacteristic(characteristic);
+    /**
+     * Let the governor adjust the connection priority to the current load on the link. Unlike the
+     * link profile, this does not go through the BLE command queue, as the new priority is needed
+     * most when the queue is deep.
+     */
+    private void governConnectionPriority() {
+        ConnectionPriorityGovernor governor = mConnectionPriorityGovernor;
+        if (governor == null || mBleConnectionState != BleConnectionState.BLE_CONNECTED) {
+            return;
+        }
+        governor.start();
+        boolean bulkTransferActive = mRxLargeObjectTransfer != null || mTxLargeObject.length() > 0;
+        if (governor.isBusy(mBleCommandQueue.size(), bulkTransferActive)) {
+            mEventLoop.cancel(lowerConnectionPriority);
+            if (governor.switchTo(ConnectionPriorityGovernor.Mode.HIGH)) {
+                requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            }
+        } else if (governor.getMode() == ConnectionPriorityGovernor.Mode.HIGH
+                && mBleCommandQueue.isEmpty() && !bulkTransferActive) {
+            mEventLoop.schedule(lowerConnectionPriority, governor.getIdleTimeout());
+        }
+    }
+
+    private final TimingWheel.Timer lowerConnectionPriority = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            ConnectionPriorityGovernor governor = mConnectionPriorityGovernor;
+            if (governor != null && mBleConnectionState == BleConnectionState.BLE_CONNECTED
+                    && governor.switchTo(ConnectionPriorityGovernor.Mode.BALANCED)) {
+                Log.i(TAG, "Link is idle, lowering connection priority.");
+                requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+            }
+        }
+    };
+
+    private void requestConnectionPriority(int connectionPriority) {
+        if (mGattLink != null && mGattLink.requestConnectionPriority(connectionPriority)) {
+            mLinkParameters.connectionPriority = connectionPriority;
+            notifyLinkParametersChanged();
+        } else {
+            Log.w(TAG, "Failed to request connection priority: " + connectionPriority);
+        }
+    }
+
+    private void notifyLinkParametersChanged() {
+        Log.i(TAG, mLinkParameters.toString());
+        final BleConnectionStatusCallback callback = mBleConnectionStatusCallback;
+        final LinkParameters linkParameters = mLinkParameters.copy();
+        if (callback != null) {
+            mBleConnectionStatusExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onLinkParametersChanged(linkParameters);
+                }
+            });
+        }
+    }
+
+    private void notifyBleConnectionStatusChanged() {
+        final BleConnectionStatusCallback callback = mBleConnectionStatusCallback;
+        final BleConnectionState state = mBleConnectionState;
+        mConnectionStatePublisher.publish(state);
+        if (callback != null) {
+            mBleConnectionStatusExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onBleConnectionStatusChanged(state);
+                }
+            });
         }
     }
 
+    /**
+     * Get the serial executor that calls callbacks in order on the given executor. The same
+     * executor always maps to the same serial executor, so callbacks of this device stay in order
+     * across requests.
+     * @param executor the executor passed in by the app, or null for the default executor.
+     * @return the serial executor.
+     */
+    private Executor callbackExecutor(Executor executor) {
+        if (executor == null) {
+            executor = DEFAULT_CALLBACK_EXECUTOR;
+        }
+        SerialExecutor serialExecutor = mCallbackExecutors.get(executor);
+        if (serialExecutor == null) {
+            serialExecutor = new SerialExecutor(executor);
+            mCallbackExecutors.put(executor, serialExecutor);
+        }
+        return serialExecutor;
+    }
+
+    private boolean writeDescriptor(final CharacteristicHandle handle) {
+        if (mGattLink == null) {
+            return false;
+        }
+        return mGattLink.enableNotification(handle);
+    }
+
+    private boolean writeCharacteristic(final CharacteristicHandle handle, final String value) {
+        if (mGattLink == null) {
+            return false;
+        }
+        Log.d(TAG, "<-<-<- Writing to characteristic: " + handle + "  with data: " + value);
+        return mGattLink.writeCharacteristic(handle, value);
+    }
+
+    private boolean readCharacteristic(final CharacteristicHandle handle) {
+        if (mGattLink == null) {
+            return false;
+        }
+        Log.d(TAG, "<-<-<- Reading from characteristic: " + handle);
+        return mGattLink.readCharacteristic(handle);
+    }
+
     /**
      * Closing BLE connection, reset all variables, and disconnect from AWS IoT.
      */
     public void close() {
-        // If ble connection is lost, clear any pending ble command.
-        mBleCommandQueue.clear();
-        mMessageId = 0;
-        mMtu = 0;
-        mTxLargeObject.setLength(0);
-        mRxLargeObject.setLength(0);
-        mTotalPackets = 0;
-        mPacketCount = 1;
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOnEventLoop();
+            }
+        });
+    }
 
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.close();
-            mBluetoothGatt = null;
+    private void closeOnEventLoop() {
+        mEventLoop.cancel(reconnect);
+        mResumingSession = false;
+        mReconnectAttempts = 0;
+        mResumeMtu = 0;
+        mMqttProxyEnabled = false;
+        resetBleSession(DeviceState.DISCONNECTED);
+        mUplinkDuplicateFilter.clear();
+        if (mNetworkListSession != null) {
+            mNetworkListSession.complete(NetworkListSession.CompletionReason.CANCELLED);
+            mNetworkListSession = null;
+        }
+        if (mProvisionNetworkTransaction != null) {
+            mProvisionNetworkTransaction.abort("BLE connection closed.");
+            mProvisionNetworkTransaction = null;
         }
         // If ble connection is closed, there's no need to keep mqtt connection open.
         if ( mMqttConnectionState != MqttConnectionState.MQTT_Disconnected) {
-            disconnectFromIot();
+            disconnectFromIotOnEventLoop();
         }
     }
 
     /**
-     * Disconnect from AWS IoT.
+     * Close the BLE connection and release the manager. Subscribers of the publishers receive the
+     * final BLE_DISCONNECTED state, then complete. The manager cannot be used afterwards.
      */
-    public void disconnectFromIot() {
-        if (mIotMqttManager != null) {
-            try {
-                mIotMqttManager.disconnect();
-                mMqttConnectionState = MqttConnectionState.MQTT_Disconnected;
-            } catch (Exception e) {
-                Log.e(TAG, "Mqtt disconnect error: ", e);
+    public void shutdown() {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOnEventLoop();
+                if (mBleConnectionState != BleConnectionState.BLE_DISCONNECTED) {
+                    mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
+                    notifyBleConnectionStatusChanged();
+                }
+                mScanResultPublisher.complete();
+                mConnectionStatePublisher.complete();
+                mUplinkMessagePublisher.complete();
+                mDownlinkMessagePublisher.complete();
+                mNetworkListPublisher.complete();
+                mEventLoop.shutdown();
+            }
+        });
+    }
+
+    /**
+     * Keep the session with AWS IoT and the messages for the device while the SDK reconnects to
+     * the device.
+     */
+    private void suspendSession() {
+        if (mLinkParameters.mtu > 0) {
+            mResumeMtu = mLinkParameters.mtu;
+        }
+        resetBleSession(DeviceState.CONNECTING);
+        mResumingSession = true;
+        if (mReconnectPolicy.maxAttempts > 0 && mReconnectAttempts >= mReconnectPolicy.maxAttempts) {
+            Log.w(TAG, "Giving up reconnecting after " + mReconnectAttempts + " attempts.");
+            mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
+            closeOnEventLoop();
+            notifyBleConnectionStatusChanged();
+            return;
+        }
+        long delay = mReconnectPolicy.getDelay(mReconnectAttempts, mRandom);
+        mReconnectAttempts++;
+        Log.i(TAG, "BLE connection lost, reconnect attempt " + mReconnectAttempts + " in "
+                + delay + "ms.");
+        if (mBleConnectionState != BleConnectionState.BLE_CONNECTING) {
+            mBleConnectionState = BleConnectionState.BLE_CONNECTING;
+            notifyBleConnectionStatusChanged();
+        }
+        mEventLoop.schedule(reconnect, delay);
+    }
+
+    private final TimingWheel.Timer reconnect = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            if (!mResumingSession || mGattConnector == null) {
+                return;
             }
+            Log.i(TAG, "Reconnecting to " + mDeviceAddress);
+            mGattLink = mGattConnector.connect(mGattLinkCallback);
+        }
+    };
+
+    /**
+     * Clear the state of the BLE link with the device, and fail all BLE commands that are pending.
+     * @param deviceState the device state after the reset.
+     */
+    private void resetBleSession(DeviceState deviceState) {
+        setDeviceState(deviceState);
+        // Pending large objects are dropped, so failing their packets does not start new ones.
+        mTxLargeObject.setLength(0);
+        mRxLargeObjectTransfer = null;
+        mPendingRxLargeObjectTransfers.clear();
+        // If ble connection is lost, fail any pending ble command.
+        mEventLoop.cancel(resetOperationInProgress);
+        List<BleCommand> pendingCommands = new ArrayList<>(mBleCommandQueue.size() + 1);
+        if (mBleCommandInProgress != null) {
+            pendingCommands.add(mBleCommandInProgress);
+        }
+        pendingCommands.addAll(mBleCommandQueue.clear());
+        mBleCommandQueueDepth = 0;
+        mBleOperationInProgress = false;
+        mBleCommandInProgress = null;
+        for (BleCommand command : pendingCommands) {
+            command.complete(false);
+        }
+        if (!pendingCommands.isEmpty()) {
+            Log.i(TAG, "Failed " + pendingCommands.size() + " pending BLE commands.");
+        }
+        mServicesDiscovered = false;
+        for (ServiceHandler handler : mServiceHandlers) {
+            handler.setReady(false);
+        }
+        // Unacknowledged QoS 1 messages are delivered again with new message IDs next session.
+        for (Publish publish : mInFlightWindow.reset()) {
+            mDownlinkBuffer.offer(publish);
+        }
+        mTopicAliasTable.reset(0, 0);
+        mMtu = 0;
+        mMaxPayloadLen = 0;
+        mLinkParameters = new LinkParameters();
+        mEventLoop.cancel(lowerConnectionPriority);
+        if (mConnectionPriorityGovernor != null) {
+            mConnectionPriorityGovernor.stop();
+        }
+
+        if (mGattLink != null) {
+            mGattLink.close();
+            mGattLink = null;
         }
     }
 
-    private UUID convertFromInteger(int i) {
-        final long MSB = 0x0000000000001000L;
-        final long LSB = 0x800000805f9b34fbL;
-        long value = i & 0xFFFFFFFF;
-        return new UUID(MSB | (value << 32), LSB);
+    /**
+     * Disconnect from AWS IoT.
+     */
+    public void disconnectFromIot() {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                disconnectFromIotOnEventLoop();
+            }
+        });
     }
 
-    private void describeGattServices(List<BluetoothGattService> gattServices) {
-        for (BluetoothGattService service : gattServices) {
-            Log.d(TAG, "GattService: " + service.getUuid());
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic characteristic : characteristics) {
-                Log.d(TAG, " |-characteristics: " + characteristic.getUuid());
+    private void disconnectFromIotOnEventLoop() {
+        if (mCloudClient != null && mIotClientId != null) {
+            try {
+                mCloudClient.disconnect();
+                mMqttConnectionState = MqttConnectionState.MQTT_Disconnected;
+                mKeepAliveStats.onCloudDisconnected(false);
+            } catch (Exception e) {
+                Log.e(TAG, "Mqtt disconnect error: ", e);
             }
         }
     }
 
     private void sendBleCommand(final BleCommand command) {
+        if (mDeviceState == DeviceState.DISCONNECTED) {
+            rejectBleCommand(command, "device is disconnected");
+            return;
+        }
+        if (mDeviceState == DeviceState.READY && command.getHandle() != null
+                && !mGattLink.hasCharacteristic(command.getHandle())) {
+            rejectBleCommand(command, "device has no such characteristic");
+            return;
+        }
         mBleCommandQueue.add(command);
+        governConnectionPriority();
         processBleCommandQueue();
     }
 
+    private void rejectBleCommand(final BleCommand command, final String reason) {
+        Log.w(TAG, "Rejecting BLE command " + command.getType() + " on "
+                + command.getHandle() + ", " + reason);
+        command.complete(false);
+    }
+
     private void processBleCommandQueue() {
+        mBleCommandQueueDepth = mBleCommandQueue.size();
         if (mBleOperationInProgress) {
             Log.d(TAG, "Ble operation is in progress. There are " + mBleCommandQueue.size()
                     + " Ble commands in the queue.");
             return;
         }
-        BleCommand bleCommand = mBleCommandQueue.poll();
+        if (mDeviceState != DeviceState.READY) {
+            Log.d(TAG, "Device is " + mDeviceState + ", parking " + mBleCommandQueue.size()
+                    + " Ble commands.");
+            return;
+        }
+        final BleCommand bleCommand = mBleCommandQueue.poll();
+        mBleCommandQueueDepth = mBleCommandQueue.size();
         if (bleCommand == null ) {
             Log.d(TAG, "There's no ble command in the queue.");
             mBleOperationInProgress = false;
             return;
         }
         mBleOperationInProgress = true;
+        mBleCommandInProgress = bleCommand;
         Log.d(TAG, "Processing BLE command: " + bleCommand.getType()
                 + " queue size: " + mBleCommandQueue.size());
+        boolean started;
         switch(bleCommand.getType()) {
             case WRITE_DESCRIPTOR:
-                writeDescriptor(bleCommand.getServiceUuid(), bleCommand.getCharacteristicUuid());
+                started = writeDescriptor(bleCommand.getHandle());
                 break;
             case WRITE_CHARACTERISTIC:
-                writeCharacteristic(bleCommand.getServiceUuid(), bleCommand.getCharacteristicUuid(),
-                        bleCommand.getData());
+                started = writeCharacteristic(bleCommand.getHandle(), bleCommand.getData());
                 break;
             case READ_CHARACTERISTIC:
-                readCharacteristic(bleCommand.getServiceUuid(), bleCommand.getCharacteristicUuid());
+                started = readCharacteristic(bleCommand.getHandle());
                 break;
+            case REQUEST_MTU:
+                started = mGattLink.requestMtu(bleCommand.getValue());
+                break;
+            case SET_PREFERRED_PHY:
+                mGattLink.setPreferredPhy(bleCommand.getValue());
+                started = true;
+                break;
+            case REQUEST_CONNECTION_PRIORITY:
+                // There is no callback for connection priority, so the command completes at once.
+                requestConnectionPriority(bleCommand.getValue());
+                completeBleCommandLater(bleCommand, true);
+                return;
             default:
                 Log.w(TAG, "Unknown Ble command, cannot process.");
+                started = false;
+        }
+        if (!started) {
+            // No callback will come for this command, so free its slot instead of timing out.
+            Log.w(TAG, "Failed to start BLE command " + bleCommand.getType() + " on "
+                    + bleCommand.getHandle());
+            completeBleCommandLater(bleCommand, false);
+            return;
         }
-        mHandler.postDelayed(resetOperationInProgress, BLE_COMMAND_TIMEOUT);
+        mEventLoop.schedule(resetOperationInProgress, BLE_COMMAND_TIMEOUT);
     }
 
-    private Runnable resetOperationInProgress = new Runnable() {
+    private void completeBleCommandLater(final BleCommand bleCommand, final boolean success) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mBleCommandInProgress == bleCommand) {
+                    completeBleCommand(success);
+                }
+            }
+        });
+    }
+
+    private boolean isBleCommandInProgress(CommandType type) {
+        return mBleCommandInProgress != null && mBleCommandInProgress.getType() == type;
+    }
+
+    private boolean isBleCommandInProgress(CommandType type, CharacteristicHandle handle) {
+        return isBleCommandInProgress(type) && mBleCommandInProgress.getHandle() == handle;
+    }
+
+    private final TimingWheel.Timer resetOperationInProgress = new TimingWheel.Timer() {
         @Override
         public void run() {
             Log.w(TAG, "Ble command has timeout since it has not received response from device" +
                     " after " + BLE_COMMAND_TIMEOUT + "ms");
             // If current ble command timed out, process the next ble command.
-            processNextBleCommand();
+            completeBleCommand(false);
         }
     };
 
-    private void processNextBleCommand() {
-        mHandler.removeCallbacks(resetOperationInProgress);
+    /**
+     * Complete the BLE command in progress and process the next one.
+     * @param success whether the BLE command succeeded.
+     */
+    private void completeBleCommand(boolean success) {
+        mEventLoop.cancel(resetOperationInProgress);
+        BleCommand bleCommand = mBleCommandInProgress;
         mBleOperationInProgress = false;
+        mBleCommandInProgress = null;
+        if (bleCommand != null) {
+            bleCommand.complete(success);
+        }
+        governConnectionPriority();
         processBleCommandQueue();
     }
 
+    private void setDeviceState(DeviceState deviceState) {
+        if (mDeviceState == deviceState) {
+            return;
+        }
+        Log.i(TAG, "Device state changed from " + mDeviceState + " to " + deviceState);
+        mDeviceState = deviceState;
+        final BleConnectionStatusCallback callback = mBleConnectionStatusCallback;
+        final DeviceState state = deviceState;
+        if (callback != null) {
+            mBleConnectionStatusExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onDeviceStateChanged(state);
+                }
+            });
+        }
+    }
+
     /**
      * Sends a ListNetworkReq command to the connected BLE device. The available WiFi networks found
      * by the connected BLE device will be returned in the callback as a ListNetworkResp. Each found
@@ -968,11 +2447,72 @@ public class AmazonFreeRTOSManager {
      *                 response.
      */
     public void listNetworks(ListNetworkReq listNetworkReq, NetworkConfigCallback callback) {
-        mNetworkConfigCallback = callback;
+        listNetworks(listNetworkReq, callback, null);
+    }
+
+    /**
+     * Same as listNetworks(ListNetworkReq, NetworkConfigCallback), with the callback called on the given
+     * executor.
+     * @param listNetworkReq The ListNetwork request.
+     * @param callback The callback that is triggered once the BLE device sends a response.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void listNetworks(ListNetworkReq listNetworkReq, NetworkConfigCallback callback,
+                              Executor executor) {
         Gson gson = new Gson();
         final String listNetworkReqStr = gson.toJson(listNetworkReq);
-        sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_LIST_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE, listNetworkReqStr));
+        sendNetworkCommand(CharacteristicHandle.LIST_NETWORK, listNetworkReqStr, callback, executor,
+                null);
+    }
+
+    /**
+     * Sends a ListNetworkReq command to the connected BLE device, and aggregates the responses in
+     * the given session. The session reports a deduplicated snapshot of the networks and its
+     * changes, and ends by itself when the device has reported all networks it found. A session
+     * that is still running is cancelled. The NetworkConfigCallback set by an earlier network
+     * command is not triggered by the responses.
+     * @param listNetworkReq The ListNetwork request.
+     * @param session The session that aggregates the responses.
+     */
+    public void listNetworks(ListNetworkReq listNetworkReq, NetworkListSession session) {
+        listNetworks(listNetworkReq, session, null);
+    }
+
+    /**
+     * Same as listNetworks(ListNetworkReq, NetworkListSession), with the session callback called
+     * on the given executor.
+     * @param listNetworkReq The ListNetwork request.
+     * @param session The session that aggregates the responses.
+     * @param executor The executor to call the session callback on, in order. If null, the
+     *                 callback is called on a background thread of the SDK.
+     */
+    public void listNetworks(final ListNetworkReq listNetworkReq, final NetworkListSession session,
+                             final Executor executor) {
+        Gson gson = new Gson();
+        final String listNetworkReqStr = gson.toJson(listNetworkReq);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mNetworkListSession != null) {
+                    mNetworkListSession.complete(NetworkListSession.CompletionReason.CANCELLED);
+                }
+                mNetworkListSession = session;
+                mNetworkConfigCallback = null;
+                session.start(mEventLoop, callbackExecutor(executor), listNetworkReq.maxNetworks,
+                        TimeUnit.SECONDS.toMillis(listNetworkReq.timeout));
+                sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
+                        CharacteristicHandle.LIST_NETWORK, listNetworkReqStr)
+                        .setCompletionListener(new BleCommand.CompletionListener() {
+                            @Override
+                            public void onCompleted(BleCommand command, boolean success) {
+                                if (!success) {
+                                    session.complete(NetworkListSession.CompletionReason.FAILED);
+                                }
+                            }
+                        }));
+            }
+        });
     }
 
     /**
@@ -983,11 +2523,87 @@ public class AmazonFreeRTOSManager {
      * @param callback The callback that is triggered once the BLE device sends a SaveNetwork response.
      */
     public void saveNetwork(SaveNetworkReq saveNetworkReq, NetworkConfigCallback callback) {
-        mNetworkConfigCallback = callback;
+        saveNetwork(saveNetworkReq, callback, null);
+    }
+
+    /**
+     * Same as saveNetwork(SaveNetworkReq, NetworkConfigCallback), with the callback called on the given
+     * executor.
+     * @param saveNetworkReq The SaveNetwork request.
+     * @param callback The callback that is triggered once the BLE device sends a response.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void saveNetwork(SaveNetworkReq saveNetworkReq, NetworkConfigCallback callback,
+                             Executor executor) {
         Gson gson = new Gson();
         final String saveNetworkReqStr = gson.toJson(saveNetworkReq);
-        sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_SAVE_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE, saveNetworkReqStr));
+        sendNetworkCommand(CharacteristicHandle.SAVE_NETWORK, saveNetworkReqStr, callback, executor,
+                null);
+    }
+
+    /**
+     * Same as saveNetwork(SaveNetworkReq, NetworkConfigCallback, Executor), and tell the listener
+     * whether the request was written to the device.
+     * @param listener Called on the event loop once the write has completed.
+     */
+    void saveNetwork(SaveNetworkReq saveNetworkReq, NetworkConfigCallback callback,
+                     Executor executor, BleCommand.CompletionListener listener) {
+        Gson gson = new Gson();
+        final String saveNetworkReqStr = gson.toJson(saveNetworkReq);
+        sendNetworkCommand(CharacteristicHandle.SAVE_NETWORK, saveNetworkReqStr, callback, executor,
+                listener);
+    }
+
+    /**
+     * Save a network on the connected BLE device, as one operation with a single completion.
+     * If options.confirmConnection is set, after a successful SaveNetwork response the saved
+     * networks of the device are listed until the network is reported as connected. Saved
+     * networks are reported before the device scans, so this ends without waiting for the scan.
+     * Optionally the broker endpoint of the device is read and checked. A provisioning that is
+     * still running fails when a new one is started, and it fails at once if a request cannot be
+     * written to the device.
+     * @param saveNetworkReq The SaveNetwork request.
+     * @param options What to check after the network is saved. If null, the connection is
+     *                confirmed and the endpoint is not checked.
+     * @param callback The callback that is triggered once the provisioning has completed.
+     */
+    public void provisionNetwork(SaveNetworkReq saveNetworkReq, ProvisionNetworkOptions options,
+                                 ProvisionNetworkCallback callback) {
+        provisionNetwork(saveNetworkReq, options, callback, null);
+    }
+
+    /**
+     * Same as provisionNetwork(SaveNetworkReq, ProvisionNetworkOptions, ProvisionNetworkCallback),
+     * with the callback called on the given executor.
+     * @param saveNetworkReq The SaveNetwork request.
+     * @param options What to check after the network is saved.
+     * @param callback The callback that is triggered once the provisioning has completed.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void provisionNetwork(final SaveNetworkReq saveNetworkReq,
+                                 final ProvisionNetworkOptions options,
+                                 final ProvisionNetworkCallback callback, final Executor executor) {
+        if (callback == null) {
+            throw new IllegalArgumentException("ProvisionNetworkCallback is null.");
+        }
+        if (saveNetworkReq == null || saveNetworkReq.ssid == null) {
+            throw new IllegalArgumentException("Network to provision has no ssid.");
+        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mProvisionNetworkTransaction != null) {
+                    mProvisionNetworkTransaction.abort("Replaced by another provisioning.");
+                }
+                mProvisionNetworkTransaction = new ProvisionNetworkTransaction(
+                        AmazonFreeRTOSManager.this, mEventLoop, saveNetworkReq,
+                        options != null ? options : new ProvisionNetworkOptions(), callback,
+                        callbackExecutor(executor));
+                mProvisionNetworkTransaction.start();
+            }
+        });
     }
 
     /**
@@ -1001,11 +2617,23 @@ public class AmazonFreeRTOSManager {
      * @param callback The callback that is triggered once the BLE device sends an EditNetwork response.
      */
     public void editNetwork(EditNetworkReq editNetworkReq, NetworkConfigCallback callback) {
-        mNetworkConfigCallback = callback;
+        editNetwork(editNetworkReq, callback, null);
+    }
+
+    /**
+     * Same as editNetwork(EditNetworkReq, NetworkConfigCallback), with the callback called on the given
+     * executor.
+     * @param editNetworkReq The EditNetwork request.
+     * @param callback The callback that is triggered once the BLE device sends a response.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void editNetwork(EditNetworkReq editNetworkReq, NetworkConfigCallback callback,
+                             Executor executor) {
         Gson gson = new Gson();
         final String editNetworkReqStr = gson.toJson(editNetworkReq);
-        sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_EDIT_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE, editNetworkReqStr));
+        sendNetworkCommand(CharacteristicHandle.EDIT_NETWORK, editNetworkReqStr, callback, executor,
+                null);
     }
 
     /**
@@ -1016,10 +2644,51 @@ public class AmazonFreeRTOSManager {
      * @param callback The callback that is triggered once the BLE device sends a DeleteNetwork response.
      */
     public void deleteNetwork(DeleteNetworkReq deleteNetworkReq, NetworkConfigCallback callback) {
-        mNetworkConfigCallback = callback;
+        deleteNetwork(deleteNetworkReq, callback, null);
+    }
+
+    /**
+     * Same as deleteNetwork(DeleteNetworkReq, NetworkConfigCallback), with the callback called on the given
+     * executor.
+     * @param deleteNetworkReq The DeleteNetwork request.
+     * @param callback The callback that is triggered once the BLE device sends a response.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void deleteNetwork(DeleteNetworkReq deleteNetworkReq, NetworkConfigCallback callback,
+                               Executor executor) {
         Gson gson = new Gson();
         final String deleteNetworkReqStr = gson.toJson(deleteNetworkReq);
-        sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC,
-                UUID_DELETE_NETWORK_CHARACTERISTIC, UUID_NETWORK_SERVICE, deleteNetworkReqStr));
+        sendNetworkCommand(CharacteristicHandle.DELETE_NETWORK, deleteNetworkReqStr, callback,
+                executor, null);
+    }
+
+    private void sendNetworkCommand(final CharacteristicHandle handle, final String request,
+                                    final NetworkConfigCallback callback, final Executor executor,
+                                    final BleCommand.CompletionListener listener) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mNetworkConfigCallback = callback;
+                mNetworkConfigExecutor = callbackExecutor(executor);
+                sendBleCommand(new BleCommand(CommandType.WRITE_CHARACTERISTIC, handle, request)
+                        .setCompletionListener(new BleCommand.CompletionListener() {
+                            @Override
+                            public void onCompleted(BleCommand command, boolean success) {
+                                if (!success) {
+                                    Log.e(TAG, "Failed to send network request to "
+                                            + handle.getName() + ".");
+                                    // No response will come for this request.
+                                    if (mNetworkConfigCallback == callback) {
+                                        mNetworkConfigCallback = null;
+                                    }
+                                }
+                                if (listener != null) {
+                                    listener.onCompleted(command, success);
+                                }
+                            }
+                        }));
+            }
+        });
     }
 }
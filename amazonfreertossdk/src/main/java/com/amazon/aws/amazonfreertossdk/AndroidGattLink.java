@@ -0,0 +1,250 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
+
+/**
+ * This class is the GattLink to a device through the Android Bluetooth stack.
+ */
+class AndroidGattLink implements GattLink {
+    private static final String TAG = "AndroidGattLink";
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION = convertFromInteger(0x2902);
+
+    private final GattLink.Callback mCallback;
+    private BluetoothGatt mBluetoothGatt;
+    // The resolved characteristics by handle index, touched on the event loop only.
+    private BluetoothGattCharacteristic[] mCharacteristics = new BluetoothGattCharacteristic[0];
+    // The handles of the resolved characteristics, read by the GATT callbacks on Binder threads.
+    private volatile Map<BluetoothGattCharacteristic, CharacteristicHandle> mHandles =
+            new IdentityHashMap<>();
+
+    /**
+     * Get a connector that opens links to a BLE device.
+     * @param context the app context.
+     * @param bluetoothDevice the BLE device.
+     * @return the connector.
+     */
+    static GattLink.Connector connector(final Context context,
+                                        final BluetoothDevice bluetoothDevice) {
+        return new GattLink.Connector() {
+            @Override
+            public GattLink connect(GattLink.Callback callback) {
+                AndroidGattLink link = new AndroidGattLink(callback);
+                link.mBluetoothGatt = bluetoothDevice.connectGatt(context, false,
+                        link.mGattCallback, TRANSPORT_LE);
+                return link;
+            }
+        };
+    }
+
+    private AndroidGattLink(GattLink.Callback callback) {
+        mCallback = callback;
+    }
+
+    /*
+      GATT callbacks run on Binder threads. They only copy what they need out of the callback
+      arguments, because characteristic values can be overwritten by the next callback.
+     */
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            mCallback.onConnectionStateChange(status, newState);
+        }
+
+        @Override
+        // New services discovered
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                describeGattServices(gatt);
+            }
+            mCallback.onServicesDiscovered(status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            CharacteristicHandle handle = mHandles.get(characteristic);
+            if (handle == null) {
+                Log.w(TAG, "Notification from unknown characteristic " + characteristic.getUuid());
+                return;
+            }
+            mCallback.onCharacteristicChanged(handle, characteristic.getStringValue(0));
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            mCallback.onDescriptorWrite(mHandles.get(descriptor.getCharacteristic()), status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mCallback.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            mCallback.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        @Override
+        // Result of a characteristic read operation
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicRead(mHandles.get(characteristic),
+                    characteristic.getStringValue(0), status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicWrite(mHandles.get(characteristic), status);
+        }
+    };
+
+    @Override
+    public boolean discoverServices() {
+        return mBluetoothGatt != null && mBluetoothGatt.discoverServices();
+    }
+
+    @Override
+    public void resolve(List<CharacteristicHandle> handles) {
+        BluetoothGattCharacteristic[] characteristics =
+                new BluetoothGattCharacteristic[handles.size()];
+        Map<BluetoothGattCharacteristic, CharacteristicHandle> resolved = new IdentityHashMap<>();
+        if (mBluetoothGatt != null) {
+            Map<String, BluetoothGattService> services = new HashMap<>();
+            for (CharacteristicHandle handle : handles) {
+                if (!services.containsKey(handle.serviceUuid)) {
+                    BluetoothGattService service =
+                            mBluetoothGatt.getService(UUID.fromString(handle.serviceUuid));
+                    if (service == null) {
+                        Log.w(TAG, "There's no such service found with uuid: "
+                                + handle.serviceUuid);
+                    }
+                    services.put(handle.serviceUuid, service);
+                }
+                BluetoothGattService service = services.get(handle.serviceUuid);
+                if (service == null) {
+                    continue;
+                }
+                BluetoothGattCharacteristic characteristic =
+                        service.getCharacteristic(UUID.fromString(handle.characteristicUuid));
+                if (characteristic == null) {
+                    Log.w(TAG, "There's no such characteristic with uuid: "
+                            + handle.characteristicUuid);
+                    continue;
+                }
+                characteristics[handle.index] = characteristic;
+                resolved.put(characteristic, handle);
+            }
+        }
+        mCharacteristics = characteristics;
+        mHandles = resolved;
+    }
+
+    @Override
+    public boolean hasCharacteristic(CharacteristicHandle handle) {
+        return getCharacteristic(handle) != null;
+    }
+
+    @Override
+    public boolean enableNotification(CharacteristicHandle handle) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(handle);
+        if (characteristic == null) {
+            return false;
+        }
+        mBluetoothGatt.setCharacteristicNotification(characteristic, true);
+        BluetoothGattDescriptor descriptor =
+                characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIGURATION);
+        if (descriptor == null) {
+            Log.w(TAG, "There's no such descriptor on characteristic: " + handle);
+            return false;
+        }
+        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        return mBluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean writeCharacteristic(CharacteristicHandle handle, String value) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(handle);
+        if (characteristic == null) {
+            return false;
+        }
+        characteristic.setValue(value);
+        return mBluetoothGatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean readCharacteristic(CharacteristicHandle handle) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(handle);
+        if (characteristic == null) {
+            return false;
+        }
+        return mBluetoothGatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return mBluetoothGatt != null && mBluetoothGatt.requestMtu(mtu);
+    }
+
+    @Override
+    public void setPreferredPhy(int phyMask) {
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.setPreferredPhy(phyMask, phyMask,
+                    BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return mBluetoothGatt != null
+                && mBluetoothGatt.requestConnectionPriority(connectionPriority);
+    }
+
+    @Override
+    public void close() {
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.close();
+            mBluetoothGatt = null;
+        }
+    }
+
+    private BluetoothGattCharacteristic getCharacteristic(CharacteristicHandle handle) {
+        if (mBluetoothGatt == null || handle.index >= mCharacteristics.length) {
+            return null;
+        }
+        return mCharacteristics[handle.index];
+    }
+
+    private static void describeGattServices(BluetoothGatt gatt) {
+        for (BluetoothGattService service : gatt.getServices()) {
+            Log.d(TAG, "GattService: " + service.getUuid());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                Log.d(TAG, " |-characteristics: " + characteristic.getUuid());
+            }
+        }
+    }
+
+    private static UUID convertFromInteger(int i) {
+        final long MSB = 0x0000000000001000L;
+        final long LSB = 0x800000805f9b34fbL;
+        long value = i & 0xFFFFFFFF;
+        return new UUID(MSB | (value << 32), LSB);
+    }
+}
@@ -0,0 +1,106 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttClientStatusCallback;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttManager;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttMessageDeliveryCallback;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttNewMessageCallback;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttQos;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttSubscriptionStatusCallback;
+
+/**
+ * This class is the CloudClient that connects to AWS IoT with the AWS IoT SDK for Android.
+ */
+class AwsCloudClient implements CloudClient {
+    private final AWSCredentialsProvider mCredentialsProvider;
+    private AWSIotMqttManager mIotMqttManager;
+
+    /**
+     * @param credentialsProvider AWS credential for connection to AWS IoT.
+     */
+    AwsCloudClient(AWSCredentialsProvider credentialsProvider) {
+        mCredentialsProvider = credentialsProvider;
+    }
+
+    @Override
+    public void connect(String clientId, String brokerEndpoint,
+                        final ConnectionCallback callback) {
+        mIotMqttManager = new AWSIotMqttManager(clientId, brokerEndpoint);
+        mIotMqttManager.connect(mCredentialsProvider, new AWSIotMqttClientStatusCallback() {
+            @Override
+            public void onStatusChanged(AWSIotMqttClientStatus status, Throwable throwable) {
+                switch (status) {
+                    case Connecting:
+                        callback.onConnectionStatusChanged(ConnectionStatus.CONNECTING, throwable);
+                        break;
+                    case Connected:
+                        callback.onConnectionStatusChanged(ConnectionStatus.CONNECTED, throwable);
+                        break;
+                    case Reconnecting:
+                        callback.onConnectionStatusChanged(ConnectionStatus.RECONNECTING, throwable);
+                        break;
+                    case ConnectionLost:
+                    default:
+                        callback.onConnectionStatusChanged(ConnectionStatus.CONNECTION_LOST,
+                                throwable);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(String topic, int qos, final SubscriptionCallback subscriptionCallback,
+                          final MessageCallback messageCallback) {
+        mIotMqttManager.subscribeToTopic(topic, qos == 0 ? AWSIotMqttQos.QOS0 : AWSIotMqttQos.QOS1,
+                new AWSIotMqttSubscriptionStatusCallback() {
+                    @Override
+                    public void onSuccess() {
+                        subscriptionCallback.onSuccess();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable exception) {
+                        subscriptionCallback.onFailure(exception);
+                    }
+                },
+                new AWSIotMqttNewMessageCallback() {
+                    @Override
+                    public void onMessageArrived(String topic, byte[] data) {
+                        messageCallback.onMessageArrived(topic, data);
+                    }
+                });
+    }
+
+    @Override
+    public void unsubscribe(String topic, SubscriptionCallback callback) {
+        // The AWS IoT SDK does not report UNSUBACK, the request is done once it is sent.
+        try {
+            mIotMqttManager.unsubscribeTopic(topic);
+        } catch (RuntimeException e) {
+            callback.onFailure(e);
+            return;
+        }
+        callback.onSuccess();
+    }
+
+    @Override
+    public void publish(String topic, byte[] data, int qos, final DeliveryCallback callback) {
+        mIotMqttManager.publishData(data, topic, AWSIotMqttQos.values()[qos],
+                new AWSIotMqttMessageDeliveryCallback() {
+                    @Override
+                    public void statusChanged(MessageDeliveryStatus messageDeliveryStatus,
+                                              Object userData) {
+                        callback.onDeliveryComplete(
+                                messageDeliveryStatus == MessageDeliveryStatus.Success);
+                    }
+                }, null);
+    }
+
+    @Override
+    public void disconnect() {
+        if (mIotMqttManager != null) {
+            mIotMqttManager.disconnect();
+            mIotMqttManager = null;
+        }
+    }
+}
@@ -10,53 +10,111 @@ public class BleCommand {
     enum CommandType {
         WRITE_DESCRIPTOR,
         WRITE_CHARACTERISTIC,
-        READ_CHARACTERISTIC
+        READ_CHARACTERISTIC,
+        REQUEST_MTU,
+        SET_PREFERRED_PHY,
+        REQUEST_CONNECTION_PRIORITY
     }
 
     /**
-     * The type of the BLE command.
+     * Listener that is told once whether a BLE command completed, failed or was rejected.
      */
-    private CommandType type;
+    interface CompletionListener {
+        void onCompleted(BleCommand command, boolean success);
+    }
 
     /**
-     * The characteristic uuid of the BLE command.
+     * The type of the BLE command.
      */
-    private String characteristicUuid;
+    private CommandType type;
 
     /**
-     * The service uuid of the BLE command.
+     * The characteristic of the BLE command, null for link parameter commands.
      */
-    private String serviceUuid;
+    private CharacteristicHandle handle;
 
     /**
      * The data to be sent with the BLE command.
      */
     private String data;
 
+    /**
+     * The value of a link parameter command, e.g. the mtu to request.
+     */
+    private int value;
+
+    /**
+     * The priority class of the BLE command in the queue.
+     */
+    private CommandPriority priority = CommandPriority.NORMAL;
+
+    /**
+     * The listener to tell when the BLE command completes, if any.
+     */
+    private CompletionListener completionListener;
+
     /**
      * Construct a BLE command with data.
      * @param t the BLE command type.
-     * @param cUuid the characteristic uuid.
-     * @param sUuid the service uuid.
+     * @param h the characteristic.
      * @param d the data to be sent with the BLE command.
      */
-    public BleCommand(CommandType t, String cUuid, String sUuid, String d) {
+    BleCommand(CommandType t, CharacteristicHandle h, String d) {
         type = t;
-        characteristicUuid = cUuid;
-        serviceUuid = sUuid;
+        handle = h;
         data = d;
     }
 
     /**
      * Construct a BLE command without any data.
      * @param t the BLE command type.
-     * @param cUuid the characteristic uuid.
-     * @param sUuid the service uuid.
+     * @param h the characteristic.
      */
-    public BleCommand(CommandType t, String cUuid, String sUuid) {
+    BleCommand(CommandType t, CharacteristicHandle h) {
         type = t;
-        characteristicUuid = cUuid;
-        serviceUuid = sUuid;
+        handle = h;
         data = null;
     }
+
+    /**
+     * Construct a BLE command that changes a parameter of the BLE link.
+     * @param t the BLE command type.
+     * @param v the value of the link parameter.
+     */
+    BleCommand(CommandType t, int v) {
+        type = t;
+        value = v;
+    }
+
+    /**
+     * Set the priority class of the BLE command. Default is NORMAL.
+     * @param p the priority class.
+     * @return this BLE command.
+     */
+    BleCommand setPriority(CommandPriority p) {
+        priority = p;
+        return this;
+    }
+
+    /**
+     * Set the listener to tell when the BLE command completes.
+     * @param listener the completion listener.
+     * @return this BLE command.
+     */
+    BleCommand setCompletionListener(CompletionListener listener) {
+        completionListener = listener;
+        return this;
+    }
+
+    /**
+     * Tell the completion listener the result of the BLE command. Only the first result is told.
+     * @param success whether the BLE command succeeded.
+     */
+    void complete(boolean success) {
+        CompletionListener listener = completionListener;
+        completionListener = null;
+        if (listener != null) {
+            listener.onCompleted(this, success);
+        }
+    }
 }
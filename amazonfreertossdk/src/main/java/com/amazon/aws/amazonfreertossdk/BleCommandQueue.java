@@ -0,0 +1,70 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * This class is the BLE command queue of a manager, with one FIFO queue per CommandPriority.
+ * Commands of the same class keep their order. It is used on the event loop of the manager.
+ */
+class BleCommandQueue {
+    private final List<Queue<BleCommand>> mQueues = new ArrayList<>();
+    private int mSize = 0;
+
+    BleCommandQueue() {
+        for (int i = 0; i < CommandPriority.values().length; i++) {
+            mQueues.add(new LinkedList<BleCommand>());
+        }
+    }
+
+    void add(BleCommand command) {
+        mQueues.get(command.getPriority().ordinal()).add(command);
+        mSize++;
+    }
+
+    /**
+     * @return the oldest command of the highest priority class, or null if the queue is empty.
+     */
+    BleCommand poll() {
+        for (Queue<BleCommand> queue : mQueues) {
+            BleCommand command = queue.poll();
+            if (command != null) {
+                mSize--;
+                return command;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @param priority the priority class.
+     * @return the number of queued commands of the class.
+     */
+    int size(CommandPriority priority) {
+        return mQueues.get(priority.ordinal()).size();
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Remove all commands.
+     * @return the removed commands, in the order they would have been sent.
+     */
+    List<BleCommand> clear() {
+        List<BleCommand> commands = new ArrayList<>(mSize);
+        for (Queue<BleCommand> queue : mQueues) {
+            commands.addAll(queue);
+            queue.clear();
+        }
+        mSize = 0;
+        return commands;
+    }
+}
@@ -9,4 +9,18 @@ public abstract class BleConnectionStatusCallback {
      * @param connectionStatus The BLE connection state.
      */
     public void onBleConnectionStatusChanged(AmazonFreeRTOSConstants.BleConnectionState connectionStatus) {}
+
+    /**
+     * This callback is triggered when the mtu, PHY or connection priority of the BLE link has
+     * changed.
+     * @param linkParameters The effective link parameters.
+     */
+    public void onLinkParametersChanged(LinkParameters linkParameters) {}
+
+    /**
+     * This callback is triggered when the device state has changed. BLE commands are only sent to
+     * the device while it is READY.
+     * @param deviceState The device state.
+     */
+    public void onDeviceStateChanged(AmazonFreeRTOSConstants.DeviceState deviceState) {}
 }
@@ -0,0 +1,215 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * This class is a Reactive Streams publisher of SDK events. Every subscriber gets its own buffer
+ * of a fixed capacity, and items are delivered only as fast as the subscriber requests them. When
+ * a subscriber falls behind and its buffer is full, the oldest buffered item is dropped, so a slow
+ * subscriber never makes the SDK queue up items without bound or wait for the subscriber.
+ *
+ * Completing the publisher completes the current subscribers once they have received the items
+ * buffered for them. Later subscribers start a new stream.
+ * @param <T> the type of items published.
+ */
+public class BoundedPublisher<T> implements Publisher<T> {
+    private static final String TAG = "BoundedPublisher";
+
+    private final CopyOnWriteArrayList<BoundedSubscription> mSubscriptions =
+            new CopyOnWriteArrayList<>();
+    private final int mCapacity;
+    private final Executor mExecutor;
+
+    /**
+     * Construct a publisher.
+     * @param capacity the number of items buffered for each subscriber.
+     * @param executor the executor that calls the subscribers.
+     */
+    BoundedPublisher(int capacity, Executor executor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Publisher capacity must be at least 1.");
+        }
+        mCapacity = capacity;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber is null.");
+        }
+        BoundedSubscription subscription = new BoundedSubscription(subscriber);
+        mSubscriptions.add(subscription);
+        subscription.start();
+    }
+
+    /**
+     * @return the number of subscribers.
+     */
+    public int getSubscriberCount() {
+        return mSubscriptions.size();
+    }
+
+    /**
+     * Publish an item to all current subscribers. Never blocks.
+     * @param item the item.
+     */
+    void publish(T item) {
+        for (BoundedSubscription subscription : mSubscriptions) {
+            subscription.offer(item);
+        }
+    }
+
+    /**
+     * Complete all current subscribers, e.g. when the manager is shut down. Never blocks.
+     */
+    void complete() {
+        for (BoundedSubscription subscription : mSubscriptions) {
+            mSubscriptions.remove(subscription);
+            subscription.complete();
+        }
+    }
+
+    private class BoundedSubscription implements Subscription {
+        private final Subscriber<? super T> mSubscriber;
+        private final Queue<T> mBuffer = new ArrayDeque<>();
+        private long mRequested = 0;
+        private long mDropped = 0;
+        private boolean mCancelled = false;
+        private boolean mCompleted = false;
+        private Throwable mError;
+        // True while a drain task is scheduled or running, so onNext is never called concurrently.
+        private boolean mDraining = true;
+
+        private final Runnable mDrainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        BoundedSubscription(Subscriber<? super T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        void start() {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mSubscriber.onSubscribe(BoundedSubscription.this);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Subscriber failed in onSubscribe.", e);
+                        cancel();
+                    }
+                    drain();
+                }
+            });
+        }
+
+        synchronized void offer(T item) {
+            if (mCancelled || mCompleted) {
+                return;
+            }
+            if (mBuffer.size() == mCapacity) {
+                mBuffer.poll();
+                mDropped++;
+                if (mDropped == 1 || mDropped % mCapacity == 0) {
+                    Log.w(TAG, "Subscriber is slow, dropped " + mDropped + " items so far.");
+                }
+            }
+            mBuffer.offer(item);
+            scheduleDrain();
+        }
+
+        synchronized void complete() {
+            mCompleted = true;
+            scheduleDrain();
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (mCancelled) {
+                return;
+            }
+            if (n <= 0) {
+                mError = new IllegalArgumentException("Requested " + n + " items, must be positive.");
+                mBuffer.clear();
+            } else {
+                mRequested = mRequested + n < 0 ? Long.MAX_VALUE : mRequested + n;
+            }
+            scheduleDrain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                mCancelled = true;
+                mBuffer.clear();
+            }
+            mSubscriptions.remove(this);
+        }
+
+        private void scheduleDrain() {
+            if (!mDraining) {
+                mDraining = true;
+                mExecutor.execute(mDrainTask);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                T item = null;
+                Throwable error = null;
+                boolean completed = false;
+                synchronized (this) {
+                    if (mCancelled) {
+                        mDraining = false;
+                        return;
+                    }
+                    if (mError != null) {
+                        error = mError;
+                        mCancelled = true;
+                        mDraining = false;
+                    } else if (mCompleted && mBuffer.isEmpty()) {
+                        completed = true;
+                        mCancelled = true;
+                        mDraining = false;
+                    } else if (mRequested == 0 || mBuffer.isEmpty()) {
+                        mDraining = false;
+                        return;
+                    } else {
+                        item = mBuffer.poll();
+                        mRequested--;
+                    }
+                }
+                if (error != null) {
+                    mSubscriptions.remove(this);
+                    mSubscriber.onError(error);
+                    return;
+                }
+                if (completed) {
+                    mSubscriptions.remove(this);
+                    mSubscriber.onComplete();
+                    return;
+                }
+                try {
+                    mSubscriber.onNext(item);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Subscriber failed in onNext, cancelling subscription.", e);
+                    cancel();
+                    return;
+                }
+            }
+        }
+    }
+}
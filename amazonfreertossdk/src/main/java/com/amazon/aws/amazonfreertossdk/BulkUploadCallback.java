@@ -0,0 +1,36 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This is a callback to notify the app of the progress of an upload started with
+ * BulkUploadService#startUpload. Either onCompleted or onFailed is called once at the end.
+ */
+public abstract class BulkUploadCallback {
+    /**
+     * This callback is triggered when more of the object has been written to the stream.
+     * @param stats The statistics of the upload so far.
+     */
+    public void onProgress(BulkUploadStats stats) {}
+
+    /**
+     * This callback is triggered when the BLE connection is lost during the upload. The upload
+     * resumes when the device is ready again.
+     * @param stats The statistics of the upload so far.
+     */
+    public void onPaused(BulkUploadStats stats) {}
+
+    /**
+     * This callback is triggered when the whole object has been written to the stream, its
+     * checksum has been verified and all parts have been forwarded to the cloud.
+     * @param stats The statistics of the upload.
+     */
+    public void onCompleted(BulkUploadStats stats) {}
+
+    /**
+     * This callback is triggered when the device does not have the object, stopped sending, the
+     * stream could not be written, the checksum did not match, a part could not be forwarded or
+     * the upload was cancelled.
+     * @param reason Why the upload failed.
+     * @param stats The statistics of the upload until it failed.
+     */
+    public void onFailed(String reason, BulkUploadStats stats) {}
+}
@@ -0,0 +1,28 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BULK_UPLOAD_PART_SIZE;
+
+/**
+ * This class defines where BulkUploadService#startUpload forwards an object besides the stream or
+ * file of the app.
+ */
+public class BulkUploadOptions {
+    /**
+     * The cloud client to forward the object to, or null to not forward it. The client must be
+     * connected, e.g. the one passed to AmazonFreeRTOSManager#setCloudClient.
+     */
+    public CloudClient cloudClient;
+    /**
+     * The topic prefix of the forwarded object. Part n is published to cloudTopic/n, and a
+     * BulkUploadManifest to cloudTopic/manifest after the last part.
+     */
+    public String cloudTopic;
+    /**
+     * The size of each forwarded part in bytes. The last part may be shorter.
+     */
+    public int partSize = BULK_UPLOAD_PART_SIZE;
+    /**
+     * The QoS of the forwarded messages, 0 or 1.
+     */
+    public int qos = 1;
+}
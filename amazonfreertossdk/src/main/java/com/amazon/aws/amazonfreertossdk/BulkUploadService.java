@@ -0,0 +1,707 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkChunk;
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkControl;
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkInfo;
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkUploadManifest;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * This class pulls large objects from the device through the bulk upload service, e.g. buffered
+ * logs or sensor dumps. The device notifies the object in chunks on the data characteristic, and
+ * each chunk is written to the stream or file of the app as it arrives, so the object is never
+ * held in memory. The device sends at most BULK_UPLOAD_WINDOW bytes beyond the offset the SDK has
+ * acknowledged. If a chunk is lost, the SDK asks the device to send again from the first missing
+ * byte. Once the whole object is written, its CRC32 is checked against the one the device
+ * reported.
+ *
+ * When the BLE connection is lost, the upload resumes from the next byte once the service is
+ * ready again. An upload to a file resumes a partial file, e.g. from an earlier run of the app,
+ * unless the object is forwarded to the cloud. If the partial file turns out not to be a prefix
+ * of the object, the file is deleted and the upload fails, so the next upload starts over.
+ *
+ * With BulkUploadOptions, the object is also forwarded to the cloud in parts. While
+ * BULK_UPLOAD_MAX_PARTS_IN_FLIGHT parts wait for delivery, the SDK stops acknowledging data, so a
+ * slow cloud connection slows down the device instead of filling up memory.
+ *
+ * Register the service with AmazonFreeRTOSManager#registerServiceHandler before starting an
+ * upload. One upload runs at a time. Its commands use the LOW priority class, so they do not hold
+ * up other traffic of the device. The stream is written on the event loop of the manager, so it
+ * must not block for long.
+ */
+public class BulkUploadService extends ServiceHandler {
+    private static final String TAG = "BulkUploadService";
+
+    private enum State {
+        /**
+         * Waiting for the device to answer REQUEST with INFO.
+         */
+        REQUESTING,
+        /**
+         * Receiving chunks.
+         */
+        RECEIVING,
+        /**
+         * The whole object is received, waiting for parts to be delivered to the cloud.
+         */
+        FORWARDING,
+        /**
+         * The service is not ready.
+         */
+        PAUSED
+    }
+
+    /**
+     * The state of the upload in progress. Touched on the event loop only.
+     */
+    private static class Upload {
+        final String name;
+        final OutputStream out;
+        /**
+         * The file the upload writes to, null if it writes to a stream of the app.
+         */
+        final File file;
+        final BulkUploadOptions options;
+        final BulkUploadCallback callback;
+        final Executor executor;
+        /**
+         * The CRC32 of the bytes before offset.
+         */
+        final CRC32 crc;
+        /**
+         * The offset the upload started at, after the bytes of a partial file.
+         */
+        final long startOffset;
+        /**
+         * The part that is being filled, null if the upload is not forwarded.
+         */
+        final ByteArrayOutputStream part;
+        State state = State.PAUSED;
+        boolean requested = false;
+        long size = -1;
+        long expectedCrc;
+        /**
+         * The next byte to write to the stream.
+         */
+        long offset;
+        /**
+         * The offset last sent in ACK or RESEND.
+         */
+        long ackedOffset;
+        /**
+         * Whether RESEND has been sent for the current offset.
+         */
+        boolean resendSent = false;
+        int retries = 0;
+        long chunksReceived = 0;
+        long chunksDropped = 0;
+        int resumes = 0;
+        int partsSent = 0;
+        int partsInFlight = 0;
+        int partsForwarded = 0;
+        long activeTime = 0;
+        long activeSince = -1;
+
+        Upload(String name, OutputStream out, File file, long offset, CRC32 crc,
+               BulkUploadOptions options, BulkUploadCallback callback, Executor executor) {
+            this.name = name;
+            this.out = out;
+            this.file = file;
+            this.offset = offset;
+            this.startOffset = offset;
+            this.crc = crc;
+            this.options = options;
+            this.callback = callback;
+            this.executor = executor;
+            part = options.cloudClient != null ? new ByteArrayOutputStream(options.partSize)
+                    : null;
+        }
+
+        void pause() {
+            if (activeSince >= 0) {
+                activeTime += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activeSince);
+                activeSince = -1;
+            }
+        }
+
+        BulkUploadStats getStats() {
+            BulkUploadStats stats = new BulkUploadStats();
+            stats.size = size;
+            stats.bytesReceived = offset;
+            stats.chunksReceived = chunksReceived;
+            stats.chunksDropped = chunksDropped;
+            stats.resumes = resumes;
+            stats.partsForwarded = partsForwarded;
+            stats.elapsedTime = activeTime;
+            if (activeSince >= 0) {
+                stats.elapsedTime += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activeSince);
+            }
+            if (stats.elapsedTime > 0) {
+                stats.bytesPerSecond = (offset - startOffset) * 1000 / stats.elapsedTime;
+            }
+            return stats;
+        }
+    }
+
+    private final Gson mGson = new Gson();
+    private CharacteristicHandle mControl;
+    private CharacteristicHandle mData;
+    private volatile boolean mUploadActive = false;
+    private Upload mUpload;
+
+    public BulkUploadService() {
+        super(UUID_BULK_UPLOAD_SERVICE, CommandPriority.LOW);
+    }
+
+    @Override
+    protected void onRegister() {
+        mControl = addCharacteristic(UUID_BULK_UPLOAD_CONTROL_CHARACTERISTIC, "BULK_CONTROL",
+                true);
+        mData = addCharacteristic(UUID_BULK_UPLOAD_DATA_CHARACTERISTIC, "BULK_DATA", true);
+    }
+
+    /**
+     * Same as startUpload(String, OutputStream, BulkUploadOptions, BulkUploadCallback, Executor),
+     * with the callback called on a background thread of the SDK.
+     */
+    public void startUpload(String name, OutputStream out, BulkUploadOptions options,
+                            BulkUploadCallback callback) {
+        startUpload(name, out, options, callback, null);
+    }
+
+    /**
+     * Start pulling an object from the device into a stream. The stream is flushed at the end but
+     * not closed. The upload starts when the service is ready, or right away if it is ready
+     * already.
+     * @param name the name of the object on the device.
+     * @param out the stream to write the object to.
+     * @param options where else to forward the object, or null.
+     * @param callback the callback to notify the app of progress and the result.
+     * @param executor the executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     * @throws IllegalStateException if an upload is in progress or the service is not registered.
+     */
+    public void startUpload(String name, OutputStream out, BulkUploadOptions options,
+                            BulkUploadCallback callback, Executor executor) {
+        options = checkOptions(options);
+        reserve();
+        begin(new Upload(name, out, null, 0, new CRC32(), options, callback,
+                callbackExecutor(executor)));
+    }
+
+    /**
+     * Same as startUpload(String, File, BulkUploadOptions, BulkUploadCallback, Executor), with the
+     * callback called on a background thread of the SDK.
+     */
+    public void startUpload(String name, File file, BulkUploadOptions options,
+                            BulkUploadCallback callback) throws IOException {
+        startUpload(name, file, options, callback, null);
+    }
+
+    /**
+     * Start pulling an object from the device into a file. If the file exists, it is taken as the
+     * beginning of the object and the upload resumes after it. This method reads the existing part
+     * of the file once to compute its checksum, so it should not be called on the main thread.
+     * A partial file cannot be resumed while forwarding to the cloud, since its bytes were never
+     * forwarded. If the object does not start with the partial file, the file is deleted and the
+     * upload fails.
+     * @param name the name of the object on the device.
+     * @param file the file to write the object to.
+     * @param options where else to forward the object, or null.
+     * @param callback the callback to notify the app of progress and the result.
+     * @param executor the executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     * @throws IOException if the file cannot be read or opened.
+     * @throws IllegalArgumentException if the file is not empty and options forward to the cloud.
+     * @throws IllegalStateException if an upload is in progress or the service is not registered.
+     */
+    public void startUpload(String name, File file, BulkUploadOptions options,
+                            BulkUploadCallback callback, Executor executor) throws IOException {
+        options = checkOptions(options);
+        if (options.cloudClient != null && file.length() > 0) {
+            throw new IllegalArgumentException("Cannot forward a resumed upload to the cloud, "
+                    + "delete " + file + " first.");
+        }
+        reserve();
+        Upload upload;
+        try {
+            CRC32 crc = new CRC32();
+            long offset = file.exists() ? checksum(file, crc) : 0;
+            upload = new Upload(name, new FileOutputStream(file, true), file, offset, crc,
+                    options, callback, callbackExecutor(executor));
+        } catch (IOException | RuntimeException e) {
+            mUploadActive = false;
+            throw e;
+        }
+        begin(upload);
+    }
+
+    /**
+     * Cancel the upload in progress. The device is told to stop sending, and
+     * BulkUploadCallback#onFailed is called. A file is kept, so a later upload can resume it.
+     */
+    public void cancelUpload() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Upload upload = mUpload;
+                if (upload == null) {
+                    return;
+                }
+                if (isReady()) {
+                    BulkControl cancel = new BulkControl();
+                    cancel.type = BULK_MSG_CANCEL;
+                    write(mControl, mGson.toJson(cancel));
+                }
+                fail(upload, "Upload of " + upload.name + " cancelled.");
+            }
+        });
+    }
+
+    /**
+     * @return true from startUpload until the upload has completed or failed.
+     */
+    public boolean isUploadActive() {
+        return mUploadActive;
+    }
+
+    @Override
+    protected void onReady() {
+        if (mUpload != null && mUpload.state == State.PAUSED) {
+            request(mUpload);
+        }
+    }
+
+    @Override
+    protected void onDisconnected() {
+        final Upload upload = mUpload;
+        if (upload == null || upload.state == State.FORWARDING) {
+            return;
+        }
+        cancel(idleTimeout);
+        upload.pause();
+        upload.state = State.PAUSED;
+        Log.i(TAG, "Upload of " + upload.name + " paused at offset " + upload.offset);
+        final BulkUploadStats stats = upload.getStats();
+        upload.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload.callback.onPaused(stats);
+            }
+        });
+    }
+
+    @Override
+    protected void onNotification(CharacteristicHandle characteristic, String value) {
+        Upload upload = mUpload;
+        if (upload == null) {
+            return;
+        }
+        try {
+            if (characteristic == mData && upload.state == State.RECEIVING) {
+                BulkChunk chunk = mGson.fromJson(value, BulkChunk.class);
+                if (chunk != null) {
+                    handleChunk(upload, chunk);
+                }
+            } else if (characteristic == mControl && upload.state == State.REQUESTING) {
+                BulkInfo info = mGson.fromJson(value, BulkInfo.class);
+                if (info != null && info.type == BULK_MSG_INFO) {
+                    handleInfo(upload, info);
+                }
+            }
+        } catch (JsonSyntaxException e) {
+            Log.w(TAG, "Invalid bulk upload message on " + characteristic + ": " + value);
+        }
+    }
+
+    private static BulkUploadOptions checkOptions(BulkUploadOptions options) {
+        if (options == null) {
+            return new BulkUploadOptions();
+        }
+        if (options.cloudClient != null && (options.cloudTopic == null || options.partSize < 1)) {
+            throw new IllegalArgumentException(
+                    "Forwarding to the cloud needs a topic and a part size of at least 1.");
+        }
+        return options;
+    }
+
+    private static Executor callbackExecutor(Executor executor) {
+        return new SerialExecutor(
+                executor == null ? AmazonFreeRTOSManager.DEFAULT_CALLBACK_EXECUTOR : executor);
+    }
+
+    private synchronized void reserve() {
+        if (mUploadActive) {
+            throw new IllegalStateException("A bulk upload is already in progress.");
+        }
+        mUploadActive = true;
+    }
+
+    private void begin(final Upload upload) {
+        boolean registered = execute(new Runnable() {
+            @Override
+            public void run() {
+                mUpload = upload;
+                if (isReady()) {
+                    request(upload);
+                }
+            }
+        });
+        if (!registered) {
+            closeStream(upload);
+            mUploadActive = false;
+            throw new IllegalStateException("Bulk upload service is not registered.");
+        }
+    }
+
+    /**
+     * Send REQUEST from the next byte, also to resume the upload after a reconnect. The chunk
+     * size is chosen from the mtu of each connection, as chunks are identified by offset.
+     */
+    private void request(Upload upload) {
+        if (upload.requested) {
+            upload.resumes++;
+        }
+        upload.requested = true;
+        upload.state = State.REQUESTING;
+        upload.retries = 0;
+        upload.resendSent = false;
+        upload.activeSince = System.nanoTime();
+        Log.i(TAG, "Requesting " + upload.name + " from offset " + upload.offset);
+        sendRequest(upload);
+        schedule(idleTimeout, BULK_UPLOAD_IDLE_TIMEOUT);
+    }
+
+    private void sendRequest(Upload upload) {
+        BulkControl request = new BulkControl();
+        request.type = BULK_MSG_REQUEST;
+        request.name = upload.name;
+        request.offset = upload.offset;
+        request.windowSize = BULK_UPLOAD_WINDOW;
+        request.chunkSize = getMaxDataLen(BULK_CHUNK_HEADER_LEN, BULK_DEFAULT_CHUNK_SIZE,
+                BULK_MIN_CHUNK_SIZE);
+        upload.ackedOffset = upload.offset;
+        write(mControl, mGson.toJson(request));
+    }
+
+    private void handleInfo(Upload upload, BulkInfo info) {
+        if (info.status != BULK_STATUS_OK) {
+            fail(upload, "Device has no object " + upload.name + ", status " + info.status + ".");
+            return;
+        }
+        if (info.size < upload.offset) {
+            // The partial file belongs to another object.
+            discardFile(upload);
+            fail(upload, "Object " + upload.name + " has " + info.size + " bytes, fewer than the "
+                    + upload.offset + " already received.");
+            return;
+        }
+        upload.size = info.size;
+        upload.expectedCrc = info.crc;
+        upload.state = State.RECEIVING;
+        upload.retries = 0;
+        if (upload.offset == upload.size) {
+            finishReceiving(upload);
+            return;
+        }
+        reportProgress(upload);
+        schedule(idleTimeout, BULK_UPLOAD_IDLE_TIMEOUT);
+    }
+
+    private void handleChunk(Upload upload, BulkChunk chunk) {
+        if (chunk.offset < upload.offset) {
+            // Sent again after a RESEND or a reconnect, the bytes are written already.
+            return;
+        }
+        byte[] data = null;
+        if (chunk.offset == upload.offset && chunk.data != null) {
+            try {
+                data = Base64.getDecoder().decode(chunk.data);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Invalid chunk of " + upload.name + " at offset " + chunk.offset);
+            }
+        }
+        if (data == null) {
+            // A chunk before this one was lost. Later chunks are dropped until the device
+            // sends again from the first missing byte, so ask only once.
+            upload.chunksDropped++;
+            if (!upload.resendSent) {
+                upload.resendSent = true;
+                sendControl(upload, BULK_MSG_RESEND);
+            }
+            return;
+        }
+        if (upload.offset + data.length > upload.size) {
+            fail(upload, "Device sent more than the " + upload.size + " bytes of "
+                    + upload.name + ".");
+            return;
+        }
+        try {
+            upload.out.write(data);
+        } catch (IOException e) {
+            fail(upload, "Failed to write " + upload.name + ": " + e.getMessage());
+            return;
+        }
+        upload.crc.update(data);
+        upload.offset += data.length;
+        upload.chunksReceived++;
+        upload.resendSent = false;
+        upload.retries = 0;
+        if (upload.part != null) {
+            int position = 0;
+            while (position < data.length) {
+                int length = Math.min(data.length - position,
+                        upload.options.partSize - upload.part.size());
+                upload.part.write(data, position, length);
+                position += length;
+                if (upload.part.size() == upload.options.partSize) {
+                    forwardPart(upload);
+                }
+            }
+        }
+        if (upload.offset == upload.size) {
+            finishReceiving(upload);
+            return;
+        }
+        acknowledge(upload);
+        schedule(idleTimeout, BULK_UPLOAD_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Acknowledge the data written so far every half window, unless too many parts wait for
+     * delivery to the cloud.
+     */
+    private void acknowledge(Upload upload) {
+        if (upload.offset - upload.ackedOffset >= BULK_UPLOAD_WINDOW / 2
+                && upload.partsInFlight < BULK_UPLOAD_MAX_PARTS_IN_FLIGHT) {
+            sendControl(upload, BULK_MSG_ACK);
+            reportProgress(upload);
+        }
+    }
+
+    private void sendControl(Upload upload, int type) {
+        BulkControl control = new BulkControl();
+        control.type = type;
+        control.offset = upload.offset;
+        upload.ackedOffset = upload.offset;
+        write(mControl, mGson.toJson(control));
+    }
+
+    private void finishReceiving(Upload upload) {
+        cancel(idleTimeout);
+        try {
+            upload.out.flush();
+        } catch (IOException e) {
+            fail(upload, "Failed to write " + upload.name + ": " + e.getMessage());
+            return;
+        }
+        boolean verified = upload.crc.getValue() == upload.expectedCrc;
+        BulkControl done = new BulkControl();
+        done.type = BULK_MSG_DONE;
+        done.status = verified ? BULK_STATUS_OK : BULK_STATUS_CHECKSUM_MISMATCH;
+        write(mControl, mGson.toJson(done));
+        if (!verified) {
+            // Any byte may be wrong, including those of a resumed partial file.
+            discardFile(upload);
+            fail(upload, "Checksum of " + upload.name + " does not match.");
+            return;
+        }
+        if (upload.part == null) {
+            complete(upload);
+            return;
+        }
+        if (upload.part.size() > 0) {
+            forwardPart(upload);
+        }
+        BulkUploadManifest manifest = new BulkUploadManifest();
+        manifest.name = upload.name;
+        manifest.offset = 0;
+        manifest.size = upload.size;
+        manifest.parts = upload.partsSent;
+        manifest.crc = upload.expectedCrc;
+        upload.state = State.FORWARDING;
+        publish(upload, upload.options.cloudTopic + "/manifest",
+                mGson.toJson(manifest).getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    private void forwardPart(Upload upload) {
+        byte[] data = upload.part.toByteArray();
+        upload.part.reset();
+        publish(upload, upload.options.cloudTopic + "/" + upload.partsSent++, data, true);
+    }
+
+    private void publish(final Upload upload, final String topic, byte[] data,
+                         final boolean isPart) {
+        upload.partsInFlight++;
+        upload.options.cloudClient.publish(topic, data, upload.options.qos,
+                new CloudClient.DeliveryCallback() {
+                    @Override
+                    public void onDeliveryComplete(final boolean success) {
+                        execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onDelivered(upload, topic, isPart, success);
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void onDelivered(Upload upload, String topic, boolean isPart, boolean success) {
+        if (mUpload != upload) {
+            return;
+        }
+        upload.partsInFlight--;
+        if (!success) {
+            fail(upload, "Failed to forward " + topic + " to the cloud.");
+            return;
+        }
+        if (isPart) {
+            upload.partsForwarded++;
+        }
+        if (upload.state == State.RECEIVING) {
+            acknowledge(upload);
+        } else if (upload.state == State.FORWARDING && upload.partsInFlight == 0) {
+            complete(upload);
+        }
+    }
+
+    /**
+     * Asks the device again when it has not sent anything in time, and fails the upload after
+     * BULK_UPLOAD_MAX_RETRIES attempts. The device is not asked while it waits for parts to be
+     * delivered to the cloud.
+     */
+    private final TimingWheel.Timer idleTimeout = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            Upload upload = mUpload;
+            if (upload == null || (upload.state != State.REQUESTING
+                    && upload.state != State.RECEIVING)) {
+                return;
+            }
+            if (upload.partsInFlight >= BULK_UPLOAD_MAX_PARTS_IN_FLIGHT) {
+                schedule(this, BULK_UPLOAD_IDLE_TIMEOUT);
+                return;
+            }
+            if (++upload.retries > BULK_UPLOAD_MAX_RETRIES) {
+                fail(upload, "Device stopped sending " + upload.name + ".");
+                return;
+            }
+            Log.w(TAG, "Upload of " + upload.name + " timed out in state " + upload.state
+                    + ", retry " + upload.retries);
+            if (upload.state == State.REQUESTING) {
+                sendRequest(upload);
+            } else {
+                upload.resendSent = true;
+                sendControl(upload, BULK_MSG_RESEND);
+            }
+            schedule(this, BULK_UPLOAD_IDLE_TIMEOUT);
+        }
+    };
+
+    private void reportProgress(final Upload upload) {
+        final BulkUploadStats stats = upload.getStats();
+        upload.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload.callback.onProgress(stats);
+            }
+        });
+    }
+
+    private void complete(final Upload upload) {
+        end(upload);
+        final BulkUploadStats stats = upload.getStats();
+        Log.i(TAG, "Upload of " + upload.name + " completed. " + stats);
+        upload.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload.callback.onCompleted(stats);
+            }
+        });
+    }
+
+    private void fail(final Upload upload, final String reason) {
+        end(upload);
+        final BulkUploadStats stats = upload.getStats();
+        Log.w(TAG, reason + " " + stats);
+        upload.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload.callback.onFailed(reason, stats);
+            }
+        });
+    }
+
+    private void end(Upload upload) {
+        cancel(idleTimeout);
+        upload.pause();
+        upload.state = State.PAUSED;
+        closeStream(upload);
+        mUpload = null;
+        mUploadActive = false;
+    }
+
+    private static void closeStream(Upload upload) {
+        if (upload.file == null) {
+            return;
+        }
+        try {
+            upload.out.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close the file of " + upload.name, e);
+        }
+    }
+
+    /**
+     * Delete the file of an upload whose bytes cannot be trusted, so that the next upload does
+     * not resume it.
+     */
+    private static void discardFile(Upload upload) {
+        if (upload.file == null) {
+            return;
+        }
+        closeStream(upload);
+        if (!upload.file.delete()) {
+            Log.w(TAG, "Failed to delete the file of " + upload.name);
+        }
+    }
+
+    /**
+     * Add the bytes of a file to a checksum.
+     * @return the length of the file.
+     */
+    private static long checksum(File file, CRC32 crc) throws IOException {
+        byte[] buffer = new byte[8192];
+        long length = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,49 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This class represents the progress and throughput of a bulk upload.
+ */
+public class BulkUploadStats {
+    /**
+     * The size of the object in bytes, -1 until the device has reported it.
+     */
+    public long size = -1;
+    /**
+     * The number of bytes of the object written to the stream, including the bytes of a partial
+     * file the upload resumed.
+     */
+    public long bytesReceived;
+    /**
+     * The number of chunks written to the stream.
+     */
+    public long chunksReceived;
+    /**
+     * The number of chunks dropped because they did not start at the next offset, e.g. after a
+     * chunk was lost.
+     */
+    public long chunksDropped;
+    /**
+     * The number of times the upload resumed after the BLE connection was lost.
+     */
+    public int resumes;
+    /**
+     * The number of parts forwarded to the cloud.
+     */
+    public int partsForwarded;
+    /**
+     * The time the upload has been running while the device was connected.
+     */
+    public long elapsedTime; //ms
+    /**
+     * The bytes received in this upload per second of elapsedTime, not counting the bytes of a
+     * partial file the upload resumed.
+     */
+    public long bytesPerSecond;
+
+    public String toString() {
+        return String.format("Bulk upload -> received: %d/%d bytes chunks: %d dropped: %d "
+                        + "resumes: %d partsForwarded: %d elapsedTime: %dms throughput: %d B/s",
+                bytesReceived, size, chunksReceived, chunksDropped, resumes, partsForwarded,
+                elapsedTime, bytesPerSecond);
+    }
+}
@@ -0,0 +1,85 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * This class identifies a GATT characteristic of the device. Handles are created once and compared
+ * by identity, so BLE commands and notifications carry a handle instead of UUID strings. The
+ * index of a handle is its slot in the tables of a CharacteristicRegistry and a GattLink.
+ *
+ * A ServiceHandler gets the handles of its characteristics from ServiceHandler#addCharacteristic.
+ */
+public final class CharacteristicHandle {
+    private static final List<CharacteristicHandle> sBuiltIn = new ArrayList<>();
+
+    static final CharacteristicHandle LIST_NETWORK = builtIn(UUID_NETWORK_SERVICE,
+            UUID_LIST_NETWORK_CHARACTERISTIC, "LIST_NETWORK");
+    static final CharacteristicHandle SAVE_NETWORK = builtIn(UUID_NETWORK_SERVICE,
+            UUID_SAVE_NETWORK_CHARACTERISTIC, "SAVE_NETWORK");
+    static final CharacteristicHandle EDIT_NETWORK = builtIn(UUID_NETWORK_SERVICE,
+            UUID_EDIT_NETWORK_CHARACTERISTIC, "EDIT_NETWORK");
+    static final CharacteristicHandle DELETE_NETWORK = builtIn(UUID_NETWORK_SERVICE,
+            UUID_DELETE_NETWORK_CHARACTERISTIC, "DELETE_NETWORK");
+    static final CharacteristicHandle MQTT_CONTROL = builtIn(UUID_MQTT_PROXY_SERVICE,
+            UUID_MQTT_PROXY_CONTROL_CHARACTERISTIC, "MQTT_CONTROL");
+    static final CharacteristicHandle MQTT_TX = builtIn(UUID_MQTT_PROXY_SERVICE,
+            UUID_MQTT_PROXY_TX_CHARACTERISTIC, "MQTT_TX");
+    static final CharacteristicHandle MQTT_RX = builtIn(UUID_MQTT_PROXY_SERVICE,
+            UUID_MQTT_PROXY_RX_CHARACTERISTIC, "MQTT_RX");
+    static final CharacteristicHandle MQTT_TXLARGE = builtIn(UUID_MQTT_PROXY_SERVICE,
+            UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC, "MQTT_TXLARGE");
+    static final CharacteristicHandle MQTT_RXLARGE = builtIn(UUID_MQTT_PROXY_SERVICE,
+            UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC, "MQTT_RXLARGE");
+    static final CharacteristicHandle DEVICE_VERSION = builtIn(UUID_DEVICE_INFORMATION_SERVICE,
+            UUID_DEVICE_VERSION_CHARACTERISTIC, "DEVICE_VERSION");
+    static final CharacteristicHandle IOT_ENDPOINT = builtIn(UUID_DEVICE_INFORMATION_SERVICE,
+            UUID_IOT_ENDPOINT_CHARACTERISTIC, "IOT_ENDPOINT");
+    static final CharacteristicHandle DEVICE_MTU = builtIn(UUID_DEVICE_INFORMATION_SERVICE,
+            UUID_DEVICE_MTU_CHARACTERISTIC, "DEVICE_MTU");
+
+    /**
+     * The characteristics of the services built into the SDK, in index order.
+     */
+    static final List<CharacteristicHandle> BUILT_IN = Collections.unmodifiableList(sBuiltIn);
+
+    final int index;
+    final String serviceUuid;
+    final String characteristicUuid;
+    final String name;
+
+    CharacteristicHandle(int index, String serviceUuid, String characteristicUuid, String name) {
+        this.index = index;
+        this.serviceUuid = serviceUuid;
+        this.characteristicUuid = characteristicUuid;
+        this.name = name;
+    }
+
+    private static CharacteristicHandle builtIn(String serviceUuid, String characteristicUuid,
+                                                String name) {
+        CharacteristicHandle handle = new CharacteristicHandle(sBuiltIn.size(), serviceUuid,
+                characteristicUuid, name);
+        sBuiltIn.add(handle);
+        return handle;
+    }
+
+    public String getServiceUuid() {
+        return serviceUuid;
+    }
+
+    public String getCharacteristicUuid() {
+        return characteristicUuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,127 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class holds the characteristics a manager talks to and the handler of each one. It starts
+ * with the built in characteristics of CharacteristicHandle, and ServiceHandlers add their own.
+ * Notifications and reads are dispatched by the index of the handle, so there is no UUID parsing
+ * or string comparison per packet.
+ *
+ * A characteristic that is released keeps its index, so handles stay canonical and the link does
+ * not need to resolve it again. Registering it again returns the same handle.
+ *
+ * Registration can be called from any thread. The tables are copied on write, so dispatch on the
+ * event loop of the manager does not lock.
+ */
+class CharacteristicRegistry {
+
+    /**
+     * Handles the values the device sends on one characteristic. Both methods do nothing by
+     * default.
+     */
+    abstract static class Handler {
+        /**
+         * The device sent a notification.
+         * @param value the value of the characteristic.
+         */
+        void onChanged(String value) {
+        }
+
+        /**
+         * A read of the characteristic succeeded.
+         * @param value the value of the characteristic.
+         */
+        void onRead(String value) {
+        }
+    }
+
+    private volatile CharacteristicHandle[] mHandles =
+            CharacteristicHandle.BUILT_IN.toArray(new CharacteristicHandle[0]);
+    private volatile Handler[] mHandlers = new Handler[mHandles.length];
+    private final Set<CharacteristicHandle> mReleased = new HashSet<>();
+
+    /**
+     * Register a characteristic that is not built in.
+     * @param serviceUuid the service uuid.
+     * @param characteristicUuid the characteristic uuid.
+     * @param name the name of the characteristic in logs.
+     * @return the handle of the characteristic, the earlier one if it was released.
+     */
+    synchronized CharacteristicHandle register(String serviceUuid, String characteristicUuid,
+                                               String name) {
+        for (CharacteristicHandle handle : mHandles) {
+            if (handle.serviceUuid.equalsIgnoreCase(serviceUuid)
+                    && handle.characteristicUuid.equalsIgnoreCase(characteristicUuid)) {
+                if (mReleased.remove(handle)) {
+                    return handle;
+                }
+                throw new IllegalArgumentException("Characteristic " + characteristicUuid
+                        + " is already registered as " + handle.name);
+            }
+        }
+        CharacteristicHandle handle = new CharacteristicHandle(mHandles.length, serviceUuid,
+                characteristicUuid, name);
+        // The handler slot must exist before the handle can be looked up.
+        mHandlers = Arrays.copyOf(mHandlers, mHandles.length + 1);
+        CharacteristicHandle[] handles = Arrays.copyOf(mHandles, mHandles.length + 1);
+        handles[handle.index] = handle;
+        mHandles = handles;
+        return handle;
+    }
+
+    /**
+     * Release a characteristic registered with {@link #register}, so that it can be registered
+     * again. Its handler is removed.
+     * @param handle the handle of the characteristic.
+     */
+    synchronized void release(CharacteristicHandle handle) {
+        if (!contains(handle) || handle.index < CharacteristicHandle.BUILT_IN.size()) {
+            throw new IllegalArgumentException("Characteristic " + handle + " is not registered.");
+        }
+        setHandler(handle, null);
+        mReleased.add(handle);
+    }
+
+    /**
+     * Set the handler of a characteristic.
+     * @param handle the handle of the characteristic.
+     * @param handler the handler, or null to drop the values.
+     */
+    synchronized void setHandler(CharacteristicHandle handle, Handler handler) {
+        if (!contains(handle)) {
+            throw new IllegalArgumentException("Characteristic " + handle + " is not registered.");
+        }
+        Handler[] handlers = mHandlers.clone();
+        handlers[handle.index] = handler;
+        mHandlers = handlers;
+    }
+
+    /**
+     * @param handle the handle of a characteristic.
+     * @return the handler of the characteristic, or null.
+     */
+    Handler getHandler(CharacteristicHandle handle) {
+        Handler[] handlers = mHandlers;
+        return contains(handle) && handle.index < handlers.length ? handlers[handle.index] : null;
+    }
+
+    /**
+     * @return true if the handle was registered here or is built in.
+     */
+    boolean contains(CharacteristicHandle handle) {
+        CharacteristicHandle[] handles = mHandles;
+        return handle != null && handle.index < handles.length && handles[handle.index] == handle;
+    }
+
+    /**
+     * @return all registered characteristics, in index order.
+     */
+    List<CharacteristicHandle> getHandles() {
+        return Collections.unmodifiableList(Arrays.asList(mHandles));
+    }
+}
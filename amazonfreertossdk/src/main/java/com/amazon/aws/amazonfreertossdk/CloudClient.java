@@ -0,0 +1,86 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This interface is the MQTT connection to the cloud that AmazonFreeRTOSManager proxies the
+ * device's MQTT messages to. The default implementation connects to AWS IoT with the credentials
+ * passed to AmazonFreeRTOSManager. InProcessCloudClient runs the MQTT proxy without AWS, e.g. for
+ * tests and benchmarks. An app can set any other MQTT backend with
+ * AmazonFreeRTOSManager#setCloudClient.
+ *
+ * The methods are called on the event loop of the manager, so they must not block. The callbacks
+ * can be called on any thread.
+ */
+public interface CloudClient {
+
+    enum ConnectionStatus {
+        CONNECTING,
+        CONNECTED,
+        RECONNECTING,
+        CONNECTION_LOST
+    }
+
+    interface ConnectionCallback {
+        /**
+         * @param status the new connection status.
+         * @param throwable the cause of a lost connection, or null.
+         */
+        void onConnectionStatusChanged(ConnectionStatus status, Throwable throwable);
+    }
+
+    /**
+     * The result of a subscribe or unsubscribe request. The manager sends SUBACK or UNSUBACK to
+     * the device once all topics of the request have a result.
+     */
+    interface SubscriptionCallback {
+        void onSuccess();
+
+        void onFailure(Throwable throwable);
+    }
+
+    interface MessageCallback {
+        void onMessageArrived(String topic, byte[] data);
+    }
+
+    interface DeliveryCallback {
+        /**
+         * @param success true if the message was delivered with the requested QoS.
+         */
+        void onDeliveryComplete(boolean success);
+    }
+
+    /**
+     * Connect to the broker. Called again only after disconnect.
+     * @param clientId the MQTT client ID of the device.
+     * @param brokerEndpoint the broker endpoint the device asked for.
+     * @param callback the callback of the connection status.
+     */
+    void connect(String clientId, String brokerEndpoint, ConnectionCallback callback);
+
+    /**
+     * Subscribe to a topic.
+     * @param topic the topic filter.
+     * @param qos the QoS of the subscription, 0 or 1.
+     * @param subscriptionCallback the callback of the SUBACK from the broker.
+     * @param messageCallback the callback of messages on the topic.
+     */
+    void subscribe(String topic, int qos, SubscriptionCallback subscriptionCallback,
+                   MessageCallback messageCallback);
+
+    /**
+     * Unsubscribe from a topic.
+     * @param topic the topic filter.
+     * @param callback the callback of the UNSUBACK from the broker.
+     */
+    void unsubscribe(String topic, SubscriptionCallback callback);
+
+    /**
+     * Publish a message.
+     * @param topic the topic.
+     * @param data the payload.
+     * @param qos the QoS, 0 or 1.
+     * @param callback the callback of the delivery, called once.
+     */
+    void publish(String topic, byte[] data, int qos, DeliveryCallback callback);
+
+    void disconnect();
+}
@@ -0,0 +1,21 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * The priority classes of the BLE command queue. The queue sends the oldest command of the highest
+ * class that has commands, so a class only runs when all classes above it are empty. The services
+ * built into the SDK use NORMAL.
+ */
+public enum CommandPriority {
+    /**
+     * Short, latency sensitive commands, such as control messages.
+     */
+    HIGH,
+    /**
+     * The default class, used by the MQTT proxy, network config and device info services.
+     */
+    NORMAL,
+    /**
+     * Bulk transfers that should only use the link when it is otherwise idle.
+     */
+    LOW
+}
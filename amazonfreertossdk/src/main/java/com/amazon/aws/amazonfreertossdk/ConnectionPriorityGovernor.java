@@ -0,0 +1,129 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.os.SystemClock;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.GOVERNOR_IDLE_TIMEOUT;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.GOVERNOR_QUEUE_DEPTH_THRESHOLD;
+
+/**
+ * This class decides the BLE connection priority from the load on the link. The priority is
+ * raised to high while the BLE command queue is deep or a large object transfer is in progress,
+ * and dropped back to balanced once the link has been idle for the idle timeout. Pass it to
+ * AmazonFreeRTOSManager#setConnectionPriorityGovernor to enable it. It also keeps the number of
+ * transitions and the time spent in each mode.
+ */
+public class ConnectionPriorityGovernor {
+
+    /**
+     * The connection priority mode.
+     */
+    public enum Mode {
+        BALANCED,
+        HIGH
+    }
+
+    private int mQueueDepthThreshold = GOVERNOR_QUEUE_DEPTH_THRESHOLD;
+    private long mIdleTimeout = GOVERNOR_IDLE_TIMEOUT;
+
+    private Mode mMode = Mode.BALANCED;
+    private long mModeSince = -1;
+    private final long[] mTimeInMode = new long[Mode.values().length];
+    private long mTransitions = 0;
+
+    /**
+     * Set the BLE command queue depth at which the connection priority is raised.
+     * @param queueDepthThreshold the number of queued BLE commands.
+     */
+    public synchronized void setQueueDepthThreshold(int queueDepthThreshold) {
+        mQueueDepthThreshold = queueDepthThreshold;
+    }
+
+    public synchronized int getQueueDepthThreshold() {
+        return mQueueDepthThreshold;
+    }
+
+    /**
+     * Set how long the link must be idle before the connection priority is dropped back.
+     * @param idleTimeout the idle period in ms.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        mIdleTimeout = idleTimeout;
+    }
+
+    public synchronized long getIdleTimeout() {
+        return mIdleTimeout;
+    }
+
+    public synchronized Mode getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return the number of times the connection priority has changed.
+     */
+    public synchronized long getTransitions() {
+        return mTransitions;
+    }
+
+    /**
+     * Get the total time spent in a mode, including the time in the current mode so far.
+     * @param mode the connection priority mode.
+     * @return the time in ms.
+     */
+    public synchronized long getTimeInMode(Mode mode) {
+        long time = mTimeInMode[mode.ordinal()];
+        if (mode == mMode && mModeSince >= 0) {
+            time += SystemClock.elapsedRealtime() - mModeSince;
+        }
+        return time;
+    }
+
+    /**
+     * Start accounting time in balanced mode, if the governor is not running yet.
+     */
+    synchronized void start() {
+        if (mModeSince < 0) {
+            mModeSince = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Check the load on the link.
+     * @param queueDepth the number of queued BLE commands.
+     * @param bulkTransferActive whether a large object transfer is in progress.
+     * @return true if the link is busy and the connection priority should be high.
+     */
+    synchronized boolean isBusy(int queueDepth, boolean bulkTransferActive) {
+        return bulkTransferActive || queueDepth >= mQueueDepthThreshold;
+    }
+
+    /**
+     * Switch to a mode.
+     * @param mode the new mode.
+     * @return true if the mode changed and the connection priority should be requested.
+     */
+    synchronized boolean switchTo(Mode mode) {
+        start();
+        long now = SystemClock.elapsedRealtime();
+        if (mode == mMode) {
+            return false;
+        }
+        mTimeInMode[mMode.ordinal()] += now - mModeSince;
+        mMode = mode;
+        mModeSince = now;
+        mTransitions++;
+        return true;
+    }
+
+    /**
+     * Stop accounting time, e.g. because the BLE connection is closed. The next connection starts
+     * in balanced mode.
+     */
+    synchronized void stop() {
+        if (mModeSince >= 0) {
+            mTimeInMode[mMode.ordinal()] += SystemClock.elapsedRealtime() - mModeSince;
+        }
+        mMode = Mode.BALANCED;
+        mModeSince = -1;
+    }
+}
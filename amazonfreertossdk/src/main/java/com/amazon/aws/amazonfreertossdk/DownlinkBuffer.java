@@ -0,0 +1,215 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.DOWNLINK_BUFFER_MAX_BYTES;
+
+/**
+ * This class buffers MQTT messages received from AWS IoT that cannot be delivered to the device
+ * yet, because the BLE connection is not established or the MQTT proxy is not ready. The buffer is
+ * bounded by a total byte cap. When the cap is exceeded, the overflow policy of the incoming
+ * message's QoS decides which message is dropped. QoS 0 messages are always evicted before QoS 1
+ * messages, and QoS 1 messages are flushed before QoS 0 messages.
+ */
+public class DownlinkBuffer {
+
+    /**
+     * What to do when a new message does not fit in the buffer.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Evict the oldest buffered messages of the same QoS to make room for the new message.
+         */
+        DROP_OLDEST,
+        /**
+         * Keep the buffered messages and drop the new message.
+         */
+        DROP_NEWEST
+    }
+
+    private final LinkedList<Publish> mQos0Messages = new LinkedList<>();
+    private final LinkedList<Publish> mQos1Messages = new LinkedList<>();
+
+    private int mMaxBytes = DOWNLINK_BUFFER_MAX_BYTES;
+    private OverflowPolicy mQos0Policy = OverflowPolicy.DROP_OLDEST;
+    private OverflowPolicy mQos1Policy = OverflowPolicy.DROP_NEWEST;
+
+    private int mBufferedBytes = 0;
+    private long mTotalBuffered = 0;
+    private long mTotalFlushed = 0;
+    private long mDroppedMessages = 0;
+    private long mDroppedBytes = 0;
+
+    /**
+     * Set the maximum number of payload and topic bytes that can be buffered.
+     * @param maxBytes the byte cap. Must not be negative.
+     */
+    public synchronized void setMaxBytes(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Downlink buffer size must not be negative.");
+        }
+        mMaxBytes = maxBytes;
+        while (mBufferedBytes > mMaxBytes) {
+            if (!evictOldest(mQos0Messages) && !evictOldest(mQos1Messages)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Set the overflow policy for QoS 0 messages. Default is DROP_OLDEST.
+     * @param policy the overflow policy.
+     */
+    public synchronized void setQos0OverflowPolicy(OverflowPolicy policy) {
+        mQos0Policy = policy;
+    }
+
+    /**
+     * Set the overflow policy for QoS 1 messages. Default is DROP_NEWEST, which keeps the messages
+     * already buffered.
+     * @param policy the overflow policy.
+     */
+    public synchronized void setQos1OverflowPolicy(OverflowPolicy policy) {
+        mQos1Policy = policy;
+    }
+
+    /**
+     * Add a message to the buffer.
+     * @param publish the message to be delivered to the device later.
+     * @return true if the message is buffered, false if it is dropped.
+     */
+    synchronized boolean offer(Publish publish) {
+        int size = sizeOf(publish);
+        boolean isQos1 = publish.getQos() > 0;
+        OverflowPolicy policy = isQos1 ? mQos1Policy : mQos0Policy;
+        if (size > mMaxBytes) {
+            drop(size);
+            return false;
+        }
+        if (mBufferedBytes + size > mMaxBytes) {
+            if (policy == OverflowPolicy.DROP_NEWEST && !isQos1) {
+                drop(size);
+                return false;
+            }
+            // QoS 0 messages are evicted first, no matter what QoS the new message has. QoS 1
+            // messages are only evicted to make room for another QoS 1 message.
+            while (mBufferedBytes + size > mMaxBytes && evictOldest(mQos0Messages)) {
+                // keep evicting.
+            }
+            while (isQos1 && policy == OverflowPolicy.DROP_OLDEST
+                    && mBufferedBytes + size > mMaxBytes && evictOldest(mQos1Messages)) {
+                // keep evicting.
+            }
+            if (mBufferedBytes + size > mMaxBytes) {
+                drop(size);
+                return false;
+            }
+        }
+        (isQos1 ? mQos1Messages : mQos0Messages).add(publish);
+        mBufferedBytes += size;
+        mTotalBuffered++;
+        return true;
+    }
+
+    /**
+     * Remove all buffered messages in the order they should be delivered: QoS 1 messages first,
+     * then QoS 0 messages, each in arrival order.
+     * @return the buffered messages.
+     */
+    synchronized List<Publish> drain() {
+        List<Publish> messages = new ArrayList<>(mQos1Messages.size() + mQos0Messages.size());
+        messages.addAll(mQos1Messages);
+        messages.addAll(mQos0Messages);
+        mQos1Messages.clear();
+        mQos0Messages.clear();
+        mBufferedBytes = 0;
+        mTotalFlushed += messages.size();
+        return messages;
+    }
+
+    /**
+     * Discard all buffered messages. Discarded messages are counted as dropped.
+     */
+    synchronized void clear() {
+        while (evictOldest(mQos0Messages) || evictOldest(mQos1Messages)) {
+            // keep evicting.
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return mQos0Messages.isEmpty() && mQos1Messages.isEmpty();
+    }
+
+    /**
+     * @return the number of bytes currently buffered.
+     */
+    public synchronized int getBufferedBytes() {
+        return mBufferedBytes;
+    }
+
+    /**
+     * @return the number of messages currently buffered.
+     */
+    public synchronized int getBufferedMessages() {
+        return mQos0Messages.size() + mQos1Messages.size();
+    }
+
+    /**
+     * @return the total number of messages that have been buffered.
+     */
+    public synchronized long getTotalBufferedMessages() {
+        return mTotalBuffered;
+    }
+
+    /**
+     * @return the total number of buffered messages that have been flushed to the device.
+     */
+    public synchronized long getTotalFlushedMessages() {
+        return mTotalFlushed;
+    }
+
+    /**
+     * @return the total number of messages dropped because of overflow.
+     */
+    public synchronized long getDroppedMessages() {
+        return mDroppedMessages;
+    }
+
+    /**
+     * @return the total number of bytes dropped because of overflow.
+     */
+    public synchronized long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    private boolean evictOldest(LinkedList<Publish> messages) {
+        Publish oldest = messages.poll();
+        if (oldest == null) {
+            return false;
+        }
+        int size = sizeOf(oldest);
+        mBufferedBytes -= size;
+        drop(size);
+        return true;
+    }
+
+    private void drop(int size) {
+        mDroppedMessages++;
+        mDroppedBytes += size;
+    }
+
+    private static int sizeOf(Publish publish) {
+        int size = 0;
+        if (publish.getTopic() != null) {
+            size += publish.getTopic().length();
+        }
+        if (publish.getPayload() != null) {
+            size += publish.getPayload().length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,124 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.EVENT_LOOP_TIMER_TICK;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.EVENT_LOOP_TIMER_WHEEL_SIZE;
+
+/**
+ * This class runs tasks one at a time on a single thread. Any thread can submit a task with
+ * {@link #execute(Runnable)} through a lock-free queue, so state that is only touched by tasks on
+ * the event loop needs no synchronization. Tasks submitted from the same thread run in the order
+ * they were submitted.
+ *
+ * Timers can be scheduled and cancelled from the event loop thread only. They expire on a
+ * {@link TimingWheel}, so scheduling and cancelling are O(1) and do not allocate, however many
+ * command timeouts and retransmissions are pending.
+ */
+class EventLoop {
+    private static final String TAG = "EventLoop";
+
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private final TimingWheel mTimers = new TimingWheel(
+            TimeUnit.MILLISECONDS.toNanos(EVENT_LOOP_TIMER_TICK), EVENT_LOOP_TIMER_WHEEL_SIZE,
+            System.nanoTime());
+    private final Thread mThread;
+    private volatile boolean mRunning = true;
+
+    /**
+     * Construct and start an event loop.
+     * @param name the name of the event loop thread.
+     */
+    EventLoop(String name) {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Run a task on the event loop. Can be called from any thread.
+     * @param task the task.
+     */
+    void execute(Runnable task) {
+        mTasks.offer(task);
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * @return true if the calling thread is the event loop thread.
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Run a timer on the event loop after a delay. A timer that is already scheduled is moved to
+     * the new deadline. Must be called on the event loop.
+     * @param timer the timer.
+     * @param delay the delay in ms.
+     */
+    void schedule(TimingWheel.Timer timer, long delay) {
+        mTimers.schedule(timer, TimeUnit.MILLISECONDS.toNanos(delay), System.nanoTime());
+    }
+
+    /**
+     * Cancel a timer, if it is scheduled. Must be called on the event loop.
+     * @param timer the timer.
+     */
+    void cancel(TimingWheel.Timer timer) {
+        mTimers.cancel(timer);
+    }
+
+    /**
+     * Stop the event loop once the tasks already submitted have run.
+     */
+    void shutdown() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                mRunning = false;
+            }
+        });
+    }
+
+    private void loop() {
+        while (mRunning) {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                runTask(task);
+            }
+            mTimers.advance(System.nanoTime());
+            TimingWheel.Timer timer;
+            while ((timer = mTimers.pollExpired()) != null) {
+                runTask(timer);
+            }
+            if (!mTasks.isEmpty() || !mRunning) {
+                continue;
+            }
+            // A task submitted after the check above unparks the thread, so it is not missed.
+            long wait = mTimers.nanosUntilNextExpiry(System.nanoTime());
+            if (wait < 0) {
+                LockSupport.park(this);
+            } else if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Task failed on event loop.", e);
+        }
+    }
+}
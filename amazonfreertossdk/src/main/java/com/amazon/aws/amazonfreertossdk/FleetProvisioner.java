@@ -0,0 +1,508 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+import android.content.Context;
+import android.util.Log;
+
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
+import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkReq;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BleConnectionState;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.DeviceState;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.FLEET_PROVISIONING_ATTEMPT_TIMEOUT;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.FLEET_PROVISIONING_CONCURRENCY;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.FLEET_PROVISIONING_DISCOVERY_TIMEOUT;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.FLEET_PROVISIONING_MAX_ATTEMPTS;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.SCAN_PERIOD;
+
+/**
+ * This class provisions the same WiFi network on a set of devices. Devices are found with a BLE
+ * scan, and each device found is connected, its services are discovered, and the network is
+ * provisioned with AmazonFreeRTOSManager#provisionNetwork, which waits until the device reports
+ * the network as connected. Up to a
+ * configured number of devices are provisioned at the same time, each with its own
+ * AmazonFreeRTOSManager, and a device that fails is retried up to a configured number of attempts.
+ * When all devices have finished, a ProvisioningReport with the throughput and latency of the run
+ * is passed to the callback.
+ */
+public class FleetProvisioner {
+    private static final String TAG = "FleetProvisioner";
+
+    /*
+      The scan of AmazonFreeRTOSManager stops by itself after SCAN_PERIOD, so it is started again
+      shortly after while devices have not been found.
+     */
+    private static final long SCAN_RESTART_DELAY = 1000; //ms
+
+    /**
+     * The callback of a provisioning run.
+     */
+    public abstract static class Callback {
+        /**
+         * This callback is triggered when a device reports the network as connected.
+         * @param result The result of the device.
+         */
+        public void onDeviceProvisioned(ProvisioningReport.DeviceResult result) {}
+
+        /**
+         * This callback is triggered when the SDK gives up on a device.
+         * @param result The result of the device.
+         */
+        public void onDeviceFailed(ProvisioningReport.DeviceResult result) {}
+
+        /**
+         * This callback is triggered once when all devices have finished.
+         * @param report The report of the run.
+         */
+        public void onComplete(ProvisioningReport report) {}
+    }
+
+    private static class Job {
+        final ProvisioningReport.DeviceResult result = new ProvisioningReport.DeviceResult();
+        BluetoothDevice device;
+        long firstAttemptTime = -1;
+        boolean finished = false;
+    }
+
+    /*
+      A slot provisions one device at a time. Its manager and its attempt timer are reused for the
+      next device.
+     */
+    private class Slot {
+        final AmazonFreeRTOSManager manager;
+        Job job;
+        final TimingWheel.Timer attemptTimeout = new TimingWheel.Timer() {
+            @Override
+            public void run() {
+                // The timer is cancelled when an attempt ends, so it times out the current one.
+                if (job != null) {
+                    failAttempt(Slot.this, job, job.result.attempts,
+                            "Timed out at " + job.result.stage + ".");
+                }
+            }
+        };
+
+        Slot() {
+            manager = new AmazonFreeRTOSManager(mContext, mBluetoothAdapter, null);
+        }
+    }
+
+    private final Context mContext;
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final EventLoop mEventLoop = new EventLoop("FleetProvisioner");
+    private final Executor mEventLoopExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            mEventLoop.execute(runnable);
+        }
+    };
+    private final AtomicBoolean mRunning = new AtomicBoolean(false);
+
+    private int mConcurrency = FLEET_PROVISIONING_CONCURRENCY;
+    private int mMaxAttempts = FLEET_PROVISIONING_MAX_ATTEMPTS;
+    private long mAttemptTimeout = FLEET_PROVISIONING_ATTEMPT_TIMEOUT;
+    private long mDiscoveryTimeout = FLEET_PROVISIONING_DISCOVERY_TIMEOUT;
+
+    /*
+      The state of a run is only touched on the event loop.
+     */
+    private AmazonFreeRTOSManager mScanner;
+    private final List<Slot> mSlots = new ArrayList<>();
+    private final Map<String, Job> mJobs = new LinkedHashMap<>();
+    private final ArrayDeque<Job> mPendingJobs = new ArrayDeque<>();
+    private SaveNetworkReq mNetwork;
+    private Callback mCallback;
+    private Executor mCallbackExecutor;
+    private int mRunConcurrency;
+    private int mRunMaxAttempts;
+    private long mRunAttemptTimeout;
+    private long mStartTime;
+    private int mUndiscoveredCount;
+    private int mFinishedCount;
+    private boolean mCancelled;
+
+    /**
+     * Construct a FleetProvisioner.
+     * @param context The app context.
+     * @param bluetoothAdapter BluetoothAdaptor passed in by the app.
+     */
+    public FleetProvisioner(Context context, BluetoothAdapter bluetoothAdapter) {
+        mContext = context;
+        mBluetoothAdapter = bluetoothAdapter;
+    }
+
+    /**
+     * Set the number of devices provisioned at the same time. Takes effect on the next run.
+     * @param concurrency the number of devices, at least 1.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1.");
+        }
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * Set the number of attempts made for each device. Takes effect on the next run.
+     * @param maxAttempts the number of attempts, at least 1.
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1.");
+        }
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Set how long one attempt to provision a device may take, from connecting until the device
+     * reports the network as connected. Takes effect on the next run.
+     * @param attemptTimeout the timeout in ms.
+     */
+    public synchronized void setAttemptTimeout(long attemptTimeout) {
+        mAttemptTimeout = attemptTimeout;
+    }
+
+    /**
+     * Set how long to scan for the devices of a run. Devices not found by then fail. Takes effect
+     * on the next run.
+     * @param discoveryTimeout the timeout in ms.
+     */
+    public synchronized void setDiscoveryTimeout(long discoveryTimeout) {
+        mDiscoveryTimeout = discoveryTimeout;
+    }
+
+    /**
+     * Provision a network on a set of devices. Only one run can be in progress at a time.
+     * @param deviceAddresses The BLE addresses of the devices.
+     * @param network The network to save on each device. The index is used as is.
+     * @param callback The callback of the run. Must not be null.
+     * @param executor The executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     */
+    public void provision(Collection<String> deviceAddresses, final SaveNetworkReq network,
+                          final Callback callback, Executor executor) {
+        if (callback == null) {
+            throw new IllegalArgumentException("FleetProvisioner callback is null.");
+        }
+        if (network == null || network.ssid == null) {
+            throw new IllegalArgumentException("Network to provision has no ssid.");
+        }
+        if (!mRunning.compareAndSet(false, true)) {
+            throw new IllegalStateException("A provisioning run is already in progress.");
+        }
+        final List<String> addresses = new ArrayList<>(deviceAddresses);
+        final Executor callbackExecutor = new SerialExecutor(executor != null ? executor
+                : AmazonFreeRTOSManager.DEFAULT_CALLBACK_EXECUTOR);
+        final int concurrency;
+        final int maxAttempts;
+        final long attemptTimeout;
+        final long discoveryTimeout;
+        synchronized (this) {
+            concurrency = mConcurrency;
+            maxAttempts = mMaxAttempts;
+            attemptTimeout = mAttemptTimeout;
+            discoveryTimeout = mDiscoveryTimeout;
+        }
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mNetwork = network;
+                mCallback = callback;
+                mCallbackExecutor = callbackExecutor;
+                mRunConcurrency = concurrency;
+                mRunMaxAttempts = maxAttempts;
+                mRunAttemptTimeout = attemptTimeout;
+                mStartTime = System.currentTimeMillis();
+                mFinishedCount = 0;
+                mCancelled = false;
+                mJobs.clear();
+                mPendingJobs.clear();
+                for (String address : addresses) {
+                    String key = address.toUpperCase(Locale.US);
+                    if (!mJobs.containsKey(key)) {
+                        Job job = new Job();
+                        job.result.address = address;
+                        mJobs.put(key, job);
+                    }
+                }
+                mUndiscoveredCount = mJobs.size();
+                Log.i(TAG, "Provisioning " + mNetwork.ssid + " on " + mJobs.size()
+                        + " devices, " + mRunConcurrency + " at a time.");
+                if (mJobs.isEmpty()) {
+                    completeIfDone();
+                    return;
+                }
+                if (mScanner == null) {
+                    mScanner = new AmazonFreeRTOSManager(mContext, mBluetoothAdapter, null);
+                }
+                restartScan.run();
+                mEventLoop.schedule(discoveryTimedOut, discoveryTimeout);
+            }
+        });
+    }
+
+    /**
+     * Stop the run in progress. Devices that are not provisioned yet fail, and the report is
+     * passed to the callback.
+     */
+    public void cancel() {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCallback == null || mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                for (Slot slot : mSlots) {
+                    if (slot.job != null) {
+                        failAttempt(slot, slot.job, slot.job.result.attempts, "Cancelled.");
+                    }
+                }
+                for (Job job : mJobs.values()) {
+                    if (!job.finished) {
+                        job.result.failure = "Cancelled.";
+                        finish(job);
+                    }
+                }
+                completeIfDone();
+            }
+        });
+    }
+
+    private final BleScanResultCallback mScanResultCallback = new BleScanResultCallback() {
+        @Override
+        public void onBleScanResult(final ScanResult result) {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDeviceFound(result.getDevice());
+                }
+            });
+        }
+    };
+
+    private final TimingWheel.Timer restartScan = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            if (mUndiscoveredCount > 0 && !mCancelled) {
+                mScanner.startScanBleDevices(mScanResultCallback);
+                mEventLoop.schedule(restartScan, SCAN_PERIOD + SCAN_RESTART_DELAY);
+            }
+        }
+    };
+
+    private final TimingWheel.Timer discoveryTimedOut = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            stopScan();
+            for (Job job : mJobs.values()) {
+                if (job.device == null && !job.finished) {
+                    job.result.failure = "Device not found.";
+                    finish(job);
+                }
+            }
+            completeIfDone();
+        }
+    };
+
+    private void onDeviceFound(BluetoothDevice device) {
+        if (mCallback == null || mCancelled) {
+            return;
+        }
+        Job job = mJobs.get(device.getAddress().toUpperCase(Locale.US));
+        if (job == null || job.device != null || job.finished) {
+            return;
+        }
+        job.device = device;
+        job.result.discoveryTime = System.currentTimeMillis() - mStartTime;
+        mUndiscoveredCount--;
+        Log.i(TAG, "Found " + job.result.address + ", " + mUndiscoveredCount + " devices left.");
+        if (mUndiscoveredCount == 0) {
+            stopScan();
+        }
+        mPendingJobs.add(job);
+        startPendingJobs();
+    }
+
+    private void stopScan() {
+        mEventLoop.cancel(restartScan);
+        mEventLoop.cancel(discoveryTimedOut);
+        if (mScanner != null) {
+            mScanner.stopScanBleDevices();
+        }
+    }
+
+    private void startPendingJobs() {
+        if (mCancelled) {
+            return;
+        }
+        for (int i = 0; i < mRunConcurrency && !mPendingJobs.isEmpty(); i++) {
+            if (i == mSlots.size()) {
+                mSlots.add(new Slot());
+            }
+            Slot slot = mSlots.get(i);
+            if (slot.job == null) {
+                startAttempt(slot, mPendingJobs.poll());
+            }
+        }
+    }
+
+    private boolean isCurrent(Slot slot, Job job, int attempt) {
+        return slot.job == job && job.result.attempts == attempt;
+    }
+
+    private void startAttempt(final Slot slot, final Job job) {
+        slot.job = job;
+        final int attempt = ++job.result.attempts;
+        if (job.firstAttemptTime < 0) {
+            job.firstAttemptTime = System.currentTimeMillis();
+        }
+        job.result.stage = ProvisioningReport.Stage.CONNECTING;
+        job.result.failure = null;
+        job.result.connectTime = -1;
+        Log.i(TAG, "Provisioning " + job.result.address + ", attempt " + attempt);
+        mEventLoop.schedule(slot.attemptTimeout, mRunAttemptTimeout);
+        slot.manager.connectToDevice(job.device, new BleConnectionStatusCallback() {
+            @Override
+            public void onBleConnectionStatusChanged(BleConnectionState connectionStatus) {
+                if (!isCurrent(slot, job, attempt)) {
+                    return;
+                }
+                if (connectionStatus == BleConnectionState.BLE_CONNECTED) {
+                    slot.manager.discoverServices();
+                } else if (connectionStatus == BleConnectionState.BLE_DISCONNECTED) {
+                    failAttempt(slot, job, attempt, "BLE connection lost.");
+                }
+            }
+
+            @Override
+            public void onDeviceStateChanged(DeviceState deviceState) {
+                if (isCurrent(slot, job, attempt) && deviceState == DeviceState.READY
+                        && job.result.stage == ProvisioningReport.Stage.CONNECTING) {
+                    job.result.connectTime = System.currentTimeMillis() - job.firstAttemptTime;
+                    saveNetwork(slot, job, attempt);
+                }
+            }
+        }, mEventLoopExecutor);
+    }
+
+    private void saveNetwork(final Slot slot, final Job job, final int attempt) {
+        job.result.stage = ProvisioningReport.Stage.SAVING;
+        SaveNetworkReq saveNetworkReq = new SaveNetworkReq();
+        saveNetworkReq.ssid = mNetwork.ssid;
+        saveNetworkReq.bssid = mNetwork.bssid;
+        saveNetworkReq.psk = mNetwork.psk;
+        saveNetworkReq.security = mNetwork.security;
+        saveNetworkReq.index = mNetwork.index;
+        ProvisionNetworkOptions options = new ProvisionNetworkOptions();
+        // The attempt timeout bounds the whole attempt.
+        options.timeout = mRunAttemptTimeout;
+        slot.manager.provisionNetwork(saveNetworkReq, options, new ProvisionNetworkCallback() {
+            @Override
+            public void onProvisioned(ListNetworkResp network, String brokerEndpoint) {
+                if (isCurrent(slot, job, attempt)) {
+                    succeed(slot, job);
+                }
+            }
+
+            @Override
+            public void onFailed(ProvisioningReport.Stage stage, String reason) {
+                if (isCurrent(slot, job, attempt)) {
+                    job.result.stage = stage;
+                    failAttempt(slot, job, attempt, reason);
+                }
+            }
+        }, mEventLoopExecutor);
+    }
+
+    private void succeed(Slot slot, Job job) {
+        job.result.stage = ProvisioningReport.Stage.DONE;
+        job.result.provisioned = true;
+        endAttempt(slot);
+        finish(job);
+        startPendingJobs();
+        completeIfDone();
+    }
+
+    private void failAttempt(Slot slot, Job job, int attempt, String failure) {
+        if (!isCurrent(slot, job, attempt)) {
+            return;
+        }
+        Log.w(TAG, "Provisioning " + job.result.address + " failed at attempt " + attempt
+                + ": " + failure);
+        job.result.failure = failure;
+        endAttempt(slot);
+        if (job.result.attempts < mRunMaxAttempts && !mCancelled) {
+            // Retry after the devices already waiting, so a bad device does not hold up a slot.
+            mPendingJobs.add(job);
+        } else {
+            finish(job);
+        }
+        startPendingJobs();
+        completeIfDone();
+    }
+
+    private void endAttempt(Slot slot) {
+        mEventLoop.cancel(slot.attemptTimeout);
+        slot.manager.close();
+        slot.job = null;
+    }
+
+    private void finish(final Job job) {
+        if (job.finished) {
+            return;
+        }
+        job.finished = true;
+        mFinishedCount++;
+        if (job.firstAttemptTime >= 0) {
+            job.result.latency = System.currentTimeMillis() - job.firstAttemptTime;
+        }
+        final Callback callback = mCallback;
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (job.result.provisioned) {
+                    callback.onDeviceProvisioned(job.result);
+                } else {
+                    callback.onDeviceFailed(job.result);
+                }
+            }
+        });
+    }
+
+    private void completeIfDone() {
+        if (mCallback == null || mFinishedCount < mJobs.size()) {
+            return;
+        }
+        stopScan();
+        List<ProvisioningReport.DeviceResult> results = new ArrayList<>(mJobs.size());
+        for (Job job : mJobs.values()) {
+            results.add(job.result);
+        }
+        final ProvisioningReport report = new ProvisioningReport(results,
+                System.currentTimeMillis() - mStartTime);
+        Log.i(TAG, report.toString());
+        final Callback callback = mCallback;
+        mCallback = null;
+        mPendingJobs.clear();
+        mRunning.set(false);
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(report);
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.List;
+
+/**
+ * This interface is the GATT connection to a device as seen by AmazonFreeRTOSManager. The Android
+ * implementation is AndroidGattLink. Other implementations, such as a simulated device, let the
+ * BLE command queue and the MQTT proxy run without a Bluetooth stack.
+ *
+ * The methods are called on the event loop of the manager. Each method that starts a GATT
+ * operation returns false if the operation could not be started, otherwise the result is passed to
+ * the Callback later, on any thread.
+ */
+interface GattLink {
+
+    /**
+     * The GATT events of a link, with the values copied out of the Bluetooth objects. The
+     * statuses and states are the BluetoothGatt and BluetoothProfile constants. The handle of an
+     * event is one that was passed to {@link #resolve(List)}, or null if the characteristic is
+     * not resolved.
+     */
+    interface Callback {
+        void onConnectionStateChange(int status, int newState);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicChanged(CharacteristicHandle handle, String value);
+
+        void onCharacteristicRead(CharacteristicHandle handle, String value, int status);
+
+        void onCharacteristicWrite(CharacteristicHandle handle, int status);
+
+        void onDescriptorWrite(CharacteristicHandle handle, int status);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onPhyUpdate(int txPhy, int rxPhy, int status);
+    }
+
+    /**
+     * Opens links to one device. Called again to reconnect.
+     */
+    interface Connector {
+        /**
+         * Start connecting to the device. The result is passed to
+         * Callback#onConnectionStateChange.
+         * @param callback the callback of the new link.
+         * @return the new link.
+         */
+        GattLink connect(Callback callback);
+    }
+
+    boolean discoverServices();
+
+    /**
+     * Look up the characteristics of the handles in the discovered services, once after each
+     * service discovery. Later operations and events use the result, so they do not look up
+     * services or parse UUIDs.
+     * @param handles the handles, indexed by CharacteristicHandle#index.
+     */
+    void resolve(List<CharacteristicHandle> handles);
+
+    /**
+     * @param handle the handle of a characteristic.
+     * @return true if the characteristic was found by the last {@link #resolve(List)}.
+     */
+    boolean hasCharacteristic(CharacteristicHandle handle);
+
+    /**
+     * Enable notifications of a characteristic by writing its client characteristic configuration
+     * descriptor. The result is passed to Callback#onDescriptorWrite.
+     */
+    boolean enableNotification(CharacteristicHandle handle);
+
+    boolean writeCharacteristic(CharacteristicHandle handle, String value);
+
+    boolean readCharacteristic(CharacteristicHandle handle);
+
+    boolean requestMtu(int mtu);
+
+    /**
+     * Set the preferred PHY for both directions. The result is passed to Callback#onPhyUpdate.
+     * @param phyMask one of the BluetoothDevice#PHY_LE_*_MASK values.
+     */
+    void setPreferredPhy(int phyMask);
+
+    /**
+     * Request a connection priority. There is no callback for the result.
+     * @return true if the request was sent.
+     */
+    boolean requestConnectionPriority(int connectionPriority);
+
+    /**
+     * Close the link. No callback is called after this.
+     */
+    void close();
+}
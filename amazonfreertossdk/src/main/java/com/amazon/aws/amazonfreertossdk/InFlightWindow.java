@@ -0,0 +1,195 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_QOS1_INFLIGHT_WINDOW;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_QOS1_MAX_RETRANSMITS;
+
+/**
+ * This class tracks QoS 1 MQTT messages sent from the SDK to the device that have not been
+ * acknowledged by a PUBACK yet. At most a window of messages is in flight at a time, the others
+ * wait in arrival order until an in flight message is acknowledged or expires. A message expires
+ * when the device has not acknowledged it after MQTT_QOS1_MAX_RETRANSMITS retransmissions.
+ */
+class InFlightWindow {
+
+    /**
+     * Handles the expiry of the retransmit timer of an entry.
+     */
+    interface RetransmitHandler {
+        /**
+         * Called on the event loop when the device did not acknowledge the entry in time.
+         * @param entry the entry, which may have been removed from the window meanwhile.
+         */
+        void onRetransmitTimeout(Entry entry);
+    }
+
+    /**
+     * A QoS 1 message that has been sent to the device and waits for a PUBACK. The entry is also
+     * the timer that retransmits the message if the PUBACK does not arrive in time, so tracking a
+     * message allocates no timer of its own. The handler schedules the entry again after each
+     * retransmission.
+     */
+    class Entry extends TimingWheel.Timer {
+        /**
+         * The message as received from AWS IoT, before a message ID is assigned.
+         */
+        final Publish original;
+        /**
+         * The message with the message ID allocated for this session.
+         */
+        final Publish publish;
+        /**
+         * The number of times the message has been retransmitted.
+         */
+        int retransmits = 0;
+
+        Entry(Publish original, Publish publish) {
+            this.original = original;
+            this.publish = publish;
+        }
+
+        @Override
+        public void run() {
+            mRetransmitHandler.onRetransmitTimeout(this);
+        }
+    }
+
+    private final RetransmitHandler mRetransmitHandler;
+
+    private final MessageIdAllocator mMessageIdAllocator = new MessageIdAllocator();
+    private final Map<Integer, Entry> mInFlight = new HashMap<>();
+    private final Queue<Publish> mWaiting = new LinkedList<>();
+    private int mWindowSize = MQTT_QOS1_INFLIGHT_WINDOW;
+    private long mExpiredMessages = 0;
+
+    InFlightWindow(RetransmitHandler retransmitHandler) {
+        mRetransmitHandler = retransmitHandler;
+    }
+
+    synchronized void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("In flight window size must be at least 1.");
+        }
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * Assign a message ID to the message and start tracking it, if the window is not full.
+     * Otherwise the message waits until {@link #trackNextWaiting()} returns it.
+     * @param original the message received from AWS IoT.
+     * @return the entry to be sent to the device, or null if the window is full.
+     */
+    synchronized Entry track(Publish original) {
+        if (mInFlight.size() >= mWindowSize) {
+            mWaiting.add(original);
+            return null;
+        }
+        int msgId = mMessageIdAllocator.allocate();
+        if (msgId == 0) {
+            mWaiting.add(original);
+            return null;
+        }
+        Entry entry = new Entry(original, new Publish(MQTT_MSG_PUBLISH, original.getTopic(), msgId,
+                original.getQos(), original.getPayload(), original.getEncoding()));
+        mInFlight.put(msgId, entry);
+        return entry;
+    }
+
+    /**
+     * Get an in flight entry.
+     * @param msgId the message ID.
+     * @return the entry, or null if the message is not in flight.
+     */
+    synchronized Entry get(int msgId) {
+        return mInFlight.get(msgId);
+    }
+
+    /**
+     * Stop tracking a message, either because it is acknowledged by the device or because it has
+     * expired. The message ID is released.
+     * @param msgId the message ID.
+     * @return the entry, or null if the message is not in flight.
+     */
+    synchronized Entry remove(int msgId) {
+        Entry entry = mInFlight.remove(msgId);
+        if (entry != null) {
+            mMessageIdAllocator.release(msgId);
+        }
+        return entry;
+    }
+
+    /**
+     * Count a retransmission of an in flight message. A message that has already been
+     * retransmitted MQTT_QOS1_MAX_RETRANSMITS times expires instead: it is removed and its message
+     * ID is released.
+     * @param entry the in flight entry.
+     * @return true if the message should be sent again, false if it expired.
+     */
+    synchronized boolean retransmit(Entry entry) {
+        if (entry.retransmits >= MQTT_QOS1_MAX_RETRANSMITS) {
+            if (remove(entry.publish.getMsgID()) != null) {
+                mExpiredMessages++;
+            }
+            return false;
+        }
+        entry.retransmits++;
+        return true;
+    }
+
+    /**
+     * @return the total number of messages that expired without a PUBACK from the device.
+     */
+    synchronized long getExpiredMessages() {
+        return mExpiredMessages;
+    }
+
+    /**
+     * Start tracking the next waiting message, if there is a free slot in the window.
+     * @return the entry to be sent to the device, or null if the window is full or no message is
+     * waiting.
+     */
+    synchronized Entry trackNextWaiting() {
+        if (mInFlight.size() >= mWindowSize || mWaiting.isEmpty()) {
+            return null;
+        }
+        int msgId = mMessageIdAllocator.allocate();
+        if (msgId == 0) {
+            return null;
+        }
+        Publish original = mWaiting.poll();
+        Entry entry = new Entry(original, new Publish(MQTT_MSG_PUBLISH, original.getTopic(), msgId,
+                original.getQos(), original.getPayload(), original.getEncoding()));
+        mInFlight.put(msgId, entry);
+        return entry;
+    }
+
+    synchronized int size() {
+        return mInFlight.size();
+    }
+
+    /**
+     * End the session. All unacknowledged and waiting messages are returned in their original form
+     * so that they can be delivered again in the next session, and all message IDs are released.
+     * @return the messages not yet acknowledged by the device.
+     */
+    synchronized List<Publish> reset() {
+        List<Publish> unacknowledged = new ArrayList<>(mInFlight.size() + mWaiting.size());
+        for (Entry entry : mInFlight.values()) {
+            unacknowledged.add(entry.original);
+        }
+        unacknowledged.addAll(mWaiting);
+        mInFlight.clear();
+        mWaiting.clear();
+        mMessageIdAllocator.reset();
+        return unacknowledged;
+    }
+}
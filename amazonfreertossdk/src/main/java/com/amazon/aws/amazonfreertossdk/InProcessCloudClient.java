@@ -0,0 +1,240 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a CloudClient that runs an MQTT broker in the app process, so that the MQTT proxy
+ * can be tested and profiled without AWS credentials or network. It accepts every connection and
+ * subscription, delivers the messages the device publishes to the matching subscriptions and to
+ * a listener, and lets the app publish messages to the device as if another client published
+ * them. An optional latency delays every broker response, to model the round trip to the cloud.
+ *
+ * The broker state is touched on its own thread, which also calls the callbacks.
+ */
+public class InProcessCloudClient implements CloudClient {
+
+    /**
+     * The messages the device publishes through the MQTT proxy.
+     */
+    public interface PublishListener {
+        /**
+         * Called on the broker thread.
+         */
+        void onPublish(String topic, byte[] data, int qos);
+    }
+
+    private static class Subscription {
+        final String filter;
+        final MessageCallback callback;
+
+        Subscription(String filter, MessageCallback callback) {
+            this.filter = filter;
+            this.callback = callback;
+        }
+    }
+
+    private final ScheduledExecutorService mExecutor;
+    private final List<Subscription> mSubscriptions = new ArrayList<>();
+    private volatile PublishListener mPublishListener;
+    private volatile long mLatency = 0;
+    private boolean mConnected = false;
+    private volatile long mPublished = 0;
+    private volatile long mDelivered = 0;
+
+    public InProcessCloudClient() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "InProcessCloudClient");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Set the listener of the messages the device publishes.
+     * @param listener the listener, or null.
+     */
+    public void setPublishListener(PublishListener listener) {
+        mPublishListener = listener;
+    }
+
+    /**
+     * Delay every broker response, such as CONNACK, SUBACK, UNSUBACK and the delivery of a
+     * publish, by a fixed time. Responses keep their order. Default is 0.
+     * @param latency the delay in ms.
+     */
+    public void setLatency(long latency) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("Latency must not be negative.");
+        }
+        mLatency = latency;
+    }
+
+    /**
+     * Publish a message to the subscriptions of the device, as if another client published it.
+     * Can be called from any thread.
+     * @param topic the topic.
+     * @param data the payload.
+     */
+    public void publishToDevice(final String topic, final byte[] data) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                deliver(topic, data);
+            }
+        });
+    }
+
+    /**
+     * @return the number of messages the device has published.
+     */
+    public long getPublishedMessages() {
+        return mPublished;
+    }
+
+    /**
+     * @return the number of messages delivered to subscriptions of the device.
+     */
+    public long getDeliveredMessages() {
+        return mDelivered;
+    }
+
+    /**
+     * Stop the broker thread. No callback is called after this.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Override
+    public void connect(String clientId, String brokerEndpoint,
+                        final ConnectionCallback callback) {
+        callback.onConnectionStatusChanged(ConnectionStatus.CONNECTING, null);
+        run(new Runnable() {
+            @Override
+            public void run() {
+                mConnected = true;
+                callback.onConnectionStatusChanged(ConnectionStatus.CONNECTED, null);
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(final String topic, int qos,
+                          final SubscriptionCallback subscriptionCallback,
+                          final MessageCallback messageCallback) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    subscriptionCallback.onFailure(new IllegalStateException("Not connected."));
+                    return;
+                }
+                // Like an MQTT broker, a subscription replaces the one with the same filter.
+                removeSubscriptions(topic);
+                mSubscriptions.add(new Subscription(topic, messageCallback));
+                subscriptionCallback.onSuccess();
+            }
+        });
+    }
+
+    @Override
+    public void unsubscribe(final String topic, final SubscriptionCallback callback) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    callback.onFailure(new IllegalStateException("Not connected."));
+                    return;
+                }
+                removeSubscriptions(topic);
+                callback.onSuccess();
+            }
+        });
+    }
+
+    @Override
+    public void publish(final String topic, final byte[] data, final int qos,
+                        final DeliveryCallback callback) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    callback.onDeliveryComplete(false);
+                    return;
+                }
+                mPublished++;
+                PublishListener listener = mPublishListener;
+                if (listener != null) {
+                    listener.onPublish(topic, data, qos);
+                }
+                deliver(topic, data);
+                callback.onDeliveryComplete(true);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                mConnected = false;
+                mSubscriptions.clear();
+            }
+        });
+    }
+
+    private void run(Runnable task) {
+        try {
+            mExecutor.schedule(task, mLatency, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The broker is shut down.
+        }
+    }
+
+    private void removeSubscriptions(String filter) {
+        for (int i = mSubscriptions.size() - 1; i >= 0; i--) {
+            if (mSubscriptions.get(i).filter.equals(filter)) {
+                mSubscriptions.remove(i);
+            }
+        }
+    }
+
+    private void deliver(String topic, byte[] data) {
+        for (Subscription subscription : mSubscriptions) {
+            if (matches(subscription.filter, topic)) {
+                mDelivered++;
+                subscription.callback.onMessageArrived(topic, data);
+            }
+        }
+    }
+
+    /**
+     * @return true if the topic matches the MQTT topic filter, with + and # wildcards.
+     */
+    static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+}
@@ -0,0 +1,170 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.os.SystemClock;
+
+/**
+ * This class keeps the keep-alive statistics of a device. The SDK answers MQTT PINGREQ messages
+ * from the device itself, so the keep-alive round trip covers only the BLE link: from the PINGREQ
+ * notification to the PINGRESP write being confirmed. The liveness of the connection to AWS IoT is
+ * tracked separately, from the MQTT connection status and the last message exchanged with AWS IoT.
+ */
+public class KeepAliveStats {
+    private long mPingRequests = 0;
+    private long mPingResponses = 0;
+    private long mFailedPingResponses = 0;
+    private long mLastPingTime = -1;
+    private long mLastRtt = -1;
+    private long mMinRtt = -1;
+    private long mMaxRtt = -1;
+    private long mTotalRtt = 0;
+
+    private boolean mCloudAlive = false;
+    private long mCloudConnectionLosses = 0;
+    private long mLastCloudActivityTime = -1;
+
+    /**
+     * Record a PINGREQ from the device.
+     * @return the time the PINGREQ is received, to pass to onPingResponseSent.
+     */
+    synchronized long onPingRequest() {
+        mPingRequests++;
+        mLastPingTime = SystemClock.elapsedRealtime();
+        return mLastPingTime;
+    }
+
+    /**
+     * Record the result of writing a PINGRESP to the device.
+     * @param requestTime the time returned by onPingRequest.
+     * @param success whether the PINGRESP is written.
+     */
+    synchronized void onPingResponseSent(long requestTime, boolean success) {
+        if (!success) {
+            mFailedPingResponses++;
+            return;
+        }
+        long rtt = SystemClock.elapsedRealtime() - requestTime;
+        mPingResponses++;
+        mLastRtt = rtt;
+        mTotalRtt += rtt;
+        mMinRtt = mMinRtt < 0 ? rtt : Math.min(mMinRtt, rtt);
+        mMaxRtt = Math.max(mMaxRtt, rtt);
+    }
+
+    /**
+     * Record that the connection to AWS IoT is up.
+     */
+    synchronized void onCloudConnected() {
+        mCloudAlive = true;
+        mLastCloudActivityTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Record that the connection to AWS IoT is down.
+     * @param lost true if the connection is lost, false if the SDK disconnected.
+     */
+    synchronized void onCloudDisconnected(boolean lost) {
+        if (mCloudAlive && lost) {
+            mCloudConnectionLosses++;
+        }
+        mCloudAlive = false;
+    }
+
+    /**
+     * Record a message exchanged with AWS IoT.
+     */
+    synchronized void onCloudActivity() {
+        mLastCloudActivityTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Clear the statistics, when the SDK connects to a different device.
+     */
+    synchronized void reset() {
+        mPingRequests = 0;
+        mPingResponses = 0;
+        mFailedPingResponses = 0;
+        mLastPingTime = -1;
+        mLastRtt = -1;
+        mMinRtt = -1;
+        mMaxRtt = -1;
+        mTotalRtt = 0;
+    }
+
+    /**
+     * @return the number of PINGREQ messages received from the device.
+     */
+    public synchronized long getPingRequests() {
+        return mPingRequests;
+    }
+
+    /**
+     * @return the number of PINGRESP messages written to the device.
+     */
+    public synchronized long getPingResponses() {
+        return mPingResponses;
+    }
+
+    /**
+     * @return the number of PINGRESP messages that could not be written to the device.
+     */
+    public synchronized long getFailedPingResponses() {
+        return mFailedPingResponses;
+    }
+
+    /**
+     * @return the time of the last PINGREQ in SystemClock#elapsedRealtime, -1 if none.
+     */
+    public synchronized long getLastPingTime() {
+        return mLastPingTime;
+    }
+
+    /**
+     * @return the last keep-alive round trip in ms, -1 if none.
+     */
+    public synchronized long getLastRtt() {
+        return mLastRtt;
+    }
+
+    /**
+     * @return the shortest keep-alive round trip in ms, -1 if none.
+     */
+    public synchronized long getMinRtt() {
+        return mMinRtt;
+    }
+
+    /**
+     * @return the longest keep-alive round trip in ms, -1 if none.
+     */
+    public synchronized long getMaxRtt() {
+        return mMaxRtt;
+    }
+
+    /**
+     * @return the average keep-alive round trip in ms, -1 if none.
+     */
+    public synchronized long getAverageRtt() {
+        return mPingResponses == 0 ? -1 : mTotalRtt / mPingResponses;
+    }
+
+    /**
+     * @return whether the connection to AWS IoT is up.
+     */
+    public synchronized boolean isCloudAlive() {
+        return mCloudAlive;
+    }
+
+    /**
+     * @return the number of times the connection to AWS IoT was lost.
+     */
+    public synchronized long getCloudConnectionLosses() {
+        return mCloudConnectionLosses;
+    }
+
+    /**
+     * @return the time of the last message exchanged with AWS IoT in
+     * SystemClock#elapsedRealtime, -1 if none.
+     */
+    public synchronized long getLastCloudActivityTime() {
+        return mLastCloudActivityTime;
+    }
+}
@@ -0,0 +1,90 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This class holds the state of one large object that is sent to the device in packets through
+ * the RXLARGE characteristic. Each transfer has its own data and position, so that a new large
+ * message cannot overwrite a transfer that is in progress.
+ */
+class LargeObjectTransfer {
+    /**
+     * The ID of this transfer, unique within an AmazonFreeRTOSManager.
+     */
+    final int transferId;
+    private final String mData;
+    private int mOffset = 0;
+    private int mPacketCount = 0;
+    private boolean mComplete = false;
+    private boolean mAborted = false;
+    private String mPacket;
+    private int mRetries = 0;
+
+    LargeObjectTransfer(int transferId, String data) {
+        this.transferId = transferId;
+        mData = data;
+    }
+
+    /**
+     * Get the next packet and advance the position of this transfer. The device reassembles the
+     * object until a packet is shorter than the max payload size, so an object whose length is a
+     * multiple of the max payload size ends with an empty packet.
+     * @param maxPayloadLen the maximum length of a packet.
+     * @return the next packet, or null if all packets have been sent.
+     */
+    String nextPacket(int maxPayloadLen) {
+        if (isComplete()) {
+            return null;
+        }
+        int end = Math.min(mData.length(), mOffset + maxPayloadLen);
+        mPacket = mData.substring(mOffset, end);
+        mOffset = end;
+        mPacketCount++;
+        mRetries = 0;
+        mComplete = mPacket.length() < maxPayloadLen;
+        return mPacket;
+    }
+
+    /**
+     * Get the last packet again, after its write failed.
+     * @return the last packet returned by nextPacket.
+     */
+    String retryPacket() {
+        mRetries++;
+        return mPacket;
+    }
+
+    /**
+     * Give up on the rest of the object. The device is still reassembling it, so the transfer
+     * ends with an empty packet. The object the device reassembles is incomplete and fails to
+     * parse, so the device drops it instead of prepending it to the next object.
+     * @return the empty packet that ends the object.
+     */
+    String abort() {
+        mAborted = true;
+        mComplete = true;
+        mPacket = "";
+        mRetries = 0;
+        return mPacket;
+    }
+
+    boolean isComplete() {
+        return mComplete;
+    }
+
+    boolean isAborted() {
+        return mAborted;
+    }
+
+    /**
+     * @return the number of times the last packet has been written again.
+     */
+    int getRetries() {
+        return mRetries;
+    }
+
+    /**
+     * @return the number of packets sent so far.
+     */
+    int getPacketCount() {
+        return mPacketCount;
+    }
+}
@@ -0,0 +1,41 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This class represents the effective parameters of the BLE link between the device and the
+ * Android phone.
+ */
+public class LinkParameters {
+    /**
+     * The negotiated mtu, 0 if it has not been negotiated.
+     */
+    public int mtu;
+    /**
+     * The transmitter PHY, one of BluetoothDevice#PHY_LE_1M, PHY_LE_2M and PHY_LE_CODED.
+     * 0 if unknown.
+     */
+    public int txPhy;
+    /**
+     * The receiver PHY, one of BluetoothDevice#PHY_LE_1M, PHY_LE_2M and PHY_LE_CODED.
+     * 0 if unknown.
+     */
+    public int rxPhy;
+    /**
+     * The connection priority last requested by the SDK, one of the
+     * BluetoothGatt#CONNECTION_PRIORITY_* values.
+     */
+    public int connectionPriority;
+
+    LinkParameters copy() {
+        LinkParameters linkParameters = new LinkParameters();
+        linkParameters.mtu = mtu;
+        linkParameters.txPhy = txPhy;
+        linkParameters.rxPhy = rxPhy;
+        linkParameters.connectionPriority = connectionPriority;
+        return linkParameters;
+    }
+
+    public String toString() {
+        return String.format("Link parameters -> mtu: %d txPhy: %d rxPhy: %d connectionPriority: %d",
+                mtu, txPhy, rxPhy, connectionPriority);
+    }
+}
@@ -0,0 +1,24 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * This class defines how the SDK optimizes the BLE link after services are discovered. Pass it to
+ * AmazonFreeRTOSManager#setLinkProfile to opt in.
+ */
+public class LinkProfile {
+    /**
+     * Whether to request the largest mtu. The effective mtu is the largest one both the device and
+     * the Android phone support.
+     */
+    public boolean requestMaxMtu = true;
+    /**
+     * Whether to request LE 2M PHY, if the Android phone supports it.
+     */
+    public boolean preferLe2MPhy = true;
+    /**
+     * The connection priority to request, one of BluetoothGatt#CONNECTION_PRIORITY_BALANCED,
+     * BluetoothGatt#CONNECTION_PRIORITY_HIGH and BluetoothGatt#CONNECTION_PRIORITY_LOW_POWER.
+     */
+    public int connectionPriority = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+}
@@ -0,0 +1,47 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.BitSet;
+
+/**
+ * This class allocates MQTT message IDs for one MQTT proxy session. IDs are in the range of
+ * 1 to 65535 and an ID is not handed out again until it is released.
+ */
+class MessageIdAllocator {
+    private static final int MAX_MESSAGE_ID = 65535;
+
+    private final BitSet mInUse = new BitSet(MAX_MESSAGE_ID + 1);
+    private int mLastId = 0;
+
+    /**
+     * Allocate the next free message ID.
+     * @return the message ID, or 0 if all message IDs are in use.
+     */
+    synchronized int allocate() {
+        for (int i = 0; i < MAX_MESSAGE_ID; i++) {
+            mLastId = mLastId % MAX_MESSAGE_ID + 1;
+            if (!mInUse.get(mLastId)) {
+                mInUse.set(mLastId);
+                return mLastId;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Release a message ID so that it can be allocated again.
+     * @param id the message ID.
+     */
+    synchronized void release(int id) {
+        if (id > 0 && id <= MAX_MESSAGE_ID) {
+            mInUse.clear(id);
+        }
+    }
+
+    /**
+     * Release all message IDs and start over from 1.
+     */
+    synchronized void reset() {
+        mInUse.clear();
+        mLastId = 0;
+    }
+}
@@ -0,0 +1,356 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.NETWORK_LIST_IDLE_TIMEOUT;
+
+/**
+ * This class aggregates the ListNetworkResp messages of one listNetworks request into a snapshot
+ * of networks keyed by BSSID. Saved networks come first ordered by index, then the other networks
+ * ordered by RSSI. The device sends no end-of-list marker, so the session ends when the requested
+ * number of networks has arrived, when the top K networks are known, or when no response arrives
+ * for the idle timeout. A BSSID reported twice, e.g. as a saved network and again by the scan,
+ * counts once toward the requested number and the top K. Each change to the snapshot is reported
+ * as a diff.
+ *
+ * Pass the session to AmazonFreeRTOSManager#listNetworks. A session can be used once.
+ */
+public class NetworkListSession {
+    private static final String TAG = "NetworkListSession";
+
+    /**
+     * Why a session ended.
+     */
+    public enum CompletionReason {
+        /**
+         * The requested number of networks arrived.
+         */
+        COUNT,
+        /**
+         * The top K networks are known. The device sends networks in snapshot order, so they do
+         * not change with later responses.
+         */
+        TOP_K,
+        /**
+         * No response arrived for the idle timeout.
+         */
+        IDLE,
+        /**
+         * The session was cancelled or replaced by a newer session.
+         */
+        CANCELLED,
+        /**
+         * The list network request could not be sent to the device.
+         */
+        FAILED
+    }
+
+    /**
+     * The change of the snapshot caused by one response, or by the end of the session.
+     */
+    public static class Diff {
+        /**
+         * Networks that were not in the snapshot.
+         */
+        public final List<ListNetworkResp> added = new ArrayList<>();
+        /**
+         * Networks whose entry in the snapshot changed.
+         */
+        public final List<ListNetworkResp> updated = new ArrayList<>();
+        /**
+         * Networks of the previous snapshot that the device did not report again. Only set when
+         * the session ends.
+         */
+        public final List<ListNetworkResp> removed = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * The callback of a session.
+     */
+    public abstract static class Callback {
+        /**
+         * This callback is triggered when the snapshot has changed.
+         * @param snapshot The networks in snapshot order.
+         * @param diff The change since the last callback.
+         */
+        public void onNetworksChanged(List<ListNetworkResp> snapshot, Diff diff) {}
+
+        /**
+         * This callback is triggered once when the session ends.
+         * @param snapshot The final networks in snapshot order.
+         * @param reason Why the session ended.
+         */
+        public void onComplete(List<ListNetworkResp> snapshot, CompletionReason reason) {}
+    }
+
+    private static final Comparator<ListNetworkResp> SNAPSHOT_ORDER =
+            new Comparator<ListNetworkResp>() {
+        @Override
+        public int compare(ListNetworkResp a, ListNetworkResp b) {
+            boolean aSaved = a.getIndex() >= 0;
+            boolean bSaved = b.getIndex() >= 0;
+            if (aSaved != bSaved) {
+                return aSaved ? -1 : 1;
+            }
+            if (aSaved) {
+                return a.getIndex() < b.getIndex() ? -1 : (a.getIndex() == b.getIndex() ? 0 : 1);
+            }
+            return a.getRssi() > b.getRssi() ? -1 : (a.getRssi() == b.getRssi() ? 0 : 1);
+        }
+    };
+
+    private final Callback mCallback;
+    private final Map<String, ListNetworkResp> mNetworks = new LinkedHashMap<>();
+    private final Map<String, ListNetworkResp> mPreviousNetworks = new LinkedHashMap<>();
+    private int mTopK = 0;
+    private long mIdleTimeout = NETWORK_LIST_IDLE_TIMEOUT;
+
+    private EventLoop mEventLoop;
+    private Executor mExecutor;
+    private int mMaxNetworks;
+    // The BSSIDs reported in this session, without the networks of the previous snapshot.
+    private final Set<String> mReportedBssids = new HashSet<>();
+    private boolean mStarted = false;
+    private CompletionReason mCompletionReason;
+
+    private final TimingWheel.Timer mIdleTimer = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            complete(CompletionReason.IDLE);
+        }
+    };
+
+    /**
+     * Construct a session.
+     * @param callback The callback of the session. Must not be null.
+     */
+    public NetworkListSession(Callback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("NetworkListSession callback is null.");
+        }
+        mCallback = callback;
+    }
+
+    /**
+     * End the session as soon as the first K networks are known. Since the device sends saved
+     * networks first and then the others by RSSI, the first K responses are the top K networks.
+     * @param topK the number of networks, 0 to wait for all networks.
+     * @return this session.
+     */
+    public synchronized NetworkListSession setTopK(int topK) {
+        mTopK = topK;
+        return this;
+    }
+
+    /**
+     * Set how long to wait for the next response before ending the session. The first response
+     * may take the scan timeout of the request in addition.
+     * @param idleTimeout the idle timeout in ms.
+     * @return this session.
+     */
+    public synchronized NetworkListSession setIdleTimeout(long idleTimeout) {
+        mIdleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * Start from the snapshot of an earlier session, so that networks already shown are updated
+     * in place. Networks of the earlier snapshot that are not reported again are removed when the
+     * session ends.
+     * @param snapshot the earlier snapshot.
+     * @return this session.
+     */
+    public synchronized NetworkListSession setPreviousSnapshot(List<ListNetworkResp> snapshot) {
+        for (ListNetworkResp network : snapshot) {
+            mPreviousNetworks.put(network.getBssid(), network);
+            mNetworks.put(network.getBssid(), network);
+        }
+        return this;
+    }
+
+    /**
+     * @return the networks in snapshot order.
+     */
+    public synchronized List<ListNetworkResp> getSnapshot() {
+        List<ListNetworkResp> snapshot = new ArrayList<>(mNetworks.values());
+        Collections.sort(snapshot, SNAPSHOT_ORDER);
+        return snapshot;
+    }
+
+    public synchronized boolean isComplete() {
+        return mCompletionReason != null;
+    }
+
+    /**
+     * @return why the session ended, or null if it has not ended.
+     */
+    public synchronized CompletionReason getCompletionReason() {
+        return mCompletionReason;
+    }
+
+    /**
+     * End the session. Later responses to its request are ignored.
+     */
+    public void cancel() {
+        final EventLoop eventLoop;
+        synchronized (this) {
+            eventLoop = mEventLoop;
+        }
+        if (eventLoop == null) {
+            complete(CompletionReason.CANCELLED);
+            return;
+        }
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                complete(CompletionReason.CANCELLED);
+            }
+        });
+    }
+
+    /**
+     * Start the session. Called on the event loop when the request is sent.
+     * @param eventLoop the event loop that runs the idle timer.
+     * @param executor the executor that calls the callback.
+     * @param maxNetworks the number of networks requested.
+     * @param scanTimeout the time the device scans before the first response, in ms.
+     */
+    synchronized void start(EventLoop eventLoop, Executor executor, int maxNetworks,
+                            long scanTimeout) {
+        if (mStarted) {
+            throw new IllegalStateException("NetworkListSession can only be used once.");
+        }
+        mStarted = true;
+        mEventLoop = eventLoop;
+        mExecutor = executor;
+        mMaxNetworks = maxNetworks;
+        if (mCompletionReason == null) {
+            mEventLoop.schedule(mIdleTimer, scanTimeout + mIdleTimeout);
+        }
+    }
+
+    /**
+     * Add a response to the snapshot. Called on the event loop.
+     * @param response the response from the device.
+     */
+    void onResponse(ListNetworkResp response) {
+        final Diff diff = new Diff();
+        final List<ListNetworkResp> snapshot;
+        CompletionReason reason = null;
+        synchronized (this) {
+            if (mCompletionReason != null || response.getBssid() == null) {
+                return;
+            }
+            mEventLoop.cancel(mIdleTimer);
+            mReportedBssids.add(response.getBssid());
+            ListNetworkResp known = mNetworks.get(response.getBssid());
+            if (known == null) {
+                mNetworks.put(response.getBssid(), response);
+                diff.added.add(response);
+            } else if (known.getIndex() >= 0 && response.getIndex() < 0
+                    && !mPreviousNetworks.containsKey(response.getBssid())) {
+                // A saved network is also reported by the scan, keep the saved entry.
+                Log.d(TAG, "Keeping saved network for " + response.getBssid());
+            } else if (!sameNetwork(known, response)) {
+                mNetworks.put(response.getBssid(), response);
+                diff.updated.add(response);
+            } else {
+                mNetworks.put(response.getBssid(), response);
+            }
+            mPreviousNetworks.remove(response.getBssid());
+            int reported = mReportedBssids.size();
+            if (mMaxNetworks > 0 && reported >= mMaxNetworks) {
+                reason = CompletionReason.COUNT;
+            } else if (mTopK > 0 && reported >= mTopK) {
+                reason = CompletionReason.TOP_K;
+            } else {
+                mEventLoop.schedule(mIdleTimer, mIdleTimeout);
+            }
+            snapshot = getSnapshot();
+        }
+        if (!diff.isEmpty()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onNetworksChanged(snapshot, diff);
+                }
+            });
+        }
+        if (reason != null) {
+            complete(reason);
+        }
+    }
+
+    /**
+     * End the session, if it has not ended yet. Called on the event loop, or before the session
+     * is started.
+     * @param reason why the session ended.
+     */
+    void complete(final CompletionReason reason) {
+        final Diff diff = new Diff();
+        final List<ListNetworkResp> snapshot;
+        final Executor executor;
+        synchronized (this) {
+            if (mCompletionReason != null) {
+                return;
+            }
+            mCompletionReason = reason;
+            if (mEventLoop != null) {
+                mEventLoop.cancel(mIdleTimer);
+            }
+            if (reason == CompletionReason.COUNT || reason == CompletionReason.IDLE) {
+                // The device reported all networks it found, the others are gone.
+                for (ListNetworkResp network : mPreviousNetworks.values()) {
+                    mNetworks.remove(network.getBssid());
+                    diff.removed.add(network);
+                }
+                mPreviousNetworks.clear();
+            }
+            snapshot = getSnapshot();
+            executor = mExecutor;
+        }
+        Log.i(TAG, "Network list session ended: " + reason + " with " + snapshot.size()
+                + " networks.");
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                if (!diff.isEmpty()) {
+                    mCallback.onNetworksChanged(snapshot, diff);
+                }
+                mCallback.onComplete(snapshot, reason);
+            }
+        };
+        if (executor != null) {
+            executor.execute(completion);
+        } else {
+            completion.run();
+        }
+    }
+
+    private static boolean sameNetwork(ListNetworkResp a, ListNetworkResp b) {
+        return a.getIndex() == b.getIndex() && a.getRssi() == b.getRssi()
+                && a.getSecurity() == b.getSecurity()
+                && equals(a.getSsid(), b.getSsid())
+                && equals(a.getConnected(), b.getConnected());
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,35 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This is a callback to notify the app of the progress of an OTA transfer started with
+ * OtaTransferService#startTransfer. Either onCompleted or onFailed is called once at the end.
+ */
+public abstract class OtaTransferCallback {
+    /**
+     * This callback is triggered when the device acknowledges more blocks of the image.
+     * @param stats The statistics of the transfer so far.
+     */
+    public void onProgress(OtaTransferStats stats) {}
+
+    /**
+     * This callback is triggered when the BLE connection is lost during the transfer. The transfer
+     * resumes when the device is ready again.
+     * @param stats The statistics of the transfer so far.
+     */
+    public void onPaused(OtaTransferStats stats) {}
+
+    /**
+     * This callback is triggered when the device has received the whole image and verified its
+     * checksum.
+     * @param stats The statistics of the transfer.
+     */
+    public void onCompleted(OtaTransferStats stats) {}
+
+    /**
+     * This callback is triggered when the device rejected the image, stopped responding, the image
+     * could not be read or the transfer was cancelled.
+     * @param reason Why the transfer failed.
+     * @param stats The statistics of the transfer until it failed.
+     */
+    public void onFailed(String reason, OtaTransferStats stats) {}
+}
@@ -0,0 +1,554 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import com.amazon.aws.amazonfreertossdk.ota.OtaBlock;
+import com.amazon.aws.amazonfreertossdk.ota.OtaControl;
+import com.amazon.aws.amazonfreertossdk.ota.OtaStatus;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * This class updates the firmware of the device through the OTA service. It streams an image file
+ * from phone storage to the data characteristic in blocks that carry their CRC32, with up to
+ * OTA_WINDOW_SIZE blocks not yet acknowledged. The device acknowledges the blocks it has received
+ * in order and names the ones that are missing or failed their checksum, and only those are sent
+ * again. Once all blocks are acknowledged, the device verifies the checksum of the whole image.
+ *
+ * The device keeps the blocks it has received across disconnects. When the service is ready again
+ * after a reconnect, the transfer resumes from the first block the device does not have.
+ *
+ * Register the service with AmazonFreeRTOSManager#registerServiceHandler before starting a
+ * transfer. One transfer runs at a time. Blocks are read from the image file on the event loop of
+ * the manager, one block at a time, so the image is never held in memory.
+ */
+public class OtaTransferService extends ServiceHandler {
+    private static final String TAG = "OtaTransferService";
+
+    private enum State {
+        /**
+         * Waiting for the device to answer START with the first block it does not have.
+         */
+        STARTING,
+        /**
+         * Sending blocks.
+         */
+        SENDING,
+        /**
+         * All blocks are acknowledged, waiting for the device to verify the image.
+         */
+        FINISHING,
+        /**
+         * The service is not ready.
+         */
+        PAUSED
+    }
+
+    /**
+     * The state of the transfer in progress. Touched on the event loop only.
+     */
+    private static class Transfer {
+        final RandomAccessFile file;
+        final String imageId;
+        final long imageSize;
+        final long crc;
+        final OtaTransferCallback callback;
+        final Executor executor;
+        /**
+         * Blocks sent again after an ACK reported them missing, until they are acknowledged.
+         */
+        final BitSet retransmitted = new BitSet();
+        State state = State.PAUSED;
+        int blockSize = 0;
+        int blockCount = 0;
+        /**
+         * The device has all blocks before this one.
+         */
+        int acked = 0;
+        /**
+         * The next block to send in order.
+         */
+        int nextToSend = 0;
+        /**
+         * All blocks before this one have been sent at least once.
+         */
+        int sentEnd = 0;
+        /**
+         * The blocks the device had when the transfer started, -1 until it answers START.
+         */
+        int firstBlock = -1;
+        /**
+         * Whether the device is being asked for an ACK after a timeout.
+         */
+        boolean queried = false;
+        int retries = 0;
+        long blocksSent = 0;
+        long blocksRetransmitted = 0;
+        int resumes = 0;
+        long activeTime = 0;
+        long activeSince = -1;
+
+        Transfer(File image, String imageId, OtaTransferCallback callback, Executor executor)
+                throws IOException {
+            this.imageId = imageId;
+            this.callback = callback;
+            this.executor = executor;
+            crc = checksum(image);
+            file = new RandomAccessFile(image, "r");
+            imageSize = file.length();
+        }
+
+        void setBlockSize(int blockSize) {
+            this.blockSize = blockSize;
+            blockCount = (int) ((imageSize + blockSize - 1) / blockSize);
+        }
+
+        byte[] readBlock(int index) throws IOException {
+            long offset = (long) index * blockSize;
+            byte[] data = new byte[(int) Math.min(blockSize, imageSize - offset)];
+            file.seek(offset);
+            file.readFully(data);
+            return data;
+        }
+
+        OtaTransferStats getStats() {
+            OtaTransferStats stats = new OtaTransferStats();
+            stats.imageSize = imageSize;
+            stats.blockSize = blockSize;
+            stats.bytesAcknowledged = Math.min(imageSize, (long) acked * blockSize);
+            stats.blocksSent = blocksSent;
+            stats.blocksRetransmitted = blocksRetransmitted;
+            stats.resumes = resumes;
+            stats.elapsedTime = activeTime;
+            if (activeSince >= 0) {
+                stats.elapsedTime += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activeSince);
+            }
+            if (stats.elapsedTime > 0 && firstBlock >= 0) {
+                long bytes = stats.bytesAcknowledged - Math.min(imageSize,
+                        (long) firstBlock * blockSize);
+                stats.bytesPerSecond = bytes * 1000 / stats.elapsedTime;
+            }
+            return stats;
+        }
+
+        private static long checksum(File image) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[8192];
+            InputStream in = new FileInputStream(image);
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            return crc.getValue();
+        }
+    }
+
+    private final Gson mGson = new Gson();
+    private CharacteristicHandle mControl;
+    private CharacteristicHandle mData;
+    private volatile boolean mTransferActive = false;
+    private Transfer mTransfer;
+
+    public OtaTransferService() {
+        super(UUID_OTA_SERVICE);
+    }
+
+    @Override
+    protected void onRegister() {
+        mControl = addCharacteristic(UUID_OTA_CONTROL_CHARACTERISTIC, "OTA_CONTROL", true);
+        mData = addCharacteristic(UUID_OTA_DATA_CHARACTERISTIC, "OTA_DATA", false);
+    }
+
+    /**
+     * Same as startTransfer(File, String, OtaTransferCallback, Executor), with the callback called
+     * on a background thread of the SDK.
+     */
+    public void startTransfer(File image, String imageId, OtaTransferCallback callback)
+            throws IOException {
+        startTransfer(image, imageId, callback, null);
+    }
+
+    /**
+     * Start sending an image to the device. This method reads the whole image once to compute its
+     * checksum, so it should not be called on the main thread. The transfer starts when the
+     * service is ready, or right away if it is ready already.
+     * @param image the image file.
+     * @param imageId the ID of the image. The device resumes a transfer of the same image that
+     *                was not completed, e.g. by an earlier run of the app.
+     * @param callback the callback to notify the app of progress and the result.
+     * @param executor the executor to call the callback on, in order. If null, the callback is
+     *                 called on a background thread of the SDK.
+     * @throws IOException if the image cannot be read.
+     * @throws IllegalArgumentException if the image is empty.
+     * @throws IllegalStateException if a transfer is in progress or the service is not registered.
+     */
+    public void startTransfer(File image, String imageId, OtaTransferCallback callback,
+                              Executor executor) throws IOException {
+        synchronized (this) {
+            if (mTransferActive) {
+                throw new IllegalStateException("An OTA transfer is already in progress.");
+            }
+            mTransferActive = true;
+        }
+        final Transfer transfer;
+        try {
+            transfer = new Transfer(image, imageId, callback, new SerialExecutor(
+                    executor == null ? AmazonFreeRTOSManager.DEFAULT_CALLBACK_EXECUTOR : executor));
+            if (transfer.imageSize == 0) {
+                transfer.file.close();
+                throw new IllegalArgumentException("OTA image " + image + " is empty.");
+            }
+        } catch (IOException | RuntimeException e) {
+            mTransferActive = false;
+            throw e;
+        }
+        boolean registered = execute(new Runnable() {
+            @Override
+            public void run() {
+                mTransfer = transfer;
+                if (isReady()) {
+                    start(transfer);
+                }
+            }
+        });
+        if (!registered) {
+            closeFile(transfer);
+            mTransferActive = false;
+            throw new IllegalStateException("OTA service is not registered.");
+        }
+    }
+
+    /**
+     * Cancel the transfer in progress. The device discards the blocks it has received, and
+     * OtaTransferCallback#onFailed is called.
+     */
+    public void cancelTransfer() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Transfer transfer = mTransfer;
+                if (transfer == null) {
+                    return;
+                }
+                if (isReady()) {
+                    OtaControl abort = new OtaControl();
+                    abort.type = OTA_MSG_ABORT;
+                    write(mControl, mGson.toJson(abort));
+                }
+                fail(transfer, "OTA transfer cancelled.");
+            }
+        });
+    }
+
+    /**
+     * @return true from startTransfer until the transfer has completed or failed.
+     */
+    public boolean isTransferActive() {
+        return mTransferActive;
+    }
+
+    @Override
+    protected void onReady() {
+        if (mTransfer != null) {
+            start(mTransfer);
+        }
+    }
+
+    @Override
+    protected void onDisconnected() {
+        final Transfer transfer = mTransfer;
+        if (transfer == null) {
+            return;
+        }
+        cancel(ackTimeout);
+        if (transfer.activeSince >= 0) {
+            transfer.activeTime += TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - transfer.activeSince);
+            transfer.activeSince = -1;
+        }
+        transfer.state = State.PAUSED;
+        transfer.queried = false;
+        transfer.retransmitted.clear();
+        Log.i(TAG, "OTA transfer of " + transfer.imageId + " paused at block " + transfer.acked);
+        final OtaTransferStats stats = transfer.getStats();
+        transfer.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                transfer.callback.onPaused(stats);
+            }
+        });
+    }
+
+    @Override
+    protected void onNotification(CharacteristicHandle characteristic, String value) {
+        Transfer transfer = mTransfer;
+        if (characteristic != mControl || transfer == null || transfer.state == State.PAUSED) {
+            return;
+        }
+        OtaStatus status;
+        try {
+            status = mGson.fromJson(value, OtaStatus.class);
+        } catch (JsonSyntaxException e) {
+            Log.w(TAG, "Invalid OTA status: " + value);
+            return;
+        }
+        if (status == null) {
+            return;
+        }
+        switch (status.type) {
+            case OTA_MSG_ACK:
+                handleAck(transfer, status);
+                break;
+            case OTA_MSG_RESULT:
+                handleResult(transfer, status);
+                break;
+            default:
+                Log.w(TAG, "Unknown OTA message type: " + status.type);
+        }
+    }
+
+    /**
+     * Send START, or send it again to resume the transfer after a reconnect. The block size is
+     * chosen from the mtu the first time and kept, as the device stores blocks by index.
+     */
+    private void start(Transfer transfer) {
+        if (transfer.blockSize == 0) {
+            transfer.setBlockSize(getMaxDataLen(OTA_BLOCK_HEADER_LEN, OTA_DEFAULT_BLOCK_SIZE,
+                    OTA_MIN_BLOCK_SIZE));
+        } else {
+            transfer.resumes++;
+        }
+        Log.i(TAG, "Starting OTA transfer of " + transfer.imageId + ", " + transfer.imageSize
+                + " bytes in " + transfer.blockCount + " blocks of " + transfer.blockSize);
+        transfer.state = State.STARTING;
+        transfer.retries = 0;
+        transfer.activeSince = System.nanoTime();
+        sendStart(transfer);
+        schedule(ackTimeout, OTA_ACK_TIMEOUT);
+    }
+
+    private void sendStart(Transfer transfer) {
+        OtaControl start = new OtaControl();
+        start.type = OTA_MSG_START;
+        start.imageId = transfer.imageId;
+        start.imageSize = transfer.imageSize;
+        start.blockSize = transfer.blockSize;
+        start.windowSize = OTA_WINDOW_SIZE;
+        start.crc = transfer.crc;
+        write(mControl, mGson.toJson(start));
+    }
+
+    private void handleAck(Transfer transfer, OtaStatus status) {
+        int nextBlock = Math.max(0, Math.min(status.nextBlock, transfer.blockCount));
+        boolean progress;
+        if (transfer.state == State.STARTING) {
+            // The device may have lost blocks it acknowledged before, so its answer wins.
+            if (transfer.firstBlock < 0) {
+                transfer.firstBlock = nextBlock;
+            }
+            progress = true;
+            transfer.acked = nextBlock;
+            transfer.nextToSend = nextBlock;
+            transfer.state = State.SENDING;
+        } else if (transfer.state == State.SENDING) {
+            progress = nextBlock > transfer.acked;
+            if (progress) {
+                transfer.acked = nextBlock;
+                transfer.retransmitted.clear(0, nextBlock);
+            }
+            if (transfer.queried) {
+                // This answers a query after a timeout. Blocks after the last one the device
+                // has seen may be lost too, so go back to the first missing block.
+                transfer.queried = false;
+                transfer.nextToSend = transfer.acked;
+                transfer.retransmitted.clear();
+            } else if (status.missing != null) {
+                for (int index : status.missing) {
+                    if (index >= transfer.acked && index < transfer.nextToSend
+                            && !transfer.retransmitted.get(index)) {
+                        transfer.retransmitted.set(index);
+                        if (!sendBlock(transfer, index)) {
+                            return;
+                        }
+                    }
+                }
+            }
+            transfer.nextToSend = Math.max(transfer.nextToSend, transfer.acked);
+        } else {
+            return;
+        }
+        if (progress) {
+            transfer.retries = 0;
+            reportProgress(transfer);
+        }
+        if (transfer.acked == transfer.blockCount) {
+            finish(transfer);
+            return;
+        }
+        int end = Math.min(transfer.blockCount, transfer.acked + OTA_WINDOW_SIZE);
+        while (transfer.nextToSend < end) {
+            if (!sendBlock(transfer, transfer.nextToSend)) {
+                return;
+            }
+            transfer.nextToSend++;
+        }
+        schedule(ackTimeout, OTA_ACK_TIMEOUT);
+    }
+
+    private void handleResult(Transfer transfer, OtaStatus status) {
+        if (status.status != OTA_STATUS_OK) {
+            fail(transfer, "Device rejected OTA image " + transfer.imageId + " with status "
+                    + status.status + ".");
+        } else if (transfer.state == State.FINISHING) {
+            complete(transfer);
+        }
+    }
+
+    /**
+     * Write a block to the device.
+     * @return false if the block could not be read, in which case the transfer has failed.
+     */
+    private boolean sendBlock(Transfer transfer, int index) {
+        byte[] data;
+        try {
+            data = transfer.readBlock(index);
+        } catch (IOException e) {
+            fail(transfer, "Failed to read OTA image: " + e.getMessage());
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        OtaBlock block = new OtaBlock();
+        block.index = index;
+        block.crc = crc.getValue();
+        block.data = Base64.getEncoder().encodeToString(data);
+        if (index < transfer.sentEnd) {
+            transfer.blocksRetransmitted++;
+        } else {
+            transfer.sentEnd = index + 1;
+        }
+        transfer.blocksSent++;
+        write(mData, mGson.toJson(block));
+        return true;
+    }
+
+    private void finish(Transfer transfer) {
+        transfer.state = State.FINISHING;
+        transfer.retries = 0;
+        sendFinish(transfer);
+        schedule(ackTimeout, OTA_ACK_TIMEOUT);
+    }
+
+    private void sendFinish(Transfer transfer) {
+        OtaControl finish = new OtaControl();
+        finish.type = OTA_MSG_FINISH;
+        finish.crc = transfer.crc;
+        write(mControl, mGson.toJson(finish));
+    }
+
+    /**
+     * Asks the device again when it has not answered in time, and fails the transfer after
+     * OTA_MAX_RETRIES attempts.
+     */
+    private final TimingWheel.Timer ackTimeout = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            Transfer transfer = mTransfer;
+            if (transfer == null || transfer.state == State.PAUSED) {
+                return;
+            }
+            if (++transfer.retries > OTA_MAX_RETRIES) {
+                fail(transfer, "Device did not answer OTA transfer of " + transfer.imageId + ".");
+                return;
+            }
+            Log.w(TAG, "OTA transfer timed out in state " + transfer.state + ", retry "
+                    + transfer.retries);
+            switch (transfer.state) {
+                case STARTING:
+                    sendStart(transfer);
+                    break;
+                case SENDING:
+                    OtaControl query = new OtaControl();
+                    query.type = OTA_MSG_QUERY;
+                    transfer.queried = true;
+                    write(mControl, mGson.toJson(query));
+                    break;
+                case FINISHING:
+                    sendFinish(transfer);
+                    break;
+            }
+            schedule(this, OTA_ACK_TIMEOUT);
+        }
+    };
+
+    private void reportProgress(final Transfer transfer) {
+        final OtaTransferStats stats = transfer.getStats();
+        transfer.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                transfer.callback.onProgress(stats);
+            }
+        });
+    }
+
+    private void complete(final Transfer transfer) {
+        end(transfer);
+        final OtaTransferStats stats = transfer.getStats();
+        Log.i(TAG, "OTA transfer of " + transfer.imageId + " completed. " + stats);
+        transfer.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                transfer.callback.onCompleted(stats);
+            }
+        });
+    }
+
+    private void fail(final Transfer transfer, final String reason) {
+        end(transfer);
+        final OtaTransferStats stats = transfer.getStats();
+        Log.w(TAG, reason + " " + stats);
+        transfer.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                transfer.callback.onFailed(reason, stats);
+            }
+        });
+    }
+
+    private void end(Transfer transfer) {
+        cancel(ackTimeout);
+        if (transfer.activeSince >= 0) {
+            transfer.activeTime += TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - transfer.activeSince);
+            transfer.activeSince = -1;
+        }
+        closeFile(transfer);
+        mTransfer = null;
+        mTransferActive = false;
+    }
+
+    private static void closeFile(Transfer transfer) {
+        try {
+            transfer.file.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close OTA image.", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This class represents the progress and throughput of an OTA transfer.
+ */
+public class OtaTransferStats {
+    /**
+     * The size of the image in bytes.
+     */
+    public long imageSize;
+    /**
+     * The size of a block in bytes, 0 if the transfer has not started yet.
+     */
+    public int blockSize;
+    /**
+     * The number of bytes the device has acknowledged, including the ones it already had when the
+     * transfer started.
+     */
+    public long bytesAcknowledged;
+    /**
+     * The number of blocks written to the device, including retransmissions.
+     */
+    public long blocksSent;
+    /**
+     * The number of blocks written again, because the device reported them missing or did not
+     * acknowledge them in time, or because the connection was lost before they were acknowledged.
+     */
+    public long blocksRetransmitted;
+    /**
+     * The number of times the transfer resumed after the BLE connection was lost.
+     */
+    public int resumes;
+    /**
+     * The time the transfer has been running while the device was connected.
+     */
+    public long elapsedTime; //ms
+    /**
+     * The bytes acknowledged in this transfer per second of elapsedTime, not counting the bytes
+     * the device already had when the transfer started.
+     */
+    public long bytesPerSecond;
+
+    public String toString() {
+        return String.format("OTA transfer -> acknowledged: %d/%d bytes blockSize: %d "
+                        + "blocksSent: %d blocksRetransmitted: %d resumes: %d elapsedTime: %dms "
+                        + "throughput: %d B/s",
+                bytesAcknowledged, imageSize, blockSize, blocksSent, blocksRetransmitted, resumes,
+                elapsedTime, bytesPerSecond);
+    }
+}
@@ -0,0 +1,115 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_PAYLOAD_COMPRESSION_THRESHOLD;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE;
+
+/**
+ * This class compresses MQTT message payloads with deflate (zlib format) before they are sent over
+ * BLE, and decompresses payloads compressed by the device. A preset dictionary, shared with the
+ * device, can be used to compress small repetitive payloads such as JSON documents better.
+ * Payloads smaller than the threshold are not compressed. A payload from the device that inflates
+ * beyond the maximum size is rejected, so a small malformed payload cannot exhaust the heap.
+ */
+public class PayloadCompressor {
+    private final int mThreshold;
+    private final byte[] mDictionary;
+    private final int mMaxPayloadSize;
+
+    /**
+     * Construct a compressor with the default threshold and no preset dictionary.
+     */
+    public PayloadCompressor() {
+        this(MQTT_PAYLOAD_COMPRESSION_THRESHOLD, null);
+    }
+
+    /**
+     * Construct a compressor.
+     * @param threshold payloads smaller than this number of bytes are sent uncompressed.
+     * @param dictionary the preset deflate dictionary shared with the device, or null.
+     */
+    public PayloadCompressor(int threshold, byte[] dictionary) {
+        this(threshold, dictionary, MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE);
+    }
+
+    /**
+     * Construct a compressor.
+     * @param threshold payloads smaller than this number of bytes are sent uncompressed.
+     * @param dictionary the preset deflate dictionary shared with the device, or null.
+     * @param maxPayloadSize the largest size in bytes a payload from the device may inflate to.
+     */
+    public PayloadCompressor(int threshold, byte[] dictionary, int maxPayloadSize) {
+        mThreshold = threshold;
+        mDictionary = dictionary;
+        mMaxPayloadSize = maxPayloadSize;
+    }
+
+    /**
+     * Compress the payload if it is at least the threshold size and gets smaller.
+     * @param payload the payload.
+     * @return the compressed payload, or null if the payload should be sent as it is.
+     */
+    byte[] compress(byte[] payload) {
+        if (payload.length < mThreshold) {
+            return null;
+        }
+        Deflater deflater = new Deflater();
+        try {
+            if (mDictionary != null) {
+                deflater.setDictionary(mDictionary);
+            }
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(payload.length);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                outputStream.write(buffer, 0, deflater.deflate(buffer));
+                if (outputStream.size() >= payload.length) {
+                    return null;
+                }
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress a payload compressed by the device.
+     * @param payload the compressed payload.
+     * @return the original payload.
+     * @throws DataFormatException if the payload is not valid zlib data, or inflates beyond the
+     *                             maximum payload size.
+     */
+    byte[] decompress(byte[] payload) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                    (int) Math.min(payload.length * 4L, mMaxPayloadSize));
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (outputStream.size() + length > mMaxPayloadSize) {
+                    throw new DataFormatException("Decompressed payload exceeds "
+                            + mMaxPayloadSize + " bytes.");
+                }
+                if (length == 0) {
+                    if (inflater.needsDictionary() && mDictionary != null) {
+                        inflater.setDictionary(mDictionary);
+                    } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new DataFormatException("Incomplete compressed payload.");
+                    }
+                }
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
+
+/**
+ * This is a callback to notify the app of the result of AmazonFreeRTOSManager#provisionNetwork.
+ * Exactly one of the methods is called, once.
+ */
+public abstract class ProvisionNetworkCallback {
+    /**
+     * This callback is triggered when the network is saved and all requested checks passed.
+     * @param network The network as reported by the device, null if the connection was not
+     *                confirmed.
+     * @param brokerEndpoint The broker endpoint of the device, null if it was not verified.
+     */
+    public void onProvisioned(ListNetworkResp network, String brokerEndpoint) {}
+
+    /**
+     * This callback is triggered when a step failed or the provisioning timed out.
+     * @param stage The step that failed.
+     * @param reason Why the step failed.
+     */
+    public void onFailed(ProvisioningReport.Stage stage, String reason) {}
+}
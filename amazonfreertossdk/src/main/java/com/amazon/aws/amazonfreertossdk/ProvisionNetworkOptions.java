@@ -0,0 +1,29 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.PROVISION_NETWORK_TIMEOUT;
+
+/**
+ * This class defines what AmazonFreeRTOSManager#provisionNetwork checks after the network is
+ * saved on the device.
+ */
+public class ProvisionNetworkOptions {
+    /**
+     * Whether to wait until the device reports the saved network as connected. A successful save
+     * response only means the device stored the network. If false, it completes the provisioning
+     * without listing networks.
+     */
+    public boolean confirmConnection = true;
+    /**
+     * Whether to read the MQTT broker endpoint of the device once the network is confirmed.
+     */
+    public boolean verifyEndpoint = false;
+    /**
+     * The broker endpoint the device must report when verifyEndpoint is set. If null, any
+     * non-empty endpoint is accepted.
+     */
+    public String expectedEndpoint;
+    /**
+     * The time the whole provisioning may take in ms.
+     */
+    public long timeout = PROVISION_NETWORK_TIMEOUT;
+}
@@ -0,0 +1,224 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkReq;
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
+import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkReq;
+import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkResp;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.PROVISION_VERIFY_INTERVAL;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.PROVISION_VERIFY_MAX_NETWORKS;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.PROVISION_VERIFY_SCAN_TIMEOUT;
+
+/**
+ * This class chains the steps of AmazonFreeRTOSManager#provisionNetwork: save the network,
+ * optionally wait for the device to report it as connected, and optionally read the broker
+ * endpoint. A step whose request cannot be written to the device fails the transaction right
+ * away instead of waiting for the timeout. All steps run on the
+ * event loop of the manager. The device lists saved networks before the networks it scans, so the
+ * confirmation ends as soon as the saved network is reported as connected instead of waiting for
+ * the scan.
+ */
+class ProvisionNetworkTransaction {
+    private static final String TAG = "ProvisionNetwork";
+
+    private final AmazonFreeRTOSManager mManager;
+    private final EventLoop mEventLoop;
+    private final Executor mEventLoopExecutor;
+    private final SaveNetworkReq mNetwork;
+    private final ProvisionNetworkOptions mOptions;
+    private final ProvisionNetworkCallback mCallback;
+    private final Executor mCallbackExecutor;
+
+    private ProvisioningReport.Stage mStage = ProvisioningReport.Stage.SAVING;
+    private NetworkListSession mSession;
+    private boolean mDone = false;
+
+    private final TimingWheel.Timer mTimeout = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            fail("Timed out.");
+        }
+    };
+
+    private final TimingWheel.Timer mConfirmRetry = new TimingWheel.Timer() {
+        @Override
+        public void run() {
+            confirmConnection();
+        }
+    };
+
+    ProvisionNetworkTransaction(AmazonFreeRTOSManager manager, final EventLoop eventLoop,
+                                SaveNetworkReq network, ProvisionNetworkOptions options,
+                                ProvisionNetworkCallback callback, Executor callbackExecutor) {
+        mManager = manager;
+        mEventLoop = eventLoop;
+        mEventLoopExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                eventLoop.execute(runnable);
+            }
+        };
+        mNetwork = network;
+        mOptions = options;
+        mCallback = callback;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Start the transaction. Must be called on the event loop.
+     */
+    void start() {
+        mEventLoop.schedule(mTimeout, mOptions.timeout);
+        Log.i(TAG, "Provisioning network " + mNetwork.ssid);
+        mManager.saveNetwork(mNetwork, new NetworkConfigCallback() {
+            @Override
+            public void onSaveNetworkResponse(SaveNetworkResp response) {
+                if (mDone) {
+                    return;
+                }
+                if (response.getStatus() != 0) {
+                    fail("Save network failed with status " + response.getStatus() + ".");
+                } else if (mOptions.confirmConnection) {
+                    confirmConnection();
+                } else {
+                    onConnectionConfirmed(null);
+                }
+            }
+        }, mEventLoopExecutor, new BleCommand.CompletionListener() {
+            @Override
+            public void onCompleted(BleCommand command, boolean success) {
+                if (!success) {
+                    fail("Save network request could not be sent.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Fail the transaction, if it has not completed yet. Must be called on the event loop.
+     * @param reason why the transaction failed.
+     */
+    void abort(String reason) {
+        fail(reason);
+    }
+
+    private void confirmConnection() {
+        if (mDone) {
+            return;
+        }
+        mStage = ProvisioningReport.Stage.VERIFYING;
+        ListNetworkReq listNetworkReq = new ListNetworkReq();
+        listNetworkReq.maxNetworks = PROVISION_VERIFY_MAX_NETWORKS;
+        listNetworkReq.timeout = PROVISION_VERIFY_SCAN_TIMEOUT;
+        mSession = new NetworkListSession(new NetworkListSession.Callback() {
+            @Override
+            public void onNetworksChanged(List<ListNetworkResp> snapshot,
+                                          NetworkListSession.Diff diff) {
+                if (mDone || mSession == null) {
+                    return;
+                }
+                for (ListNetworkResp network : snapshot) {
+                    if (isProvisionedNetwork(network)) {
+                        mSession.cancel();
+                        mSession = null;
+                        onConnectionConfirmed(network);
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void onComplete(List<ListNetworkResp> snapshot,
+                                   NetworkListSession.CompletionReason reason) {
+                if (mDone || reason == NetworkListSession.CompletionReason.CANCELLED) {
+                    return;
+                }
+                if (reason == NetworkListSession.CompletionReason.FAILED) {
+                    fail("List network request could not be sent.");
+                    return;
+                }
+                // The device may still be joining the network, ask again.
+                mSession = null;
+                mEventLoop.schedule(mConfirmRetry, PROVISION_VERIFY_INTERVAL);
+            }
+        });
+        mManager.listNetworks(listNetworkReq, mSession, mEventLoopExecutor);
+    }
+
+    private boolean isProvisionedNetwork(ListNetworkResp network) {
+        return Boolean.TRUE.equals(network.getConnected())
+                && mNetwork.ssid.equals(network.getSsid())
+                && (mNetwork.bssid == null || mNetwork.bssid.equalsIgnoreCase(network.getBssid()));
+    }
+
+    private void onConnectionConfirmed(final ListNetworkResp network) {
+        if (!mOptions.verifyEndpoint) {
+            succeed(network, null);
+            return;
+        }
+        mStage = ProvisioningReport.Stage.VERIFYING_ENDPOINT;
+        mManager.getBrokerEndpoint(new DeviceInfoCallback() {
+            @Override
+            public void onObtainBrokerEndpoint(String endpoint) {
+                if (mDone) {
+                    return;
+                }
+                if (endpoint == null || endpoint.isEmpty()) {
+                    fail("Device has no broker endpoint.");
+                } else if (mOptions.expectedEndpoint != null
+                        && !mOptions.expectedEndpoint.equalsIgnoreCase(endpoint)) {
+                    fail("Device broker endpoint is " + endpoint + ".");
+                } else {
+                    succeed(network, endpoint);
+                }
+            }
+        }, mEventLoopExecutor);
+    }
+
+    private void succeed(final ListNetworkResp network, final String brokerEndpoint) {
+        if (!end()) {
+            return;
+        }
+        Log.i(TAG, "Provisioned network " + mNetwork.ssid);
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onProvisioned(network, brokerEndpoint);
+            }
+        });
+    }
+
+    private void fail(final String reason) {
+        if (!end()) {
+            return;
+        }
+        final ProvisioningReport.Stage stage = mStage;
+        Log.w(TAG, "Provisioning network " + mNetwork.ssid + " failed at " + stage + ": "
+                + reason);
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onFailed(stage, reason);
+            }
+        });
+    }
+
+    private boolean end() {
+        if (mDone) {
+            return false;
+        }
+        mDone = true;
+        mEventLoop.cancel(mTimeout);
+        mEventLoop.cancel(mConfirmRetry);
+        if (mSession != null) {
+            mSession.cancel();
+            mSession = null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class reports the result of a FleetProvisioner run: the outcome of each device, and the
+ * throughput and latency of the run.
+ */
+public class ProvisioningReport {
+
+    /**
+     * The step a device was at when its provisioning attempt ended.
+     */
+    public enum Stage {
+        /**
+         * The device was not found by the BLE scan.
+         */
+        SCANNING,
+        /**
+         * Connecting to the device and discovering its services.
+         */
+        CONNECTING,
+        /**
+         * Saving the network on the device.
+         */
+        SAVING,
+        /**
+         * Waiting for the device to report the network as connected.
+         */
+        VERIFYING,
+        /**
+         * Checking the MQTT broker endpoint of the device.
+         */
+        VERIFYING_ENDPOINT,
+        /**
+         * The device is provisioned.
+         */
+        DONE
+    }
+
+    /**
+     * The outcome of one device.
+     */
+    public static class DeviceResult {
+        /**
+         * The BLE address of the device.
+         */
+        public String address;
+        /**
+         * Whether the device reported the network as connected.
+         */
+        public boolean provisioned;
+        /**
+         * The stage the last attempt ended at. DONE if the device is provisioned.
+         */
+        public Stage stage = Stage.SCANNING;
+        /**
+         * The number of attempts made.
+         */
+        public int attempts;
+        /**
+         * Why the last attempt failed, null if the device is provisioned.
+         */
+        public String failure;
+        /**
+         * Time from the start of the run until the device was found by the scan, -1 if it was not
+         * found.
+         */
+        public long discoveryTime = -1; //ms
+        /**
+         * Time from the start of the first attempt until the device was ready for BLE commands in
+         * the last attempt, -1 if it never was.
+         */
+        public long connectTime = -1; //ms
+        /**
+         * Time from the start of the first attempt until the device was provisioned or given up
+         * on, including the time between retries.
+         */
+        public long latency; //ms
+
+        public String toString() {
+            return String.format("Device %s -> provisioned: %b stage: %s attempts: %d latency: %dms"
+                    + " failure: %s", address, provisioned, stage, attempts, latency, failure);
+        }
+    }
+
+    /**
+     * The outcome of each target device, in the order they were given.
+     */
+    public final List<DeviceResult> devices;
+    /**
+     * Time from the start of the run until the last device finished.
+     */
+    public final long elapsedTime; //ms
+    public final int provisionedCount;
+    public final int failedCount;
+    /**
+     * Provisioned devices per minute of the run.
+     */
+    public final double throughput;
+    /**
+     * Latency of the provisioned devices.
+     */
+    public final long averageLatency; //ms
+    public final long medianLatency; //ms
+    public final long p95Latency; //ms
+    public final long maxLatency; //ms
+
+    ProvisioningReport(List<DeviceResult> devices, long elapsedTime) {
+        this.devices = Collections.unmodifiableList(new ArrayList<>(devices));
+        this.elapsedTime = elapsedTime;
+        List<Long> latencies = new ArrayList<>();
+        long totalLatency = 0;
+        for (DeviceResult device : devices) {
+            if (device.provisioned) {
+                latencies.add(device.latency);
+                totalLatency += device.latency;
+            }
+        }
+        Collections.sort(latencies);
+        provisionedCount = latencies.size();
+        failedCount = devices.size() - provisionedCount;
+        throughput = elapsedTime > 0 ? provisionedCount * 60000.0 / elapsedTime : 0;
+        averageLatency = provisionedCount > 0 ? totalLatency / provisionedCount : 0;
+        medianLatency = percentile(latencies, 50);
+        p95Latency = percentile(latencies, 95);
+        maxLatency = provisionedCount > 0 ? latencies.get(provisionedCount - 1) : 0;
+    }
+
+    private static long percentile(List<Long> sortedValues, int percentile) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+        return sortedValues.get(Math.max(rank, 1) - 1);
+    }
+
+    public String toString() {
+        return String.format("Provisioning report -> provisioned: %d failed: %d elapsed: %dms"
+                        + " throughput: %.1f/min latency avg: %dms p50: %dms p95: %dms max: %dms",
+                provisionedCount, failedCount, elapsedTime, throughput, averageLatency,
+                medianLatency, p95Latency, maxLatency);
+    }
+}
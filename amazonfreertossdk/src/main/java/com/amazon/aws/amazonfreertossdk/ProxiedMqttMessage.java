@@ -0,0 +1,34 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This class represents an MQTT message proxied between the device and AWS IoT, with the full
+ * topic and the uncompressed payload.
+ */
+public class ProxiedMqttMessage {
+    private final String topic;
+    private final byte[] payload;
+    private final int qos;
+
+    ProxiedMqttMessage(String topic, byte[] payload, int qos) {
+        this.topic = topic;
+        this.payload = payload;
+        this.qos = qos;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public String toString() {
+        return String.format("Proxied mqtt message -> topic: %s qos: %d payload: %d bytes",
+                topic, qos, payload.length);
+    }
+}
@@ -0,0 +1,49 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.Random;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.RECONNECT_INITIAL_DELAY;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.RECONNECT_MAX_DELAY;
+
+/**
+ * This class defines how the SDK reconnects to the device when the BLE connection is lost. Pass it
+ * to AmazonFreeRTOSManager#setReconnectPolicy to opt in. The delay before each attempt grows
+ * exponentially up to maxDelay, and is randomized by jitter so that many phones do not reconnect
+ * at the same time.
+ */
+public class ReconnectPolicy {
+    /**
+     * The delay before the first reconnect attempt in ms.
+     */
+    public long initialDelay = RECONNECT_INITIAL_DELAY;
+    /**
+     * The largest delay between reconnect attempts in ms.
+     */
+    public long maxDelay = RECONNECT_MAX_DELAY;
+    /**
+     * The factor the delay grows by after each failed attempt.
+     */
+    public double multiplier = 2.0;
+    /**
+     * The fraction of the delay that is randomized, between 0 and 1. With 0.5, the delay of an
+     * attempt is between half and all of the exponential delay.
+     */
+    public double jitter = 0.5;
+    /**
+     * The number of attempts before giving up, 0 to keep trying until close is called.
+     */
+    public int maxAttempts = 0;
+
+    /**
+     * Get the delay before a reconnect attempt.
+     * @param attempt the number of failed attempts so far.
+     * @param random the source of jitter.
+     * @return the delay in ms.
+     */
+    long getDelay(int attempt, Random random) {
+        double delay = initialDelay * Math.pow(multiplier, attempt);
+        delay = Math.min(delay, maxDelay);
+        double randomized = delay * Math.max(0, Math.min(jitter, 1)) * random.nextDouble();
+        return Math.max(0, (long) (delay - randomized));
+    }
+}
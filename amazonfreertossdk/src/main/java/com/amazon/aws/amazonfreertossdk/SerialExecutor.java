@@ -0,0 +1,57 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * This class runs tasks on another executor one at a time, in the order they were submitted. The
+ * SDK wraps every callback executor in one, so the callbacks of a device are delivered in order
+ * even if the app passes a thread pool.
+ */
+class SerialExecutor implements Executor {
+    private static final String TAG = "SerialExecutor";
+
+    private final Queue<Runnable> mTasks = new ArrayDeque<>();
+    private final Executor mExecutor;
+    private Runnable mActive;
+
+    SerialExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the executor the tasks run on.
+     */
+    Executor getExecutor() {
+        return mExecutor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        mTasks.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Callback failed.", e);
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (mActive == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        mActive = mTasks.poll();
+        if (mActive != null) {
+            mExecutor.execute(mActive);
+        }
+    }
+}
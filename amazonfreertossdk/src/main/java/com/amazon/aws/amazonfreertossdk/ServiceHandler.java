@@ -0,0 +1,373 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.util.Log;
+
+import com.amazon.aws.amazonfreertossdk.BleCommand.CommandType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class is the base of a plugin that talks to a custom GATT service of the device through
+ * AmazonFreeRTOSManager#registerServiceHandler. The handler declares its characteristics in
+ * {@link #onRegister()}. After service discovery the SDK enables notifications on the ones that
+ * notify and calls {@link #onReady()}. Writes and reads go through the same BLE command queue as
+ * the built in services, in the priority class of the handler, so they share the connection
+ * priority governor, link profile and reconnects with them.
+ *
+ * The callbacks run on the event loop of the manager, one at a time. They must not block, as that
+ * stalls all BLE traffic of the device. {@link #write} and {@link #read} can be called from any
+ * thread. A handler can be registered with one manager at a time, and registered again after it
+ * is unregistered.
+ */
+public abstract class ServiceHandler {
+    private static final String TAG = "ServiceHandler";
+
+    private final String mServiceUuid;
+    private final CommandPriority mPriority;
+    // Copied on write, since the event loop reads them while the app registers and unregisters.
+    private final List<CharacteristicHandle> mCharacteristics = new CopyOnWriteArrayList<>();
+    private final List<CharacteristicHandle> mNotifyingCharacteristics =
+            new CopyOnWriteArrayList<>();
+    private volatile AmazonFreeRTOSManager mManager;
+    private CharacteristicRegistry mRegistry;
+    private volatile boolean mReady = false;
+
+    private volatile long mCommandsSent = 0;
+    private volatile long mCommandsFailed = 0;
+    private volatile long mBytesSent = 0;
+    private volatile long mValuesReceived = 0;
+    private volatile long mBytesReceived = 0;
+
+    /**
+     * Construct a handler whose commands use the NORMAL priority class.
+     * @param serviceUuid the uuid of the GATT service.
+     */
+    protected ServiceHandler(String serviceUuid) {
+        this(serviceUuid, CommandPriority.NORMAL);
+    }
+
+    /**
+     * Construct a handler.
+     * @param serviceUuid the uuid of the GATT service.
+     * @param priority the priority class of the commands of the handler.
+     */
+    protected ServiceHandler(String serviceUuid, CommandPriority priority) {
+        if (serviceUuid == null || priority == null) {
+            throw new IllegalArgumentException("Service uuid and priority must not be null.");
+        }
+        mServiceUuid = serviceUuid;
+        mPriority = priority;
+    }
+
+    public final String getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    public final CommandPriority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return true between {@link #onReady()} and {@link #onDisconnected()}.
+     */
+    public final boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * @return the characteristics added in {@link #onRegister()}.
+     */
+    public final List<CharacteristicHandle> getCharacteristics() {
+        return Collections.unmodifiableList(mCharacteristics);
+    }
+
+    /**
+     * @return the number of writes and reads that completed successfully.
+     */
+    public final long getCommandsSent() {
+        return mCommandsSent;
+    }
+
+    /**
+     * @return the number of writes and reads that failed, timed out or were rejected.
+     */
+    public final long getCommandsFailed() {
+        return mCommandsFailed;
+    }
+
+    /**
+     * @return the number of bytes written successfully.
+     */
+    public final long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * @return the number of notifications and read results received.
+     */
+    public final long getValuesReceived() {
+        return mValuesReceived;
+    }
+
+    /**
+     * @return the number of bytes received in notifications and read results.
+     */
+    public final long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * Called once when the handler is registered, on the thread that registers it. The handler
+     * adds its characteristics here.
+     */
+    protected abstract void onRegister();
+
+    /**
+     * Called after service discovery found all characteristics of the handler. Notifications are
+     * being enabled, and commands sent from here run after that.
+     */
+    protected void onReady() {
+    }
+
+    /**
+     * Called when the BLE connection is lost or closed. Pending commands have failed. If the
+     * manager reconnects, {@link #onReady()} is called again.
+     */
+    protected void onDisconnected() {
+    }
+
+    /**
+     * Called when the device notifies a value.
+     * @param characteristic the characteristic.
+     * @param value the value.
+     */
+    protected void onNotification(CharacteristicHandle characteristic, String value) {
+    }
+
+    /**
+     * Called when a read succeeds, before {@link #onCommandComplete}.
+     * @param characteristic the characteristic.
+     * @param value the value.
+     */
+    protected void onRead(CharacteristicHandle characteristic, String value) {
+    }
+
+    /**
+     * Called once for every write and read of the handler.
+     * @param characteristic the characteristic.
+     * @param success whether the command succeeded. It is false if the command failed, timed out,
+     *                or was rejected because the device is disconnected or lacks the service.
+     */
+    protected void onCommandComplete(CharacteristicHandle characteristic, boolean success) {
+    }
+
+    /**
+     * Add a characteristic of the service. Can only be called from {@link #onRegister()}.
+     * @param characteristicUuid the characteristic uuid.
+     * @param name the name of the characteristic in logs.
+     * @param notify whether to enable notifications of the characteristic.
+     * @return the handle that identifies the characteristic in commands and callbacks.
+     */
+    protected final CharacteristicHandle addCharacteristic(String characteristicUuid, String name,
+                                                           boolean notify) {
+        if (mRegistry == null) {
+            throw new IllegalStateException("Characteristics can only be added in onRegister.");
+        }
+        final CharacteristicHandle handle = mRegistry.register(mServiceUuid, characteristicUuid,
+                name);
+        mRegistry.setHandler(handle, new CharacteristicRegistry.Handler() {
+            @Override
+            void onChanged(String value) {
+                mValuesReceived++;
+                mBytesReceived += value == null ? 0 : value.length();
+                onNotification(handle, value);
+            }
+
+            @Override
+            void onRead(String value) {
+                mValuesReceived++;
+                mBytesReceived += value == null ? 0 : value.length();
+                ServiceHandler.this.onRead(handle, value);
+            }
+        });
+        mCharacteristics.add(handle);
+        if (notify) {
+            mNotifyingCharacteristics.add(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Queue a write of a characteristic of the handler.
+     * @param characteristic the characteristic.
+     * @param value the value.
+     * @return false if the handler is not registered or the characteristic is not its own.
+     */
+    protected final boolean write(final CharacteristicHandle characteristic, final String value) {
+        return send(new BleCommand(CommandType.WRITE_CHARACTERISTIC, characteristic, value));
+    }
+
+    /**
+     * Queue a read of a characteristic of the handler. The value is passed to {@link #onRead}.
+     * @param characteristic the characteristic.
+     * @return false if the handler is not registered or the characteristic is not its own.
+     */
+    protected final boolean read(final CharacteristicHandle characteristic) {
+        return send(new BleCommand(CommandType.READ_CHARACTERISTIC, characteristic));
+    }
+
+    private boolean send(BleCommand command) {
+        AmazonFreeRTOSManager manager = mManager;
+        if (manager == null || !mCharacteristics.contains(command.getHandle())) {
+            return false;
+        }
+        command.setPriority(mPriority).setCompletionListener(new BleCommand.CompletionListener() {
+            @Override
+            public void onCompleted(BleCommand command, boolean success) {
+                if (success) {
+                    mCommandsSent++;
+                    if (command.getData() != null) {
+                        mBytesSent += command.getData().length();
+                    }
+                } else {
+                    mCommandsFailed++;
+                }
+                if (mManager != null) {
+                    onCommandComplete(command.getHandle(), success);
+                }
+            }
+        });
+        manager.sendServiceCommand(command);
+        return true;
+    }
+
+    /**
+     * Attach the handler to a manager and let it add its characteristics.
+     */
+    synchronized void register(AmazonFreeRTOSManager manager, CharacteristicRegistry registry) {
+        if (mManager != null || mRegistry != null) {
+            throw new IllegalStateException("Service handler is already registered.");
+        }
+        mRegistry = registry;
+        try {
+            onRegister();
+        } catch (RuntimeException e) {
+            releaseCharacteristics();
+            throw e;
+        }
+        mManager = manager;
+    }
+
+    /**
+     * Detach the handler from its manager and release its characteristics, so that it can be
+     * registered again right away. The manager tells the handler it is no longer ready on the
+     * event loop afterwards.
+     * @return false if the handler is not registered with the manager.
+     */
+    synchronized boolean unregister(AmazonFreeRTOSManager manager) {
+        if (!isRegisteredWith(manager)) {
+            return false;
+        }
+        releaseCharacteristics();
+        mManager = null;
+        return true;
+    }
+
+    private void releaseCharacteristics() {
+        for (CharacteristicHandle handle : mCharacteristics) {
+            mRegistry.release(handle);
+        }
+        mCharacteristics.clear();
+        mNotifyingCharacteristics.clear();
+        mRegistry = null;
+    }
+
+    /**
+     * @return true if the handler is registered with the manager.
+     */
+    boolean isRegisteredWith(AmazonFreeRTOSManager manager) {
+        return manager != null && mManager == manager;
+    }
+
+    /**
+     * Run a task on the event loop of the manager. Can be called from any thread.
+     * @return false if the handler is not registered.
+     */
+    boolean execute(Runnable task) {
+        AmazonFreeRTOSManager manager = mManager;
+        if (manager == null) {
+            return false;
+        }
+        manager.getEventLoop().execute(task);
+        return true;
+    }
+
+    /**
+     * Schedule a timer on the event loop of the manager. Called on the event loop.
+     */
+    void schedule(TimingWheel.Timer timer, long delay) {
+        AmazonFreeRTOSManager manager = mManager;
+        if (manager != null) {
+            manager.getEventLoop().schedule(timer, delay);
+        }
+    }
+
+    /**
+     * Cancel a timer scheduled by {@link #schedule}. Called on the event loop.
+     */
+    void cancel(TimingWheel.Timer timer) {
+        AmazonFreeRTOSManager manager = mManager;
+        if (manager != null) {
+            manager.getEventLoop().cancel(timer);
+        }
+    }
+
+    /**
+     * @return the mtu negotiated with the device, 0 if it is not known.
+     */
+    int getMtu() {
+        AmazonFreeRTOSManager manager = mManager;
+        return manager == null ? 0 : manager.getLinkParameters().mtu;
+    }
+
+    /**
+     * Get the most bytes of data that fit Base64 encoded into a message of one packet.
+     * @param headerLen the length of the message without its data.
+     * @param defaultLen the length if the mtu is not known.
+     * @param minLen the smallest length, for small mtus.
+     * @return the number of bytes.
+     */
+    int getMaxDataLen(int headerLen, int defaultLen, int minLen) {
+        int mtu = getMtu();
+        if (mtu <= 0) {
+            return defaultLen;
+        }
+        // Base64 turns every 3 bytes of data into 4 characters.
+        return Math.max(minLen, (mtu - 3 - headerLen) / 4 * 3);
+    }
+
+    List<CharacteristicHandle> getNotifyingCharacteristics() {
+        return mNotifyingCharacteristics;
+    }
+
+    /**
+     * Tell the handler that it is ready, or no longer ready. Called on the event loop.
+     */
+    void setReady(boolean ready) {
+        if (ready == mReady) {
+            return;
+        }
+        mReady = ready;
+        try {
+            if (ready) {
+                onReady();
+            } else {
+                onDisconnected();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Service handler of " + mServiceUuid + " failed.", e);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * This class is a hashed timing wheel: a ring of buckets, one per tick, each holding a doubly
+ * linked list of the timers that expire in that tick modulo the size of the wheel. Scheduling,
+ * rescheduling and cancelling a timer are O(1) and do not allocate, because the timer itself is
+ * the list node. A timer expires at the first tick at or after its deadline, so it is up to one
+ * tick late and never early.
+ *
+ * The wheel does not keep time or threads of its own. The owner passes System.nanoTime() to every
+ * call and runs the expired timers, see {@link EventLoop}. It is not thread safe.
+ */
+class TimingWheel {
+
+    /**
+     * A timer that can be scheduled again and again without allocation. Subclasses implement
+     * {@link #run()}. A timer belongs to at most one wheel at a time.
+     */
+    abstract static class Timer implements Runnable {
+        private long mDeadlineTick;
+        private Bucket mBucket;
+        private Timer mPrev;
+        private Timer mNext;
+
+        /**
+         * @return true if the timer is scheduled and has not run or been cancelled yet.
+         */
+        boolean isScheduled() {
+            return mBucket != null;
+        }
+    }
+
+    private static class Bucket {
+        Timer head;
+        Timer tail;
+
+        void add(Timer timer) {
+            timer.mBucket = this;
+            timer.mPrev = tail;
+            timer.mNext = null;
+            if (tail == null) {
+                head = timer;
+            } else {
+                tail.mNext = timer;
+            }
+            tail = timer;
+        }
+
+        void remove(Timer timer) {
+            if (timer.mPrev == null) {
+                head = timer.mNext;
+            } else {
+                timer.mPrev.mNext = timer.mNext;
+            }
+            if (timer.mNext == null) {
+                tail = timer.mPrev;
+            } else {
+                timer.mNext.mPrev = timer.mPrev;
+            }
+            timer.mBucket = null;
+            timer.mPrev = null;
+            timer.mNext = null;
+        }
+    }
+
+    private final Bucket[] mBuckets;
+    private final int mMask;
+    private final long mTickNanos;
+    private final long mStartTime;
+    // Timers that have expired and wait to be polled, in expiry order.
+    private final Bucket mExpired = new Bucket();
+    // The last tick whose bucket has been expired.
+    private long mTick = 0;
+    private int mPending = 0;
+
+    /**
+     * Construct a timing wheel.
+     * @param tickNanos the duration of a tick in ns.
+     * @param wheelSize the number of buckets. Must be a power of 2.
+     * @param now the current System.nanoTime().
+     */
+    TimingWheel(long tickNanos, int wheelSize, long now) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive.");
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("Wheel size must be a power of 2.");
+        }
+        mBuckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            mBuckets[i] = new Bucket();
+        }
+        mMask = wheelSize - 1;
+        mTickNanos = tickNanos;
+        mStartTime = now;
+    }
+
+    /**
+     * Schedule a timer. A timer that is already scheduled is moved to the new deadline.
+     * @param timer the timer.
+     * @param delayNanos the delay in ns.
+     * @param now the current System.nanoTime().
+     */
+    void schedule(Timer timer, long delayNanos, long now) {
+        cancel(timer);
+        long elapsed = now - mStartTime + Math.max(delayNanos, 0);
+        long deadlineTick = (elapsed + mTickNanos - 1) / mTickNanos;
+        // The bucket of the current tick has already been expired.
+        timer.mDeadlineTick = Math.max(deadlineTick, mTick + 1);
+        mBuckets[(int) (timer.mDeadlineTick & mMask)].add(timer);
+        mPending++;
+    }
+
+    /**
+     * Cancel a timer, if it is scheduled.
+     * @param timer the timer.
+     */
+    void cancel(Timer timer) {
+        if (timer.mBucket != null) {
+            timer.mBucket.remove(timer);
+            mPending--;
+        }
+    }
+
+    /**
+     * Move the timers whose deadline has passed to the expired list.
+     * @param now the current System.nanoTime().
+     */
+    void advance(long now) {
+        long tick = (now - mStartTime) / mTickNanos;
+        if (tick <= mTick) {
+            return;
+        }
+        // After a full turn every bucket has been visited once.
+        long first = Math.max(mTick + 1, tick - mMask);
+        for (long t = first; t <= tick; t++) {
+            Bucket bucket = mBuckets[(int) (t & mMask)];
+            Timer timer = bucket.head;
+            while (timer != null) {
+                Timer next = timer.mNext;
+                if (timer.mDeadlineTick <= tick) {
+                    bucket.remove(timer);
+                    mExpired.add(timer);
+                }
+                timer = next;
+            }
+        }
+        mTick = tick;
+    }
+
+    /**
+     * @return the next expired timer, or null. The timer is no longer scheduled, so it may
+     * schedule itself again when it runs.
+     */
+    Timer pollExpired() {
+        Timer timer = mExpired.head;
+        if (timer != null) {
+            mExpired.remove(timer);
+            mPending--;
+        }
+        return timer;
+    }
+
+    /**
+     * @param now the current System.nanoTime().
+     * @return the time in ns until the next tick that has timers to check, 0 if there are expired
+     * timers, or -1 if no timer is scheduled.
+     */
+    long nanosUntilNextExpiry(long now) {
+        if (mExpired.head != null) {
+            return 0;
+        }
+        if (mPending == 0) {
+            return -1;
+        }
+        for (long t = mTick + 1; t <= mTick + mBuckets.length; t++) {
+            if (mBuckets[(int) (t & mMask)].head != null) {
+                return Math.max(mStartTime + t * mTickNanos - now, 0);
+            }
+        }
+        return mTickNanos;
+    }
+
+    /**
+     * @return the number of scheduled and expired timers.
+     */
+    int size() {
+        return mPending;
+    }
+}
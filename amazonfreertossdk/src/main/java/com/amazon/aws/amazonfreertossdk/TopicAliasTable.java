@@ -0,0 +1,158 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_TOPIC_CACHE_SIZE;
+
+/**
+ * This class maps MQTT topics to small integer aliases for one MQTT proxy session, similar to
+ * MQTT 5 topic aliases, so that messages exchanged with the device do not carry the full topic
+ * every time. The device learns the aliases of the topics it subscribes to from the SUBACK, and
+ * the SDK only leaves out the topic once the SUBACK has been written. The device assigns the
+ * aliases of its own messages by sending the alias together with the topic the first time, later
+ * messages only carry the alias. Topics are identified by their Base64 form as used in the MQTT
+ * proxy messages.
+ *
+ * It also caches the Base64 encoded and decoded forms of recently used topics, so that they are
+ * not converted again for every message.
+ */
+class TopicAliasTable {
+
+    private final Map<String, Integer> mDownlinkAliases = new HashMap<>();
+    private final Set<Integer> mAnnouncedAliases = new HashSet<>();
+    private final Map<Integer, String> mUplinkTopics = new HashMap<>();
+    private int mDownlinkMaximum = 0;
+    private int mUplinkMaximum = 0;
+
+    private final Map<String, String> mEncodedTopics = new TopicCache();
+    private final Map<String, String> mDecodedTopics = new TopicCache();
+
+    private static class TopicCache extends LinkedHashMap<String, String> {
+        TopicCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MQTT_TOPIC_CACHE_SIZE;
+        }
+    }
+
+    /**
+     * Start a new session. All aliases of the previous session are forgotten.
+     * @param downlinkMaximum the number of aliases the device accepts, 0 to disable aliases for
+     *                        messages sent to the device.
+     * @param uplinkMaximum the number of aliases the SDK accepts from the device.
+     */
+    synchronized void reset(int downlinkMaximum, int uplinkMaximum) {
+        mDownlinkAliases.clear();
+        mAnnouncedAliases.clear();
+        mUplinkTopics.clear();
+        mDownlinkMaximum = Math.max(downlinkMaximum, 0);
+        mUplinkMaximum = Math.max(uplinkMaximum, 0);
+    }
+
+    /**
+     * Get the alias of a topic for messages sent to the device, assigning a new one if there is
+     * room in the table.
+     * @param topic the Base64 encoded topic.
+     * @return the alias, or 0 if the topic has no alias.
+     */
+    synchronized int assignDownlinkAlias(String topic) {
+        Integer alias = mDownlinkAliases.get(topic);
+        if (alias != null) {
+            return alias;
+        }
+        if (mDownlinkAliases.size() >= mDownlinkMaximum) {
+            return 0;
+        }
+        alias = mDownlinkAliases.size() + 1;
+        mDownlinkAliases.put(topic, alias);
+        return alias;
+    }
+
+    /**
+     * Get the alias of a topic for messages sent to the device, if the device knows the alias.
+     * @param topic the Base64 encoded topic.
+     * @return the alias, or 0 if the topic has no alias or it has not been announced.
+     */
+    synchronized int getAnnouncedAlias(String topic) {
+        Integer alias = mDownlinkAliases.get(topic);
+        return alias != null && mAnnouncedAliases.contains(alias) ? alias : 0;
+    }
+
+    /**
+     * Record that the device has received the message that told it which topics the aliases
+     * stand for.
+     * @param aliases the aliases, 0 for topics without alias.
+     */
+    synchronized void markAnnounced(int[] aliases) {
+        for (int alias : aliases) {
+            if (alias > 0) {
+                mAnnouncedAliases.add(alias);
+            }
+        }
+    }
+
+    /**
+     * Stop using the aliases announced so far, e.g. after a message announcing an alias may not
+     * have reached the device. Messages carry the full topic until the aliases are announced
+     * again.
+     */
+    synchronized void forgetAnnounced() {
+        mAnnouncedAliases.clear();
+    }
+
+    /**
+     * Resolve the topic of a message sent by the device. If the message carries both topic and
+     * alias, the alias is recorded for later messages.
+     * @param topic the Base64 encoded topic in the message, or null.
+     * @param alias the alias in the message, or null.
+     * @return the Base64 encoded topic, or null if the alias is unknown.
+     */
+    synchronized String resolveUplinkTopic(String topic, Integer alias) {
+        if (alias == null || alias <= 0) {
+            return topic;
+        }
+        if (topic != null) {
+            if (alias <= mUplinkMaximum) {
+                mUplinkTopics.put(alias, topic);
+            }
+            return topic;
+        }
+        return mUplinkTopics.get(alias);
+    }
+
+    /**
+     * Base64 encode a topic, using the cached result for recently used topics.
+     * @param topic the topic.
+     * @return the Base64 encoded topic.
+     */
+    synchronized String encode(String topic) {
+        String encoded = mEncodedTopics.get(topic);
+        if (encoded == null) {
+            encoded = Base64.getEncoder().encodeToString(topic.getBytes());
+            mEncodedTopics.put(topic, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Base64 decode a topic, using the cached result for recently used topics.
+     * @param encoded the Base64 encoded topic.
+     * @return the topic.
+     */
+    synchronized String decode(String encoded) {
+        String topic = mDecodedTopics.get(encoded);
+        if (topic == null) {
+            topic = new String(Base64.getDecoder().decode(encoded));
+            mDecodedTopics.put(encoded, topic);
+        }
+        return topic;
+    }
+}
@@ -0,0 +1,97 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_UPLINK_DUPLICATE_CACHE_SIZE;
+
+/**
+ * This class remembers the recent QoS 1 MQTT messages the device has published, so that a
+ * retransmission by the device is not forwarded to AWS IoT a second time. A message is a
+ * retransmission if it has the same message ID, topic and payload as a recent message.
+ */
+class UplinkDuplicateFilter {
+
+    /**
+     * Result of checking a QoS 1 message published by the device.
+     */
+    enum Result {
+        /**
+         * The message is new and should be forwarded to AWS IoT.
+         */
+        NEW,
+        /**
+         * The message has been forwarded and AWS IoT has not acknowledged it yet.
+         */
+        DUPLICATE_PENDING,
+        /**
+         * The message has been forwarded and acknowledged. PUBACK should be sent again.
+         */
+        DUPLICATE_ACKED
+    }
+
+    private static class Record {
+        final int contentHash;
+        boolean acked = false;
+
+        Record(int contentHash) {
+            this.contentHash = contentHash;
+        }
+    }
+
+    private final Map<Integer, Record> mRecent =
+            new LinkedHashMap<Integer, Record>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Record> eldest) {
+                    return size() > MQTT_UPLINK_DUPLICATE_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Check whether the message is a retransmission, and remember it if it is new.
+     * @param publish the QoS 1 message published by the device.
+     * @return whether the message is new or a duplicate.
+     */
+    synchronized Result check(Publish publish) {
+        int contentHash = contentHash(publish);
+        Record record = mRecent.get(publish.getMsgID());
+        if (record != null && record.contentHash == contentHash) {
+            return record.acked ? Result.DUPLICATE_ACKED : Result.DUPLICATE_PENDING;
+        }
+        mRecent.put(publish.getMsgID(), new Record(contentHash));
+        return Result.NEW;
+    }
+
+    /**
+     * Mark the message as acknowledged by AWS IoT.
+     * @param publish the message published by the device.
+     */
+    synchronized void acknowledge(Publish publish) {
+        Record record = mRecent.get(publish.getMsgID());
+        if (record != null && record.contentHash == contentHash(publish)) {
+            record.acked = true;
+        }
+    }
+
+    /**
+     * Forget the message, so that a retransmission by the device is forwarded again.
+     * @param publish the message published by the device.
+     */
+    synchronized void forget(Publish publish) {
+        Record record = mRecent.get(publish.getMsgID());
+        if (record != null && record.contentHash == contentHash(publish)) {
+            mRecent.remove(publish.getMsgID());
+        }
+    }
+
+    synchronized void clear() {
+        mRecent.clear();
+    }
+
+    private static int contentHash(Publish publish) {
+        int hash = publish.getTopic() != null ? publish.getTopic().hashCode() : 0;
+        return 31 * hash + (publish.getPayload() != null ? publish.getPayload().hashCode() : 0);
+    }
+}
@@ -0,0 +1,16 @@
+package com.amazon.aws.amazonfreertossdk.bulkupload;
+
+/**
+ * This class represents one chunk of an object, notified by the device on the bulk upload data
+ * characteristic.
+ */
+public class BulkChunk {
+    /**
+     * The offset of the first byte of the chunk in the object.
+     */
+    public long offset;
+    /**
+     * The data of the chunk, Base64 encoded.
+     */
+    public String data;
+}
@@ -0,0 +1,33 @@
+package com.amazon.aws.amazonfreertossdk.bulkupload;
+
+/**
+ * This class represents the messages the SDK writes to the bulk upload control characteristic:
+ * REQUEST, ACK, RESEND, DONE and CANCEL.
+ */
+public class BulkControl {
+    /**
+     * Bulk upload message type.
+     */
+    public int type;
+    /**
+     * The name of the object on the device. Only set in REQUEST.
+     */
+    public String name;
+    /**
+     * In REQUEST and RESEND, the offset to send from. In ACK, the SDK has received all bytes
+     * before this offset.
+     */
+    public Long offset;
+    /**
+     * The number of bytes the device may send beyond the acknowledged offset. Only set in REQUEST.
+     */
+    public Integer windowSize;
+    /**
+     * The largest number of bytes in one chunk. Only set in REQUEST.
+     */
+    public Integer chunkSize;
+    /**
+     * The result of the upload, e.g. BULK_STATUS_OK. Only set in DONE.
+     */
+    public Integer status;
+}
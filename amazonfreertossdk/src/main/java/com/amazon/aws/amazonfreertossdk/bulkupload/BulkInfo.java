@@ -0,0 +1,28 @@
+package com.amazon.aws.amazonfreertossdk.bulkupload;
+
+/**
+ * This class represents the INFO message the device notifies on the bulk upload control
+ * characteristic in response to REQUEST, before it sends the first chunk.
+ */
+public class BulkInfo {
+    /**
+     * Bulk upload message type.
+     */
+    public int type;
+    /**
+     * Whether the device has the object, e.g. BULK_STATUS_OK or BULK_STATUS_NOT_FOUND.
+     */
+    public int status;
+    /**
+     * The name of the object.
+     */
+    public String name;
+    /**
+     * The size of the object in bytes.
+     */
+    public long size;
+    /**
+     * The CRC32 of the whole object.
+     */
+    public long crc;
+}
@@ -0,0 +1,29 @@
+package com.amazon.aws.amazonfreertossdk.bulkupload;
+
+/**
+ * This class represents the message the SDK publishes to the cloud after the last part of a
+ * forwarded bulk upload, so that the receiver can put the parts together and check them.
+ */
+public class BulkUploadManifest {
+    /**
+     * The name of the object on the device.
+     */
+    public String name;
+    /**
+     * The offset in the object of the first byte of part 0. Always 0, since a forwarded upload
+     * does not resume a partial file.
+     */
+    public long offset;
+    /**
+     * The size of the object in bytes.
+     */
+    public long size;
+    /**
+     * The number of parts.
+     */
+    public int parts;
+    /**
+     * The CRC32 of the whole object.
+     */
+    public long crc;
+}
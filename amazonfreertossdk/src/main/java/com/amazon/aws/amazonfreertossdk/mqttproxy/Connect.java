@@ -20,6 +20,16 @@ public class Connect {
      * MQTT clean session.
      */
     public boolean cleanSession;
+    /**
+     * Bit mask of optional MQTT proxy features supported by the device, e.g.
+     * MQTT_PROXY_CAPABILITY_DEFLATE. 0 if the device does not report any.
+     */
+    public int capabilities;
+    /**
+     * The number of topic aliases the device accepts in MQTT PUBLISH messages from the SDK.
+     * 0 if the device does not support topic aliases.
+     */
+    public int topicAliasMaximum;
     public String toString() {
         return String.format(" Connect message -> \n clientID: %s\n endpoint: %s\n cleansession: %s",
                 clientID, brokerEndpoint, (cleanSession? "true":"false") );
@@ -9,4 +9,14 @@ public class MqttProxyControl {
      * The state of MQTT proxy.
      */
     public int proxyState;
+    /**
+     * Bit mask of optional MQTT proxy features enabled in the SDK, e.g.
+     * MQTT_PROXY_CAPABILITY_DEFLATE. Not set if no optional feature is enabled.
+     */
+    public Integer capabilities;
+    /**
+     * The number of topic aliases the SDK accepts in MQTT PUBLISH messages from the device. Not
+     * set if the SDK does not accept topic aliases.
+     */
+    public Integer topicAliasMaximum;
 }
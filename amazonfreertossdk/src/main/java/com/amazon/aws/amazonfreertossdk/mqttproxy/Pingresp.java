@@ -0,0 +1,11 @@
+package com.amazon.aws.amazonfreertossdk.mqttproxy;
+
+/**
+ * This class represents the MQTT PINGRESP message.
+ */
+public class Pingresp {
+    /**
+     * MQTT message type.
+     */
+    public int type;
+}
@@ -24,13 +24,34 @@ public class Publish {
      * The data in the MQTT PUBLISH message.
      */
     private String payloadVal;
+    /**
+     * How the data in the MQTT PUBLISH message is encoded before Base64, e.g.
+     * MQTT_PAYLOAD_ENCODING_DEFLATE. Not set if the data is not compressed.
+     */
+    private Integer encoding;
+    /**
+     * MQTT topic alias. If set together with the topic, it assigns the alias to the topic for the
+     * rest of the session. If set without the topic, it stands for the topic assigned earlier.
+     */
+    private Integer topicAlias;
 
     public Publish(int type, String topic, int msgid, int qos, String payload) {
+        this(type, topic, msgid, qos, payload, null);
+    }
+
+    public Publish(int type, String topic, int msgid, int qos, String payload, Integer encoding) {
+        this(type, topic, msgid, qos, payload, encoding, null);
+    }
+
+    public Publish(int type, String topic, int msgid, int qos, String payload, Integer encoding,
+                   Integer topicAlias) {
         this.type = type;
         this.topic = topic;
         this.msgID = msgid;
         this.qoS = qos;
         this.payloadVal = payload;
+        this.encoding = encoding;
+        this.topicAlias = topicAlias;
     }
 
     public String toString() {
@@ -53,4 +74,12 @@ public class Publish {
     public int getQos() {
         return qoS;
     }
+
+    public Integer getEncoding() {
+        return encoding;
+    }
+
+    public Integer getTopicAlias() {
+        return topicAlias;
+    }
 }
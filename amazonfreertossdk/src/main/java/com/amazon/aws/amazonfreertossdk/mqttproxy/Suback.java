@@ -13,8 +13,20 @@ public class Suback {
      */
     public int msgID;
     /**
-     * MQTT SUBACK status. This is set to the QOS number in the corresponding MQTT SUBSCRIBE
-     * message, to which this SUBACK is acknowledging.
+     * MQTT SUBACK status. This is set to the granted QOS number of the first topic in the
+     * corresponding MQTT SUBSCRIBE message, to which this SUBACK is acknowledging, or
+     * MQTT_SUBACK_FAILURE if subscribing to that topic failed.
      */
     public int status;
+    /**
+     * Array of MQTT SUBACK status for each topic, in the same order as the topics in the
+     * corresponding MQTT SUBSCRIBE message.
+     */
+    public int[] statuses;
+    /**
+     * Array of topic aliases the SDK assigned to each topic, in the same order as the topics in the
+     * corresponding MQTT SUBSCRIBE message. 0 if the topic has no alias, e.g. because it contains
+     * wildcards. Not set if the device does not support topic aliases.
+     */
+    public int[] topicAliases;
 }
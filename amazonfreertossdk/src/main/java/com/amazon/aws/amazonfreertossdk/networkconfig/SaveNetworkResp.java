@@ -1,13 +1,16 @@
 package com.amazon.aws.amazonfreertossdk.networkconfig;
 
+import lombok.Getter;
+
 /**
  * Save network response
  */
+@Getter
 public class SaveNetworkResp {
     /**
      * Status of the operation. 0 for success.
      */
-    int status;
+    private int status;
     public String toString() {
         return String.format("SaveNetworkResponse ->\n status: %d", status);
     }
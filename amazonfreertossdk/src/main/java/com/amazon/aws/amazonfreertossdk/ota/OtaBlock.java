@@ -0,0 +1,20 @@
+package com.amazon.aws.amazonfreertossdk.ota;
+
+/**
+ * This class represents one block of an OTA image, written by the SDK to the OTA data
+ * characteristic.
+ */
+public class OtaBlock {
+    /**
+     * The index of the block, starting at 0.
+     */
+    public int index;
+    /**
+     * The CRC32 of the data of the block. The device drops a block whose data does not match it.
+     */
+    public long crc;
+    /**
+     * The data of the block, Base64 encoded.
+     */
+    public String data;
+}
@@ -0,0 +1,34 @@
+package com.amazon.aws.amazonfreertossdk.ota;
+
+/**
+ * This class represents the messages the SDK writes to the OTA control characteristic: START,
+ * QUERY, FINISH and ABORT. Only START sets all fields, FINISH sets the image checksum.
+ */
+public class OtaControl {
+    /**
+     * OTA message type.
+     */
+    public int type;
+    /**
+     * The ID of the image, chosen by the app. The device resumes a transfer if it already has
+     * blocks of an image with the same ID, size, block size and checksum.
+     */
+    public String imageId;
+    /**
+     * The size of the image in bytes.
+     */
+    public Long imageSize;
+    /**
+     * The size of each block in bytes. The last block may be shorter.
+     */
+    public Integer blockSize;
+    /**
+     * The number of blocks the SDK sends before it waits for an ACK. The device sends an ACK at
+     * least every half window.
+     */
+    public Integer windowSize;
+    /**
+     * The CRC32 of the whole image.
+     */
+    public Long crc;
+}
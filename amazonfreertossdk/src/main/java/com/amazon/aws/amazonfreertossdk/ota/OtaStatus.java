@@ -0,0 +1,25 @@
+package com.amazon.aws.amazonfreertossdk.ota;
+
+/**
+ * This class represents the messages the device notifies on the OTA control characteristic: ACK
+ * and RESULT.
+ */
+public class OtaStatus {
+    /**
+     * OTA message type.
+     */
+    public int type;
+    /**
+     * The result of a START or FINISH message, e.g. OTA_STATUS_OK. Only set in RESULT.
+     */
+    public int status;
+    /**
+     * The device has all blocks before this one. Only set in ACK.
+     */
+    public int nextBlock;
+    /**
+     * Blocks after nextBlock that the device has not received, or whose checksum did not match,
+     * while it has received a later block. Only set in ACK.
+     */
+    public int[] missing;
+}
@@ -0,0 +1,161 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that BLE commands queued from many threads at once, while the manager may be closed, are
+ * neither lost nor completed twice.
+ */
+public class BleCommandConcurrencyTest {
+    private static final String SERVICE_UUID = "6a9f6d2c-0000-4c1e-9a1f-3d9b7c5e0001";
+    private static final String COMMAND_UUID = "6a9f6d2c-0001-4c1e-9a1f-3d9b7c5e0001";
+    private static final int THREADS = 4;
+    private static final int COMMANDS_PER_THREAD = 250;
+    private static final int COMMANDS = THREADS * COMMANDS_PER_THREAD;
+    private static final long TIMEOUT = 20; // seconds
+
+    private static class CommandHandler extends ServiceHandler {
+        CharacteristicHandle command;
+
+        CommandHandler() {
+            super(SERVICE_UUID);
+        }
+
+        @Override
+        protected void onRegister() {
+            command = addCharacteristic(COMMAND_UUID, "COMMAND", false);
+        }
+    }
+
+    private SimulatedConnection mConnection;
+    private CommandHandler mHandler;
+    private final AtomicInteger mDeviceWrites = new AtomicInteger();
+    private final AtomicIntegerArray mCompletions = new AtomicIntegerArray(COMMANDS);
+    private final AtomicInteger mSucceeded = new AtomicInteger();
+    private final CountDownLatch mAllCompleted = new CountDownLatch(COMMANDS);
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = new SimulatedConnection("BleCommandConcurrencyTest", 185);
+        mConnection.device.setCustomService(new SimulatedDevice.CustomService() {
+            @Override
+            void onWrite(CharacteristicHandle characteristic, String value) {
+                mDeviceWrites.incrementAndGet();
+            }
+        });
+        mHandler = new CommandHandler();
+        mConnection.manager.registerServiceHandler(mHandler);
+        mConnection.connectAndAwaitReady(TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+    }
+
+    @Test
+    public void commandsFromManyThreads_eachCompleteOnce() throws Exception {
+        runProducers(null);
+
+        assertTrue("Commands were lost.", mAllCompleted.await(TIMEOUT, TimeUnit.SECONDS));
+        assertCompletedOnce();
+        assertEquals(COMMANDS, mSucceeded.get());
+        assertEquals(COMMANDS, mDeviceWrites.get());
+    }
+
+    @Test
+    public void closeWhileCommandsAreQueued_eachCompleteOnce() throws Exception {
+        runProducers(new Runnable() {
+            @Override
+            public void run() {
+                mConnection.manager.close();
+            }
+        });
+
+        assertTrue("Commands were lost.", mAllCompleted.await(TIMEOUT, TimeUnit.SECONDS));
+        assertCompletedOnce();
+        assertTrue(mSucceeded.get() < COMMANDS);
+        assertTrue(mSucceeded.get() <= mDeviceWrites.get());
+    }
+
+    /**
+     * Queue all commands from THREADS threads that start together.
+     * @param midway run by one more thread once the producers are halfway, or null.
+     */
+    private void runProducers(final Runnable midway) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch halfway = new CountDownLatch(COMMANDS / 2);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * COMMANDS_PER_THREAD;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    for (int i = first; i < first + COMMANDS_PER_THREAD; i++) {
+                        mConnection.manager.sendServiceCommand(command(i));
+                        halfway.countDown();
+                    }
+                }
+            }));
+        }
+        if (midway != null) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(halfway);
+                    midway.run();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        }
+    }
+
+    private BleCommand command(final int index) {
+        return new BleCommand(BleCommand.CommandType.WRITE_CHARACTERISTIC, mHandler.command,
+                Integer.toString(index))
+                .setCompletionListener(new BleCommand.CompletionListener() {
+                    @Override
+                    public void onCompleted(BleCommand command, boolean success) {
+                        if (success) {
+                            mSucceeded.incrementAndGet();
+                        }
+                        mCompletions.incrementAndGet(index);
+                        mAllCompleted.countDown();
+                    }
+                });
+    }
+
+    private void assertCompletedOnce() throws InterruptedException {
+        // Give a second completion of any command the time to show up.
+        Thread.sleep(100);
+        for (int i = 0; i < COMMANDS; i++) {
+            assertEquals("Completions of command " + i, 1, mCompletions.get(i));
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
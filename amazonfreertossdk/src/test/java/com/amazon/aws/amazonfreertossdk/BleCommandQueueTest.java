@@ -0,0 +1,55 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.BleCommand.CommandType;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BleCommandQueueTest {
+
+    @Test
+    public void poll_takesHighestClassFirstAndKeepsOrderWithinClass() {
+        BleCommandQueue queue = new BleCommandQueue();
+        BleCommand low = command(CommandPriority.LOW);
+        BleCommand normal1 = command(CommandPriority.NORMAL);
+        BleCommand high = command(CommandPriority.HIGH);
+        BleCommand normal2 = command(CommandPriority.NORMAL);
+        queue.add(low);
+        queue.add(normal1);
+        queue.add(high);
+        queue.add(normal2);
+
+        assertEquals(4, queue.size());
+        assertEquals(2, queue.size(CommandPriority.NORMAL));
+        assertSame(high, queue.poll());
+        assertSame(normal1, queue.poll());
+        assertSame(normal2, queue.poll());
+        assertSame(low, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void clear_returnsCommandsInSendOrder() {
+        BleCommandQueue queue = new BleCommandQueue();
+        BleCommand low = command(CommandPriority.LOW);
+        BleCommand high = command(CommandPriority.HIGH);
+        queue.add(low);
+        queue.add(high);
+
+        List<BleCommand> commands = queue.clear();
+
+        assertEquals(2, commands.size());
+        assertSame(high, commands.get(0));
+        assertSame(low, commands.get(1));
+        assertEquals(0, queue.size());
+    }
+
+    private static BleCommand command(CommandPriority priority) {
+        return new BleCommand(CommandType.READ_CHARACTERISTIC, CharacteristicHandle.DEVICE_MTU)
+                .setPriority(priority);
+    }
+}
@@ -0,0 +1,209 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the demand accounting, cancellation, overflow and completion of BoundedPublisher. The
+ * subscribers are called from a manual executor, so every test controls when items are delivered.
+ */
+public class BoundedPublisherTest {
+    private static final int CAPACITY = 4;
+
+    private static class ManualExecutor implements Executor {
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<Integer> {
+        Subscription subscription;
+        final List<Integer> items = new ArrayList<>();
+        Throwable error;
+        int completions = 0;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completions++;
+        }
+    }
+
+    private ManualExecutor mExecutor;
+    private BoundedPublisher<Integer> mPublisher;
+    private RecordingSubscriber mSubscriber;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ManualExecutor();
+        mPublisher = new BoundedPublisher<>(CAPACITY, mExecutor);
+        mSubscriber = new RecordingSubscriber();
+        mPublisher.subscribe(mSubscriber);
+        mExecutor.runAll();
+    }
+
+    @Test
+    public void items_areDeliveredOnlyAsRequested() {
+        publish(1, 2, 3);
+        mExecutor.runAll();
+        assertTrue(mSubscriber.items.isEmpty());
+
+        mSubscriber.subscription.request(2);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1, 2), mSubscriber.items);
+
+        // Unused demand carries over to later items.
+        mSubscriber.subscription.request(2);
+        publish(4);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1, 2, 3, 4), mSubscriber.items);
+        publish(5);
+        mExecutor.runAll();
+        assertEquals(4, mSubscriber.items.size());
+    }
+
+    @Test
+    public void unboundedDemand_doesNotOverflow() {
+        mSubscriber.subscription.request(Long.MAX_VALUE);
+        mSubscriber.subscription.request(Long.MAX_VALUE);
+        publish(1, 2, 3);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1, 2, 3), mSubscriber.items);
+    }
+
+    @Test
+    public void nonPositiveRequest_signalsError() {
+        publish(1);
+        mSubscriber.subscription.request(0);
+        mExecutor.runAll();
+
+        assertTrue(mSubscriber.error instanceof IllegalArgumentException);
+        assertTrue(mSubscriber.items.isEmpty());
+        assertEquals(0, mPublisher.getSubscriberCount());
+
+        // Nothing is delivered after the error.
+        mSubscriber.subscription.request(1);
+        publish(2);
+        mExecutor.runAll();
+        assertTrue(mSubscriber.items.isEmpty());
+    }
+
+    @Test
+    public void cancel_stopsDelivery() {
+        mSubscriber.subscription.request(10);
+        publish(1);
+        mExecutor.runAll();
+        mSubscriber.subscription.cancel();
+        publish(2);
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(1), mSubscriber.items);
+        assertEquals(0, mPublisher.getSubscriberCount());
+        assertNull(mSubscriber.error);
+        assertEquals(0, mSubscriber.completions);
+    }
+
+    @Test
+    public void overflow_dropsOldestItems() {
+        publish(1, 2, 3, 4, 5, 6);
+        mSubscriber.subscription.request(10);
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(3, 4, 5, 6), mSubscriber.items);
+    }
+
+    @Test
+    public void overflow_isPerSubscriber() {
+        RecordingSubscriber fast = new RecordingSubscriber();
+        mPublisher.subscribe(fast);
+        mExecutor.runAll();
+        fast.subscription.request(10);
+        for (int i = 1; i <= 6; i++) {
+            publish(i);
+            mExecutor.runAll();
+        }
+        mSubscriber.subscription.request(10);
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), fast.items);
+        assertEquals(Arrays.asList(3, 4, 5, 6), mSubscriber.items);
+    }
+
+    @Test
+    public void complete_deliversBufferedItemsFirst() {
+        publish(1, 2);
+        mPublisher.complete();
+        publish(3);
+        mExecutor.runAll();
+        assertEquals(0, mSubscriber.completions);
+
+        mSubscriber.subscription.request(1);
+        mExecutor.runAll();
+        assertEquals(0, mSubscriber.completions);
+
+        mSubscriber.subscription.request(1);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1, 2), mSubscriber.items);
+        assertEquals(1, mSubscriber.completions);
+        assertEquals(0, mPublisher.getSubscriberCount());
+    }
+
+    @Test
+    public void complete_doesNotAffectLaterSubscribers() {
+        mPublisher.complete();
+        mExecutor.runAll();
+        assertEquals(1, mSubscriber.completions);
+
+        RecordingSubscriber later = new RecordingSubscriber();
+        mPublisher.subscribe(later);
+        mExecutor.runAll();
+        later.subscription.request(1);
+        publish(1);
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(1), later.items);
+        assertEquals(0, later.completions);
+        assertEquals(1, mSubscriber.completions);
+    }
+
+    private void publish(int... items) {
+        for (int item : items) {
+            mPublisher.publish(item);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkUploadManifest;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BULK_STATUS_CHECKSUM_MISMATCH;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BULK_STATUS_OK;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of bulk uploads from a SimulatedDevice that serves the bulk upload service.
+ */
+public class BulkUploadTest {
+    private static final String LOG_NAME = "diag.log";
+    private static final int LOG_SIZE = 300 * 1024;
+    private static final long TIMEOUT = 10; // seconds
+
+    private SimulatedConnection mConnection;
+    private SimulatedBulkSource mSource;
+    private BulkUploadService mService;
+    private byte[] mLog;
+
+    @Before
+    public void setUp() {
+        mLog = new byte[LOG_SIZE];
+        new Random(11).nextBytes(mLog);
+
+        mConnection = new SimulatedConnection("BulkUploadTest", 247);
+        mService = new BulkUploadService();
+        mConnection.manager.registerServiceHandler(mService);
+        mSource = new SimulatedBulkSource(mConnection.device, mService.getCharacteristics());
+        mSource.addObject(LOG_NAME, mLog);
+        mConnection.device.setCustomService(mSource);
+        mConnection.connect();
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+    }
+
+    @Test
+    public void upload_streamsObjectIntoStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+        mService.startUpload(LOG_NAME, out, null, result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertArrayEquals(mLog, out.toByteArray());
+        assertEquals(LOG_SIZE, result.stats.size);
+        assertEquals(0, result.stats.chunksDropped);
+        assertEquals(BULK_STATUS_OK, mSource.awaitDoneStatus(TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(mService.isUploadActive());
+    }
+
+    @Test
+    public void lostChunk_isSentAgain() throws Exception {
+        mSource.loseChunk(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+        mService.startUpload(LOG_NAME, out, null, result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertArrayEquals(mLog, out.toByteArray());
+        assertTrue(result.stats.chunksDropped > 0);
+    }
+
+    @Test
+    public void duplicateChunk_isIgnored() throws Exception {
+        mSource.duplicateChunk(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+        mService.startUpload(LOG_NAME, out, null, result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertArrayEquals(mLog, out.toByteArray());
+        assertEquals(0, result.stats.chunksDropped);
+        assertEquals(0, mSource.getResends());
+    }
+
+    @Test
+    public void disconnect_resumesAtNextByte() throws Exception {
+        mSource.disconnectAfter(500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+        mService.startUpload(LOG_NAME, out, null, result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertArrayEquals(mLog, out.toByteArray());
+        assertEquals(1, result.stats.resumes);
+        assertEquals(1, result.pauses);
+    }
+
+    @Test
+    public void partialFile_isResumed() throws Exception {
+        File file = File.createTempFile("bulk", ".log");
+        try {
+            writeFile(file, mLog, LOG_SIZE / 2);
+            TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+            mService.startUpload(LOG_NAME, file, null, result.callback);
+            result.await();
+
+            assertNull(result.failure, result.failure);
+            assertArrayEquals(mLog, Files.readAllBytes(file.toPath()));
+            assertEquals(LOG_SIZE - LOG_SIZE / 2, mSource.getBytesSent());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void corruptPartialFile_isDeleted() throws Exception {
+        File file = File.createTempFile("bulk", ".log");
+        try {
+            byte[] other = new byte[LOG_SIZE / 2];
+            new Random(12).nextBytes(other);
+            writeFile(file, other, other.length);
+            TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+            mService.startUpload(LOG_NAME, file, null, result.callback);
+            result.await();
+
+            assertNotNull(result.failure);
+            assertFalse(file.exists());
+            assertEquals(BULK_STATUS_CHECKSUM_MISMATCH,
+                    mSource.awaitDoneStatus(TIMEOUT, TimeUnit.SECONDS));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void partialFileLargerThanObject_isDeleted() throws Exception {
+        File file = File.createTempFile("bulk", ".log");
+        try {
+            byte[] other = new byte[LOG_SIZE + 1];
+            writeFile(file, other, other.length);
+            TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+            mService.startUpload(LOG_NAME, file, null, result.callback);
+            result.await();
+
+            assertNotNull(result.failure);
+            assertFalse(file.exists());
+            assertFalse(mService.isUploadActive());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void forwardingPartialFile_isRejected() throws Exception {
+        File file = File.createTempFile("bulk", ".log");
+        InProcessCloudClient cloudClient = new InProcessCloudClient();
+        try {
+            writeFile(file, mLog, LOG_SIZE / 2);
+            BulkUploadOptions options = new BulkUploadOptions();
+            options.cloudClient = cloudClient;
+            options.cloudTopic = "logs/device1";
+            TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+            try {
+                mService.startUpload(LOG_NAME, file, options, result.callback);
+                fail("Forwarded a resumed upload.");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+            assertFalse(mService.isUploadActive());
+            assertEquals(LOG_SIZE / 2, file.length());
+        } finally {
+            cloudClient.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void forwarding_publishesPartsAndManifest() throws Exception {
+        final Map<String, byte[]> published = new ConcurrentHashMap<>();
+        InProcessCloudClient cloudClient = new InProcessCloudClient();
+        cloudClient.setLatency(20);
+        cloudClient.setPublishListener(new InProcessCloudClient.PublishListener() {
+            @Override
+            public void onPublish(String topic, byte[] data, int qos) {
+                published.put(topic, data);
+            }
+        });
+        cloudClient.connect("phone", "local", new CloudClient.ConnectionCallback() {
+            @Override
+            public void onConnectionStatusChanged(CloudClient.ConnectionStatus status,
+                                                  Throwable throwable) {
+            }
+        });
+        BulkUploadOptions options = new BulkUploadOptions();
+        options.cloudClient = cloudClient;
+        options.cloudTopic = "logs/device1";
+        options.partSize = 16 * 1024;
+        try {
+            TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+            mService.startUpload(LOG_NAME, new ByteArrayOutputStream(), options, result.callback);
+            result.await();
+
+            assertNull(result.failure, result.failure);
+            BulkUploadManifest manifest = new Gson().fromJson(new String(
+                    published.get("logs/device1/manifest"), StandardCharsets.UTF_8),
+                    BulkUploadManifest.class);
+            assertEquals(LOG_SIZE, manifest.size);
+            assertEquals((LOG_SIZE + options.partSize - 1) / options.partSize, manifest.parts);
+            assertEquals(manifest.parts, result.stats.partsForwarded);
+            ByteArrayOutputStream parts = new ByteArrayOutputStream();
+            for (int i = 0; i < manifest.parts; i++) {
+                parts.write(published.get("logs/device1/" + i));
+            }
+            assertArrayEquals(mLog, parts.toByteArray());
+        } finally {
+            cloudClient.shutdown();
+        }
+    }
+
+    @Test
+    public void unknownObject_fails() throws Exception {
+        TransferResult.BulkUpload result = new TransferResult.BulkUpload();
+        mService.startUpload("missing.log", new ByteArrayOutputStream(), null, result.callback);
+        result.await();
+
+        assertNotNull(result.failure);
+        assertFalse(mService.isUploadActive());
+    }
+
+    private static void writeFile(File file, byte[] data, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+}
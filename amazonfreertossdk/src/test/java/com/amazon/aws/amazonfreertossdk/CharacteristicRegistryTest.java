@@ -0,0 +1,111 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of how characteristics are registered, released and registered again, and of what the
+ * link is given to resolve.
+ */
+public class CharacteristicRegistryTest {
+    private static final String SERVICE_UUID = "8a7f1168-48af-4efb-83b5-e679f9320001";
+    private static final String CHARACTERISTIC_UUID = "8a7f1168-48af-4efb-83b5-e679f9320002";
+    private static final String OTHER_CHARACTERISTIC_UUID = "8a7f1168-48af-4efb-83b5-e679f9320003";
+
+    private final CharacteristicRegistry mRegistry = new CharacteristicRegistry();
+
+    @Test
+    public void registeredCharacteristic_isResolvedAfterBuiltIns() {
+        CharacteristicHandle handle = mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID,
+                "custom");
+
+        List<CharacteristicHandle> handles = mRegistry.getHandles();
+        assertEquals(CharacteristicHandle.BUILT_IN, handles.subList(0, handles.size() - 1));
+        assertSame(handle, handles.get(handles.size() - 1));
+        assertEquals(handles.size() - 1, handle.index);
+        assertTrue(mRegistry.contains(handle));
+    }
+
+    @Test
+    public void releasedCharacteristic_isRegisteredAgainWithSameHandle() {
+        CharacteristicHandle handle = mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID,
+                "custom");
+        mRegistry.setHandler(handle, new CharacteristicRegistry.Handler() {
+        });
+        List<CharacteristicHandle> resolved = new ArrayList<>(mRegistry.getHandles());
+
+        mRegistry.release(handle);
+        assertNull(mRegistry.getHandler(handle));
+        assertTrue(mRegistry.contains(handle));
+
+        // The link resolved the handle before, so it needs nothing new.
+        assertSame(handle, mRegistry.register(SERVICE_UUID.toUpperCase(),
+                CHARACTERISTIC_UUID.toUpperCase(), "custom"));
+        assertEquals(resolved, mRegistry.getHandles());
+
+        CharacteristicHandle other = mRegistry.register(SERVICE_UUID, OTHER_CHARACTERISTIC_UUID,
+                "other");
+        assertEquals(handle.index + 1, other.index);
+    }
+
+    @Test
+    public void registeredCharacteristic_cannotBeRegisteredTwice() {
+        mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID, "custom");
+        try {
+            mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID, "custom");
+            fail("Registered a characteristic twice.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void registeredAgainCharacteristic_cannotBeRegisteredTwice() {
+        CharacteristicHandle handle = mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID,
+                "custom");
+        mRegistry.release(handle);
+        assertSame(handle, mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID, "custom"));
+        try {
+            mRegistry.register(SERVICE_UUID, CHARACTERISTIC_UUID, "custom");
+            fail("Registered a characteristic twice after it was released.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void builtInCharacteristic_cannotBeReleased() {
+        try {
+            mRegistry.release(CharacteristicHandle.MQTT_RX);
+            fail("Released a built in characteristic.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            mRegistry.register(CharacteristicHandle.MQTT_RX.serviceUuid,
+                    CharacteristicHandle.MQTT_RX.characteristicUuid, "rx");
+            fail("Registered a built in characteristic.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void handleOfOtherRegistry_isNotContained() {
+        CharacteristicHandle handle = new CharacteristicRegistry().register(SERVICE_UUID,
+                CHARACTERISTIC_UUID, "custom");
+
+        assertFalse(mRegistry.contains(handle));
+        assertNull(mRegistry.getHandler(handle));
+        try {
+            mRegistry.release(handle);
+            fail("Released a characteristic of another registry.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the overflow policies of the downlink buffer.
+ */
+public class DownlinkBufferTest {
+    // Every message is 10 bytes: a 5 byte topic and a 5 byte payload.
+    private static final int MESSAGE_SIZE = 10;
+
+    private DownlinkBuffer mBuffer;
+
+    @Before
+    public void setUp() {
+        mBuffer = new DownlinkBuffer();
+        mBuffer.setMaxBytes(4 * MESSAGE_SIZE);
+    }
+
+    @Test
+    public void qos0Overflow_keepsBufferedQos1Messages() {
+        assertTrue(mBuffer.offer(publish(1, 1)));
+        assertTrue(mBuffer.offer(publish(2, 1)));
+        for (int i = 0; i < 10; i++) {
+            mBuffer.offer(publish(10 + i, 0));
+        }
+
+        List<Publish> messages = mBuffer.drain();
+        assertEquals(4, messages.size());
+        assertEquals(1, messages.get(0).getMsgID());
+        assertEquals(2, messages.get(1).getMsgID());
+        assertEquals(18, messages.get(2).getMsgID());
+        assertEquals(19, messages.get(3).getMsgID());
+        assertEquals(8, mBuffer.getDroppedMessages());
+    }
+
+    @Test
+    public void qos0Overflow_dropsNewestWhenOnlyQos1IsBuffered() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mBuffer.offer(publish(i, 1)));
+        }
+        assertFalse(mBuffer.offer(publish(10, 0)));
+
+        assertEquals(4, mBuffer.getBufferedMessages());
+        assertEquals(1, mBuffer.getDroppedMessages());
+    }
+
+    @Test
+    public void qos1Overflow_evictsQos0First() {
+        assertTrue(mBuffer.offer(publish(1, 0)));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mBuffer.offer(publish(10 + i, 1)));
+        }
+        assertTrue(mBuffer.offer(publish(20, 1)));
+        assertFalse(mBuffer.offer(publish(21, 1)));
+
+        List<Publish> messages = mBuffer.drain();
+        assertEquals(4, messages.size());
+        for (Publish message : messages) {
+            assertEquals(1, message.getQos());
+        }
+        assertEquals(20, messages.get(3).getMsgID());
+    }
+
+    @Test
+    public void qos1DropOldest_evictsOldestQos1() {
+        mBuffer.setQos1OverflowPolicy(DownlinkBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mBuffer.offer(publish(i, 1)));
+        }
+
+        List<Publish> messages = mBuffer.drain();
+        assertEquals(4, messages.size());
+        assertEquals(1, messages.get(0).getMsgID());
+        assertEquals(4, messages.get(3).getMsgID());
+    }
+
+    private static Publish publish(int msgId, int qos) {
+        return new Publish(MQTT_MSG_PUBLISH, "topic", msgId, qos, "hello");
+    }
+}
@@ -0,0 +1,159 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of the event loop: many threads submit tasks at the same time, and the tasks must
+ * run one at a time, all of them, in submission order per thread.
+ */
+public class EventLoopTest {
+    private static final int PRODUCERS = 16;
+    private static final int TASKS_PER_PRODUCER = 20000;
+
+    private EventLoop mEventLoop;
+    // Only touched on the event loop, so it must not need synchronization.
+    private long mCounter;
+    private int[] mLastSequence;
+    private boolean mOutOfOrder;
+
+    @Before
+    public void setUp() {
+        mEventLoop = new EventLoop("EventLoopTest");
+    }
+
+    @After
+    public void tearDown() {
+        mEventLoop.shutdown();
+    }
+
+    @Test
+    public void concurrentProducers_allTasksRunInOrder() throws Exception {
+        mLastSequence = new int[PRODUCERS];
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 1; i <= TASKS_PER_PRODUCER; i++) {
+                        final int sequence = i;
+                        mEventLoop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCounter++;
+                                if (mLastSequence[producer] != sequence - 1) {
+                                    mOutOfOrder = true;
+                                }
+                                mLastSequence[producer] = sequence;
+                            }
+                        });
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        final long[] result = new long[1];
+        final boolean[] outOfOrder = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = mCounter;
+                outOfOrder[0] = mOutOfOrder;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals((long) PRODUCERS * TASKS_PER_PRODUCER, result[0]);
+        assertFalse(outOfOrder[0]);
+    }
+
+    @Test
+    public void scheduledTasks_runInDeadlineOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(3);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEventLoop.schedule(task(order, done, 3), 150);
+                mEventLoop.schedule(task(order, done, 1), 50);
+                mEventLoop.schedule(task(order, done, 2), 100);
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals(1, (int) order.get(0));
+        assertEquals(2, (int) order.get(1));
+        assertEquals(3, (int) order.get(2));
+    }
+
+    @Test
+    public void cancelledTask_doesNotRun() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final TimingWheel.Timer cancelled = task(order, null, 1);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEventLoop.schedule(cancelled, 50);
+                mEventLoop.schedule(task(order, done, 2), 100);
+                mEventLoop.cancel(cancelled);
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, order.size());
+        assertEquals(2, (int) order.get(0));
+    }
+
+    @Test
+    public void failingTask_doesNotStopEventLoop() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static TimingWheel.Timer task(final List<Integer> order, final CountDownLatch done,
+                                          final int id) {
+        return new TimingWheel.Timer() {
+            @Override
+            public void run() {
+                order.add(id);
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        };
+    }
+}
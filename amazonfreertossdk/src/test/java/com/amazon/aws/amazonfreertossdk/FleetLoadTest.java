@@ -0,0 +1,89 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load tests of the gateway with a VirtualFleet. The small fleet always runs and checks that the
+ * load generator delivers every message. The saturation and reconnect storm runs only run with
+ * the benchmark system property:
+ * ./gradlew :amazonfreertossdk:testDebugUnitTest --tests '*FleetLoadTest' -Pbenchmark
+ */
+public class FleetLoadTest {
+    private static final int MTU = 185;
+    private static final int MAX_DEVICES = 64;
+    // About 6 packets per 7.5 ms connection event, shared by all links of the phone.
+    private static final long PACKET_TIME = 1250; // us
+    private static final long STEP_DURATION = 3000; // ms
+    private static final long DRAIN_TIMEOUT = 10000; // ms
+    // The gateway is saturated once it delivers less than this fraction of the offered load.
+    private static final double SATURATION_EFFICIENCY = 0.9;
+
+    @Test
+    public void smallFleet_deliversAllMessages() throws Exception {
+        FleetWorkload workload = new FleetWorkload();
+        workload.telemetryInterval = 100;
+        workload.telemetryQos = 1;
+        workload.subscriptions = 2;
+        workload.downlinkInterval = 200;
+        workload.downlinkQos = 1;
+        workload.largeObjectInterval = 500;
+
+        VirtualFleet.Report report = new VirtualFleet(2, MTU, workload).run(1000, DRAIN_TIMEOUT);
+
+        report.print(System.out, true);
+        assertTrue(report.sent > 0);
+        assertEquals(report.sent, report.delivered);
+        assertEquals(0, report.droppedAtDevice);
+        assertEquals(0, report.droppedInDownlinkBuffer);
+    }
+
+    @Test
+    public void doublingFleet_findsSaturationPoint() throws Exception {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        FleetWorkload workload = new FleetWorkload();
+        workload.telemetryInterval = 50;
+        workload.telemetryQos = 1;
+        workload.subscriptions = 2;
+        workload.downlinkInterval = 200;
+        workload.largeObjectInterval = 1000;
+
+        int saturatedAt = 0;
+        for (int devices = 1; devices <= MAX_DEVICES && saturatedAt == 0; devices *= 2) {
+            VirtualFleet fleet = new VirtualFleet(devices, MTU, workload);
+            fleet.setPacketTime(PACKET_TIME);
+            VirtualFleet.Report report = fleet.run(STEP_DURATION, DRAIN_TIMEOUT);
+            report.print(System.out, false);
+            if (report.throughput < report.offeredRate * SATURATION_EFFICIENCY
+                    || report.getDeliveryRatio() < SATURATION_EFFICIENCY) {
+                saturatedAt = devices;
+            }
+        }
+        System.out.println(saturatedAt == 0
+                ? "Not saturated with " + MAX_DEVICES + " devices."
+                : "Saturated with " + saturatedAt + " devices.");
+    }
+
+    @Test
+    public void reconnectStorm_reportsDrops() throws Exception {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        FleetWorkload workload = new FleetWorkload();
+        workload.telemetryInterval = 100;
+        workload.telemetryQos = 1;
+        workload.subscriptions = 2;
+        workload.downlinkInterval = 100;
+        workload.downlinkQos = 1;
+        workload.largeObjectInterval = 1000;
+        workload.reconnectStormInterval = 1500;
+
+        VirtualFleet fleet = new VirtualFleet(8, MTU, workload);
+        fleet.setPacketTime(PACKET_TIME);
+        VirtualFleet.Report report = fleet.run(STEP_DURATION * 2, DRAIN_TIMEOUT);
+
+        report.print(System.out, true);
+        assertTrue(report.reconnects > 0);
+        assertTrue(report.delivered > 0);
+    }
+}
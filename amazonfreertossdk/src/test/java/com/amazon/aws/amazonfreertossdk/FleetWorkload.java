@@ -0,0 +1,57 @@
+package com.amazon.aws.amazonfreertossdk;
+
+/**
+ * The script each device of a VirtualFleet runs. Rates are per device. An interval of 0 turns the
+ * part of the workload off.
+ */
+class FleetWorkload {
+    /**
+     * The time between telemetry publishes from the device in ms.
+     */
+    long telemetryInterval = 1000;
+    int telemetrySize = 128;
+    int telemetryQos = 0;
+    /**
+     * The number of topics the device subscribes to after each CONNACK.
+     */
+    int subscriptions = 1;
+    /**
+     * The time between messages the cloud publishes to the device in ms. They go round robin to
+     * the subscribed topics.
+     */
+    long downlinkInterval = 0;
+    int downlinkSize = 128;
+    int downlinkQos = 0;
+    /**
+     * The time between large object uploads from the device in ms. Large objects are sent
+     * over TXLARGE when they do not fit in one packet.
+     */
+    long largeObjectInterval = 0;
+    int largeObjectSize = 4096;
+    /**
+     * The time between reconnect storms in ms, in which all devices of the fleet drop the BLE
+     * connection at once.
+     */
+    long reconnectStormInterval = 0;
+    /**
+     * The delay of the first reconnect attempt of the SDK after a storm in ms.
+     */
+    long reconnectDelay = 200;
+
+    /**
+     * @return the messages per second one device offers in both directions.
+     */
+    double getOfferedRate() {
+        double rate = 0;
+        if (telemetryInterval > 0) {
+            rate += 1000.0 / telemetryInterval;
+        }
+        if (downlinkInterval > 0 && subscriptions > 0) {
+            rate += 1000.0 / downlinkInterval;
+        }
+        if (largeObjectInterval > 0) {
+            rate += 1000.0 / largeObjectInterval;
+        }
+        return rate;
+    }
+}
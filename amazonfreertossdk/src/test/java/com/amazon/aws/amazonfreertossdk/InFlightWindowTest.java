@@ -0,0 +1,128 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_QOS1_MAX_RETRANSMITS;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of how the in flight window holds back, retransmits and expires QoS 1 messages sent to the
+ * device.
+ */
+public class InFlightWindowTest {
+    private final List<InFlightWindow.Entry> mTimeouts = new ArrayList<>();
+    private final InFlightWindow mWindow = new InFlightWindow(
+            new InFlightWindow.RetransmitHandler() {
+                @Override
+                public void onRetransmitTimeout(InFlightWindow.Entry entry) {
+                    mTimeouts.add(entry);
+                }
+            });
+
+    @Test
+    public void fullWindow_queuesInArrivalOrder() {
+        mWindow.setWindowSize(2);
+        InFlightWindow.Entry first = mWindow.track(message("a"));
+        InFlightWindow.Entry second = mWindow.track(message("b"));
+        assertNull(mWindow.track(message("c")));
+        assertNull(mWindow.track(message("d")));
+        assertNull(mWindow.trackNextWaiting());
+        assertEquals(2, mWindow.size());
+
+        assertSame(first, mWindow.remove(first.publish.getMsgID()));
+        InFlightWindow.Entry third = mWindow.trackNextWaiting();
+        assertEquals("c", third.publish.getPayload());
+        assertNull(mWindow.trackNextWaiting());
+
+        mWindow.remove(second.publish.getMsgID());
+        assertEquals("d", mWindow.trackNextWaiting().publish.getPayload());
+    }
+
+    @Test
+    public void entry_getsMessageIdOfSession() {
+        InFlightWindow.Entry entry = mWindow.track(message("a"));
+        assertEquals(0, entry.original.getMsgID());
+        assertEquals(1, entry.publish.getMsgID());
+        assertEquals(entry.original.getTopic(), entry.publish.getTopic());
+        assertSame(entry, mWindow.get(1));
+
+        // The ID is released once the message is acknowledged.
+        mWindow.remove(1);
+        assertNull(mWindow.get(1));
+        assertNull(mWindow.remove(1));
+    }
+
+    @Test
+    public void timer_callsHandler() {
+        InFlightWindow.Entry entry = mWindow.track(message("a"));
+        entry.run();
+        assertEquals(Arrays.asList(entry), mTimeouts);
+    }
+
+    @Test
+    public void retransmits_areCountedThenMessageExpires() {
+        InFlightWindow.Entry entry = mWindow.track(message("a"));
+        for (int i = 1; i <= MQTT_QOS1_MAX_RETRANSMITS; i++) {
+            assertTrue(mWindow.retransmit(entry));
+            assertEquals(i, entry.retransmits);
+        }
+        assertEquals(0, mWindow.getExpiredMessages());
+
+        assertFalse(mWindow.retransmit(entry));
+        assertEquals(MQTT_QOS1_MAX_RETRANSMITS, entry.retransmits);
+        assertNull(mWindow.get(entry.publish.getMsgID()));
+        assertEquals(0, mWindow.size());
+        assertEquals(1, mWindow.getExpiredMessages());
+
+        // An expired entry is not counted twice.
+        assertFalse(mWindow.retransmit(entry));
+        assertEquals(1, mWindow.getExpiredMessages());
+    }
+
+    @Test
+    public void expiry_makesRoomForWaitingMessage() {
+        mWindow.setWindowSize(1);
+        InFlightWindow.Entry entry = mWindow.track(message("a"));
+        assertNull(mWindow.track(message("b")));
+        for (int i = 0; i <= MQTT_QOS1_MAX_RETRANSMITS; i++) {
+            mWindow.retransmit(entry);
+        }
+        assertEquals("b", mWindow.trackNextWaiting().publish.getPayload());
+    }
+
+    @Test
+    public void reset_returnsUnacknowledgedAndWaitingMessages() {
+        mWindow.setWindowSize(1);
+        Publish first = message("a");
+        Publish second = message("b");
+        mWindow.track(first);
+        mWindow.track(second);
+
+        assertEquals(Arrays.asList(first, second), mWindow.reset());
+        assertEquals(0, mWindow.size());
+        assertNull(mWindow.trackNextWaiting());
+        // Message IDs start over in the next session.
+        assertEquals(1, mWindow.track(message("c")).publish.getMsgID());
+    }
+
+    @Test
+    public void invalidWindowSize_throws() {
+        try {
+            mWindow.setWindowSize(0);
+            fail("Accepted a window of 0.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static Publish message(String payload) {
+        return new Publish(MQTT_MSG_PUBLISH, "down", 0, 1, payload);
+    }
+}
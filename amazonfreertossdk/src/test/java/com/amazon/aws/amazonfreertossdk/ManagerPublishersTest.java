@@ -0,0 +1,96 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BleConnectionState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the publishers of a manager span BLE connections and complete only when the manager
+ * is shut down.
+ */
+public class ManagerPublishersTest {
+    private static final long TIMEOUT = 10; // seconds
+
+    private static class RecordingSubscriber<T> implements Subscriber<T> {
+        final BlockingQueue<T> items = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    private SimulatedConnection mConnection;
+    private final RecordingSubscriber<BleConnectionState> mStates = new RecordingSubscriber<>();
+    private final RecordingSubscriber<Object> mScanResults = new RecordingSubscriber<>();
+
+    @Before
+    public void setUp() {
+        mConnection = new SimulatedConnection("ManagerPublishersTest", 185);
+        // Without a reconnect policy, a lost connection ends the session.
+        mConnection.manager.setReconnectPolicy(null);
+        mConnection.manager.getConnectionStates().subscribe(mStates);
+        mConnection.manager.getScanResults().subscribe(mScanResults);
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+    }
+
+    @Test
+    public void disconnect_isPublishedAndStreamsContinue() throws Exception {
+        mConnection.connect();
+        assertEquals(BleConnectionState.BLE_CONNECTED, nextState());
+
+        mConnection.device.disconnect();
+        assertEquals(BleConnectionState.BLE_DISCONNECTED, nextState());
+
+        mConnection.connect();
+        assertEquals(BleConnectionState.BLE_CONNECTED, nextState());
+        assertEquals(1, mStates.completed.getCount());
+        assertEquals(1, mScanResults.completed.getCount());
+    }
+
+    @Test
+    public void shutdown_publishesDisconnectThenCompletes() throws Exception {
+        mConnection.connect();
+        assertEquals(BleConnectionState.BLE_CONNECTED, nextState());
+
+        mConnection.manager.shutdown();
+        assertTrue(mStates.completed.await(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(mScanResults.completed.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(BleConnectionState.BLE_DISCONNECTED, mStates.items.poll());
+        assertTrue(mStates.items.isEmpty());
+    }
+
+    private BleConnectionState nextState() throws InterruptedException {
+        return mStates.items.poll(TIMEOUT, TimeUnit.SECONDS);
+    }
+}
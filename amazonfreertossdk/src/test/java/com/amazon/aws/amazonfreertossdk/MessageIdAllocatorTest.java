@@ -0,0 +1,61 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the allocation, wraparound and exhaustion of MQTT message IDs.
+ */
+public class MessageIdAllocatorTest {
+    private static final int MAX_MESSAGE_ID = 65535;
+
+    private final MessageIdAllocator mAllocator = new MessageIdAllocator();
+
+    @Test
+    public void ids_startAtOneAndIncrease() {
+        assertEquals(1, mAllocator.allocate());
+        assertEquals(2, mAllocator.allocate());
+        mAllocator.release(1);
+        // A released ID is not reused before the IDs after it.
+        assertEquals(3, mAllocator.allocate());
+    }
+
+    @Test
+    public void wraparound_skipsIdsInUse() {
+        for (int i = 1; i <= MAX_MESSAGE_ID; i++) {
+            assertEquals(i, mAllocator.allocate());
+        }
+        mAllocator.release(2);
+        mAllocator.release(MAX_MESSAGE_ID);
+        assertEquals(2, mAllocator.allocate());
+        assertEquals(MAX_MESSAGE_ID, mAllocator.allocate());
+    }
+
+    @Test
+    public void exhaustion_returnsZeroUntilReleased() {
+        for (int i = 1; i <= MAX_MESSAGE_ID; i++) {
+            mAllocator.allocate();
+        }
+        assertEquals(0, mAllocator.allocate());
+
+        mAllocator.release(100);
+        assertEquals(100, mAllocator.allocate());
+        assertEquals(0, mAllocator.allocate());
+    }
+
+    @Test
+    public void reset_startsOverFromOne() {
+        mAllocator.allocate();
+        mAllocator.allocate();
+        mAllocator.reset();
+        assertEquals(1, mAllocator.allocate());
+    }
+
+    @Test
+    public void invalidRelease_isIgnored() {
+        mAllocator.release(0);
+        mAllocator.release(MAX_MESSAGE_ID + 1);
+        assertEquals(1, mAllocator.allocate());
+    }
+}
@@ -0,0 +1,173 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_RXLARGE_MAX_RETRIES;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.UUID_MQTT_PROXY_RX_CHARACTERISTIC;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the MQTT proxy between a SimulatedDevice and an InProcessCloudClient, with faults
+ * injected on the BLE link.
+ */
+public class MqttProxyTest {
+    // The max payload size is odd, so the encoded length of a growing message hits its multiples.
+    private static final int MTU = 184;
+    private static final String TOPIC = "proxy/down";
+    private static final int LARGE_PAYLOAD_SIZE = 2000;
+    private static final int TOPIC_ALIAS_MAXIMUM = 4;
+    private static final long TIMEOUT = 10; // seconds
+
+    private SimulatedConnection mConnection;
+    private InProcessCloudClient mBroker;
+    private final BlockingQueue<byte[]> mDelivered = new LinkedBlockingQueue<>();
+    private final CountDownLatch mConnected = new CountDownLatch(1);
+    private final BlockingQueue<Integer> mSubacks = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mBroker = new InProcessCloudClient();
+        mConnection = new SimulatedConnection("MqttProxyTest", MTU);
+        mConnection.manager.setCloudClient(mBroker);
+        final SimulatedDevice device = mConnection.device;
+        device.setTopicAliasMaximum(TOPIC_ALIAS_MAXIMUM);
+        device.setListener(new SimulatedDevice.Listener() {
+            @Override
+            void onProxyStateChanged(boolean enabled) {
+                if (enabled) {
+                    device.mqttConnect("proxy-test", "localhost");
+                }
+            }
+
+            @Override
+            void onConnack(int status) {
+                mConnected.countDown();
+            }
+
+            @Override
+            void onSuback(int msgId, int[] statuses) {
+                mSubacks.add(msgId);
+            }
+
+            @Override
+            void onPublish(String topic, byte[] data, int qos) {
+                mDelivered.add(data);
+            }
+        });
+        mConnection.connectAndAwaitReady(TIMEOUT);
+        mConnection.manager.enableMqttProxy(true);
+        assertTrue("No CONNACK.", mConnected.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+        mBroker.shutdown();
+    }
+
+    @Test
+    public void failedLargeObjectPacket_isWrittenAgain() throws Exception {
+        subscribe();
+        mConnection.device.failWrites(UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC, 1,
+                MQTT_RXLARGE_MAX_RETRIES);
+        byte[] payload = payload('a', LARGE_PAYLOAD_SIZE);
+        mBroker.publishToDevice(TOPIC, payload);
+
+        assertArrayEquals(payload, mDelivered.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(0, mConnection.device.getMalformedMessages());
+    }
+
+    @Test
+    public void abortedLargeObject_doesNotCorruptNextOne() throws Exception {
+        subscribe();
+        mConnection.device.failWrites(UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC, 1,
+                MQTT_RXLARGE_MAX_RETRIES + 1);
+        mBroker.publishToDevice(TOPIC, payload('a', LARGE_PAYLOAD_SIZE));
+        byte[] next = payload('b', LARGE_PAYLOAD_SIZE);
+        mBroker.publishToDevice(TOPIC, next);
+
+        assertArrayEquals(next, mDelivered.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, mConnection.device.getMalformedMessages());
+        assertTrue(mDelivered.isEmpty());
+    }
+
+    @Test
+    public void largeObjectFillingLastPacket_isTerminated() throws Exception {
+        subscribe();
+        // The encoded message grows by 4 bytes every 3 bytes of payload, so some of these sizes
+        // fill the last packet exactly.
+        for (int size = LARGE_PAYLOAD_SIZE; size < LARGE_PAYLOAD_SIZE + 3 * MTU; size++) {
+            byte[] payload = payload('a', size);
+            mBroker.publishToDevice(TOPIC, payload);
+            assertArrayEquals(payload, mDelivered.poll(TIMEOUT, TimeUnit.SECONDS));
+        }
+
+        assertTrue(mConnection.device.getTerminatedLargeObjects() > 0);
+        assertEquals(0, mConnection.device.getMalformedMessages());
+    }
+
+    @Test
+    public void topicAlias_isUsedOnceSubackIsWritten() throws Exception {
+        subscribe();
+        byte[] payload = payload('a', 16);
+        mBroker.publishToDevice(TOPIC, payload);
+
+        assertArrayEquals(payload, mDelivered.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, mConnection.device.getAliasedMessages());
+    }
+
+    @Test
+    public void failedSuback_messagesKeepFullTopic() throws Exception {
+        mConnection.device.failWrites(UUID_MQTT_PROXY_RX_CHARACTERISTIC, 0, 1);
+        mConnection.device.mqttSubscribe(1, TOPIC, 0);
+        // The device never gets the SUBACK, so publish until the cloud subscription is in place.
+        byte[] payload = payload('a', 16);
+        byte[] delivered = null;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        while (delivered == null && System.currentTimeMillis() < deadline) {
+            mBroker.publishToDevice(TOPIC, payload);
+            delivered = mDelivered.poll(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertArrayEquals(payload, delivered);
+        assertEquals(0, mConnection.device.getAliasedMessages());
+        assertEquals(0, mConnection.device.getMalformedMessages());
+    }
+
+    @Test
+    public void reconnect_keepsDeviceInfoCallback() throws Exception {
+        final BlockingQueue<Integer> mtus = new LinkedBlockingQueue<>();
+        mConnection.manager.getMtu(new DeviceInfoCallback() {
+            @Override
+            public void onObtainMtu(int mtu) {
+                mtus.add(mtu);
+            }
+        });
+        Integer mtu = mtus.poll(TIMEOUT, TimeUnit.SECONDS);
+        assertNotNull("No mtu.", mtu);
+
+        // The SDK reads the mtu again once services are discovered after the reconnect.
+        mConnection.device.disconnect();
+        assertEquals(mtu, mtus.poll(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    private void subscribe() throws InterruptedException {
+        mConnection.device.mqttSubscribe(1, TOPIC, 0);
+        assertNotNull("No SUBACK.", mSubacks.poll(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    private static byte[] payload(char fill, int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) fill);
+        return payload;
+    }
+}
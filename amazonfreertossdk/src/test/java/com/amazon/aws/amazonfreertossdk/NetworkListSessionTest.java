@@ -0,0 +1,120 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of how a NetworkListSession counts the networks reported by the device.
+ */
+public class NetworkListSessionTest {
+    private static final long SCAN_TIMEOUT = 10000; // ms
+    private static final long TIMEOUT = 5; // seconds
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private EventLoop mEventLoop;
+    private volatile List<ListNetworkResp> mSnapshot;
+    private volatile NetworkListSession.CompletionReason mReason;
+
+    private final NetworkListSession.Callback mCallback = new NetworkListSession.Callback() {
+        @Override
+        public void onComplete(List<ListNetworkResp> snapshot,
+                               NetworkListSession.CompletionReason reason) {
+            mSnapshot = snapshot;
+            mReason = reason;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mEventLoop = new EventLoop("NetworkListSessionTest");
+    }
+
+    @After
+    public void tearDown() {
+        mEventLoop.shutdown();
+    }
+
+    @Test
+    public void duplicateBssid_countsOnceTowardMaxNetworks() throws Exception {
+        NetworkListSession session = new NetworkListSession(mCallback);
+        start(session, 3);
+        respond(session, network("aa:aa", 0, -40), network("aa:aa", -1, -40),
+                network("bb:bb", -1, -50));
+        assertNull(mReason);
+
+        respond(session, network("cc:cc", -1, -60));
+        assertEquals(NetworkListSession.CompletionReason.COUNT, mReason);
+        assertEquals(3, mSnapshot.size());
+        assertEquals(0, mSnapshot.get(0).getIndex());
+    }
+
+    @Test
+    public void duplicateBssid_countsOnceTowardTopK() throws Exception {
+        NetworkListSession session = new NetworkListSession(mCallback).setTopK(2);
+        start(session, 10);
+        respond(session, network("aa:aa", 0, -40), network("aa:aa", -1, -40));
+        assertNull(mReason);
+
+        respond(session, network("bb:bb", -1, -50));
+        assertEquals(NetworkListSession.CompletionReason.TOP_K, mReason);
+        assertEquals(2, mSnapshot.size());
+    }
+
+    private void start(final NetworkListSession session, final int maxNetworks)
+            throws InterruptedException {
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                session.start(mEventLoop, DIRECT_EXECUTOR, maxNetworks, SCAN_TIMEOUT);
+            }
+        });
+    }
+
+    private void respond(final NetworkListSession session, final ListNetworkResp... responses)
+            throws InterruptedException {
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                for (ListNetworkResp response : responses) {
+                    session.onResponse(response);
+                }
+            }
+        });
+    }
+
+    private void runOnEventLoop(final Runnable task) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    private static ListNetworkResp network(String bssid, int index, int rssi) {
+        String json = "{\"status\":0,\"ssid\":\"net-" + bssid + "\",\"bssid\":\"" + bssid
+                + "\",\"security\":3,\"hidden\":false,\"rssi\":" + rssi
+                + ",\"connected\":false,\"index\":" + index + "}";
+        return new Gson().fromJson(json, ListNetworkResp.class);
+    }
+}
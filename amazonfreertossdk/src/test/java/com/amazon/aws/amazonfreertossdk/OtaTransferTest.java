@@ -0,0 +1,111 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.OTA_WINDOW_SIZE;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of OTA transfers to a SimulatedDevice that serves the OTA service.
+ */
+public class OtaTransferTest {
+    private static final int IMAGE_SIZE = 40000;
+
+    private SimulatedConnection mConnection;
+    private SimulatedOtaTarget mTarget;
+    private OtaTransferService mService;
+    private File mImageFile;
+    private byte[] mImage;
+
+    @Before
+    public void setUp() throws IOException {
+        mImage = new byte[IMAGE_SIZE];
+        new Random(7).nextBytes(mImage);
+        mImageFile = File.createTempFile("ota", ".bin");
+        FileOutputStream out = new FileOutputStream(mImageFile);
+        try {
+            out.write(mImage);
+        } finally {
+            out.close();
+        }
+
+        mConnection = new SimulatedConnection("OtaTransferTest", 185);
+        mTarget = new SimulatedOtaTarget(mConnection.device);
+        mConnection.device.setCustomService(mTarget);
+        mService = new OtaTransferService();
+        mConnection.manager.registerServiceHandler(mService);
+        mConnection.connect();
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+        mImageFile.delete();
+    }
+
+    @Test
+    public void transfer_deliversVerifiedImage() throws Exception {
+        TransferResult.Ota result = new TransferResult.Ota();
+        mService.startTransfer(mImageFile, "fw-1", result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertTrue(mTarget.isVerified());
+        assertArrayEquals(mImage, mTarget.getImage());
+        assertEquals(IMAGE_SIZE, result.stats.bytesAcknowledged);
+        assertEquals(0, result.stats.blocksRetransmitted);
+        assertFalse(mService.isTransferActive());
+    }
+
+    @Test
+    public void corruptAndDroppedBlocks_onlyThoseAreSentAgain() throws Exception {
+        mTarget.corruptBlock(3);
+        mTarget.dropBlock(40);
+        TransferResult.Ota result = new TransferResult.Ota();
+        mService.startTransfer(mImageFile, "fw-1", result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertArrayEquals(mImage, mTarget.getImage());
+        assertEquals(2, result.stats.blocksRetransmitted);
+        assertEquals(result.stats.blocksSent, mTarget.getBlocksReceived());
+    }
+
+    @Test
+    public void disconnect_resumesFromFirstMissingBlock() throws Exception {
+        mTarget.disconnectAfter(100);
+        TransferResult.Ota result = new TransferResult.Ota();
+        mService.startTransfer(mImageFile, "fw-1", result.callback);
+        result.await();
+
+        assertNull(result.failure, result.failure);
+        assertArrayEquals(mImage, mTarget.getImage());
+        assertEquals(1, result.stats.resumes);
+        assertEquals(1, result.pauses);
+        int blockCount = (IMAGE_SIZE + result.stats.blockSize - 1) / result.stats.blockSize;
+        assertTrue("Resumed transfer sent " + mTarget.getBlocksReceived() + " blocks.",
+                mTarget.getBlocksReceived() <= blockCount + OTA_WINDOW_SIZE);
+    }
+
+    @Test
+    public void secondTransfer_isRejectedWhileFirstIsActive() throws Exception {
+        TransferResult.Ota result = new TransferResult.Ota();
+        mService.startTransfer(mImageFile, "fw-1", result.callback);
+        try {
+            mService.startTransfer(mImageFile, "fw-2", new TransferResult.Ota().callback);
+            fail("Started a second OTA transfer.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        mService.cancelTransfer();
+        result.await();
+        assertNotNull(result.failure);
+    }
+}
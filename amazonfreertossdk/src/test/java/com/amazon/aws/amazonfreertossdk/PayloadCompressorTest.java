@@ -0,0 +1,103 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_PAYLOAD_COMPRESSION_THRESHOLD;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the compression of MQTT payloads, and of how payloads from the device are checked when
+ * they are decompressed.
+ */
+public class PayloadCompressorTest {
+    private static final byte[] DICTIONARY =
+            "{\"temperature\":,\"humidity\":,\"deviceId\":\"sensor-\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final PayloadCompressor mCompressor = new PayloadCompressor();
+
+    @Test
+    public void smallPayload_isNotCompressed() {
+        assertNull(mCompressor.compress(repeated(MQTT_PAYLOAD_COMPRESSION_THRESHOLD - 1)));
+        assertNotNull(mCompressor.compress(repeated(MQTT_PAYLOAD_COMPRESSION_THRESHOLD)));
+    }
+
+    @Test
+    public void compressedPayload_roundTrips() throws Exception {
+        byte[] payload = repeated(4096);
+        byte[] compressed = mCompressor.compress(payload);
+
+        assertTrue(compressed.length < payload.length);
+        assertArrayEquals(payload, mCompressor.decompress(compressed));
+    }
+
+    @Test
+    public void dictionary_roundTripsAndIsRequired() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(16, DICTIONARY);
+        byte[] payload = "{\"temperature\":21,\"humidity\":40,\"deviceId\":\"sensor-7\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = compressor.compress(payload);
+
+        assertNotNull(compressed);
+        assertArrayEquals(payload, compressor.decompress(compressed));
+        try {
+            mCompressor.decompress(compressed);
+            fail("Decompressed without the dictionary.");
+        } catch (DataFormatException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void incompressiblePayload_isNotCompressed() {
+        byte[] payload = new byte[4096];
+        new Random(3).nextBytes(payload);
+        assertNull(mCompressor.compress(payload));
+    }
+
+    @Test
+    public void truncatedPayload_fails() {
+        byte[] compressed = mCompressor.compress(repeated(4096));
+        try {
+            mCompressor.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+            fail("Decompressed a truncated payload.");
+        } catch (DataFormatException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void payloadAtMaximumSize_isDecompressed() throws Exception {
+        byte[] payload = repeated(MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE);
+        assertArrayEquals(payload, mCompressor.decompress(mCompressor.compress(payload)));
+    }
+
+    @Test
+    public void payloadBeyondMaximumSize_fails() throws Exception {
+        // A few KB of zlib data that inflate to far more than the maximum size.
+        byte[] compressed = mCompressor.compress(new byte[16 * MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE]);
+        assertTrue(compressed.length < 4096);
+        try {
+            mCompressor.decompress(compressed);
+            fail("Decompressed a payload beyond the maximum size.");
+        } catch (DataFormatException e) {
+            // Expected.
+        }
+        assertNotNull(new PayloadCompressor(MQTT_PAYLOAD_COMPRESSION_THRESHOLD, null,
+                16 * MQTT_PAYLOAD_MAX_DECOMPRESSED_SIZE).decompress(compressed));
+    }
+
+    private static byte[] repeated(int size) {
+        byte[] payload = new byte[size];
+        byte[] pattern = "{\"state\":\"on\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < size; i++) {
+            payload[i] = pattern[i % pattern.length];
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,153 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
+import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkReq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.UUID_SAVE_NETWORK_CHARACTERISTIC;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of AmazonFreeRTOSManager#provisionNetwork against a SimulatedDevice that serves the
+ * network config service.
+ */
+public class ProvisionNetworkTest {
+    private static final String SSID = "home";
+    private static final String BSSID = "aa:bb:cc:dd:ee:ff";
+    private static final String ENDPOINT = "a1b2c3-ats.iot.us-west-2.amazonaws.com";
+    private static final long TIMEOUT = 10; // seconds
+
+    private static class Result extends ProvisionNetworkCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile ListNetworkResp network;
+        volatile String brokerEndpoint;
+        volatile ProvisioningReport.Stage failedStage;
+
+        @Override
+        public void onProvisioned(ListNetworkResp network, String brokerEndpoint) {
+            this.network = network;
+            this.brokerEndpoint = brokerEndpoint;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(ProvisioningReport.Stage stage, String reason) {
+            failedStage = stage;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Provisioning did not complete.", done.await(TIMEOUT, TimeUnit.SECONDS));
+        }
+    }
+
+    private SimulatedConnection mConnection;
+    private SimulatedNetworkConfig mNetworkConfig;
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = new SimulatedConnection("ProvisionNetworkTest", 185);
+        mNetworkConfig = new SimulatedNetworkConfig(mConnection.device);
+        mNetworkConfig.setBrokerEndpoint(ENDPOINT);
+        mConnection.device.setCustomService(mNetworkConfig);
+        mConnection.connectAndAwaitReady(TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+    }
+
+    @Test
+    public void defaultOptions_confirmConnection() throws Exception {
+        Result result = provision(null);
+
+        assertNull(result.failedStage);
+        assertEquals(BSSID, result.network.getBssid());
+        assertEquals(Boolean.TRUE, result.network.getConnected());
+        assertNull(result.brokerEndpoint);
+        assertEquals(1, mNetworkConfig.getListRequests());
+    }
+
+    @Test
+    public void withoutConfirmation_completesOnSave() throws Exception {
+        ProvisionNetworkOptions options = new ProvisionNetworkOptions();
+        options.confirmConnection = false;
+        Result result = provision(options);
+
+        assertNull(result.failedStage);
+        assertNull(result.network);
+        assertEquals(0, mNetworkConfig.getListRequests());
+    }
+
+    @Test
+    public void failedSave_failsAtSaving() throws Exception {
+        mNetworkConfig.setSaveStatus(1);
+        Result result = provision(null);
+
+        assertEquals(ProvisioningReport.Stage.SAVING, result.failedStage);
+        assertEquals(0, mNetworkConfig.getListRequests());
+    }
+
+    @Test
+    public void failedWrite_failsAtSavingBeforeTimeout() throws Exception {
+        mConnection.device.failWrites(UUID_SAVE_NETWORK_CHARACTERISTIC, 0, 1);
+        ProvisionNetworkOptions options = new ProvisionNetworkOptions();
+        options.timeout = TimeUnit.SECONDS.toMillis(TIMEOUT * 2);
+        Result result = provision(options);
+
+        assertEquals(ProvisioningReport.Stage.SAVING, result.failedStage);
+    }
+
+    @Test
+    public void notConnected_timesOutAtVerifying() throws Exception {
+        mNetworkConfig.setListsBeforeConnect(-1);
+        ProvisionNetworkOptions options = new ProvisionNetworkOptions();
+        options.timeout = 500;
+        Result result = provision(options);
+
+        assertEquals(ProvisioningReport.Stage.VERIFYING, result.failedStage);
+        assertNull(result.network);
+    }
+
+    @Test
+    public void endpoint_isVerified() throws Exception {
+        ProvisionNetworkOptions options = new ProvisionNetworkOptions();
+        options.verifyEndpoint = true;
+        options.expectedEndpoint = ENDPOINT;
+        Result result = provision(options);
+
+        assertNull(result.failedStage);
+        assertEquals(Boolean.TRUE, result.network.getConnected());
+        assertEquals(ENDPOINT, result.brokerEndpoint);
+    }
+
+    @Test
+    public void unexpectedEndpoint_failsAtVerifyingEndpoint() throws Exception {
+        ProvisionNetworkOptions options = new ProvisionNetworkOptions();
+        options.verifyEndpoint = true;
+        options.expectedEndpoint = "other-ats.iot.us-west-2.amazonaws.com";
+        Result result = provision(options);
+
+        assertEquals(ProvisioningReport.Stage.VERIFYING_ENDPOINT, result.failedStage);
+    }
+
+    private Result provision(ProvisionNetworkOptions options) throws InterruptedException {
+        SaveNetworkReq network = new SaveNetworkReq();
+        network.ssid = SSID;
+        network.bssid = BSSID;
+        network.psk = "secret";
+        network.security = 3;
+        network.index = -1;
+        Result result = new Result();
+        mConnection.manager.provisionNetwork(network, options, result);
+        result.await();
+        return result;
+    }
+}
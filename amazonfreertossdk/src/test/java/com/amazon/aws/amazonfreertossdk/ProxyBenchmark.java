@@ -0,0 +1,313 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * End to end benchmark of the MQTT proxy: device PUBLISH over TX/TXLARGE to the cloud, and cloud
+ * messages over RX/RXLARGE to the device, through AmazonFreeRTOSManager with a simulated device
+ * and an InProcessCloudClient in place of Bluetooth and AWS IoT. For each direction, mtu, QoS and
+ * payload size it prints messages per second, p50 and p99 latency, allocated bytes per message
+ * and BLE packets per message. Allocated bytes are counted on the threads of the SDK only, the
+ * event loop and the callback threads, so the simulated device, the broker and the driver of the
+ * benchmark do not show up in them.
+ *
+ * The benchmark is skipped unless the benchmark system property is set:
+ * ./gradlew :amazonfreertossdk:testDebugUnitTest --tests '*ProxyBenchmark' -Pbenchmark
+ */
+public class ProxyBenchmark {
+    private static final int[] MTUS = {23, 185, 512};
+    private static final int[] QOS_LEVELS = {0, 1};
+    private static final int[] PAYLOAD_SIZES = {16, 256, 2048};
+    private static final int WARMUP_MESSAGES = 200;
+    private static final int MESSAGES = 2000;
+    // Messages the benchmark keeps in flight, so the queues reflect the proxy and not the driver.
+    private static final int WINDOW = 16;
+    private static final long TIMEOUT = 60; // seconds
+    private static final String UPLINK_TOPIC = "benchmark/uplink";
+    private static final String DOWNLINK_TOPIC = "benchmark/downlink/qos";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // The names of the threads of AmazonFreeRTOSManager: its event loop and the callback pool.
+    private static final String EVENT_LOOP_THREAD = "BleCommandHandler";
+    private static final String CALLBACK_THREAD = "AmazonFreeRTOSCallback";
+
+    private enum Direction {
+        UPLINK,
+        DOWNLINK
+    }
+
+    /**
+     * The messages of one measurement. Message i carries i in its payload, so the receiving side
+     * can find its send time.
+     */
+    private static class Run {
+        final int qos;
+        final long[] sendTimes;
+        final long[] latencies;
+        final Semaphore window = new Semaphore(WINDOW);
+        final CountDownLatch done;
+
+        Run(int qos, int messages) {
+            this.qos = qos;
+            sendTimes = new long[messages];
+            latencies = new long[messages];
+            done = new CountDownLatch(messages);
+        }
+
+        void onReceived(byte[] data) {
+            int sequence = Integer.parseInt(new String(data, 0, 10, UTF_8));
+            latencies[sequence] = System.nanoTime() - sendTimes[sequence];
+        }
+
+        void onCompleted() {
+            window.release();
+            done.countDown();
+        }
+    }
+
+    private SimulatedConnection mConnection;
+    private AmazonFreeRTOSManager mManager;
+    private SimulatedDevice mDevice;
+    private InProcessCloudClient mBroker;
+    private volatile Run mRun;
+    private int mNextMsgId = 1;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @After
+    public void tearDown() {
+        closeSession();
+    }
+
+    @Test
+    public void proxyThroughputAndLatency() throws Exception {
+        System.out.println(String.format("%-8s %4s %3s %7s %10s %10s %10s %12s %8s",
+                "dir", "mtu", "qos", "payload", "msgs/s", "p50 us", "p99 us", "bytes/msg",
+                "pkts/msg"));
+        for (int mtu : MTUS) {
+            openSession(mtu);
+            for (Direction direction : Direction.values()) {
+                for (int qos : QOS_LEVELS) {
+                    for (int payloadSize : PAYLOAD_SIZES) {
+                        measure(direction, mtu, qos, payloadSize);
+                    }
+                }
+            }
+            closeSession();
+        }
+    }
+
+    private void openSession(int mtu) throws Exception {
+        mBroker = new InProcessCloudClient();
+        mConnection = new SimulatedConnection("SimulatedDevice", mtu);
+        mDevice = mConnection.device;
+        mManager = mConnection.manager;
+        mManager.setCloudClient(mBroker);
+        mNextMsgId = 1;
+        mConnection.connectAndAwaitReady(TIMEOUT);
+
+        // The proxy sends to the device once it knows the mtu.
+        final CountDownLatch mtuKnown = new CountDownLatch(1);
+        mManager.getMtu(new DeviceInfoCallback() {
+            @Override
+            public void onObtainMtu(int mtu) {
+                mtuKnown.countDown();
+            }
+        });
+        assertTrue("Mtu is not known.", mtuKnown.await(TIMEOUT, TimeUnit.SECONDS));
+        mManager.enableMqttProxy(true);
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch subscribed = new CountDownLatch(QOS_LEVELS.length);
+        mDevice.setListener(new SimulatedDevice.Listener() {
+            @Override
+            void onConnack(int status) {
+                connected.countDown();
+            }
+
+            @Override
+            void onSuback(int msgId, int[] statuses) {
+                subscribed.countDown();
+            }
+
+            @Override
+            void onPublish(String topic, byte[] data, int qos) {
+                Run run = mRun;
+                if (run != null) {
+                    run.onReceived(data);
+                    run.onCompleted();
+                }
+            }
+
+            @Override
+            void onPuback(int msgId) {
+                Run run = mRun;
+                if (run != null) {
+                    run.onCompleted();
+                }
+            }
+        });
+        mBroker.setPublishListener(new InProcessCloudClient.PublishListener() {
+            @Override
+            public void onPublish(String topic, byte[] data, int qos) {
+                Run run = mRun;
+                if (run != null) {
+                    run.onReceived(data);
+                    // A QoS 1 message completes when the PUBACK reaches the device.
+                    if (qos == 0) {
+                        run.onCompleted();
+                    }
+                }
+            }
+        });
+        mDevice.mqttConnect("benchmark-" + mtu, "localhost");
+        assertTrue("No CONNACK.", connected.await(TIMEOUT, TimeUnit.SECONDS));
+        for (int qos : QOS_LEVELS) {
+            mDevice.mqttSubscribe(mNextMsgId++, DOWNLINK_TOPIC + qos, qos);
+        }
+        assertTrue("No SUBACK.", subscribed.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    private void closeSession() {
+        if (mConnection != null) {
+            mConnection.close();
+            mConnection = null;
+            mManager = null;
+            mDevice = null;
+        }
+        if (mBroker != null) {
+            mBroker.shutdown();
+            mBroker = null;
+        }
+    }
+
+    private void measure(Direction direction, int mtu, int qos, int payloadSize)
+            throws Exception {
+        run(direction, qos, payloads(payloadSize, WARMUP_MESSAGES));
+
+        byte[][] payloads = payloads(payloadSize, MESSAGES);
+        long packets = mDevice.getPacketsReceived() + mDevice.getPacketsSent();
+        Map<Long, Long> allocatedBefore = allocatedBytesBySdkThread();
+        long start = System.nanoTime();
+        Run run = run(direction, qos, payloads);
+        long elapsed = System.nanoTime() - start;
+        long allocatedBytes = allocatedBytesSince(allocatedBefore);
+        packets = mDevice.getPacketsReceived() + mDevice.getPacketsSent() - packets;
+
+        long[] latencies = run.latencies.clone();
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-8s %4d %3d %7d %10.0f %10.0f %10.0f %12d %8.1f",
+                direction, mtu, qos, payloadSize,
+                MESSAGES * 1e9 / elapsed,
+                percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3,
+                allocatedBytes < 0 ? -1 : allocatedBytes / MESSAGES,
+                (double) packets / MESSAGES));
+    }
+
+    private Run run(Direction direction, int qos, byte[][] payloads) throws Exception {
+        Run run = new Run(qos, payloads.length);
+        mRun = run;
+        for (int i = 0; i < payloads.length; i++) {
+            assertTrue("Window did not open.", run.window.tryAcquire(TIMEOUT, TimeUnit.SECONDS));
+            byte[] payload = payloads[i];
+            run.sendTimes[i] = System.nanoTime();
+            if (direction == Direction.UPLINK) {
+                mDevice.mqttPublish(qos > 0 ? nextMsgId() : 0, UPLINK_TOPIC, payload, qos);
+            } else {
+                mBroker.publishToDevice(DOWNLINK_TOPIC + qos, payload);
+            }
+        }
+        assertTrue("Messages were lost.", run.done.await(TIMEOUT, TimeUnit.SECONDS));
+        mRun = null;
+        return run;
+    }
+
+    private int nextMsgId() {
+        int msgId = mNextMsgId;
+        mNextMsgId = mNextMsgId % 65535 + 1;
+        return msgId;
+    }
+
+    /**
+     * Build the payloads of a run before it is measured. Payload i carries i.
+     */
+    private static byte[][] payloads(int size, int messages) {
+        byte[][] payloads = new byte[messages][];
+        for (int i = 0; i < messages; i++) {
+            payloads[i] = new byte[size];
+            Arrays.fill(payloads[i], (byte) 'x');
+            byte[] digits = String.format("%010d", i).getBytes(UTF_8);
+            System.arraycopy(digits, 0, payloads[i], 0, digits.length);
+        }
+        return payloads;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.round(percentile * (sorted.length - 1))];
+    }
+
+    /**
+     * @return the bytes allocated so far by each live thread of the SDK, or null if the JVM cannot
+     * tell.
+     */
+    private static Map<Long, Long> allocatedBytesBySdkThread() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocationBean =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()
+                || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        Map<Long, Long> allocated = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (!name.equals(EVENT_LOOP_THREAD) && !name.equals(CALLBACK_THREAD)) {
+                continue;
+            }
+            long bytes = allocationBean.getThreadAllocatedBytes(thread.getId());
+            if (bytes > 0) {
+                allocated.put(thread.getId(), bytes);
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * @param before the bytes allocated by each SDK thread at the start.
+     * @return the bytes allocated by the SDK threads since, or -1 if the JVM cannot tell. A
+     * callback thread started in between counts from zero.
+     */
+    private static long allocatedBytesSince(Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytesBySdkThread();
+        if (before == null || after == null) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            Long start = before.get(entry.getKey());
+            total += entry.getValue() - (start != null ? start : 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,207 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of a custom service handler against a SimulatedDevice that serves the custom service next
+ * to the built in ones.
+ */
+public class ServiceHandlerTest {
+    private static final String SERVICE_UUID = "6a9f6d2c-0000-4c1e-9a1f-3d9b7c5e0000";
+    private static final String COMMAND_UUID = "6a9f6d2c-0001-4c1e-9a1f-3d9b7c5e0000";
+    private static final String STREAM_UUID = "6a9f6d2c-0002-4c1e-9a1f-3d9b7c5e0000";
+    private static final long TIMEOUT = 10; // seconds
+
+    private static class SensorHandler extends ServiceHandler {
+        final Semaphore ready = new Semaphore(0);
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        CharacteristicHandle command;
+        CharacteristicHandle stream;
+
+        SensorHandler() {
+            super(SERVICE_UUID, CommandPriority.LOW);
+        }
+
+        @Override
+        protected void onRegister() {
+            command = addCharacteristic(COMMAND_UUID, "SENSOR_COMMAND", false);
+            stream = addCharacteristic(STREAM_UUID, "SENSOR_STREAM", true);
+        }
+
+        @Override
+        protected void onReady() {
+            ready.release();
+        }
+
+        boolean awaitReady() throws InterruptedException {
+            return ready.tryAcquire(TIMEOUT, TimeUnit.SECONDS);
+        }
+
+        @Override
+        protected void onNotification(CharacteristicHandle characteristic, String value) {
+            events.add("notify " + characteristic.getName() + " " + value);
+        }
+
+        @Override
+        protected void onRead(CharacteristicHandle characteristic, String value) {
+            events.add("read " + characteristic.getName() + " " + value);
+        }
+
+        @Override
+        protected void onCommandComplete(CharacteristicHandle characteristic, boolean success) {
+            events.add("complete " + characteristic.getName() + " " + success);
+        }
+
+        boolean sendCommand(String value) {
+            return write(command, value);
+        }
+
+        boolean readStream() {
+            return read(stream);
+        }
+    }
+
+    private SimulatedConnection mConnection;
+    private AmazonFreeRTOSManager mManager;
+    private SimulatedDevice mDevice;
+    private SensorHandler mHandler;
+    private final BlockingQueue<String> mDeviceWrites = new LinkedBlockingQueue<>();
+    private volatile long mReadDelay = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = new SimulatedConnection("ServiceHandlerTest", 185);
+        mManager = mConnection.manager;
+        mDevice = mConnection.device;
+        mDevice.setCustomService(new SimulatedDevice.CustomService() {
+            @Override
+            void onWrite(CharacteristicHandle characteristic, String value) {
+                mDeviceWrites.add(characteristic.getName() + " " + value);
+            }
+
+            @Override
+            String onRead(CharacteristicHandle characteristic) {
+                if (mReadDelay > 0) {
+                    try {
+                        Thread.sleep(mReadDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return "sample";
+            }
+        });
+        mHandler = new SensorHandler();
+        mManager.registerServiceHandler(mHandler);
+        mConnection.connect();
+        assertTrue("Handler is not ready.", mHandler.awaitReady());
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+    }
+
+    @Test
+    public void writeReadAndNotify_reachHandler() throws Exception {
+        assertTrue(mHandler.sendCommand("start"));
+        assertEquals("SENSOR_COMMAND start", mDeviceWrites.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("complete SENSOR_COMMAND true", next());
+
+        assertTrue(mHandler.readStream());
+        assertEquals("read SENSOR_STREAM sample", next());
+        assertEquals("complete SENSOR_STREAM true", next());
+
+        mDevice.notify(mHandler.stream, "42");
+        assertEquals("notify SENSOR_STREAM 42", next());
+        assertEquals(2, mHandler.getCommandsSent());
+        assertEquals(0, mHandler.getCommandsFailed());
+        assertEquals(2, mHandler.getValuesReceived());
+    }
+
+    @Test
+    public void lateRead_doesNotCompleteNextCommand() throws Exception {
+        // The device answers the read after the command has timed out.
+        mReadDelay = BLE_COMMAND_TIMEOUT + 500;
+        assertTrue(mHandler.readStream());
+        assertEquals("complete SENSOR_STREAM false", next());
+        mReadDelay = 0;
+
+        // The write is in progress when the late read arrives.
+        assertTrue(mHandler.sendCommand("start"));
+        assertEquals("complete SENSOR_COMMAND true", next());
+        assertEquals("SENSOR_COMMAND start", mDeviceWrites.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(mHandler.events.isEmpty());
+    }
+
+    @Test
+    public void registerTwice_throws() {
+        try {
+            mManager.registerServiceHandler(mHandler);
+            fail("Registered a handler twice.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void unregisterThenRegister_handlerWorksAgain() throws Exception {
+        CharacteristicHandle command = mHandler.command;
+        mManager.unregisterServiceHandler(mHandler);
+        assertFalse(mHandler.sendCommand("start"));
+        mManager.registerServiceHandler(mHandler);
+
+        assertTrue("Handler is not ready.", mHandler.awaitReady());
+        assertSame(command, mHandler.command);
+        assertTrue(mHandler.sendCommand("start"));
+        assertEquals("SENSOR_COMMAND start", mDeviceWrites.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("complete SENSOR_COMMAND true", next());
+    }
+
+    @Test
+    public void unregisterThenRegister_newHandlerGetsSameCharacteristics() throws Exception {
+        mManager.unregisterServiceHandler(mHandler);
+        SensorHandler handler = new SensorHandler();
+        mManager.registerServiceHandler(handler);
+
+        assertTrue("Handler is not ready.", handler.awaitReady());
+        assertSame(mHandler.stream, handler.stream);
+        mDevice.notify(handler.stream, "42");
+        assertEquals("notify SENSOR_STREAM 42", handler.events.poll(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(mHandler.events.isEmpty());
+    }
+
+    @Test
+    public void close_tellsHandlerAndFailsLaterCommands() throws Exception {
+        mManager.close();
+        mDevice.shutdown();
+        assertTrue(waitForNotReady());
+        assertTrue(mHandler.sendCommand("start"));
+        assertEquals("complete SENSOR_COMMAND false", next());
+    }
+
+    private String next() throws InterruptedException {
+        return mHandler.events.poll(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private boolean waitForNotReady() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        while (mHandler.isReady()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkChunk;
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkControl;
+import com.amazon.aws.amazonfreertossdk.bulkupload.BulkInfo;
+import com.google.gson.Gson;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * The bulk upload service of a SimulatedDevice. It sends the requested object in chunks as long
+ * as the SDK has given it credit, and goes back to the requested offset on RESEND.
+ *
+ * Chunks can be lost or sent twice once by offset, and the device can be told to drop the
+ * connection after a number of chunks. All state is touched on the device thread.
+ */
+class SimulatedBulkSource extends SimulatedDevice.CustomService {
+    private final SimulatedDevice mDevice;
+    private final Gson mGson = new Gson();
+    private final Map<String, byte[]> mObjects = new HashMap<>();
+    private final Set<Long> mLost = new HashSet<>();
+    private final Set<Long> mDuplicated = new HashSet<>();
+    private CharacteristicHandle mControl;
+    private CharacteristicHandle mData;
+    private int mDisconnectAfter = -1;
+
+    private byte[] mObject;
+    private int mChunkSize;
+    private int mWindowSize;
+    private long mSendOffset;
+    private long mCreditEnd;
+
+    // Written on the device thread, read by the test on any thread.
+    private volatile int mChunksSent = 0;
+    private volatile long mBytesSent = 0;
+    private volatile int mResends = 0;
+    private volatile int mDoneStatus = -1;
+
+    /**
+     * @param device the device.
+     * @param characteristics the characteristics of the BulkUploadService.
+     */
+    SimulatedBulkSource(SimulatedDevice device, List<CharacteristicHandle> characteristics) {
+        mDevice = device;
+        for (CharacteristicHandle characteristic : characteristics) {
+            if (characteristic.characteristicUuid.equals(UUID_BULK_UPLOAD_DATA_CHARACTERISTIC)) {
+                mData = characteristic;
+            }
+        }
+    }
+
+    synchronized void addObject(String name, byte[] data) {
+        mObjects.put(name, data);
+    }
+
+    /**
+     * Lose the first notification of the chunk at this offset.
+     */
+    synchronized void loseChunk(long offset) {
+        mLost.add(offset);
+    }
+
+    /**
+     * Send the chunk at this offset twice the first time it is sent.
+     */
+    synchronized void duplicateChunk(long offset) {
+        mDuplicated.add(offset);
+    }
+
+    /**
+     * Drop the BLE connection once the device has sent this many more chunks.
+     */
+    synchronized void disconnectAfter(int chunks) {
+        mDisconnectAfter = mChunksSent + chunks;
+    }
+
+    int getChunksSent() {
+        return mChunksSent;
+    }
+
+    long getBytesSent() {
+        return mBytesSent;
+    }
+
+    int getResends() {
+        return mResends;
+    }
+
+    /**
+     * Wait for the SDK to write DONE, which may reach the device after the upload completed.
+     * @return the status of DONE, or -1 if it was not written within the timeout.
+     */
+    int awaitDoneStatus(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (mDoneStatus == -1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return mDoneStatus;
+    }
+
+    @Override
+    synchronized void onWrite(CharacteristicHandle characteristic, String value) {
+        if (!characteristic.characteristicUuid.equals(UUID_BULK_UPLOAD_CONTROL_CHARACTERISTIC)) {
+            return;
+        }
+        mControl = characteristic;
+        BulkControl control = mGson.fromJson(value, BulkControl.class);
+        switch (control.type) {
+            case BULK_MSG_REQUEST:
+                BulkInfo info = new BulkInfo();
+                info.type = BULK_MSG_INFO;
+                info.name = control.name;
+                mObject = mObjects.get(control.name);
+                if (mObject == null) {
+                    info.status = BULK_STATUS_NOT_FOUND;
+                    mDevice.notify(mControl, mGson.toJson(info));
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(mObject);
+                info.status = BULK_STATUS_OK;
+                info.size = mObject.length;
+                info.crc = crc.getValue();
+                mDevice.notify(mControl, mGson.toJson(info));
+                mChunkSize = control.chunkSize;
+                mWindowSize = control.windowSize;
+                mSendOffset = control.offset;
+                mCreditEnd = control.offset + mWindowSize;
+                break;
+            case BULK_MSG_ACK:
+                mCreditEnd = control.offset + mWindowSize;
+                break;
+            case BULK_MSG_RESEND:
+                mResends++;
+                mSendOffset = control.offset;
+                mCreditEnd = control.offset + mWindowSize;
+                break;
+            case BULK_MSG_DONE:
+                mDoneStatus = control.status;
+                mObject = null;
+                return;
+            case BULK_MSG_CANCEL:
+                mObject = null;
+                return;
+        }
+        pump();
+    }
+
+    private void pump() {
+        while (mObject != null && mSendOffset < Math.min(mObject.length, mCreditEnd)) {
+            int end = (int) Math.min(mObject.length, mSendOffset + mChunkSize);
+            BulkChunk chunk = new BulkChunk();
+            chunk.offset = mSendOffset;
+            chunk.data = Base64.getEncoder().encodeToString(
+                    Arrays.copyOfRange(mObject, (int) mSendOffset, end));
+            mBytesSent += end - mSendOffset;
+            mSendOffset = end;
+            mChunksSent++;
+            if (!mLost.remove(chunk.offset)) {
+                mDevice.notify(mData, mGson.toJson(chunk));
+            }
+            if (mDuplicated.remove(chunk.offset)) {
+                mDevice.notify(mData, mGson.toJson(chunk));
+            }
+            if (mDisconnectAfter >= 0 && mChunksSent >= mDisconnectAfter) {
+                mDisconnectAfter = -1;
+                mDevice.disconnect();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BleConnectionState;
+import com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.DeviceState;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An AmazonFreeRTOSManager connected to a SimulatedDevice. The manager reconnects after a short
+ * delay without jitter, so tests that drop the connection resume quickly, and it discovers the
+ * services of the device once connected.
+ *
+ * Register service handlers and set the cloud client before calling connect.
+ */
+class SimulatedConnection {
+    private static final long RECONNECT_DELAY = 50; // ms
+
+    final SimulatedDevice device;
+    final AmazonFreeRTOSManager manager = new AmazonFreeRTOSManager(null, null, null);
+    private final CountDownLatch mReady = new CountDownLatch(1);
+    private final AtomicInteger mConnections = new AtomicInteger();
+
+    /**
+     * @param name the name of the device thread.
+     * @param mtu the largest mtu the device accepts.
+     */
+    SimulatedConnection(String name, int mtu) {
+        device = new SimulatedDevice(name, mtu);
+        ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+        reconnectPolicy.initialDelay = RECONNECT_DELAY;
+        reconnectPolicy.jitter = 0;
+        manager.setReconnectPolicy(reconnectPolicy);
+    }
+
+    void connect() {
+        manager.connectToDevice("SIM", device, new BleConnectionStatusCallback() {
+            @Override
+            public void onBleConnectionStatusChanged(BleConnectionState connectionStatus) {
+                if (connectionStatus == BleConnectionState.BLE_CONNECTED
+                        && mConnections.incrementAndGet() == 1) {
+                    // The SDK discovers services itself after a reconnect.
+                    manager.discoverServices();
+                }
+            }
+
+            @Override
+            public void onDeviceStateChanged(DeviceState deviceState) {
+                if (deviceState == DeviceState.READY) {
+                    mReady.countDown();
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Connect and wait until the device is ready for BLE commands.
+     * @param timeout the timeout in seconds.
+     */
+    void connectAndAwaitReady(long timeout) throws InterruptedException {
+        connect();
+        if (!mReady.await(timeout, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Device is not ready.");
+        }
+    }
+
+    void close() {
+        manager.shutdown();
+        device.shutdown();
+    }
+}
@@ -0,0 +1,624 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+
+import com.amazon.aws.amazonfreertossdk.deviceinfo.Mtu;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Connack;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Connect;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.MqttProxyControl;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.MqttProxyMessage;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Puback;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Suback;
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Subscribe;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * A FreeRTOS device that runs in memory. It implements the GATT services of the MQTT proxy the way
+ * the device firmware does: messages from the SDK arrive on RX, or on RXLARGE in packets that end
+ * with a packet shorter than the max payload size, and messages to the SDK are notified on TX, or
+ * on TXLARGE followed by reads of the remaining packets.
+ *
+ * All device state is touched on one thread, which also delivers the GATT callbacks, like the
+ * Binder thread of a real link.
+ */
+class SimulatedDevice implements GattLink, GattLink.Connector {
+
+    /**
+     * The MQTT messages the device receives from the SDK. Called on the device thread.
+     */
+    abstract static class Listener {
+        /**
+         * The SDK has turned the MQTT proxy on or off. The firmware connects to the broker once
+         * the proxy is on.
+         */
+        void onProxyStateChanged(boolean enabled) {}
+
+        void onConnack(int status) {}
+
+        void onSuback(int msgId, int[] statuses) {}
+
+        void onPublish(String topic, byte[] data, int qos) {}
+
+        void onPuback(int msgId) {}
+    }
+
+    /**
+     * A custom GATT service of the device, served next to the MQTT proxy. Called on the device
+     * thread.
+     */
+    abstract static class CustomService {
+        void onWrite(CharacteristicHandle characteristic, String value) {}
+
+        String onRead(CharacteristicHandle characteristic) {
+            return "{}";
+        }
+    }
+
+    /**
+     * The radio of the phone, shared by the links to all devices. A packet holds the radio for its
+     * airtime, so the links of a fleet compete for it like BLE connections of one phone.
+     */
+    static class Radio {
+        private final long mPacketTime;
+
+        /**
+         * @param packetTime the airtime of one packet in microseconds.
+         */
+        Radio(long packetTime) {
+            mPacketTime = TimeUnit.MICROSECONDS.toNanos(packetTime);
+        }
+
+        synchronized void transmit() {
+            long deadline = System.nanoTime() + mPacketTime;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final Gson mGson = new GsonBuilder().disableHtmlEscaping().create();
+    private final int mMaxMtu;
+    private Listener mListener = new Listener() {};
+    private volatile CustomService mCustomService;
+    private Radio mRadio;
+
+    private Callback mCallback;
+    private boolean mConnected = false;
+    private int mMtu;
+    private final StringBuilder mRxLargeObject = new StringBuilder();
+    private String mTxLargeObject;
+    private int mTxLargeObjectOffset;
+    private final Queue<String> mPendingTxLargeObjects = new LinkedList<>();
+    private final Map<Integer, String[]> mSubscribedTopics = new HashMap<>();
+    private final Map<Integer, String> mTopicAliases = new HashMap<>();
+    private volatile int mTopicAliasMaximum = 0;
+    private String mFailedWriteUuid;
+    private int mFailedWriteSkips;
+    private int mFailedWrites;
+
+    // Written on the device thread, read by the test on any thread.
+    private volatile long mMessagesReceived = 0;
+    private volatile long mMessagesSent = 0;
+    private volatile long mMessagesDropped = 0;
+    private volatile long mMalformedMessages = 0;
+    private volatile long mAliasedMessages = 0;
+    private volatile long mTerminatedLargeObjects = 0;
+    private volatile long mPacketsReceived = 0;
+    private volatile long mPacketsSent = 0;
+
+    /**
+     * @param name the name of the device thread.
+     * @param maxMtu the largest mtu the device accepts, which is also the mtu it reports before
+     *               the SDK requests one.
+     */
+    SimulatedDevice(String name, int maxMtu) {
+        final String threadName = name;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMaxMtu = maxMtu;
+        mMtu = maxMtu;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    void setCustomService(CustomService customService) {
+        mCustomService = customService;
+    }
+
+    /**
+     * Notify a value on a characteristic of the custom service, if the SDK is connected.
+     */
+    void notify(final CharacteristicHandle characteristic, final String value) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    return;
+                }
+                onPacket(true);
+                mCallback.onCharacteristicChanged(characteristic, value);
+            }
+        });
+    }
+
+    /**
+     * Let the packets of the device take airtime on a radio. Without a radio, packets take no time.
+     */
+    /**
+     * Fail writes of a characteristic. A failed write is not applied.
+     * @param characteristicUuid the UUID of the characteristic.
+     * @param skip the number of writes that succeed before the first failure.
+     * @param count the number of writes to fail.
+     */
+    void failWrites(final String characteristicUuid, final int skip, final int count) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFailedWriteUuid = characteristicUuid;
+                mFailedWriteSkips = skip;
+                mFailedWrites = count;
+            }
+        });
+    }
+
+    /**
+     * Accept topic aliases in messages from the SDK. Takes effect with the next CONNECT.
+     * @param topicAliasMaximum the number of aliases the device accepts.
+     */
+    void setTopicAliasMaximum(int topicAliasMaximum) {
+        mTopicAliasMaximum = topicAliasMaximum;
+    }
+
+    void setRadio(Radio radio) {
+        mRadio = radio;
+    }
+
+    /*
+      Device side, the MQTT client of the firmware.
+     */
+
+    void mqttConnect(final String clientId, final String brokerEndpoint) {
+        Connect connect = new Connect();
+        connect.type = MQTT_MSG_CONNECT;
+        connect.clientID = clientId;
+        connect.brokerEndpoint = brokerEndpoint;
+        connect.cleanSession = true;
+        connect.topicAliasMaximum = mTopicAliasMaximum;
+        send(mGson.toJson(connect));
+    }
+
+    void mqttSubscribe(int msgId, String topic, int qos) {
+        Subscribe subscribe = new Subscribe();
+        subscribe.type = MQTT_MSG_SUBSCRIBE;
+        subscribe.msgID = msgId;
+        subscribe.topics = new String[] {encodeTopic(topic)};
+        subscribe.qoSs = new int[] {qos};
+        final int subscribeId = msgId;
+        final String[] topics = subscribe.topics;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSubscribedTopics.put(subscribeId, topics);
+            }
+        });
+        send(mGson.toJson(subscribe));
+    }
+
+    void mqttPublish(int msgId, String topic, byte[] data, int qos) {
+        Publish publish = new Publish(MQTT_MSG_PUBLISH, encodeTopic(topic), msgId, qos,
+                Base64.getEncoder().encodeToString(data));
+        send(mGson.toJson(publish));
+    }
+
+    /**
+     * Drop the BLE connection, as if the device went out of range.
+     */
+    void disconnect() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    return;
+                }
+                mConnected = false;
+                resetTransfers();
+                mCallback.onConnectionStateChange(BluetoothGatt.GATT_SUCCESS,
+                        BluetoothProfile.STATE_DISCONNECTED);
+            }
+        });
+    }
+
+    /**
+     * Stop the device thread.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    long getMessagesReceived() {
+        return mMessagesReceived;
+    }
+
+    long getMessagesSent() {
+        return mMessagesSent;
+    }
+
+    /**
+     * @return the number of messages the device could not send because it was disconnected.
+     */
+    long getMessagesDropped() {
+        return mMessagesDropped;
+    }
+
+    /**
+     * @return the number of messages from the SDK the device dropped because they did not parse or
+     * had an unknown topic alias.
+     */
+    long getMalformedMessages() {
+        return mMalformedMessages;
+    }
+
+    /**
+     * @return the number of messages from the SDK that carried a topic alias instead of the topic.
+     */
+    long getAliasedMessages() {
+        return mAliasedMessages;
+    }
+
+    /**
+     * @return the number of RXLARGE objects that filled their last packet and were ended by an
+     * empty packet.
+     */
+    long getTerminatedLargeObjects() {
+        return mTerminatedLargeObjects;
+    }
+
+    long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    long getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    private void send(final String message) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    mMessagesDropped++;
+                    return;
+                }
+                mMessagesSent++;
+                if (message.length() < maxPayloadLen()) {
+                    onPacket(true);
+                    mCallback.onCharacteristicChanged(CharacteristicHandle.MQTT_TX, message);
+                } else if (mTxLargeObject == null) {
+                    startTxLargeObject(message);
+                } else {
+                    // The SDK reads one large object at a time, like the RXLARGE side.
+                    mPendingTxLargeObjects.add(message);
+                }
+            }
+        });
+    }
+
+    private void startTxLargeObject(String message) {
+        mTxLargeObject = message;
+        mTxLargeObjectOffset = 0;
+        mCallback.onCharacteristicChanged(CharacteristicHandle.MQTT_TXLARGE,
+                nextTxLargeObjectPacket());
+    }
+
+    private String nextTxLargeObjectPacket() {
+        int end = Math.min(mTxLargeObject.length(), mTxLargeObjectOffset + maxPayloadLen());
+        String packet = mTxLargeObject.substring(mTxLargeObjectOffset, end);
+        mTxLargeObjectOffset = end;
+        onPacket(true);
+        return packet;
+    }
+
+    private void receive(String message) {
+        MqttProxyMessage mqttProxyMessage;
+        try {
+            mqttProxyMessage = mGson.fromJson(message, MqttProxyMessage.class);
+        } catch (JsonSyntaxException e) {
+            mqttProxyMessage = null;
+        }
+        if (mqttProxyMessage == null) {
+            // Like the firmware, drop a large object that was cut short.
+            mMalformedMessages++;
+            return;
+        }
+        mMessagesReceived++;
+        switch (mqttProxyMessage.type) {
+            case MQTT_MSG_CONNACK:
+                mListener.onConnack(mGson.fromJson(message, Connack.class).status);
+                break;
+            case MQTT_MSG_SUBACK:
+                Suback suback = mGson.fromJson(message, Suback.class);
+                String[] topics = mSubscribedTopics.remove(suback.msgID);
+                if (suback.topicAliases != null && topics != null) {
+                    for (int i = 0; i < topics.length; i++) {
+                        if (suback.topicAliases[i] > 0) {
+                            mTopicAliases.put(suback.topicAliases[i], topics[i]);
+                        }
+                    }
+                }
+                mListener.onSuback(suback.msgID, suback.statuses);
+                break;
+            case MQTT_MSG_PUBLISH:
+                Publish publish = mGson.fromJson(message, Publish.class);
+                String topic = publish.getTopic();
+                if (topic == null) {
+                    topic = mTopicAliases.get(publish.getTopicAlias());
+                    if (topic == null) {
+                        // The firmware cannot deliver a message with an alias it does not know.
+                        mMalformedMessages++;
+                        return;
+                    }
+                    mAliasedMessages++;
+                }
+                if (publish.getQos() > 0) {
+                    Puback puback = new Puback();
+                    puback.type = MQTT_MSG_PUBACK;
+                    puback.msgID = publish.getMsgID();
+                    send(mGson.toJson(puback));
+                }
+                mListener.onPublish(decodeTopic(topic),
+                        Base64.getDecoder().decode(publish.getPayload()), publish.getQos());
+                break;
+            case MQTT_MSG_PUBACK:
+                mListener.onPuback(mGson.fromJson(message, Puback.class).msgID);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /*
+      Topics are Base64 encoded in MQTT proxy messages.
+     */
+    private static String encodeTopic(String topic) {
+        return Base64.getEncoder().encodeToString(topic.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static String decodeTopic(String topic) {
+        return new String(Base64.getDecoder().decode(topic), Charset.forName("UTF-8"));
+    }
+
+    private void onPacket(boolean sent) {
+        if (sent) {
+            mPacketsSent++;
+        } else {
+            mPacketsReceived++;
+        }
+        if (mRadio != null) {
+            mRadio.transmit();
+        }
+    }
+
+    private int maxPayloadLen() {
+        return mMtu - 3;
+    }
+
+    private void resetTransfers() {
+        // Large objects that were not read completely are lost with the connection.
+        mMessagesDropped += mPendingTxLargeObjects.size() + (mTxLargeObject != null ? 1 : 0);
+        mRxLargeObject.setLength(0);
+        mTxLargeObject = null;
+        mPendingTxLargeObjects.clear();
+        // Topic aliases only last for the proxy session.
+        mTopicAliases.clear();
+    }
+
+    /*
+      GATT side, called by AmazonFreeRTOSManager on its event loop.
+     */
+
+    @Override
+    public GattLink connect(final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback = callback;
+                mConnected = true;
+                mMtu = mMaxMtu;
+                resetTransfers();
+                callback.onConnectionStateChange(BluetoothGatt.GATT_SUCCESS,
+                        BluetoothProfile.STATE_CONNECTED);
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onServicesDiscovered(BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void resolve(List<CharacteristicHandle> handles) {
+    }
+
+    @Override
+    public boolean hasCharacteristic(CharacteristicHandle handle) {
+        return true;
+    }
+
+    @Override
+    public boolean enableNotification(final CharacteristicHandle handle) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onDescriptorWrite(handle, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(final CharacteristicHandle handle, final String value) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    return;
+                }
+                onPacket(false);
+                if (mFailedWrites > 0 && handle.characteristicUuid.equals(mFailedWriteUuid)
+                        && mFailedWriteSkips-- <= 0) {
+                    mFailedWrites--;
+                    mCallback.onCharacteristicWrite(handle, BluetoothGatt.GATT_FAILURE);
+                    return;
+                }
+                // The write response goes out before the device acts on the value.
+                mCallback.onCharacteristicWrite(handle, BluetoothGatt.GATT_SUCCESS);
+                switch (handle.characteristicUuid) {
+                    case UUID_MQTT_PROXY_CONTROL_CHARACTERISTIC:
+                        MqttProxyControl control = mGson.fromJson(value, MqttProxyControl.class);
+                        mListener.onProxyStateChanged(control.proxyState == MQTT_PROXY_CONTROL_ON);
+                        break;
+                    case UUID_MQTT_PROXY_RX_CHARACTERISTIC:
+                        receive(value);
+                        break;
+                    case UUID_MQTT_PROXY_RXLARGE_CHARACTERISTIC:
+                        mRxLargeObject.append(value);
+                        if (value.length() < maxPayloadLen()) {
+                            if (value.isEmpty() && mRxLargeObject.length() > 0) {
+                                mTerminatedLargeObjects++;
+                            }
+                            String message = mRxLargeObject.toString();
+                            mRxLargeObject.setLength(0);
+                            receive(message);
+                        }
+                        break;
+                    default:
+                        CustomService customService = mCustomService;
+                        if (customService != null) {
+                            customService.onWrite(handle, value);
+                        }
+                        break;
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(final CharacteristicHandle handle) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    return;
+                }
+                switch (handle.characteristicUuid) {
+                    case UUID_DEVICE_MTU_CHARACTERISTIC:
+                        Mtu mtu = new Mtu();
+                        mtu.mtu = mMtu;
+                        mCallback.onCharacteristicRead(handle, mGson.toJson(mtu),
+                                BluetoothGatt.GATT_SUCCESS);
+                        break;
+                    case UUID_MQTT_PROXY_TXLARGE_CHARACTERISTIC:
+                        if (mTxLargeObject == null) {
+                            mCallback.onCharacteristicRead(handle, "",
+                                    BluetoothGatt.GATT_SUCCESS);
+                            break;
+                        }
+                        String packet = nextTxLargeObjectPacket();
+                        boolean last = packet.length() < maxPayloadLen();
+                        if (last) {
+                            mTxLargeObject = null;
+                        }
+                        mCallback.onCharacteristicRead(handle, packet,
+                                BluetoothGatt.GATT_SUCCESS);
+                        if (last && !mPendingTxLargeObjects.isEmpty()) {
+                            startTxLargeObject(mPendingTxLargeObjects.poll());
+                        }
+                        break;
+                    default:
+                        CustomService customService = mCustomService;
+                        onPacket(true);
+                        mCallback.onCharacteristicRead(handle,
+                                customService == null ? "{}" : customService.onRead(handle),
+                                BluetoothGatt.GATT_SUCCESS);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMtu = Math.min(mtu, mMaxMtu);
+                mCallback.onMtuChanged(mMtu, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void setPreferredPhy(final int phyMask) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onPhyUpdate(phyMask, phyMask, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mConnected = false;
+                resetTransfers();
+            }
+        });
+    }
+}
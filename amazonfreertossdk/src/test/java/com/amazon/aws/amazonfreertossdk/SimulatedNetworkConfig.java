@@ -0,0 +1,91 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.deviceinfo.BrokerEndpoint;
+import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkReq;
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * The network config and device info services of a SimulatedDevice. Saved networks are listed in
+ * the order they were saved. The device joins the last saved network once it has been listed a
+ * given number of times, or never. All state is touched on the device thread.
+ */
+class SimulatedNetworkConfig extends SimulatedDevice.CustomService {
+    private final SimulatedDevice mDevice;
+    private final Gson mGson = new Gson();
+    private final List<SaveNetworkReq> mSavedNetworks = new ArrayList<>();
+    private volatile int mSaveStatus = 0;
+    private volatile int mListsBeforeConnect = 0;
+    private volatile String mBrokerEndpoint = "";
+    private int mListsSinceSave = 0;
+
+    // Written on the device thread, read by the test on any thread.
+    private volatile int mListRequests = 0;
+
+    SimulatedNetworkConfig(SimulatedDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * @param status the status of the responses to SaveNetwork requests.
+     */
+    void setSaveStatus(int status) {
+        mSaveStatus = status;
+    }
+
+    /**
+     * @param lists the number of list requests that report a saved network as not connected, or
+     *              -1 to never connect.
+     */
+    void setListsBeforeConnect(int lists) {
+        mListsBeforeConnect = lists;
+    }
+
+    void setBrokerEndpoint(String brokerEndpoint) {
+        mBrokerEndpoint = brokerEndpoint;
+    }
+
+    int getListRequests() {
+        return mListRequests;
+    }
+
+    @Override
+    void onWrite(CharacteristicHandle characteristic, String value) {
+        switch (characteristic.characteristicUuid) {
+            case UUID_SAVE_NETWORK_CHARACTERISTIC:
+                if (mSaveStatus == 0) {
+                    mSavedNetworks.add(mGson.fromJson(value, SaveNetworkReq.class));
+                    mListsSinceSave = 0;
+                }
+                mDevice.notify(characteristic, "{\"status\":" + mSaveStatus + "}");
+                break;
+            case UUID_LIST_NETWORK_CHARACTERISTIC:
+                mListRequests++;
+                boolean connected = mListsBeforeConnect >= 0
+                        && mListsSinceSave++ >= mListsBeforeConnect;
+                for (int i = 0; i < mSavedNetworks.size(); i++) {
+                    SaveNetworkReq network = mSavedNetworks.get(i);
+                    boolean last = i == mSavedNetworks.size() - 1;
+                    mDevice.notify(characteristic, "{\"status\":0,\"ssid\":\"" + network.ssid
+                            + "\",\"bssid\":\"" + network.bssid + "\",\"security\":"
+                            + network.security + ",\"hidden\":false,\"rssi\":-50,\"connected\":"
+                            + (connected && last) + ",\"index\":" + i + "}");
+                }
+                break;
+        }
+    }
+
+    @Override
+    String onRead(CharacteristicHandle characteristic) {
+        if (characteristic.characteristicUuid.equals(UUID_IOT_ENDPOINT_CHARACTERISTIC)) {
+            BrokerEndpoint endpoint = new BrokerEndpoint();
+            endpoint.brokerEndpoint = mBrokerEndpoint;
+            return mGson.toJson(endpoint);
+        }
+        return "{}";
+    }
+}
@@ -0,0 +1,195 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.ota.OtaBlock;
+import com.amazon.aws.amazonfreertossdk.ota.OtaControl;
+import com.amazon.aws.amazonfreertossdk.ota.OtaStatus;
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * The OTA service of a SimulatedDevice. It keeps the received image across disconnects, like an
+ * image in flash, and acknowledges blocks the way the firmware does: every half window, after the
+ * last block, on QUERY, and at once when a block fails its checksum.
+ *
+ * Blocks can be dropped or corrupted once by index, and the device can be told to drop the
+ * connection after a number of blocks. All state is touched on the device thread.
+ */
+class SimulatedOtaTarget extends SimulatedDevice.CustomService {
+    private final SimulatedDevice mDevice;
+    private final Gson mGson = new Gson();
+    private final Set<Integer> mDropped = new HashSet<>();
+    private final Set<Integer> mCorrupted = new HashSet<>();
+    private int mDisconnectAfter = -1;
+
+    private CharacteristicHandle mControl;
+    private OtaControl mImageInfo;
+    private byte[] mImage;
+    private final BitSet mReceived = new BitSet();
+    private int mBlockCount;
+    private int mNextBlock;
+    private int mHighestSeen;
+    private int mSinceAck;
+
+    // Written on the device thread, read by the test on any thread.
+    private volatile int mBlocksReceived = 0;
+    private volatile boolean mVerified = false;
+
+    SimulatedOtaTarget(SimulatedDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * Lose the first write of a block, as if the device ran out of buffers.
+     */
+    synchronized void dropBlock(int index) {
+        mDropped.add(index);
+    }
+
+    /**
+     * Flip a bit in the first write of a block, so that it fails its checksum.
+     */
+    synchronized void corruptBlock(int index) {
+        mCorrupted.add(index);
+    }
+
+    /**
+     * Drop the BLE connection once the device has received this many more blocks.
+     */
+    synchronized void disconnectAfter(int blocks) {
+        mDisconnectAfter = mBlocksReceived + blocks;
+    }
+
+    int getBlocksReceived() {
+        return mBlocksReceived;
+    }
+
+    boolean isVerified() {
+        return mVerified;
+    }
+
+    synchronized byte[] getImage() {
+        return mImage == null ? null : Arrays.copyOf(mImage, mImage.length);
+    }
+
+    @Override
+    synchronized void onWrite(CharacteristicHandle characteristic, String value) {
+        switch (characteristic.characteristicUuid) {
+            case UUID_OTA_CONTROL_CHARACTERISTIC:
+                mControl = characteristic;
+                onControl(mGson.fromJson(value, OtaControl.class));
+                break;
+            case UUID_OTA_DATA_CHARACTERISTIC:
+                onBlock(mGson.fromJson(value, OtaBlock.class));
+                break;
+        }
+    }
+
+    private void onControl(OtaControl control) {
+        switch (control.type) {
+            case OTA_MSG_START:
+                if (!isSameImage(control)) {
+                    mImageInfo = control;
+                    mImage = new byte[(int) (long) control.imageSize];
+                    mBlockCount = (int) ((control.imageSize + control.blockSize - 1)
+                            / control.blockSize);
+                    mReceived.clear();
+                    mNextBlock = 0;
+                    mHighestSeen = 0;
+                    mVerified = false;
+                }
+                mSinceAck = 0;
+                sendAck();
+                break;
+            case OTA_MSG_QUERY:
+                sendAck();
+                break;
+            case OTA_MSG_FINISH:
+                CRC32 crc = new CRC32();
+                crc.update(mImage);
+                mVerified = mNextBlock == mBlockCount && crc.getValue() == mImageInfo.crc
+                        && crc.getValue() == control.crc;
+                sendResult(mVerified ? OTA_STATUS_OK : OTA_STATUS_CHECKSUM_MISMATCH);
+                break;
+            case OTA_MSG_ABORT:
+                mImageInfo = null;
+                mImage = null;
+                break;
+        }
+    }
+
+    private boolean isSameImage(OtaControl control) {
+        return mImageInfo != null && mImageInfo.imageId.equals(control.imageId)
+                && mImageInfo.imageSize.equals(control.imageSize)
+                && mImageInfo.blockSize.equals(control.blockSize)
+                && mImageInfo.crc.equals(control.crc);
+    }
+
+    private void onBlock(OtaBlock block) {
+        if (mImage == null) {
+            return;
+        }
+        mBlocksReceived++;
+        if (mDropped.remove(block.index)) {
+            return;
+        }
+        mHighestSeen = Math.max(mHighestSeen, block.index + 1);
+        byte[] data = Base64.getDecoder().decode(block.data);
+        if (mCorrupted.remove(block.index)) {
+            data[0] ^= 1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (crc.getValue() != block.crc) {
+            sendAck();
+            return;
+        }
+        System.arraycopy(data, 0, mImage, block.index * mImageInfo.blockSize, data.length);
+        mReceived.set(block.index);
+        while (mReceived.get(mNextBlock)) {
+            mNextBlock++;
+        }
+        if (mDisconnectAfter >= 0 && mBlocksReceived >= mDisconnectAfter) {
+            mDisconnectAfter = -1;
+            mDevice.disconnect();
+            return;
+        }
+        if (++mSinceAck >= Math.max(1, mImageInfo.windowSize / 2) || mNextBlock == mBlockCount) {
+            sendAck();
+        }
+    }
+
+    private void sendAck() {
+        List<Integer> missing = new ArrayList<>();
+        for (int index = mNextBlock; index < mHighestSeen; index++) {
+            if (!mReceived.get(index)) {
+                missing.add(index);
+            }
+        }
+        OtaStatus ack = new OtaStatus();
+        ack.type = OTA_MSG_ACK;
+        ack.nextBlock = mNextBlock;
+        ack.missing = new int[missing.size()];
+        for (int i = 0; i < ack.missing.length; i++) {
+            ack.missing[i] = missing.get(i);
+        }
+        mSinceAck = 0;
+        mDevice.notify(mControl, mGson.toJson(ack));
+    }
+
+    private void sendResult(int status) {
+        OtaStatus result = new OtaStatus();
+        result.type = OTA_MSG_RESULT;
+        result.status = status;
+        mDevice.notify(mControl, mGson.toJson(result));
+    }
+}
@@ -0,0 +1,135 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the timing wheel with a fake clock, so expiry is exact and does not depend on the
+ * speed of the machine.
+ */
+public class TimingWheelTest {
+    private static final long TICK = 10;
+    private static final int WHEEL_SIZE = 8;
+
+    private TimingWheel mWheel;
+    private List<Integer> mFired;
+
+    @Before
+    public void setUp() {
+        mWheel = new TimingWheel(TICK, WHEEL_SIZE, 1000);
+        mFired = new ArrayList<>();
+    }
+
+    @Test
+    public void timers_expireInDeadlineOrderNeverEarly() {
+        mWheel.schedule(timer(3), 35, 1000);
+        mWheel.schedule(timer(1), 5, 1000);
+        mWheel.schedule(timer(2), 20, 1000);
+
+        runExpired(1009);
+        assertTrue(mFired.isEmpty());
+        runExpired(1010);
+        assertEquals(1, mFired.size());
+        runExpired(1039);
+        assertEquals(2, mFired.size());
+        runExpired(1040);
+        assertEquals(3, mFired.size());
+        assertEquals(1, (int) mFired.get(0));
+        assertEquals(2, (int) mFired.get(1));
+        assertEquals(3, (int) mFired.get(2));
+        assertEquals(0, mWheel.size());
+    }
+
+    @Test
+    public void timerBeyondOneTurn_waitsForItsRound() {
+        // 20 ticks is two and a half turns of the wheel.
+        mWheel.schedule(timer(1), 200, 1000);
+        for (long now = 1000; now < 1200; now += TICK) {
+            runExpired(now);
+        }
+        assertTrue(mFired.isEmpty());
+        runExpired(1200);
+        assertEquals(1, mFired.size());
+    }
+
+    @Test
+    public void cancelledTimer_doesNotRun() {
+        TimingWheel.Timer cancelled = timer(1);
+        mWheel.schedule(cancelled, 10, 1000);
+        mWheel.schedule(timer(2), 10, 1000);
+        mWheel.cancel(cancelled);
+
+        assertFalse(cancelled.isScheduled());
+        runExpired(1100);
+        assertEquals(1, mFired.size());
+        assertEquals(2, (int) mFired.get(0));
+    }
+
+    @Test
+    public void rescheduledTimer_movesToNewDeadline() {
+        TimingWheel.Timer timer = timer(1);
+        mWheel.schedule(timer, 10, 1000);
+        mWheel.schedule(timer, 50, 1000);
+
+        assertEquals(1, mWheel.size());
+        runExpired(1040);
+        assertTrue(mFired.isEmpty());
+        runExpired(1050);
+        assertEquals(1, mFired.size());
+    }
+
+    @Test
+    public void timerCancelledAfterExpiry_doesNotRun() {
+        TimingWheel.Timer first = timer(1);
+        TimingWheel.Timer second = timer(2);
+        mWheel.schedule(first, 10, 1000);
+        mWheel.schedule(second, 10, 1000);
+        mWheel.advance(1010);
+
+        mWheel.cancel(second);
+        assertSame(first, mWheel.pollExpired());
+        assertNull(mWheel.pollExpired());
+        assertEquals(0, mWheel.size());
+    }
+
+    @Test
+    public void clockJumpOverManyTurns_expiresEveryTimer() {
+        for (int i = 0; i < 20; i++) {
+            mWheel.schedule(timer(i), i * TICK, 1000);
+        }
+        runExpired(100000);
+        assertEquals(20, mFired.size());
+        assertEquals(-1, mWheel.nanosUntilNextExpiry(100000));
+    }
+
+    @Test
+    public void nanosUntilNextExpiry_pointsAtNextNonEmptyBucket() {
+        assertEquals(-1, mWheel.nanosUntilNextExpiry(1000));
+        mWheel.schedule(timer(1), 25, 1003);
+        assertEquals(27, mWheel.nanosUntilNextExpiry(1003));
+        mWheel.advance(1030);
+        assertEquals(0, mWheel.nanosUntilNextExpiry(1030));
+    }
+
+    private void runExpired(long now) {
+        mWheel.advance(now);
+        TimingWheel.Timer timer;
+        while ((timer = mWheel.pollExpired()) != null) {
+            timer.run();
+        }
+    }
+
+    private TimingWheel.Timer timer(final int id) {
+        return new TimingWheel.Timer() {
+            @Override
+            public void run() {
+                mFired.add(id);
+            }
+        };
+    }
+}
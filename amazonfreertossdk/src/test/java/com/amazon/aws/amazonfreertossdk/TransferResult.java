@@ -0,0 +1,74 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The result of an OTA transfer or a bulk upload, as told to its callback. Tests pass callback to
+ * the service and await the end of the transfer.
+ * @param <S> the type of the transfer stats.
+ */
+abstract class TransferResult<S> {
+    private static final long TIMEOUT = 20; // seconds
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    volatile S stats;
+    volatile String failure;
+    volatile int pauses = 0;
+
+    /**
+     * The result of an OTA transfer.
+     */
+    static class Ota extends TransferResult<OtaTransferStats> {
+        final OtaTransferCallback callback = new OtaTransferCallback() {
+            @Override
+            public void onPaused(OtaTransferStats stats) {
+                pauses++;
+            }
+
+            @Override
+            public void onCompleted(OtaTransferStats stats) {
+                end(stats, null);
+            }
+
+            @Override
+            public void onFailed(String reason, OtaTransferStats stats) {
+                end(stats, reason);
+            }
+        };
+    }
+
+    /**
+     * The result of a bulk upload.
+     */
+    static class BulkUpload extends TransferResult<BulkUploadStats> {
+        final BulkUploadCallback callback = new BulkUploadCallback() {
+            @Override
+            public void onPaused(BulkUploadStats stats) {
+                pauses++;
+            }
+
+            @Override
+            public void onCompleted(BulkUploadStats stats) {
+                end(stats, null);
+            }
+
+            @Override
+            public void onFailed(String reason, BulkUploadStats stats) {
+                end(stats, reason);
+            }
+        };
+    }
+
+    void end(S stats, String failure) {
+        this.stats = stats;
+        this.failure = failure;
+        mDone.countDown();
+    }
+
+    void await() throws InterruptedException {
+        assertTrue("Transfer did not end.", mDone.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+}
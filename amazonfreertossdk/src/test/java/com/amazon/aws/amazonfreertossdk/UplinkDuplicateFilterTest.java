@@ -0,0 +1,73 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.mqttproxy.Publish;
+
+import org.junit.Test;
+
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH;
+import static com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_UPLINK_DUPLICATE_CACHE_SIZE;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of how retransmissions of QoS 1 messages published by the device are recognized.
+ */
+public class UplinkDuplicateFilterTest {
+    private final UplinkDuplicateFilter mFilter = new UplinkDuplicateFilter();
+
+    @Test
+    public void retransmission_isPendingUntilAcknowledged() {
+        assertEquals(UplinkDuplicateFilter.Result.NEW, mFilter.check(message(1, "a")));
+        assertEquals(UplinkDuplicateFilter.Result.DUPLICATE_PENDING,
+                mFilter.check(message(1, "a")));
+
+        mFilter.acknowledge(message(1, "a"));
+        assertEquals(UplinkDuplicateFilter.Result.DUPLICATE_ACKED, mFilter.check(message(1, "a")));
+    }
+
+    @Test
+    public void reusedMessageId_isNew() {
+        mFilter.check(message(1, "a"));
+        mFilter.acknowledge(message(1, "a"));
+        assertEquals(UplinkDuplicateFilter.Result.NEW, mFilter.check(message(1, "b")));
+        // The new message replaced the old one.
+        assertEquals(UplinkDuplicateFilter.Result.DUPLICATE_PENDING,
+                mFilter.check(message(1, "b")));
+    }
+
+    @Test
+    public void forget_letsRetransmissionThrough() {
+        mFilter.check(message(1, "a"));
+        // Forgetting another message with the same ID does nothing.
+        mFilter.forget(message(1, "b"));
+        assertEquals(UplinkDuplicateFilter.Result.DUPLICATE_PENDING,
+                mFilter.check(message(1, "a")));
+
+        mFilter.forget(message(1, "a"));
+        assertEquals(UplinkDuplicateFilter.Result.NEW, mFilter.check(message(1, "a")));
+    }
+
+    @Test
+    public void leastRecentlyChecked_isEvicted() {
+        for (int id = 1; id <= MQTT_UPLINK_DUPLICATE_CACHE_SIZE; id++) {
+            mFilter.check(message(id, "a"));
+        }
+        // Checking message 1 again makes message 2 the least recently used.
+        mFilter.check(message(1, "a"));
+        mFilter.check(message(MQTT_UPLINK_DUPLICATE_CACHE_SIZE + 1, "a"));
+
+        assertEquals(UplinkDuplicateFilter.Result.DUPLICATE_PENDING,
+                mFilter.check(message(1, "a")));
+        assertEquals(UplinkDuplicateFilter.Result.NEW, mFilter.check(message(2, "a")));
+    }
+
+    @Test
+    public void clear_forgetsAllMessages() {
+        mFilter.check(message(1, "a"));
+        mFilter.clear();
+        assertEquals(UplinkDuplicateFilter.Result.NEW, mFilter.check(message(1, "a")));
+    }
+
+    private static Publish message(int msgId, String payload) {
+        return new Publish(MQTT_MSG_PUBLISH, "up", msgId, 1, payload);
+    }
+}
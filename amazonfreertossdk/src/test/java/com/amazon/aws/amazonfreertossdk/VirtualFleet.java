@@ -0,0 +1,455 @@
+package com.amazon.aws.amazonfreertossdk;
+
+import com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSConstants.BleConnectionState;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A load generator that runs a fleet of simulated devices in one JVM. Each device has its own
+ * AmazonFreeRTOSManager and InProcessCloudClient, like one phone per gateway session, so the load
+ * goes through the BLE command queue and the MQTT proxy of every manager. The devices run a
+ * FleetWorkload: telemetry, subscriptions and messages from the cloud, large object uploads and
+ * reconnect storms. The report has the throughput, queue depth and drops of each device and of
+ * the fleet.
+ */
+class VirtualFleet {
+    private static final long SETUP_TIMEOUT = 30000; // ms
+    private static final long QUEUE_SAMPLE_INTERVAL = 20; // ms
+    private static final long DRAIN_QUIET_TIME = 500; // ms
+    private static final String LARGE_OBJECT_TOPIC = "large";
+
+    /**
+     * The results of one device.
+     */
+    static class DeviceReport {
+        int index;
+        long uplinkSent;
+        long uplinkDelivered;
+        long largeObjectsSent;
+        long largeObjectsDelivered;
+        long downlinkSent;
+        long downlinkDelivered;
+        /**
+         * Messages the device could not send because the BLE connection was down.
+         */
+        long droppedAtDevice;
+        /**
+         * Messages from the cloud dropped by the downlink buffer of the manager.
+         */
+        long droppedInDownlinkBuffer;
+        long reconnects;
+        double averageQueueDepth;
+        int maxQueueDepth;
+        /**
+         * Messages delivered per second in both directions.
+         */
+        double throughput;
+
+        long getSent() {
+            return uplinkSent + largeObjectsSent + downlinkSent;
+        }
+
+        long getDelivered() {
+            return uplinkDelivered + largeObjectsDelivered + downlinkDelivered;
+        }
+    }
+
+    /**
+     * The results of the fleet.
+     */
+    static class Report {
+        final List<DeviceReport> devices = new ArrayList<>();
+        /**
+         * The time from the first message to the last delivery in ms.
+         */
+        long elapsedTime;
+        double offeredRate;
+        double throughput;
+        long sent;
+        long delivered;
+        long droppedAtDevice;
+        long droppedInDownlinkBuffer;
+        long reconnects;
+        double averageQueueDepth;
+        int maxQueueDepth;
+
+        /**
+         * @return the fraction of the messages sent that were delivered.
+         */
+        double getDeliveryRatio() {
+            return sent == 0 ? 1 : (double) delivered / sent;
+        }
+
+        void print(PrintStream out, boolean perDevice) {
+            if (perDevice) {
+                out.println(String.format("%6s %9s %9s %9s %9s %8s %8s %6s %7s %6s",
+                        "device", "up", "large", "down", "msgs/s", "dev drop", "buf drop",
+                        "recon", "avg q", "max q"));
+                for (DeviceReport device : devices) {
+                    out.println(String.format("%6d %4d/%-4d %4d/%-4d %4d/%-4d %9.1f %8d %8d %6d"
+                                    + " %7.2f %6d",
+                            device.index, device.uplinkDelivered, device.uplinkSent,
+                            device.largeObjectsDelivered, device.largeObjectsSent,
+                            device.downlinkDelivered, device.downlinkSent, device.throughput,
+                            device.droppedAtDevice, device.droppedInDownlinkBuffer,
+                            device.reconnects, device.averageQueueDepth, device.maxQueueDepth));
+                }
+            }
+            out.println(String.format("fleet of %d: offered %.1f msgs/s, delivered %.1f msgs/s,"
+                            + " %d/%d delivered (%.2f%%), dropped %d at devices and %d in"
+                            + " buffers, %d reconnects, queue depth avg %.2f max %d",
+                    devices.size(), offeredRate, throughput, delivered, sent,
+                    getDeliveryRatio() * 100, droppedAtDevice, droppedInDownlinkBuffer,
+                    reconnects, averageQueueDepth, maxQueueDepth));
+        }
+    }
+
+    /**
+     * One simulated device with the manager and cloud client that proxy it.
+     */
+    private class VirtualDevice {
+        final int index;
+        final String topicPrefix;
+        final SimulatedDevice device;
+        final InProcessCloudClient cloudClient = new InProcessCloudClient();
+        final AmazonFreeRTOSManager manager = new AmazonFreeRTOSManager(null, null, null);
+        final CountDownLatch ready = new CountDownLatch(1);
+        final AtomicInteger nextMsgId = new AtomicInteger();
+        final AtomicLong uplinkSent = new AtomicLong();
+        final AtomicLong uplinkDelivered = new AtomicLong();
+        final AtomicLong largeObjectsSent = new AtomicLong();
+        final AtomicLong largeObjectsDelivered = new AtomicLong();
+        final AtomicLong downlinkSent = new AtomicLong();
+        final AtomicLong downlinkDelivered = new AtomicLong();
+        final AtomicLong connections = new AtomicLong();
+        // Only touched on the driver thread.
+        long queueDepthSum = 0;
+        long queueDepthSamples = 0;
+        int maxQueueDepth = 0;
+        int nextDownlinkTopic = 0;
+
+        VirtualDevice(int index) {
+            this.index = index;
+            topicPrefix = "fleet/" + index + "/";
+            device = new SimulatedDevice("VirtualDevice-" + index, mMtu);
+            device.setRadio(mRadio);
+        }
+
+        void connect() {
+            device.setListener(new SimulatedDevice.Listener() {
+                @Override
+                void onProxyStateChanged(boolean enabled) {
+                    if (enabled) {
+                        device.mqttConnect("fleet-" + index, "localhost");
+                    }
+                }
+
+                @Override
+                void onConnack(int status) {
+                    for (int i = 0; i < mWorkload.subscriptions; i++) {
+                        device.mqttSubscribe(nextMsgId(), topicPrefix + "down/" + i,
+                                mWorkload.downlinkQos);
+                    }
+                    if (mWorkload.subscriptions == 0) {
+                        ready.countDown();
+                    }
+                }
+
+                @Override
+                void onSuback(int msgId, int[] statuses) {
+                    ready.countDown();
+                }
+
+                @Override
+                void onPublish(String topic, byte[] data, int qos) {
+                    downlinkDelivered.incrementAndGet();
+                    onDelivery();
+                }
+            });
+            cloudClient.setPublishListener(new InProcessCloudClient.PublishListener() {
+                @Override
+                public void onPublish(String topic, byte[] data, int qos) {
+                    if (topic.endsWith(LARGE_OBJECT_TOPIC)) {
+                        largeObjectsDelivered.incrementAndGet();
+                    } else {
+                        uplinkDelivered.incrementAndGet();
+                    }
+                    onDelivery();
+                }
+            });
+            ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+            reconnectPolicy.initialDelay = mWorkload.reconnectDelay;
+            manager.setCloudClient(cloudClient);
+            manager.setReconnectPolicy(reconnectPolicy);
+            manager.connectToDevice("VIRTUAL-" + index, device, new BleConnectionStatusCallback() {
+                @Override
+                public void onBleConnectionStatusChanged(BleConnectionState connectionStatus) {
+                    if (connectionStatus == BleConnectionState.BLE_CONNECTED
+                            && connections.incrementAndGet() == 1) {
+                        // The SDK discovers services itself after a reconnect.
+                        manager.discoverServices();
+                    }
+                }
+            }, null);
+            manager.enableMqttProxy(true);
+        }
+
+        void publishTelemetry() {
+            int qos = mWorkload.telemetryQos;
+            uplinkSent.incrementAndGet();
+            device.mqttPublish(qos > 0 ? nextMsgId() : 0, topicPrefix + "telemetry",
+                    payload(mWorkload.telemetrySize), qos);
+        }
+
+        void publishLargeObject() {
+            largeObjectsSent.incrementAndGet();
+            device.mqttPublish(nextMsgId(), topicPrefix + LARGE_OBJECT_TOPIC,
+                    payload(mWorkload.largeObjectSize), 1);
+        }
+
+        void publishToDevice() {
+            downlinkSent.incrementAndGet();
+            String topic = topicPrefix + "down/" + nextDownlinkTopic;
+            nextDownlinkTopic = (nextDownlinkTopic + 1) % mWorkload.subscriptions;
+            cloudClient.publishToDevice(topic, payload(mWorkload.downlinkSize));
+        }
+
+        void sampleQueueDepth() {
+            int depth = manager.getBleCommandQueueDepth();
+            queueDepthSum += depth;
+            queueDepthSamples++;
+            maxQueueDepth = Math.max(maxQueueDepth, depth);
+        }
+
+        int nextMsgId() {
+            return nextMsgId.incrementAndGet() % 65535 + 1;
+        }
+
+        DeviceReport report(long elapsedTime) {
+            DeviceReport report = new DeviceReport();
+            report.index = index;
+            report.uplinkSent = uplinkSent.get();
+            report.uplinkDelivered = uplinkDelivered.get();
+            report.largeObjectsSent = largeObjectsSent.get();
+            report.largeObjectsDelivered = largeObjectsDelivered.get();
+            report.downlinkSent = downlinkSent.get();
+            report.downlinkDelivered = downlinkDelivered.get();
+            report.droppedAtDevice = device.getMessagesDropped();
+            report.droppedInDownlinkBuffer = manager.getDownlinkBuffer().getDroppedMessages();
+            report.reconnects = Math.max(0, connections.get() - 1);
+            report.averageQueueDepth = queueDepthSamples == 0
+                    ? 0 : (double) queueDepthSum / queueDepthSamples;
+            report.maxQueueDepth = maxQueueDepth;
+            report.throughput = elapsedTime == 0
+                    ? 0 : report.getDelivered() * 1000.0 / elapsedTime;
+            return report;
+        }
+
+        void close() {
+            manager.close();
+            device.shutdown();
+            cloudClient.shutdown();
+        }
+    }
+
+    private final int mDeviceCount;
+    private final int mMtu;
+    private final FleetWorkload mWorkload;
+    private SimulatedDevice.Radio mRadio;
+    private final List<VirtualDevice> mDevices = new ArrayList<>();
+    private final List<ScheduledFuture<?>> mWorkloadTasks = new ArrayList<>();
+    private final ScheduledExecutorService mDriver;
+    private volatile long mLastDeliveryTime;
+
+    /**
+     * @param deviceCount the number of devices.
+     * @param mtu the mtu of every device.
+     * @param workload the script of every device.
+     */
+    VirtualFleet(int deviceCount, int mtu, FleetWorkload workload) {
+        mDeviceCount = deviceCount;
+        mMtu = mtu;
+        mWorkload = workload;
+        mDriver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "VirtualFleetDriver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Let all devices share one radio, so the fleet saturates like the BLE connections of one
+     * phone. Without it, the fleet only saturates the CPU.
+     * @param packetTime the airtime of one packet in microseconds.
+     */
+    void setPacketTime(long packetTime) {
+        mRadio = new SimulatedDevice.Radio(packetTime);
+    }
+
+    /**
+     * Connect all devices, run the workload, wait for the messages in flight and close the
+     * devices.
+     * @param duration how long the workload runs in ms.
+     * @param drainTimeout how long to wait for messages in flight after the workload stops in ms.
+     * @return the report.
+     */
+    Report run(long duration, long drainTimeout) throws InterruptedException {
+        try {
+            connect();
+            long startTime = System.currentTimeMillis();
+            mLastDeliveryTime = startTime;
+            startWorkload();
+            Thread.sleep(duration);
+            for (ScheduledFuture<?> task : mWorkloadTasks) {
+                task.cancel(false);
+            }
+            drain(drainTimeout);
+            mDriver.shutdown();
+            mDriver.awaitTermination(SETUP_TIMEOUT, TimeUnit.MILLISECONDS);
+            return report(mLastDeliveryTime - startTime);
+        } finally {
+            mDriver.shutdownNow();
+            for (VirtualDevice device : mDevices) {
+                device.close();
+            }
+        }
+    }
+
+    private void connect() throws InterruptedException {
+        for (int i = 0; i < mDeviceCount; i++) {
+            VirtualDevice device = new VirtualDevice(i);
+            mDevices.add(device);
+            device.connect();
+        }
+        long deadline = System.currentTimeMillis() + SETUP_TIMEOUT;
+        for (VirtualDevice device : mDevices) {
+            long timeout = Math.max(0, deadline - System.currentTimeMillis());
+            if (!device.ready.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Device " + device.index + " did not connect.");
+            }
+        }
+    }
+
+    private void startWorkload() {
+        for (final VirtualDevice device : mDevices) {
+            // Devices start at random offsets, so their messages do not all arrive at once.
+            if (mWorkload.telemetryInterval > 0) {
+                schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        device.publishTelemetry();
+                    }
+                }, mWorkload.telemetryInterval);
+            }
+            if (mWorkload.downlinkInterval > 0 && mWorkload.subscriptions > 0) {
+                schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        device.publishToDevice();
+                    }
+                }, mWorkload.downlinkInterval);
+            }
+            if (mWorkload.largeObjectInterval > 0) {
+                schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        device.publishLargeObject();
+                    }
+                }, mWorkload.largeObjectInterval);
+            }
+        }
+        if (mWorkload.reconnectStormInterval > 0) {
+            mWorkloadTasks.add(mDriver.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    for (VirtualDevice device : mDevices) {
+                        device.device.disconnect();
+                    }
+                }
+            }, mWorkload.reconnectStormInterval, mWorkload.reconnectStormInterval,
+                    TimeUnit.MILLISECONDS));
+        }
+        mDriver.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (VirtualDevice device : mDevices) {
+                    device.sampleQueueDepth();
+                }
+            }
+        }, 0, QUEUE_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void schedule(Runnable task, long interval) {
+        long offset = (long) (Math.random() * interval);
+        mWorkloadTasks.add(mDriver.scheduleAtFixedRate(task, offset, interval,
+                TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Wait until every message sent is delivered, or no message has been delivered for a while.
+     */
+    private void drain(long drainTimeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            long pending = 0;
+            for (VirtualDevice device : mDevices) {
+                DeviceReport report = device.report(0);
+                pending += report.getSent() - report.getDelivered() - report.droppedAtDevice
+                        - report.droppedInDownlinkBuffer;
+            }
+            if (pending <= 0
+                    || System.currentTimeMillis() - mLastDeliveryTime > DRAIN_QUIET_TIME) {
+                return;
+            }
+            Thread.sleep(QUEUE_SAMPLE_INTERVAL);
+        }
+    }
+
+    private void onDelivery() {
+        mLastDeliveryTime = System.currentTimeMillis();
+    }
+
+    private Report report(long elapsedTime) {
+        Report report = new Report();
+        report.elapsedTime = elapsedTime;
+        report.offeredRate = mWorkload.getOfferedRate() * mDeviceCount;
+        long queueDepthSum = 0;
+        long queueDepthSamples = 0;
+        for (VirtualDevice device : mDevices) {
+            DeviceReport deviceReport = device.report(elapsedTime);
+            report.devices.add(deviceReport);
+            report.sent += deviceReport.getSent();
+            report.delivered += deviceReport.getDelivered();
+            report.droppedAtDevice += deviceReport.droppedAtDevice;
+            report.droppedInDownlinkBuffer += deviceReport.droppedInDownlinkBuffer;
+            report.reconnects += deviceReport.reconnects;
+            report.maxQueueDepth = Math.max(report.maxQueueDepth, deviceReport.maxQueueDepth);
+            queueDepthSum += device.queueDepthSum;
+            queueDepthSamples += device.queueDepthSamples;
+        }
+        report.averageQueueDepth = queueDepthSamples == 0
+                ? 0 : (double) queueDepthSum / queueDepthSamples;
+        report.throughput = elapsedTime == 0 ? 0 : report.delivered * 1000.0 / elapsedTime;
+        return report;
+    }
+
+    private static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) 'x');
+        return payload;
+    }
+}
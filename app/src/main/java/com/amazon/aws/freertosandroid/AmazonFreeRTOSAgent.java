@@ -5,6 +5,7 @@ import android.bluetooth.BluetoothManager;
 import android.content.Context;
 
 import com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSManager;
+import com.amazon.aws.amazonfreertossdk.LinkProfile;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.mobile.client.AWSMobileClient;
 
@@ -33,6 +34,8 @@ public class AmazonFreeRTOSAgent {
 
             sAmazonFreeRTOSManager = new AmazonFreeRTOSManager(context,
                     sBluetoothAdapter, credentialsProvider);
+            // Negotiate the largest mtu, 2M PHY and high connection priority after connecting.
+            sAmazonFreeRTOSManager.setLinkProfile(new LinkProfile());
         }
         return sAmazonFreeRTOSManager;
     }
@@ -71,7 +71,7 @@ public class DeviceScanFragment extends Fragment {
                     Log.i(TAG, "connect switch isChecked: " + (isChecked ? "ON":"OFF"));
                     if (isChecked) {
                         mAmazonFreeRTOSManager.connectToDevice(mBleDevice.getBluetoothDevice(),
-                                connectionStatusCallback);
+                                connectionStatusCallback, MainThreadExecutor.getInstance());
                     } else {
                         mAmazonFreeRTOSManager.close();
                         resetUI();
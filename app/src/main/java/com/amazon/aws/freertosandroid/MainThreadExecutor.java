@@ -0,0 +1,23 @@
+package com.amazon.aws.freertosandroid;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that runs tasks on the main thread, so SDK callbacks can update the UI directly.
+ */
+public class MainThreadExecutor implements Executor {
+    private static final MainThreadExecutor sInstance = new MainThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public static MainThreadExecutor getInstance() {
+        return sInstance;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mHandler.post(command);
+    }
+}
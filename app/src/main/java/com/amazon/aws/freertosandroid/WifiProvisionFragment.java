@@ -7,8 +7,6 @@ import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
@@ -24,6 +22,10 @@ import android.widget.TextView;
 
 import com.amazon.aws.amazonfreertossdk.AmazonFreeRTOSManager;
 import com.amazon.aws.amazonfreertossdk.NetworkConfigCallback;
+import com.amazon.aws.amazonfreertossdk.NetworkListSession;
+import com.amazon.aws.amazonfreertossdk.ProvisionNetworkCallback;
+import com.amazon.aws.amazonfreertossdk.ProvisionNetworkOptions;
+import com.amazon.aws.amazonfreertossdk.ProvisioningReport;
 import com.amazon.aws.amazonfreertossdk.networkconfig.DeleteNetworkReq;
 import com.amazon.aws.amazonfreertossdk.networkconfig.DeleteNetworkResp;
 import com.amazon.aws.amazonfreertossdk.networkconfig.EditNetworkReq;
@@ -31,10 +33,10 @@ import com.amazon.aws.amazonfreertossdk.networkconfig.EditNetworkResp;
 import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkReq;
 import com.amazon.aws.amazonfreertossdk.networkconfig.ListNetworkResp;
 import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkReq;
-import com.amazon.aws.amazonfreertossdk.networkconfig.SaveNetworkResp;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import static android.support.v7.widget.helper.ItemTouchHelper.ACTION_STATE_SWIPE;
@@ -51,7 +53,7 @@ public class WifiProvisionFragment extends Fragment {
     private WifiInfoAdapter mWifiInfoAdapter;
     private List<WifiInfo> mWifiInfoList = new ArrayList<>();
     private HashMap<String, WifiInfo> mBssid2WifiInfoMap = new HashMap<>();
-    private Handler mHandler = new Handler(Looper.getMainLooper());
+    private List<ListNetworkResp> mNetworkSnapshot = new ArrayList<>();
 
     private AmazonFreeRTOSManager mAmazonFreeRTOSManager;
 
@@ -262,27 +264,52 @@ public class WifiProvisionFragment extends Fragment {
         return view;
     }
 
-    private NetworkConfigCallback mNetworkConfigCallback = new NetworkConfigCallback() {
+    private NetworkListSession.Callback mNetworkListCallback = new NetworkListSession.Callback() {
         @Override
-        public void onListNetworkResponse(final ListNetworkResp response) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    WifiInfo wifiInfo = new WifiInfo(response.getSsid(), response.getBssid(),
-                            response.getRssi(), response.getSecurity(), response.getIndex(),
-                            response.getConnected());
-                    mWifiInfoList.add(wifiInfo);
-                    mBssid2WifiInfoMap.put(wifiInfo.getBssid(), wifiInfo);
-                    mWifiInfoAdapter.notifyDataSetChanged();
-                }
-            });
+        public void onNetworksChanged(List<ListNetworkResp> snapshot,
+                                      NetworkListSession.Diff diff) {
+            mNetworkSnapshot = snapshot;
+            applyDiff(snapshot, diff);
         }
 
         @Override
-        public void onSaveNetworkResponse(final SaveNetworkResp response) {
-            refreshUI();
+        public void onComplete(List<ListNetworkResp> snapshot,
+                               NetworkListSession.CompletionReason reason) {
+            Log.i(TAG, "Found " + snapshot.size() + " networks: " + reason);
+        }
+    };
+
+    private ProvisionNetworkCallback mProvisionNetworkCallback = new ProvisionNetworkCallback() {
+        @Override
+        public void onProvisioned(ListNetworkResp network, String brokerEndpoint) {
+            if (network == null || !Boolean.TRUE.equals(network.getConnected())) {
+                Log.i(TAG, "Device saved the network.");
+                listNetworks();
+                return;
+            }
+            // The device reported the connected network, so the list is not fetched again.
+            Log.i(TAG, "Device connected to " + network.getSsid());
+            int position = findPosition(network.getBssid(), 0);
+            if (position < 0) {
+                listNetworks();
+            } else {
+                WifiInfo wifiInfo = new WifiInfo(network.getSsid(), network.getBssid(),
+                        network.getRssi(), network.getSecurity(), network.getIndex(),
+                        network.getConnected());
+                mWifiInfoList.set(position, wifiInfo);
+                mBssid2WifiInfoMap.put(wifiInfo.getBssid(), wifiInfo);
+                mWifiInfoAdapter.notifyItemChanged(position);
+            }
         }
 
+        @Override
+        public void onFailed(ProvisioningReport.Stage stage, String reason) {
+            Log.e(TAG, "Failed to provision network at " + stage + ": " + reason);
+            listNetworks();
+        }
+    };
+
+    private NetworkConfigCallback mNetworkConfigCallback = new NetworkConfigCallback() {
         @Override
         public void onDeleteNetworkResponse(final DeleteNetworkResp response) {
             refreshUI();
@@ -294,12 +321,7 @@ public class WifiProvisionFragment extends Fragment {
         }
 
         private void refreshUI() {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    listNetworks();
-                }
-            });
+            listNetworks();
         }
     };
 
@@ -315,6 +337,63 @@ public class WifiProvisionFragment extends Fragment {
         }
     }
 
+    /**
+     * Update the list in place, so that only the rows of changed networks are redrawn.
+     * @param snapshot the networks in the order to show.
+     * @param diff the change since the last update.
+     */
+    private void applyDiff(List<ListNetworkResp> snapshot, NetworkListSession.Diff diff) {
+        for (ListNetworkResp response : diff.removed) {
+            int position = findPosition(response.getBssid(), 0);
+            if (position >= 0) {
+                mWifiInfoList.remove(position);
+                mBssid2WifiInfoMap.remove(response.getBssid());
+                mWifiInfoAdapter.notifyItemRemoved(position);
+            }
+        }
+        HashSet<String> updatedBssids = new HashSet<>();
+        for (ListNetworkResp response : diff.updated) {
+            updatedBssids.add(response.getBssid());
+        }
+        // Walk the snapshot and move, insert or update each row at its position.
+        for (int position = 0; position < snapshot.size(); position++) {
+            ListNetworkResp response = snapshot.get(position);
+            int current = findPosition(response.getBssid(), position);
+            WifiInfo wifiInfo = new WifiInfo(response.getSsid(), response.getBssid(),
+                    response.getRssi(), response.getSecurity(), response.getIndex(),
+                    response.getConnected());
+            if (current < 0) {
+                mWifiInfoList.add(position, wifiInfo);
+                mBssid2WifiInfoMap.put(wifiInfo.getBssid(), wifiInfo);
+                mWifiInfoAdapter.notifyItemInserted(position);
+                continue;
+            }
+            if (current != position) {
+                mWifiInfoList.add(position, mWifiInfoList.remove(current));
+                mWifiInfoAdapter.notifyItemMoved(current, position);
+            }
+            if (updatedBssids.contains(response.getBssid())) {
+                mWifiInfoList.set(position, wifiInfo);
+                mBssid2WifiInfoMap.put(wifiInfo.getBssid(), wifiInfo);
+                mWifiInfoAdapter.notifyItemChanged(position);
+            }
+        }
+        // Rows that are not in the snapshot, e.g. swiped away before the device confirmed it.
+        for (int position = mWifiInfoList.size() - 1; position >= snapshot.size(); position--) {
+            mBssid2WifiInfoMap.remove(mWifiInfoList.remove(position).getBssid());
+            mWifiInfoAdapter.notifyItemRemoved(position);
+        }
+    }
+
+    private int findPosition(String bssid, int from) {
+        for (int position = from; position < mWifiInfoList.size(); position++) {
+            if (mWifiInfoList.get(position).getBssid().equals(bssid)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
     private void saveNetwork(String bssid, String pw) {
         SaveNetworkReq saveNetworkReq = new SaveNetworkReq();
         WifiInfo wifiInfo = mBssid2WifiInfoMap.get(bssid);
@@ -323,27 +402,33 @@ public class WifiProvisionFragment extends Fragment {
         saveNetworkReq.psk = pw;
         saveNetworkReq.security = wifiInfo.getNetworkType();
         saveNetworkReq.index = wifiInfo.getIndex();
-        mAmazonFreeRTOSManager.saveNetwork(saveNetworkReq, mNetworkConfigCallback);
+        mAmazonFreeRTOSManager.provisionNetwork(saveNetworkReq, new ProvisionNetworkOptions(),
+                mProvisionNetworkCallback, MainThreadExecutor.getInstance());
     }
 
     private void listNetworks() {
-        mWifiInfoList.clear();
         ListNetworkReq listNetworkReq = new ListNetworkReq();
         listNetworkReq.maxNetworks = 20;
         listNetworkReq.timeout = 5;
-        mAmazonFreeRTOSManager.listNetworks(listNetworkReq, mNetworkConfigCallback);
+        // Networks already shown are updated in place instead of clearing the list.
+        NetworkListSession session = new NetworkListSession(mNetworkListCallback)
+                .setPreviousSnapshot(mNetworkSnapshot);
+        mAmazonFreeRTOSManager.listNetworks(listNetworkReq, session,
+                MainThreadExecutor.getInstance());
     }
 
     private void deleteNetwork(int index) {
         DeleteNetworkReq deleteNetworkReq = new DeleteNetworkReq();
         deleteNetworkReq.index = index;
-        mAmazonFreeRTOSManager.deleteNetwork(deleteNetworkReq, mNetworkConfigCallback);
+        mAmazonFreeRTOSManager.deleteNetwork(deleteNetworkReq, mNetworkConfigCallback,
+                MainThreadExecutor.getInstance());
     }
 
     private void editNetwork(int oldIndex, int newIndex) {
         EditNetworkReq editNetworkReq = new EditNetworkReq();
         editNetworkReq.index = oldIndex;
         editNetworkReq.newIndex = newIndex;
-        mAmazonFreeRTOSManager.editNetwork(editNetworkReq, mNetworkConfigCallback);
+        mAmazonFreeRTOSManager.editNetwork(editNetworkReq, mNetworkConfigCallback,
+                MainThreadExecutor.getInstance());
     }
 }